@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Run the benchmarks, reporting throughput and allocation rate.
+ *
+ * <p>Usage: {@code mvn -Pbenchmark test-compile exec:exec
+ * [-Dbenchmark=regex] [-Dbenchmark.results=file.json]}</p>
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    ChainedOptionsBuilder opts = new OptionsBuilder()
+      .include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage()
+        .getName() + ".*Benchmark")
+      .addProfiler(GCProfiler.class)
+      .timeUnit(TimeUnit.MICROSECONDS)
+      .warmupIterations(5)
+      .warmupTime(TimeValue.seconds(1))
+      .measurementIterations(5)
+      .measurementTime(TimeValue.seconds(1))
+      .forks(1);
+    if (args.length > 1) {
+      opts.result(args[1]).resultFormat(ResultFormatType.JSON);
+    }
+    new Runner(opts.build()).run();
+  }
+}
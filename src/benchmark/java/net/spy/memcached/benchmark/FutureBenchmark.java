@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Overhead of completing an {@link OperationFuture} and collecting its
+ * result, as done for every operation.
+ */
+@State(Scope.Thread)
+public class FutureBenchmark {
+
+  private static final OperationStatus STATUS =
+    new OperationStatus(true, "OK");
+
+  private ExecutorService executor;
+  private Operation op;
+
+  @Setup
+  public void setup() {
+    executor = Executors.newSingleThreadExecutor();
+    // The future only checks the outcome of its operation, so one that is
+    // never sent will do.
+    op = new BinaryOperationFactory().noop(new OperationCallback() {
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public Boolean completeAndGet() throws InterruptedException,
+    ExecutionException {
+    OperationFuture<Boolean> f =
+      new OperationFuture<Boolean>("key", 1000, executor);
+    f.setOperation(op);
+    f.set(Boolean.TRUE, STATUS);
+    f.signalComplete();
+    return f.get();
+  }
+
+  @Benchmark
+  public Boolean completeLatchedAndGet() throws InterruptedException,
+    ExecutionException {
+    CountDownLatch latch = new CountDownLatch(1);
+    OperationFuture<Boolean> f =
+      new OperationFuture<Boolean>("key", latch, 1000, executor);
+    f.setOperation(op);
+    f.set(Boolean.TRUE, STATUS);
+    latch.countDown();
+    f.signalComplete();
+    return f.get();
+  }
+
+  @Benchmark
+  public Boolean completeWithListener() throws Exception {
+    final CountDownLatch notified = new CountDownLatch(1);
+    OperationFuture<Boolean> f =
+      new OperationFuture<Boolean>("key", 1000, executor);
+    f.setOperation(op);
+    f.addListener(new OperationCompletionListener() {
+      public void onComplete(OperationFuture<?> future) {
+        notified.countDown();
+      }
+    });
+    f.set(Boolean.TRUE, STATUS);
+    f.signalComplete();
+    notified.await(1, TimeUnit.SECONDS);
+    return f.get();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import net.spy.memcached.DefaultHashAlgorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Key hashing with each of the default hash algorithms.
+ */
+@State(Scope.Thread)
+public class HashBenchmark {
+
+  @Param({"NATIVE_HASH", "CRC_HASH", "FNV1_64_HASH", "FNV1A_64_HASH",
+    "FNV1_32_HASH", "FNV1A_32_HASH", "KETAMA_HASH"})
+  private DefaultHashAlgorithm algorithm;
+
+  @Param({"16", "64", "250"})
+  private int keyLength;
+
+  private String key;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder(keyLength);
+    for (int i = 0; i < keyLength; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    key = sb.toString();
+  }
+
+  @Benchmark
+  public long hash() {
+    return algorithm.hash(key);
+  }
+}
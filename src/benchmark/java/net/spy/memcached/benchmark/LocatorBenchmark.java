@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ArrayModNodeLocator;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.KetamaNodeLocator;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.NodeLocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Key to node lookups through the node locators.
+ */
+@State(Scope.Thread)
+public class LocatorBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"ketama", "arraymod"})
+  private String locatorType;
+
+  @Param({"4", "32", "256"})
+  private int nodeCount;
+
+  private NodeLocator locator;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setup() {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>(nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new MockMemcachedNode(
+          InetSocketAddress.createUnresolved("10.0." + (i / 256) + "."
+            + (i % 256), 11211)));
+    }
+    if (locatorType.equals("ketama")) {
+      locator = new KetamaNodeLocator(nodes, DefaultHashAlgorithm.KETAMA_HASH);
+    } else {
+      locator = new ArrayModNodeLocator(nodes,
+          DefaultHashAlgorithm.NATIVE_HASH);
+    }
+    keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "benchmark:locator:" + i;
+    }
+  }
+
+  @Benchmark
+  public MemcachedNode getPrimary() {
+    return locator.getPrimary(nextKey());
+  }
+
+  @Benchmark
+  public MemcachedNode getSecondary() {
+    return locator.getSequence(nextKey()).next();
+  }
+
+  private String nextKey() {
+    return keys[next++ & (KEYS - 1)];
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding of requests and parsing of responses for both protocols.
+ *
+ * <p>Responses are parsed from canned buffers, so no server is involved.
+ * Operations can't be reused once complete, so the parse benchmarks include
+ * creating and writing the request; compare them against
+ * {@link #encodeGet()} to get the cost of parsing alone.</p>
+ */
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+  private static final String KEY = "benchmark:protocol:key";
+
+  @Param({"binary", "ascii"})
+  private String protocol;
+
+  @Param({"16", "1024", "16384"})
+  private int valueSize;
+
+  private OperationFactory factory;
+  private byte[] value;
+  private ByteBuffer getResponse;
+  private ByteBuffer storeResponse;
+
+  @Setup
+  public void setup() {
+    value = new byte[valueSize];
+    Arrays.fill(value, (byte) 'x');
+    if (protocol.equals("binary")) {
+      factory = new BinaryOperationFactory();
+      getResponse = binaryResponse((byte) 0x00, value);
+      storeResponse = binaryResponse((byte) 0x01, null);
+    } else {
+      factory = new AsciiOperationFactory();
+      getResponse = asciiGetResponse(value);
+      storeResponse = ByteBuffer.wrap("STORED\r\n".getBytes());
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encodeGet() {
+    GetOperation op = factory.get(KEY, GET_CALLBACK);
+    op.initialize();
+    return op.getBuffer();
+  }
+
+  @Benchmark
+  public ByteBuffer encodeSet() {
+    StoreOperation op = factory.store(StoreType.set, KEY, 0, 0, value,
+        STORE_CALLBACK);
+    op.initialize();
+    return op.getBuffer();
+  }
+
+  @Benchmark
+  public GetOperation parseGet() throws IOException {
+    GetOperation op = factory.get(KEY, GET_CALLBACK);
+    op.initialize();
+    ByteBuffer response = response(getResponse, op.getBuffer());
+    op.writing();
+    op.writeComplete();
+    op.readFromBuffer(response);
+    return op;
+  }
+
+  @Benchmark
+  public StoreOperation parseSet() throws IOException {
+    StoreOperation op = factory.store(StoreType.set, KEY, 0, 0, value,
+        STORE_CALLBACK);
+    op.initialize();
+    ByteBuffer response = response(storeResponse, op.getBuffer());
+    op.writing();
+    op.writeComplete();
+    op.readFromBuffer(response);
+    return op;
+  }
+
+  /**
+   * Get a fresh view on a canned response, answering the given request.
+   */
+  private ByteBuffer response(ByteBuffer canned, ByteBuffer request) {
+    ByteBuffer rv = canned.duplicate();
+    if (factory instanceof BinaryOperationFactory) {
+      // Binary responses echo the opaque of the request.
+      rv.putInt(12, request.getInt(12));
+    }
+    return rv;
+  }
+
+  private static ByteBuffer binaryResponse(byte opcode, byte[] data) {
+    int extras = data == null ? 0 : 4;
+    int body = extras + (data == null ? 0 : data.length);
+    ByteBuffer bb = ByteBuffer.allocate(24 + body);
+    bb.put((byte) 0x81);
+    bb.put(opcode);
+    bb.putShort((short) 0);
+    bb.put((byte) extras);
+    bb.put((byte) 0);
+    bb.putShort((short) 0);
+    bb.putInt(body);
+    bb.putInt(0);
+    bb.putLong(1);
+    if (data != null) {
+      bb.putInt(0);
+      bb.put(data);
+    }
+    bb.flip();
+    return bb;
+  }
+
+  private static ByteBuffer asciiGetResponse(byte[] data) {
+    byte[] header = ("VALUE " + KEY + " 0 " + data.length + "\r\n").getBytes();
+    byte[] trailer = "\r\nEND\r\n".getBytes();
+    ByteBuffer bb = ByteBuffer.allocate(header.length + data.length
+        + trailer.length);
+    bb.put(header);
+    bb.put(data);
+    bb.put(trailer);
+    bb.flip();
+    return bb;
+  }
+
+  private static final GetOperation.Callback GET_CALLBACK =
+    new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void gotData(String key, int flags, byte[] data) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    };
+
+  private static final StoreOperation.Callback STORE_CALLBACK =
+    new StoreOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void gotData(String key, long cas) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    };
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding and decoding of values through the {@link SerializingTranscoder}.
+ */
+@State(Scope.Thread)
+public class TranscoderBenchmark {
+
+  @Param({"string", "bytes", "serialized"})
+  private String valueType;
+
+  @Param({"256", "4096", "65536"})
+  private int valueSize;
+
+  @Param({"false", "true"})
+  private boolean compress;
+
+  private SerializingTranscoder transcoder;
+  private Object value;
+  private CachedData encoded;
+
+  @Setup
+  public void setup() {
+    transcoder = new SerializingTranscoder(Integer.MAX_VALUE);
+    transcoder.setCompressionThreshold(compress ? 0 : Integer.MAX_VALUE);
+    if (valueType.equals("string")) {
+      value = text(valueSize);
+    } else if (valueType.equals("bytes")) {
+      byte[] b = new byte[valueSize];
+      Arrays.fill(b, (byte) 'x');
+      value = b;
+    } else {
+      List<String> l = new ArrayList<String>();
+      for (int size = 0; size < valueSize; size += 16) {
+        l.add(text(16));
+      }
+      value = l;
+    }
+    encoded = transcoder.encode(value);
+  }
+
+  @Benchmark
+  public CachedData encode() {
+    return transcoder.encode(value);
+  }
+
+  @Benchmark
+  public Object decode() {
+    return transcoder.decode(encoded);
+  }
+
+  private static String text(int length) {
+    StringBuilder sb = new StringBuilder(length);
+    while (sb.length() < length) {
+      sb.append("the quick brown fox jumps over the lazy dog ");
+    }
+    sb.setLength(length);
+    return sb.toString();
+  }
+}
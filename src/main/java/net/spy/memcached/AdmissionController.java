@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Bounds the operations and bytes in flight, for each node and for the
+ * whole client.
+ *
+ * <p>
+ * Every operation takes a {@link Permit} before it is queued on a node and
+ * gives it back once it completes, is cancelled or times out. An operation
+ * that does not get a permit is rejected right away instead of blocking the
+ * caller. The size of an operation is the size of its write buffer, so large
+ * values count for what they cost. An operation larger than a byte limit is
+ * only admitted if nothing else is in flight.
+ * </p>
+ *
+ * <p>
+ * A limit of 0 means that dimension is not bounded.
+ * </p>
+ */
+public class AdmissionController extends SpyObject {
+
+  private final int maxOpsPerNode;
+  private final long maxBytesPerNode;
+  private final Usage total;
+  private final ConcurrentMap<MemcachedNode, Usage> nodes =
+    new ConcurrentHashMap<MemcachedNode, Usage>();
+  private final Collection<AdmissionListener> listeners =
+    new ConcurrentLinkedQueue<AdmissionListener>();
+  private final AtomicBoolean rejecting = new AtomicBoolean();
+
+  /**
+   * Construct an admission controller.
+   *
+   * @param maxOpsPerNode the operations in flight per node
+   * @param maxBytesPerNode the bytes in flight per node
+   * @param maxOps the operations in flight over all nodes
+   * @param maxBytes the bytes in flight over all nodes
+   */
+  public AdmissionController(int maxOpsPerNode, long maxBytesPerNode,
+      int maxOps, long maxBytes) {
+    if (maxOpsPerNode < 0 || maxBytesPerNode < 0 || maxOps < 0
+        || maxBytes < 0) {
+      throw new IllegalArgumentException("Admission limits must be >= 0");
+    }
+    this.maxOpsPerNode = maxOpsPerNode;
+    this.maxBytesPerNode = maxBytesPerNode;
+    total = new Usage(maxOps, maxBytes);
+  }
+
+  /**
+   * Try to take a permit for an operation on the given node.
+   *
+   * @param node the node the operation goes to
+   * @param bytes the size of the operation
+   * @return the permit, or null if a limit would be exceeded
+   */
+  public Permit tryAcquire(MemcachedNode node, int bytes) {
+    Usage usage = nodes.get(node);
+    if (usage == null) {
+      Usage created = new Usage(maxOpsPerNode, maxBytesPerNode);
+      usage = nodes.putIfAbsent(node, created);
+      if (usage == null) {
+        usage = created;
+      }
+    }
+    if (total.reserve(bytes)) {
+      if (usage.reserve(bytes)) {
+        return new Permit(usage, bytes);
+      }
+      total.release(bytes);
+    }
+    rejecting.set(true);
+    return null;
+  }
+
+  /**
+   * Add a listener to be told when capacity is given back after operations
+   * were rejected.
+   *
+   * @param listener the listener
+   */
+  public void addListener(AdmissionListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener.
+   *
+   * @param listener the listener
+   * @return true if the listener was registered
+   */
+  public boolean removeListener(AdmissionListener listener) {
+    return listeners.remove(listener);
+  }
+
+  /**
+   * Get the number of operations in flight over all nodes.
+   */
+  public int getOperationsInFlight() {
+    return total.ops.get();
+  }
+
+  /**
+   * Get the number of bytes in flight over all nodes.
+   */
+  public long getBytesInFlight() {
+    return total.bytes.get();
+  }
+
+  /**
+   * Get the number of operations in flight on the given node.
+   *
+   * @param node the node
+   */
+  public int getOperationsInFlight(MemcachedNode node) {
+    Usage usage = nodes.get(node);
+    return usage == null ? 0 : usage.ops.get();
+  }
+
+  /**
+   * Get the number of bytes in flight on the given node.
+   *
+   * @param node the node
+   */
+  public long getBytesInFlight(MemcachedNode node) {
+    Usage usage = nodes.get(node);
+    return usage == null ? 0 : usage.bytes.get();
+  }
+
+  /**
+   * Get the number of operations that may be submitted before the client
+   * wide operation limit is reached.
+   *
+   * @return the number of operations, or {@link Integer#MAX_VALUE} if the
+   *         operations are not bounded
+   */
+  public int getAvailableOperations() {
+    if (total.maxOps == 0) {
+      return Integer.MAX_VALUE;
+    }
+    return Math.max(0, total.maxOps - total.ops.get());
+  }
+
+  private void released(Usage usage, int bytes) {
+    usage.release(bytes);
+    total.release(bytes);
+    if (rejecting.get() && rejecting.compareAndSet(true, false)) {
+      int available = getAvailableOperations();
+      for (AdmissionListener listener : listeners) {
+        try {
+          listener.capacityAvailable(available);
+        } catch (RuntimeException e) {
+          getLogger().warn("Admission listener %s failed", listener, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The operations and bytes in flight against a pair of limits.
+   */
+  private static final class Usage {
+    private final int maxOps;
+    private final long maxBytes;
+    private final AtomicInteger ops = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    Usage(int maxOps, long maxBytes) {
+      this.maxOps = maxOps;
+      this.maxBytes = maxBytes;
+    }
+
+    boolean reserve(int size) {
+      int o = ops.incrementAndGet();
+      if (maxOps > 0 && o > maxOps) {
+        ops.decrementAndGet();
+        return false;
+      }
+      long b = bytes.addAndGet(size);
+      if (maxBytes > 0 && b > maxBytes && b != size) {
+        bytes.addAndGet(-size);
+        ops.decrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    void release(int size) {
+      bytes.addAndGet(-size);
+      ops.decrementAndGet();
+    }
+  }
+
+  /**
+   * The admission of a single operation, given back exactly once.
+   */
+  public final class Permit {
+    private final Usage usage;
+    private final int bytes;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(Usage usage, int bytes) {
+      this.usage = usage;
+      this.bytes = bytes;
+    }
+
+    /**
+     * Get the number of bytes this permit accounts for.
+     */
+    public int getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Give the permit back. Only the first call has an effect.
+     */
+    public void release() {
+      if (!released.get() && released.compareAndSet(false, true)) {
+        released(usage, bytes);
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * Users of this interface are told when an {@link AdmissionController} that
+ * rejected operations can admit new ones again.
+ *
+ * <p>
+ * This lets producers pace themselves instead of retrying rejected
+ * operations in a loop. The listener is called on the thread that completed
+ * an operation, usually the IO thread, so it must not block.
+ * </p>
+ */
+public interface AdmissionListener {
+
+  /**
+   * Capacity was given back after operations had been rejected.
+   *
+   * @param ops the number of operations that may be submitted now, or
+   *          {@link Integer#MAX_VALUE} if only bytes are bounded
+   */
+  void capacityAvailable(int ops);
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Connection that drives every node with its own reader and writer thread
+ * over a blocking {@link SocketChannel}, instead of multiplexing all nodes
+ * over a single {@link java.nio.channels.Selector}.
+ *
+ * <p>
+ * On runtimes that provide virtual threads the per-node threads are virtual,
+ * otherwise daemon platform threads are used. Operations flow through the same
+ * {@link MemcachedNode} queues and operation state machine as with the
+ * selector based {@link MemcachedConnection}: the writer fills and writes the
+ * write buffer of its node, the reader reads responses into the operations
+ * waiting for them. Queueing an operation unparks the writer of its node, so
+ * there is no selector wakeup and no interest set to maintain.
+ * </p>
+ *
+ * <p>
+ * The IO thread of the connection is left with retries, node shutdowns and
+ * the continuous timeout check. Each node reconnects on its own thread, using
+ * the same backoff as the selector based connection.
+ * </p>
+ *
+ * <p>
+ * The net.spy.verifyAliveOnConnect property is not supported.
+ * </p>
+ */
+public class BlockingMemcachedConnection extends MemcachedConnection {
+
+  /**
+   * How long a writer waits before retrying when its operations could not be
+   * written because the read queue is full.
+   */
+  private static final long READ_QUEUE_FULL_NANOS =
+    TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_UNSTARTED;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+    } catch (Exception e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = name;
+    BUILDER_UNSTARTED = unstarted;
+  }
+
+  private final ConcurrentMap<MemcachedNode, NodeWorker> workers =
+    new ConcurrentHashMap<MemcachedNode, NodeWorker>();
+
+  /**
+   * Construct a {@link BlockingMemcachedConnection}.
+   *
+   * @param bufSize the size of the buffer used for reading from the server.
+   * @param f the factory that will provide an operation queue.
+   * @param a the addresses of the servers to connect to.
+   * @param obs the initial observers to add.
+   * @param fm the failure mode to use.
+   * @param opfactory the operation factory.
+   * @throws IOException if a connection attempt fails early
+   */
+  public BlockingMemcachedConnection(final int bufSize,
+      final ConnectionFactory f, final List<InetSocketAddress> a,
+      final Collection<ConnectionObserver> obs, final FailureMode fm,
+      final OperationFactory opfactory) throws IOException {
+    super(bufSize, f, a, obs, fm, opfactory);
+    for (MemcachedNode node : getAllNodes()) {
+      NodeWorker worker = new NodeWorker(node);
+      workers.put(node, worker);
+      newThread(worker, "Memcached reader for " + node.getSocketAddress())
+        .start();
+    }
+  }
+
+  /**
+   * Whether the per-node threads are virtual threads.
+   *
+   * @return true if the runtime provides virtual threads.
+   */
+  public static boolean usesVirtualThreads() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Create the node without connecting it, each node connects on its own
+   * reader thread.
+   */
+  @Override
+  protected MemcachedNode openConnection(final SocketAddress sa)
+    throws IOException {
+    MemcachedNode qa = connectionFactory.createMemcachedNode(sa,
+      SocketChannel.open(), bufSize);
+    qa.setConnection(this);
+    return qa;
+  }
+
+  /**
+   * Handle the tasks left to the IO thread of this connection.
+   *
+   * No channel is registered with the selector, so selecting only waits for
+   * the wakeup delay or an explicit wakeup.
+   */
+  @Override
+  public void handleIO() throws IOException {
+    if (shutDown) {
+      return;
+    }
+    selector.select(getSelectDelay(wakeupDelay));
+    if (shutDown) {
+      return;
+    }
+    for (NodeWorker worker : workers.values()) {
+      if (worker.node.getContinuousTimeout() > timeoutExceptionThreshold) {
+        getLogger().warn("%s exceeded continuous timeout threshold",
+          worker.node);
+        worker.failed(new IOException("Continuous timeout threshold "
+          + "exceeded."));
+      }
+    }
+    handleOperationalTasks();
+  }
+
+  @Override
+  protected void operationsAdded(final MemcachedNode node) {
+    // Operations queued before the workers are started are picked up when
+    // the writer starts.
+    NodeWorker worker = workers.get(node);
+    if (worker != null) {
+      worker.wakeUpWriter();
+    }
+  }
+
+  @Override
+  protected void responsesHandled(final MemcachedNode node) {
+    // The responses may make room for operations held back because too many
+    // were in flight.
+    NodeWorker worker = workers.get(node);
+    if (worker != null && node.hasWriteOp()) {
+      worker.wakeUpWriter();
+    }
+  }
+
+  /**
+   * Close the channel of the node, its reader takes care of reconnecting.
+   */
+  @Override
+  protected void queueReconnect(final MemcachedNode node) {
+    NodeWorker worker = workers.get(node);
+    if (worker != null) {
+      worker.disconnect();
+    }
+  }
+
+  @Override
+  public void shutdown() throws IOException {
+    super.shutdown();
+    for (NodeWorker worker : workers.values()) {
+      worker.disconnect();
+      LockSupport.unpark(worker.reader);
+    }
+  }
+
+  private Thread newThread(Runnable r, String name) {
+    if (OF_VIRTUAL != null) {
+      try {
+        Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+        return (Thread) BUILDER_UNSTARTED.invoke(builder, r);
+      } catch (Exception e) {
+        getLogger().warn("Could not create a virtual thread", e);
+      }
+    }
+    Thread t = new Thread(r, name);
+    t.setDaemon(connectionFactory.isDaemon());
+    return t;
+  }
+
+  /**
+   * Connects, reads and reconnects a single node, and runs its writer.
+   */
+  private final class NodeWorker implements Runnable {
+
+    private final MemcachedNode node;
+    private final AtomicBoolean failureReported = new AtomicBoolean();
+    private volatile Thread reader;
+    private volatile Thread writer;
+
+    private NodeWorker(MemcachedNode n) {
+      node = n;
+    }
+
+    @Override
+    public void run() {
+      reader = Thread.currentThread();
+      while (running && !shutDown) {
+        boolean connected = false;
+        failureReported.set(false);
+        try {
+          SocketChannel ch = node.getChannel();
+          if (ch == null) {
+            ch = SocketChannel.open();
+            node.setChannel(ch);
+          }
+          Socket socket = ch.socket();
+          socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
+          socket.setKeepAlive(connectionFactory.getKeepAlive());
+          ch.connect(node.getSocketAddress());
+          connected = true;
+          getLogger().info("Connected to %s", node);
+          connected(node);
+
+          final SocketChannel channel = ch;
+          writer = newThread(new Runnable() {
+            @Override
+            public void run() {
+              write(channel);
+            }
+          }, "Memcached writer for " + node.getSocketAddress());
+          writer.start();
+
+          while (!shutDown) {
+            handleReads(node);
+          }
+        } catch (ConnectException e) {
+          getLogger().info("Reconnecting due to failure to connect to %s",
+            node, e);
+        } catch (Exception e) {
+          if (connected) {
+            failed(e);
+          } else if (!shutDown) {
+            getLogger().warn("Socket error on connect to %s", node, e);
+          }
+        }
+
+        disconnect();
+        awaitWriter();
+        if (shutDown) {
+          break;
+        }
+        if (connected) {
+          node.setupForAuth();
+        }
+        long delay = closeForReconnect(node);
+        requeueAfterDisconnect(node);
+        long deadline = System.nanoTime()
+          + TimeUnit.MILLISECONDS.toNanos(delay);
+        long remaining;
+        while (!shutDown && (remaining = deadline - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+      getLogger().debug("Stopped reading from %s", node);
+    }
+
+    private void write(SocketChannel channel) {
+      try {
+        while (!shutDown && channel.isOpen()) {
+          node.copyInputQueue();
+          Operation before = node.getCurrentWriteOp();
+          handleWrites(node);
+          if (!node.hasWriteOp()) {
+            LockSupport.parkNanos(this,
+              TimeUnit.MILLISECONDS.toNanos(wakeupDelay));
+          } else if (node.getCurrentWriteOp() == before) {
+            LockSupport.parkNanos(this, READ_QUEUE_FULL_NANOS);
+          }
+        }
+      } catch (Exception e) {
+        failed(e);
+      }
+    }
+
+    /**
+     * Report the failure of a connected node once, no matter how many of its
+     * threads notice it.
+     */
+    private void failed(Exception e) {
+      if (shutDown || !failureReported.compareAndSet(false, true)) {
+        return;
+      }
+      getLogger().info("Reconnecting due to exception on %s", node, e);
+      lostConnection(node);
+    }
+
+    private void wakeUpWriter() {
+      Thread t = writer;
+      if (t != null) {
+        LockSupport.unpark(t);
+      }
+    }
+
+    private void disconnect() {
+      SocketChannel ch = node.getChannel();
+      if (ch != null) {
+        try {
+          ch.close();
+        } catch (IOException e) {
+          getLogger().warn("IOException trying to close a socket", e);
+        }
+      }
+      wakeUpWriter();
+    }
+
+    private void awaitWriter() {
+      Thread t = writer;
+      if (t == null) {
+        return;
+      }
+      boolean interrupted = false;
+      while (t.isAlive()) {
+        LockSupport.unpark(t);
+        try {
+          t.join(wakeupDelay);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      writer = null;
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
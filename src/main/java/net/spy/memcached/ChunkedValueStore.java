@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Stores values larger than the server item size limit by splitting them into
+ * several chunks.
+ *
+ * <p>
+ * A value is encoded with the given {@link Transcoder} and, if the encoded
+ * form is larger than the chunk size, split into chunks stored under
+ * {@code key + ":" + n}. A manifest is then stored under the key itself,
+ * carrying the flags, the total length, the number of chunks and a random
+ * version that every chunk is prefixed with. Values that fit into a single
+ * chunk are stored inline in the manifest.
+ * </p>
+ *
+ * <p>
+ * Chunks are written in parallel and the manifest is only written once all
+ * of them were stored, so readers never see a manifest before its chunks.
+ * Reading fetches the manifest and then all chunks with a single multiget. If
+ * any chunk is missing or carries a different version (because a concurrent
+ * writer replaced it), the read is treated as a miss.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>
+ * MemcachedClient client=[...];
+ * ChunkedValueStore&lt;Object&gt; reports=client.chunked(client.getTranscoder());
+ * reports.set("report:2013", 3600, bigReport);
+ * Object report=reports.get("report:2013");
+ * </pre>
+ *
+ * <p>
+ * Keys must leave room for the chunk suffix within the maximum key length.
+ * </p>
+ */
+public class ChunkedValueStore<T> extends SpyObject {
+
+  /**
+   * Default chunk size, leaving room for the item header below the default
+   * 1MB server item size.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1000 * 1024;
+
+  private static final int MANIFEST_MAGIC = 0x43484e4b;
+  private static final int MANIFEST_HEADER_LENGTH = 24;
+  private static final int VERSION_LENGTH = 8;
+
+  private static final Random VERSIONS = new Random();
+
+  private final MemcachedClientIF client;
+  private final Transcoder<T> transcoder;
+  private final Transcoder<byte[]> chunkTranscoder;
+  private final int chunkSize;
+
+  /**
+   * Construct a ChunkedValueStore over the given client.
+   *
+   * @param c the client
+   * @param tc the Transcoder to encode and decode values with
+   * @param size the maximum number of value bytes stored per item
+   */
+  public ChunkedValueStore(MemcachedClientIF c, Transcoder<T> tc, int size) {
+    super();
+    if (size <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive.");
+    }
+    client = c;
+    transcoder = tc;
+    chunkSize = size;
+    chunkTranscoder = new ChunkTranscoder(size + MANIFEST_HEADER_LENGTH);
+  }
+
+  /**
+   * Construct a ChunkedValueStore with the default chunk size.
+   *
+   * @param c the client
+   * @param tc the Transcoder to encode and decode values with
+   */
+  public ChunkedValueStore(MemcachedClientIF c, Transcoder<T> tc) {
+    this(c, tc, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Store a value, splitting it into chunks if needed.
+   *
+   * @param key the key under which this object should be stored
+   * @param exp the expiration of the value and all of its chunks
+   * @param value the object to store
+   * @return true if the value and all of its chunks were stored
+   */
+  public boolean set(String key, int exp, T value) {
+    CachedData co = transcoder.encode(value);
+    byte[] data = co.getData();
+    long version = VERSIONS.nextLong();
+
+    int chunks = 0;
+    if (data.length > chunkSize) {
+      chunks = (data.length + chunkSize - 1) / chunkSize;
+      List<Future<Boolean>> stores = new ArrayList<Future<Boolean>>(chunks);
+      for (int i = 0; i < chunks; i++) {
+        int offset = i * chunkSize;
+        int length = Math.min(chunkSize, data.length - offset);
+        ByteBuffer chunk = ByteBuffer.allocate(VERSION_LENGTH + length);
+        chunk.putLong(version);
+        chunk.put(data, offset, length);
+        stores.add(client.set(chunkKey(key, i), exp, chunk.array(),
+          chunkTranscoder));
+      }
+      for (int i = 0; i < chunks; i++) {
+        if (!await(stores.get(i))) {
+          getLogger().debug("Could not store chunk %d of %s", i, key);
+          return false;
+        }
+      }
+    }
+
+    ByteBuffer manifest = ByteBuffer.allocate(MANIFEST_HEADER_LENGTH
+      + (chunks == 0 ? data.length : 0));
+    manifest.putInt(MANIFEST_MAGIC);
+    manifest.putLong(version);
+    manifest.putInt(co.getFlags());
+    manifest.putInt(data.length);
+    manifest.putInt(chunks);
+    if (chunks == 0) {
+      manifest.put(data);
+    }
+    return await(client.set(key, exp, manifest.array(), chunkTranscoder));
+  }
+
+  /**
+   * Get a value, reassembling it from its chunks.
+   *
+   * @param key the key to get
+   * @return the value, or null if it, or any of its chunks, is missing or
+   *         was concurrently replaced
+   */
+  public T get(String key) {
+    byte[] raw = client.get(key, chunkTranscoder);
+    if (raw == null) {
+      return null;
+    }
+
+    ByteBuffer manifest = ByteBuffer.wrap(raw);
+    if (raw.length < MANIFEST_HEADER_LENGTH
+      || manifest.getInt() != MANIFEST_MAGIC) {
+      getLogger().warn("Value for %s is not a chunk manifest", key);
+      return null;
+    }
+    long version = manifest.getLong();
+    int flags = manifest.getInt();
+    int length = manifest.getInt();
+    int chunks = manifest.getInt();
+    if (length < 0 || chunks < 0
+      || (chunks == 0 && manifest.remaining() < length)) {
+      getLogger().warn("Chunk manifest of %s is corrupt", key);
+      return null;
+    }
+
+    byte[] data = new byte[length];
+    if (chunks == 0) {
+      manifest.get(data);
+    } else {
+      List<String> keys = new ArrayList<String>(chunks);
+      for (int i = 0; i < chunks; i++) {
+        keys.add(chunkKey(key, i));
+      }
+      Map<String, byte[]> found = client.getBulk(keys, chunkTranscoder);
+
+      int offset = 0;
+      for (String k : keys) {
+        byte[] chunk = found.get(k);
+        if (chunk == null || chunk.length < VERSION_LENGTH) {
+          getLogger().debug("Missing chunk %s", k);
+          return null;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(chunk);
+        if (bb.getLong() != version || offset + bb.remaining() > length) {
+          getLogger().debug("Chunk %s does not belong to the current "
+            + "version of %s", k, key);
+          return null;
+        }
+        int read = bb.remaining();
+        bb.get(data, offset, read);
+        offset += read;
+      }
+      if (offset != length) {
+        getLogger().debug("Chunks of %s are incomplete", key);
+        return null;
+      }
+    }
+    return transcoder.decode(new CachedData(flags, data, length));
+  }
+
+  /**
+   * Delete a value.
+   *
+   * <p>
+   * Only the manifest is removed, the chunks are left to expire.
+   * </p>
+   *
+   * @param key the key to delete
+   * @return whether or not the value was deleted
+   */
+  public boolean delete(String key) {
+    return await(client.delete(key));
+  }
+
+  private static String chunkKey(String key, int index) {
+    return key + ":" + index;
+  }
+
+  private boolean await(Future<Boolean> f) {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted waiting for store", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Exception waiting for store", e);
+    }
+  }
+
+  /**
+   * Passes chunk and manifest bytes through unchanged.
+   */
+  private static final class ChunkTranscoder implements Transcoder<byte[]> {
+    private final int maxSize;
+
+    ChunkTranscoder(int max) {
+      maxSize = max;
+    }
+
+    public boolean asyncDecode(CachedData d) {
+      return false;
+    }
+
+    public CachedData encode(byte[] o) {
+      return new CachedData(0, o, maxSize);
+    }
+
+    public byte[] decode(CachedData d) {
+      return d.getData();
+    }
+
+    public int getMaxSize() {
+      return maxSize;
+    }
+  }
+}
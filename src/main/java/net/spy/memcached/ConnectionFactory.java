@@ -201,4 +201,51 @@ public interface ConnectionFactory {
    * @return the time in milliseconds.
    */
   long getAuthWaitTime();
+
+  /**
+   * The number of connections to open to each server.
+   *
+   * Operations on a key are dispatched to the connection of the server picked
+   * by the hash of the key, and other operations to whichever connection has
+   * the fewest pending operations.
+   *
+   * @return the number of connections per server, at least 1.
+   */
+  int getConnectionsPerServer();
+
+  /**
+   * Get the admission controller bounding the operations and bytes in flight.
+   *
+   * This is called once for each connection that is created.
+   *
+   * @return a new admission controller, or null if admission is not bounded.
+   */
+  AdmissionController getAdmissionController();
+
+  /**
+   * The most operations that may await a response from a node.
+   *
+   * The actual limit of each node adapts to the round trip times of its
+   * server, up to this value.
+   *
+   * @return the maximum, or 0 to only bound them by the read queue.
+   */
+  int getMaxInFlight();
+
+  /**
+   * The most keys requested by a single get.
+   *
+   * Larger multigets are split into several requests, and the optimizer
+   * stops merging gets at this many keys, so one huge get does not hold up
+   * the connection while its response is read.
+   */
+  int getMaxKeysPerGet();
+
+  /**
+   * Get the tracer choosing which operations record the stages they pass
+   * through.
+   *
+   * @return the tracer, or null if no operations are traced.
+   */
+  OperationTracer getOperationTracer();
 }
@@ -23,6 +23,8 @@
 
 package net.spy.memcached;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -77,6 +79,17 @@ public class ConnectionFactoryBuilder {
   protected MetricCollector collector = null;
   protected ExecutorService executorService = null;
   protected long authWaitTime = DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME;
+  protected Transport transport = Transport.NIO;
+  protected int connectionsPerServer =
+      DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_SERVER;
+  protected int maxOpsPerNode = 0;
+  protected long maxBytesPerNode = 0;
+  protected int maxOps = 0;
+  protected long maxBytes = 0;
+  protected int maxInFlight = DefaultConnectionFactory.DEFAULT_MAX_IN_FLIGHT;
+  protected int maxKeysPerGet =
+    DefaultConnectionFactory.DEFAULT_MAX_KEYS_PER_GET;
+  protected OperationTracer operationTracer = null;
 
   /**
    * Set the operation queue factory.
@@ -103,6 +116,10 @@ public class ConnectionFactoryBuilder {
     setEnableMetrics(cf.enableMetrics());
     setListenerExecutorService(cf.getListenerExecutorService());
     setAuthWaitTime(cf.getAuthWaitTime());
+    setConnectionsPerServer(cf.getConnectionsPerServer());
+    setMaxInFlight(cf.getMaxInFlight());
+    setMaxKeysPerGet(cf.getMaxKeysPerGet());
+    setOperationTracer(cf.getOperationTracer());
   }
 
   public ConnectionFactoryBuilder setOpQueueFactory(OperationQueueFactory q) {
@@ -326,12 +343,128 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the number of connections to open to each server.
+   *
+   * Operations for a server are spread over its connections, so a large
+   * value in flight does not hold up every other operation for that server.
+   * Operations on a key always go to the connection picked by the hash of the
+   * key, so reads of the key follow its writes. Other operations go to the
+   * connection with the fewest pending operations.
+   *
+   * @param count the number of connections per server, at least 1.
+   */
+  public ConnectionFactoryBuilder setConnectionsPerServer(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        "There must be at least one connection per server.");
+    }
+    connectionsPerServer = count;
+    return this;
+  }
+
+  /**
+   * Bound the operations and bytes in flight, for each server and for the
+   * whole client.
+   *
+   * An operation over one of the limits does not block or throw, it is
+   * rejected and its future completes right away. Producers can wait for an
+   * {@link AdmissionListener} instead of retrying. A limit of 0 means that
+   * dimension is not bounded, which is the default for all of them.
+   *
+   * @param opsPerServer the operations in flight per server.
+   * @param bytesPerServer the bytes written in flight per server.
+   * @param ops the operations in flight over all servers.
+   * @param bytes the bytes written in flight over all servers.
+   */
+  public ConnectionFactoryBuilder setAdmissionLimits(int opsPerServer,
+      long bytesPerServer, int ops, long bytes) {
+    if (opsPerServer < 0 || bytesPerServer < 0 || ops < 0 || bytes < 0) {
+      throw new IllegalArgumentException("Admission limits must be >= 0");
+    }
+    maxOpsPerNode = opsPerServer;
+    maxBytesPerNode = bytesPerServer;
+    maxOps = ops;
+    maxBytes = bytes;
+    return this;
+  }
+
+  /**
+   * Limit the operations awaiting a response from each server adaptively.
+   *
+   * The limit of each server grows while its round trip times stay low and
+   * shrinks as they rise or operations time out, so operations wait in the
+   * client instead of piling onto a server that is falling behind.
+   *
+   * @param max the most operations in flight per server, or 0 to only bound
+   *          them by the read queue.
+   */
+  public ConnectionFactoryBuilder setMaxInFlight(int max) {
+    if (max < 0) {
+      throw new IllegalArgumentException("Max in flight must be >= 0");
+    }
+    maxInFlight = max;
+    return this;
+  }
+
+  /**
+   * Set the most keys requested by a single get.
+   *
+   * Multigets with more keys for a server are split into several requests,
+   * which go out on different connections if there is more than one per
+   * server.
+   *
+   * @param max the most keys per get request.
+   */
+  public ConnectionFactoryBuilder setMaxKeysPerGet(int max) {
+    if (max < 1) {
+      throw new IllegalArgumentException("Max keys per get must be > 0");
+    }
+    maxKeysPerGet = max;
+    return this;
+  }
+
+  /**
+   * Set the tracer choosing which operations record the stages they pass
+   * through, such as a {@link SamplingOperationTracer}.
+   *
+   * @param tracer the tracer, or null to trace no operations.
+   */
+  public ConnectionFactoryBuilder setOperationTracer(OperationTracer tracer) {
+    operationTracer = tracer;
+    return this;
+  }
+
+  /**
+   * Set the transport driving the connections to the servers.
+   *
+   * @param t the transport to use.
+   */
+  public ConnectionFactoryBuilder setTransport(Transport t) {
+    transport = t;
+    return this;
+  }
+
   /**
    * Get the ConnectionFactory set up with the provided parameters.
    */
   public ConnectionFactory build() {
     return new DefaultConnectionFactory() {
 
+      @Override
+      public MemcachedConnection createConnection(
+          List<InetSocketAddress> addrs) throws IOException {
+        switch (transport) {
+        case NIO:
+          return super.createConnection(addrs);
+        case BLOCKING:
+          return new BlockingMemcachedConnection(getReadBufSize(), this, addrs,
+            getInitialObservers(), getFailureMode(), getOperationFactory());
+        default:
+          throw new IllegalStateException("Unhandled transport: " + transport);
+        }
+      }
+
       @Override
       public BlockingQueue<Operation> createOperationQueue() {
         return opQueueFactory == null ? super.createOperationQueue()
@@ -460,6 +593,36 @@ public class ConnectionFactoryBuilder {
       public long getAuthWaitTime() {
         return authWaitTime;
       }
+
+      @Override
+      public int getConnectionsPerServer() {
+        return connectionsPerServer;
+      }
+
+      @Override
+      public int getMaxInFlight() {
+        return maxInFlight;
+      }
+
+      @Override
+      public int getMaxKeysPerGet() {
+        return maxKeysPerGet;
+      }
+
+      @Override
+      public OperationTracer getOperationTracer() {
+        return operationTracer;
+      }
+
+      @Override
+      public AdmissionController getAdmissionController() {
+        if (maxOpsPerNode == 0 && maxBytesPerNode == 0 && maxOps == 0
+            && maxBytes == 0) {
+          return super.getAdmissionController();
+        }
+        return new AdmissionController(maxOpsPerNode, maxBytesPerNode,
+          maxOps, maxBytes);
+      }
     };
 
   }
@@ -478,6 +641,23 @@ public class ConnectionFactoryBuilder {
     BINARY
   }
 
+  /**
+   * Transport driving the connections to the servers.
+   */
+  public static enum Transport {
+    /**
+     * A single IO thread multiplexing all connections over a selector.
+     */
+    NIO,
+    /**
+     * A reader and a writer thread per connection over blocking sockets,
+     * using virtual threads where the runtime provides them.
+     *
+     * @see BlockingMemcachedConnection
+     */
+    BLOCKING
+  }
+
   /**
    * Type of node locator to use.
    */
@@ -114,6 +114,22 @@ public class DefaultConnectionFactory extends SpyObject implements
    */
   public static final int DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD = 998;
 
+  /**
+   * Default number of connections to open to each server.
+   */
+  public static final int DEFAULT_CONNECTIONS_PER_SERVER = 1;
+
+  /**
+   * Default maximum of operations awaiting a response from a node, 0 for no
+   * adaptive limit.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 0;
+
+  /**
+   * Default maximum of keys requested by a single get.
+   */
+  public static final int DEFAULT_MAX_KEYS_PER_GET = 1024;
+
   /**
    * Turn off metric collection by default.
    */
@@ -433,6 +449,51 @@ public class DefaultConnectionFactory extends SpyObject implements
     return DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionsPerServer()
+   */
+  public int getConnectionsPerServer() {
+    return DEFAULT_CONNECTIONS_PER_SERVER;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getAdmissionController()
+   */
+  public AdmissionController getAdmissionController() {
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getMaxInFlight()
+   */
+  public int getMaxInFlight() {
+    return DEFAULT_MAX_IN_FLIGHT;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getMaxKeysPerGet()
+   */
+  public int getMaxKeysPerGet() {
+    return DEFAULT_MAX_KEYS_PER_GET;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getOperationTracer()
+   */
+  public OperationTracer getOperationTracer() {
+    return null;
+  }
+
   @Override
   public MetricType enableMetrics() {
     String metricType = System.getProperty("net.spy.metrics.type");
@@ -28,9 +28,11 @@ import net.spy.memcached.auth.AuthThreadMonitor;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.metrics.OperationLatencies;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.ConcatenationType;
@@ -41,6 +43,7 @@ import net.spy.memcached.ops.GetsOperation;
 import net.spy.memcached.ops.Mutator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationPriority;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatsOperation;
@@ -49,6 +52,7 @@ import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TimedOutOperationStatus;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.transcoders.StreamingTranscoder;
 import net.spy.memcached.transcoders.TranscodeService;
 import net.spy.memcached.transcoders.Transcoder;
 import net.spy.memcached.util.StringUtils;
@@ -280,6 +284,29 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return transcoder;
   }
 
+  /**
+   * Get a store for values larger than the server item size limit.
+   *
+   * @param <T> the type of values stored
+   * @param tc the Transcoder to encode and decode values with
+   * @return a {@link ChunkedValueStore} using the default chunk size
+   */
+  public <T> ChunkedValueStore<T> chunked(Transcoder<T> tc) {
+    return new ChunkedValueStore<T>(this, tc);
+  }
+
+  /**
+   * Get a store for values larger than the server item size limit.
+   *
+   * @param <T> the type of values stored
+   * @param tc the Transcoder to encode and decode values with
+   * @param chunkSize the maximum number of value bytes stored per item
+   * @return a {@link ChunkedValueStore}
+   */
+  public <T> ChunkedValueStore<T> chunked(Transcoder<T> tc, int chunkSize) {
+    return new ChunkedValueStore<T>(this, tc, chunkSize);
+  }
+
   @Override
   public CountDownLatch broadcastOp(final BroadcastOpFactory of) {
     return broadcastOp(of, mconn.getLocator().getAll(), true);
@@ -301,28 +328,41 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
       String key, int exp, T value, Transcoder<T> tc) {
-    CachedData co = tc.encode(value);
-    final CountDownLatch latch = new CountDownLatch(1);
+    return asyncStore(storeType, key, exp, value, tc, 0,
+      OperationPriority.NORMAL);
+  }
+
+  private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
+      String key, int exp, T value, Transcoder<T> tc, long timeout,
+      OperationPriority priority) {
     final OperationFuture<Boolean> rv =
-      new OperationFuture<Boolean>(key, latch, operationTimeout,
-      executorService);
-    Operation op = opFact.store(storeType, key, co.getFlags(), exp,
-        co.getData(), new StoreOperation.Callback() {
-            @Override
-            public void receivedStatus(OperationStatus val) {
-              rv.set(val.isSuccess(), val);
-            }
-            @Override
-            public void gotData(String key, long cas) {
-              rv.setCas(cas);
-            }
+      new OperationFuture<Boolean>(key,
+      timeout > 0 ? timeout : operationTimeout, executorService);
+    StoreOperation.Callback cb = new StoreOperation.Callback() {
+        @Override
+        public void receivedStatus(OperationStatus val) {
+          rv.set(val.isSuccess(), val);
+        }
+        @Override
+        public void gotData(String key, long cas) {
+          rv.setCas(cas);
+        }
 
-            @Override
-            public void complete() {
-              latch.countDown();
-              rv.signalComplete();
-            }
-          });
+        @Override
+        public void complete() {
+          rv.signalComplete();
+        }
+      };
+    Operation op;
+    if (tc instanceof StreamingTranscoder) {
+      op = opFact.store(storeType, key, exp, value,
+        (StreamingTranscoder<T>) tc, cb);
+    } else {
+      CachedData co = tc.encode(value);
+      op = opFact.store(storeType, key, co.getFlags(), exp, co.getData(), cb);
+    }
+    op.setTimeout(timeout);
+    op.setPriority(priority);
     rv.setOperation(op);
     mconn.enqueueOperation(key, op);
     return rv;
@@ -336,9 +376,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   private <T> OperationFuture<Boolean> asyncCat(ConcatenationType catType,
       long cas, String key, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
-        latch, operationTimeout, executorService);
+        operationTimeout, executorService);
     Operation op = opFact.cat(catType, cas, key, co.getData(),
         new OperationCallback() {
           @Override
@@ -348,7 +387,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
-            latch.countDown();
             rv.signalComplete();
           }
         });
@@ -387,9 +425,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   @Override
   public <T> OperationFuture<Boolean> touch(final String key, final int exp,
       final Transcoder<T> tc) {
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv =
-      new OperationFuture<Boolean>(key, latch, operationTimeout,
+      new OperationFuture<Boolean>(key, operationTimeout,
       executorService);
 
     Operation op = opFact.touch(key, exp, new OperationCallback() {
@@ -400,7 +437,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
-        latch.countDown();
         rv.signalComplete();
       }
     });
@@ -621,9 +657,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   public <T> OperationFuture<CASResponse>
   asyncCAS(String key, long casId, int exp, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASResponse> rv =
-      new OperationFuture<CASResponse>(key, latch, operationTimeout,
+      new OperationFuture<CASResponse>(key, operationTimeout,
       executorService);
     Operation op = opFact.cas(StoreType.set, key, casId, co.getFlags(), exp,
         co.getData(), new StoreOperation.Callback() {
@@ -645,7 +680,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
             }
             @Override
             public void complete() {
-              latch.countDown();
               rv.signalComplete();
             }
           });
@@ -877,6 +911,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * </p>
    * </blockquote>
    *
+   * <p>
+   * If {@code tc} is a {@link StreamingTranscoder}, the value is encoded
+   * directly into the request that gets written to the server.
+   * </p>
+   *
    * @param <T>
    * @param key the key under which this object should be added.
    * @param exp the expiration of this object
@@ -928,6 +967,82 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncStore(StoreType.set, key, exp, o, transcoder);
   }
 
+  /**
+   * Set an object in the cache regardless of any existing value, with a
+   * timeout of its own instead of the default operation timeout.
+   *
+   * <p>
+   * The operation is not written once the timeout has passed, and fails
+   * right away if the server it goes to is not expected to answer in time.
+   * In both cases the future completes with a timed out status.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @param tc the transcoder to serialize and unserialize the value
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return a future representing the processing of this operation
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> OperationFuture<Boolean> set(String key, int exp, T o,
+      Transcoder<T> tc, long timeout, TimeUnit unit) {
+    return asyncStore(StoreType.set, key, exp, o, tc,
+      toTimeoutMillis(timeout, unit), OperationPriority.NORMAL);
+  }
+
+  /**
+   * Set an object in the cache (using the default transcoder) regardless of
+   * any existing value, with a timeout of its own instead of the default
+   * operation timeout.
+   *
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return a future representing the processing of this operation
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #set(String, int, Object, Transcoder, long, TimeUnit)
+   */
+  @Override
+  public OperationFuture<Boolean> set(String key, int exp, Object o,
+      long timeout, TimeUnit unit) {
+    return set(key, exp, o, transcoder, timeout, unit);
+  }
+
+  /**
+   * Set an object in the cache regardless of any existing value, writing it
+   * in the lane of the given priority.
+   *
+   * <p>
+   * Each server writes operations from its interactive, normal and bulk lanes
+   * in turns weighted by priority, so a large batch stored with
+   * {@link OperationPriority#BULK} does not hold up interactive requests
+   * queued behind it.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @param tc the transcoder to serialize and unserialize the value
+   * @param priority the priority of the operation
+   * @return a future representing the processing of this operation
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> OperationFuture<Boolean> set(String key, int exp, T o,
+      Transcoder<T> tc, OperationPriority priority) {
+    return asyncStore(StoreType.set, key, exp, o, tc, 0, priority);
+  }
+
   /**
    * Replace an object with the given value iff there is already a value for the
    * given key.
@@ -1015,10 +1130,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc) {
+    return asyncGet(key, tc, 0, OperationPriority.NORMAL);
+  }
 
-    final CountDownLatch latch = new CountDownLatch(1);
-    final GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key,
-      executorService);
+  private <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc,
+      long timeout, OperationPriority priority) {
+    final GetFuture<T> rv = new GetFuture<T>(
+      timeout > 0 ? timeout : operationTimeout, key, executorService);
     Operation op = opFact.get(key, new GetOperation.Callback() {
       private Future<T> val;
 
@@ -1036,10 +1154,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
-        latch.countDown();
         rv.signalComplete();
       }
     });
+    op.setTimeout(timeout);
+    op.setPriority(priority);
     rv.setOperation(op);
     mconn.enqueueOperation(key, op);
     return rv;
@@ -1058,6 +1177,68 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGet(key, transcoder);
   }
 
+  /**
+   * Get the given key asynchronously, with a timeout of its own instead of
+   * the default operation timeout.
+   *
+   * <p>
+   * The operation is not written once the timeout has passed, and fails
+   * right away if the server it goes to is not expected to answer in time.
+   * In both cases the future completes with a timed out status.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to fetch
+   * @param tc the transcoder to serialize and unserialize value
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return a future that will hold the return value of the fetch
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> GetFuture<T> asyncGet(String key, Transcoder<T> tc,
+      long timeout, TimeUnit unit) {
+    return asyncGet(key, tc, toTimeoutMillis(timeout, unit),
+      OperationPriority.NORMAL);
+  }
+
+  /**
+   * Get the given key asynchronously and decode with the default transcoder,
+   * with a timeout of its own instead of the default operation timeout.
+   *
+   * @param key the key to fetch
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return a future that will hold the return value of the fetch
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #asyncGet(String, Transcoder, long, TimeUnit)
+   */
+  @Override
+  public GetFuture<Object> asyncGet(String key, long timeout, TimeUnit unit) {
+    return asyncGet(key, transcoder, timeout, unit);
+  }
+
+  /**
+   * Get the given key asynchronously, writing the request in the lane of the
+   * given priority.
+   *
+   * @param <T>
+   * @param key the key to fetch
+   * @param tc the transcoder to serialize and unserialize value
+   * @param priority the priority of the operation
+   * @return a future that will hold the return value of the fetch
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #set(String, int, Object, Transcoder, OperationPriority)
+   */
+  @Override
+  public <T> GetFuture<T> asyncGet(String key, Transcoder<T> tc,
+      OperationPriority priority) {
+    return asyncGet(key, tc, 0, priority);
+  }
+
   /**
    * Gets (with CAS support) the given key asynchronously.
    *
@@ -1072,9 +1253,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   public <T> OperationFuture<CASValue<T>> asyncGets(final String key,
       final Transcoder<T> tc) {
 
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASValue<T>> rv =
-      new OperationFuture<CASValue<T>>(key, latch, operationTimeout,
+      new OperationFuture<CASValue<T>>(key, operationTimeout,
       executorService);
 
     Operation op = opFact.gets(key, new GetsOperation.Callback() {
@@ -1095,7 +1275,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
-        latch.countDown();
         rv.signalComplete();
       }
     });
@@ -1256,6 +1435,61 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return get(key, transcoder);
   }
 
+  /**
+   * Get with a single key, with a timeout of its own instead of the default
+   * operation timeout.
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param tc the transcoder to serialize and unserialize value
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return the result from the cache (null if there is none)
+   * @throws OperationTimeoutException if the timeout is exceeded, or the
+   *           server is not expected to answer in time
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> T get(String key, Transcoder<T> tc, long timeout,
+      TimeUnit unit) {
+    try {
+      return asyncGet(key, tc, timeout, unit).get(timeout, unit);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted waiting for value", e);
+    } catch (ExecutionException e) {
+      if(e.getCause() instanceof CancellationException) {
+        throw (CancellationException) e.getCause();
+      } else if (e.getCause() instanceof CheckedOperationTimeoutException) {
+        throw new OperationTimeoutException("Timeout waiting for value: "
+          + buildTimeoutMessage(timeout, unit), e.getCause());
+      } else {
+        throw new RuntimeException("Exception waiting for value", e);
+      }
+    } catch (TimeoutException e) {
+      throw new OperationTimeoutException("Timeout waiting for value: "
+        + buildTimeoutMessage(timeout, unit), e);
+    }
+  }
+
+  /**
+   * Get with a single key and decode using the default transcoder, with a
+   * timeout of its own instead of the default operation timeout.
+   *
+   * @param key the key to get
+   * @param timeout the timeout of the operation
+   * @param unit the unit of the timeout
+   * @return the result from the cache (null if there is none)
+   * @throws OperationTimeoutException if the timeout is exceeded, or the
+   *           server is not expected to answer in time
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public Object get(String key, long timeout, TimeUnit unit) {
+    return get(key, transcoder, timeout, unit);
+  }
+
   /**
    * Asynchronously get a bunch of objects from the cache.
    *
@@ -1273,6 +1507,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keyIter,
       Iterator<Transcoder<T>> tcIter) {
+    return asyncGetBulk(keyIter, tcIter, 0, OperationPriority.NORMAL);
+  }
+
+  private <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keyIter,
+      Iterator<Transcoder<T>> tcIter, long timeout,
+      OperationPriority priority) {
     final Map<String, Future<T>> m = new ConcurrentHashMap<String, Future<T>>();
 
     // This map does not need to be a ConcurrentHashMap
@@ -1282,8 +1522,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         new HashMap<String, Transcoder<T>>();
 
     // Break the gets down into groups by key
-    final Map<MemcachedNode, Collection<String>> chunks =
-        new HashMap<MemcachedNode, Collection<String>>();
+    final Map<MemcachedNode, List<String>> chunks =
+        new HashMap<MemcachedNode, List<String>>();
     final NodeLocator locator = mconn.getLocator();
 
     while (keyIter.hasNext() && tcIter.hasNext()) {
@@ -1307,7 +1547,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         }
       }
       assert node != null : "Didn't find a node for " + key;
-      Collection<String> ks = chunks.get(node);
+      // Keys are read on the connection they are written on.
+      node = mconn.getConnection(node, key);
+      List<String> ks = chunks.get(node);
       if (ks == null) {
         ks = new ArrayList<String>();
         chunks.put(node, ks);
@@ -1315,10 +1557,18 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       ks.add(key);
     }
 
-    final AtomicInteger pendingChunks = new AtomicInteger(chunks.size());
+    // Servers with more keys than fit in one get get several, so no single
+    // response holds up a connection for long.
+    final int maxKeys = connFactory.getMaxKeysPerGet();
+    int requests = 0;
+    for (List<String> ks : chunks.values()) {
+      requests += (ks.size() + maxKeys - 1) / maxKeys;
+    }
+
+    final AtomicInteger pendingChunks = new AtomicInteger(requests);
     int initialLatchCount = chunks.isEmpty() ? 0 : 1;
     final CountDownLatch latch = new CountDownLatch(initialLatchCount);
-    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    final List<Operation> ops = new ArrayList<Operation>(requests);
     final BulkGetFuture<T> rv = new BulkGetFuture<T>(m, ops, latch, executorService);
 
     GetOperation.Callback cb = new GetOperation.Callback() {
@@ -1347,19 +1597,26 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       }
     };
 
-    // Now that we know how many servers it breaks down into, and the latch
+    // Now that we know how many requests it breaks down into, and the latch
     // is all set up, convert all of these strings collections to operations
-    final Map<MemcachedNode, Operation> mops =
-        new HashMap<MemcachedNode, Operation>();
-
-    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
-      Operation op = opFact.get(me.getValue(), cb);
-      mops.put(me.getKey(), op);
-      ops.add(op);
+    final List<MemcachedNode> nodes = new ArrayList<MemcachedNode>(requests);
+
+    for (Map.Entry<MemcachedNode, List<String>> me : chunks.entrySet()) {
+      List<String> ks = me.getValue();
+      for (int i = 0; i < ks.size(); i += maxKeys) {
+        Operation op = opFact.get(new ArrayList<String>(
+          ks.subList(i, Math.min(i + maxKeys, ks.size()))), cb);
+        op.setTimeout(timeout);
+        op.setPriority(priority);
+        nodes.add(me.getKey());
+        ops.add(op);
+      }
     }
-    assert mops.size() == chunks.size();
+    assert ops.size() == requests;
     mconn.checkState();
-    mconn.addOperations(mops);
+    for (int i = 0; i < requests; i++) {
+      mconn.addOperation(nodes.get(i), ops.get(i));
+    }
     return rv;
   }
 
@@ -1475,6 +1732,26 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGetBulk(Arrays.asList(keys), transcoder);
   }
 
+  /**
+   * Asynchronously get a bunch of objects from the cache, writing the
+   * requests in the lane of the given priority.
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to serialize and unserialize values
+   * @param priority the priority of the operations
+   * @return a Future result of that fetch
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #set(String, int, Object, Transcoder, OperationPriority)
+   */
+  @Override
+  public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+      Transcoder<T> tc, OperationPriority priority) {
+    return asyncGetBulk(keys.iterator(),
+      new SingleElementInfiniteIterator<Transcoder<T>>(tc), 0, priority);
+  }
+
   /**
    * Get the given key to reset its expiration time.
    *
@@ -1503,9 +1780,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   @Override
   public <T> OperationFuture<CASValue<T>> asyncGetAndTouch(final String key,
       final int exp, final Transcoder<T> tc) {
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASValue<T>> rv = new OperationFuture<CASValue<T>>(
-        key, latch, operationTimeout, executorService);
+        key, operationTimeout, executorService);
 
     Operation op = opFact.getAndTouch(key, exp,
         new GetAndTouchOperation.Callback() {
@@ -1518,7 +1794,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
-            latch.countDown();
             rv.signalComplete();
           }
 
@@ -1616,6 +1891,62 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return getBulk(keys, transcoder);
   }
 
+  /**
+   * Get the values for multiple keys from the cache, with a timeout of
+   * their own instead of the default operation timeout.
+   *
+   * @param <T>
+   * @param keys the keys
+   * @param tc the transcoder to serialize and unserialize value
+   * @param timeout the timeout of the operations
+   * @param unit the unit of the timeout
+   * @return a map of the values (for each value that exists)
+   * @throws OperationTimeoutException if the timeout is exceeded, or a
+   *           server is not expected to answer in time
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc,
+      long timeout, TimeUnit unit) {
+    try {
+      return asyncGetBulk(keys.iterator(),
+        new SingleElementInfiniteIterator<Transcoder<T>>(tc),
+        toTimeoutMillis(timeout, unit), OperationPriority.NORMAL)
+        .get(timeout, unit);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted getting bulk values", e);
+    } catch (ExecutionException e) {
+      if(e.getCause() instanceof CancellationException) {
+        throw (CancellationException) e.getCause();
+      } else {
+        throw new RuntimeException("Exception waiting for bulk values", e);
+      }
+    } catch (TimeoutException e) {
+      throw new OperationTimeoutException("Timeout waiting for bulk values: "
+        + buildTimeoutMessage(timeout, unit), e);
+    }
+  }
+
+  /**
+   * Get the values for multiple keys from the cache, with a timeout of
+   * their own instead of the default operation timeout.
+   *
+   * @param keys the keys
+   * @param timeout the timeout of the operations
+   * @param unit the unit of the timeout
+   * @return a map of the values (for each value that exists)
+   * @throws OperationTimeoutException if the timeout is exceeded, or a
+   *           server is not expected to answer in time
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public Map<String, Object> getBulk(Collection<String> keys, long timeout,
+      TimeUnit unit) {
+    return getBulk(keys, transcoder, timeout, unit);
+  }
+
   /**
    * Get the values for multiple keys from the cache.
    *
@@ -1747,6 +2078,33 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Get the latencies of the operations completed by each server.
+   *
+   * The latencies of all connections to a server are added up. They are
+   * only recorded when metrics are enabled.
+   *
+   * @return a Map of the server SocketAddress to a snapshot of its latencies
+   */
+  @Override
+  public Map<SocketAddress, OperationLatencies> getLatencies() {
+    Map<SocketAddress, OperationLatencies> rv =
+        new HashMap<SocketAddress, OperationLatencies>();
+    for (MemcachedNode node : mconn.getAllNodes()) {
+      OperationLatencies latencies = node.getLatencies();
+      if (latencies == null) {
+        continue;
+      }
+      OperationLatencies total = rv.get(node.getSocketAddress());
+      if (total == null) {
+        total = new OperationLatencies();
+        rv.put(node.getSocketAddress(), total);
+      }
+      total.add(latencies);
+    }
+    return rv;
+  }
+
   private long mutate(Mutator m, String key, long by, long def, int exp) {
     final AtomicLong rv = new AtomicLong();
     final CountDownLatch latch = new CountDownLatch(1);
@@ -1985,9 +2343,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         + "binary protocol or the sync variant.");
     }
 
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Long> rv =
-        new OperationFuture<Long>(key, latch, operationTimeout, executorService);
+        new OperationFuture<Long>(key, operationTimeout, executorService);
     Operation op = opFact.mutate(m, key, by, def, exp,
         new OperationCallback() {
           @Override
@@ -1997,7 +2354,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
-            latch.countDown();
             rv.signalComplete();
           }
         });
@@ -2306,9 +2662,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public OperationFuture<Boolean> delete(String key, long cas) {
-    final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
-        latch, operationTimeout, executorService);
+        operationTimeout, executorService);
 
     DeleteOperation.Callback callback = new DeleteOperation.Callback() {
       @Override
@@ -2323,7 +2678,6 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
-        latch.countDown();
         rv.signalComplete();
       }
     };
@@ -2549,7 +2903,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
           }
         });
       }
-    }, mconn.getLocator().getAll(), false);
+    }, mconn.getAllNodes(), false);
     try {
       // XXX: Perhaps IllegalStateException should be caught here
       // and the check retried.
@@ -2572,9 +2926,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   public boolean addObserver(ConnectionObserver obs) {
     boolean rv = mconn.addObserver(obs);
     if (rv) {
-      for (MemcachedNode node : mconn.getLocator().getAll()) {
+      for (MemcachedNode node : mconn.getAllNodes()) {
         if (node.isActive()) {
-          obs.connectionEstablished(node.getSocketAddress(), -1);
+          mconn.notifyConnected(obs, node, -1);
         }
       }
     }
@@ -2592,6 +2946,37 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return mconn.removeObserver(obs);
   }
 
+  /**
+   * Add a listener to be told when operations can be admitted again after
+   * some were rejected for reaching the admission limits.
+   *
+   * @param listener the AdmissionListener you wish to add
+   * @return true if the listener was added, false if admission is not
+   *         bounded
+   * @see ConnectionFactoryBuilder#setAdmissionLimits(int, long, int, long)
+   */
+  @Override
+  public boolean addAdmissionListener(AdmissionListener listener) {
+    AdmissionController admission = mconn.getAdmissionController();
+    if (admission == null) {
+      return false;
+    }
+    admission.addListener(listener);
+    return true;
+  }
+
+  /**
+   * Remove an admission listener.
+   *
+   * @param listener the AdmissionListener you wish to remove
+   * @return true if the listener existed, but no longer does
+   */
+  @Override
+  public boolean removeAdmissionListener(AdmissionListener listener) {
+    AdmissionController admission = mconn.getAdmissionController();
+    return admission != null && admission.removeListener(listener);
+  }
+
   @Override
   public void connectionEstablished(SocketAddress sa, int reconnectCount) {
     if (authDescriptor != null) {
@@ -2603,16 +2988,27 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   }
 
   private MemcachedNode findNode(SocketAddress sa) {
-    MemcachedNode node = null;
-    for (MemcachedNode n : mconn.getLocator().getAll()) {
+    MemcachedNode node = mconn.getConnectingNode();
+    if (node != null && node.getSocketAddress().equals(sa)) {
+      return node;
+    }
+    // Several connections share an address, so this only picks one of them
+    // when the observer is called from outside the connection.
+    node = null;
+    for (MemcachedNode n : mconn.getAllNodes()) {
       if (n.getSocketAddress().equals(sa)) {
         node = n;
+        break;
       }
     }
     assert node != null : "Couldn't find node connected to " + sa;
     return node;
   }
 
+  private static long toTimeoutMillis(long timeout, TimeUnit unit) {
+    return Math.max(1, unit.toMillis(timeout));
+  }
+
   private String buildTimeoutMessage(long timeWaited, TimeUnit unit) {
     StringBuilder message = new StringBuilder();
 
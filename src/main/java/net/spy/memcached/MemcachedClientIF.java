@@ -25,6 +25,8 @@ package net.spy.memcached;
 
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.metrics.OperationLatencies;
+import net.spy.memcached.ops.OperationPriority;
 import net.spy.memcached.transcoders.Transcoder;
 
 import java.net.SocketAddress;
@@ -97,6 +99,15 @@ public interface MemcachedClientIF {
 
   Future<Boolean> set(String key, int exp, Object o);
 
+  <T> Future<Boolean> set(String key, int exp, T o, Transcoder<T> tc,
+      long timeout, TimeUnit unit);
+
+  Future<Boolean> set(String key, int exp, Object o, long timeout,
+      TimeUnit unit);
+
+  <T> Future<Boolean> set(String key, int exp, T o, Transcoder<T> tc,
+      OperationPriority priority);
+
   <T> Future<Boolean> replace(String key, int exp, T o, Transcoder<T> tc);
 
   Future<Boolean> replace(String key, int exp, Object o);
@@ -105,6 +116,14 @@ public interface MemcachedClientIF {
 
   Future<Object> asyncGet(String key);
 
+  <T> Future<T> asyncGet(String key, Transcoder<T> tc, long timeout,
+      TimeUnit unit);
+
+  Future<Object> asyncGet(String key, long timeout, TimeUnit unit);
+
+  <T> Future<T> asyncGet(String key, Transcoder<T> tc,
+      OperationPriority priority);
+
   Future<CASValue<Object>> asyncGetAndTouch(final String key, final int exp);
 
   <T> Future<CASValue<T>> asyncGetAndTouch(final String key, final int exp,
@@ -126,6 +145,10 @@ public interface MemcachedClientIF {
 
   Object get(String key);
 
+  <T> T get(String key, Transcoder<T> tc, long timeout, TimeUnit unit);
+
+  Object get(String key, long timeout, TimeUnit unit);
+
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keys,
       Iterator<Transcoder<T>> tcs);
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
@@ -143,12 +166,20 @@ public interface MemcachedClientIF {
 
   BulkFuture<Map<String, Object>> asyncGetBulk(String... keys);
 
+  <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+      Transcoder<T> tc, OperationPriority priority);
+
   <T> Map<String, T> getBulk(Iterator<String> keys, Transcoder<T> tc);
   <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc);
 
   Map<String, Object> getBulk(Iterator<String> keys);
   Map<String, Object> getBulk(Collection<String> keys);
 
+  <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc,
+      long timeout, TimeUnit unit);
+  Map<String, Object> getBulk(Collection<String> keys, long timeout,
+      TimeUnit unit);
+
   <T> Map<String, T> getBulk(Transcoder<T> tc, String... keys);
 
   Map<String, Object> getBulk(String... keys);
@@ -164,6 +195,8 @@ public interface MemcachedClientIF {
 
   Map<SocketAddress, Map<String, String>> getStats(String prefix);
 
+  Map<SocketAddress, OperationLatencies> getLatencies();
+
   long incr(String key, long by);
 
   long incr(String key, int by);
@@ -230,6 +263,10 @@ public interface MemcachedClientIF {
 
   boolean removeObserver(ConnectionObserver obs);
 
+  boolean addAdmissionListener(AdmissionListener listener);
+
+  boolean removeAdmissionListener(AdmissionListener listener);
+
   CountDownLatch broadcastOp(final BroadcastOpFactory of);
   CountDownLatch broadcastOp(final BroadcastOpFactory of,
     Collection<MemcachedNode> nodes);
@@ -23,24 +23,31 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.compat.ClientEvents;
 import net.spy.memcached.compat.SpyThread;
 import net.spy.memcached.compat.log.Logger;
 import net.spy.memcached.compat.log.LoggerFactory;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.LongGauge;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.metrics.OperationLatencies;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.NoopOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationStage;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.ops.VBucketAware;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.protocol.binary.MultiGetOperationImpl;
+import net.spy.memcached.protocol.binary.PipelinedOperationImpl;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
 import net.spy.memcached.util.StringUtils;
 
@@ -59,6 +66,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
@@ -129,6 +137,20 @@ public class MemcachedConnection extends SpyThread {
     "[MEM] Response Rate: Failure";
   private static final String OVERALL_RESPONSE_SUCC_METRIC =
     "[MEM] Response Rate: Success";
+  private static final String LATENCIES_METRIC = "[MEM] Latencies: ";
+  private static final String IO_LOOP_METRIC =
+    "[MEM] IO Loop Duration (µs)";
+  private static final String SELECT_METRIC =
+    "[MEM] Time blocked in select (µs)";
+  private static final String SELECTED_KEYS_METRIC =
+    "[MEM] Keys ready per select";
+  private static final String DRAINED_OPS_METRIC =
+    "[MEM] Operations drained per input queue pass";
+  private static final String INPUT_QUEUE_METRIC = "[MEM] Input Queue: ";
+  private static final String WRITE_QUEUE_METRIC = "[MEM] Write Queue: ";
+  private static final String READ_QUEUE_METRIC = "[MEM] Read Queue: ";
+  private static final String WRITE_BUFFER_METRIC =
+    "[MEM] Bytes pending in write buffer: ";
 
   /**
    * If the connection is alread shut down or shutting down.
@@ -169,12 +191,12 @@ public class MemcachedConnection extends SpyThread {
   /**
    * The buffer size that will be used when reading from the server.
    */
-  private final int bufSize;
+  protected final int bufSize;
 
   /**
    * The connection factory to create {@link MemcachedNode}s from.
    */
-  private final ConnectionFactory connectionFactory;
+  protected final ConnectionFactory connectionFactory;
 
   /**
    * AddedQueue is used to track the QueueAttachments for which operations
@@ -182,6 +204,30 @@ public class MemcachedConnection extends SpyThread {
    */
   protected final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
 
+  /**
+   * Maps each node to all connections to its server, if there is more than
+   * one connection per server. Only the first connection of each server is
+   * known to the {@link NodeLocator}.
+   */
+  private final Map<MemcachedNode, MemcachedNode[]> connectionGroups =
+    new IdentityHashMap<MemcachedNode, MemcachedNode[]>();
+
+  /**
+   * Times out written operations, null if there is no operation timeout.
+   */
+  private final OperationTimeoutWheel timeouts;
+
+  /**
+   * Bounds the operations and bytes in flight, null if they are not bounded.
+   */
+  private final AdmissionController admission;
+
+  /**
+   * The node whose connection observers are being notified on this thread.
+   */
+  private final ThreadLocal<MemcachedNode> connectingNode =
+    new ThreadLocal<MemcachedNode>();
+
   /**
    * reconnectQueue contains the attachments that need to be reconnected.
    * The key is the time at which they are eligible for reconnect.
@@ -208,7 +254,7 @@ public class MemcachedConnection extends SpyThread {
   /**
    * The threshold for timeout exceptions.
    */
-  private final int timeoutExceptionThreshold;
+  protected final int timeoutExceptionThreshold;
 
   /**
    * Holds operations that need to be retried.
@@ -241,10 +287,35 @@ public class MemcachedConnection extends SpyThread {
    */
   protected final MetricType metricType;
 
+  /**
+   * If any metrics are collected.
+   */
+  private final boolean metricsEnabled;
+
+  private CounterHandle reconnectQueueCounter = CounterHandle.NOOP;
+  private CounterHandle shutdownQueueCounter = CounterHandle.NOOP;
+  private CounterHandle requestMeter = CounterHandle.NOOP;
+  private CounterHandle responseMeter = CounterHandle.NOOP;
+  private CounterHandle responseRetryMeter = CounterHandle.NOOP;
+  private CounterHandle responseSuccessMeter = CounterHandle.NOOP;
+  private CounterHandle responseFailureMeter = CounterHandle.NOOP;
+  private HistogramHandle bytesReadHistogram = HistogramHandle.NOOP;
+  private HistogramHandle bytesWrittenHistogram = HistogramHandle.NOOP;
+  private HistogramHandle timeOnWireHistogram = HistogramHandle.NOOP;
+  private HistogramHandle ioLoopHistogram = HistogramHandle.NOOP;
+  private HistogramHandle selectHistogram = HistogramHandle.NOOP;
+  private HistogramHandle selectedKeysHistogram = HistogramHandle.NOOP;
+  private HistogramHandle drainedOpsHistogram = HistogramHandle.NOOP;
+
+  /**
+   * The tracer choosing the operations to trace, null to trace none.
+   */
+  private final OperationTracer tracer;
+
   /**
    * The selector wakeup delay, defaults to 1000ms.
    */
-  private final int wakeupDelay;
+  protected final int wakeupDelay;
 
   /**
    * Optionally bound the retry queue if set via system property.
@@ -279,6 +350,9 @@ public class MemcachedConnection extends SpyThread {
     listenerExecutorService = f.getListenerExecutorService();
     this.bufSize = bufSize;
     this.connectionFactory = f;
+    timeouts = new OperationTimeoutWheel();
+    admission = f.getAdmissionController();
+    tracer = f.getOperationTracer();
 
     String verifyAlive = System.getProperty("net.spy.verifyAliveOnConnect");
     if(verifyAlive != null && verifyAlive.equals("true")) {
@@ -299,6 +373,7 @@ public class MemcachedConnection extends SpyThread {
 
     metrics = f.getMetricCollector();
     metricType = f.enableMetrics();
+    metricsEnabled = !metricType.equals(MetricType.OFF);
 
     registerMetrics();
 
@@ -317,25 +392,108 @@ public class MemcachedConnection extends SpyThread {
   protected void registerMetrics() {
     if (metricType.equals(MetricType.DEBUG)
       || metricType.equals(MetricType.PERFORMANCE)) {
-      metrics.addHistogram(OVERALL_AVG_BYTES_READ_METRIC);
-      metrics.addHistogram(OVERALL_AVG_BYTES_WRITE_METRIC);
-      metrics.addHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
-      metrics.addMeter(OVERALL_RESPONSE_METRIC);
-      metrics.addMeter(OVERALL_REQUEST_METRIC);
+      bytesReadHistogram =
+        metrics.registerHistogram(OVERALL_AVG_BYTES_READ_METRIC);
+      bytesWrittenHistogram =
+        metrics.registerHistogram(OVERALL_AVG_BYTES_WRITE_METRIC);
+      timeOnWireHistogram =
+        metrics.registerHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
+      responseMeter = metrics.registerMeter(OVERALL_RESPONSE_METRIC);
+      requestMeter = metrics.registerMeter(OVERALL_REQUEST_METRIC);
+      ioLoopHistogram = metrics.registerHistogram(IO_LOOP_METRIC);
+      selectHistogram = metrics.registerHistogram(SELECT_METRIC);
+      selectedKeysHistogram = metrics.registerHistogram(SELECTED_KEYS_METRIC);
+      drainedOpsHistogram = metrics.registerHistogram(DRAINED_OPS_METRIC);
+      for (MemcachedNode node : getAllNodes()) {
+        registerNodeMetrics(node);
+      }
 
       if (metricType.equals(MetricType.DEBUG)) {
-        metrics.addCounter(RECON_QUEUE_METRIC);
-        metrics.addCounter(SHUTD_QUEUE_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_RETRY_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_SUCC_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        reconnectQueueCounter = metrics.registerCounter(RECON_QUEUE_METRIC);
+        shutdownQueueCounter = metrics.registerCounter(SHUTD_QUEUE_METRIC);
+        responseRetryMeter =
+          metrics.registerMeter(OVERALL_RESPONSE_RETRY_METRIC);
+        responseSuccessMeter =
+          metrics.registerMeter(OVERALL_RESPONSE_SUCC_METRIC);
+        responseFailureMeter =
+          metrics.registerMeter(OVERALL_RESPONSE_FAIL_METRIC);
       }
     }
   }
 
+  /**
+   * Register the metrics sampled from a node: its latencies, queue depths
+   * and bytes pending in its write buffer.
+   *
+   * @param node the node.
+   */
+  private void registerNodeMetrics(final MemcachedNode node) {
+    if (node.getLatencies() != null) {
+      metrics.addLatencies(nodeMetric(LATENCIES_METRIC, node),
+        node.getLatencies());
+    }
+    metrics.addGauge(nodeMetric(INPUT_QUEUE_METRIC, node), new LongGauge() {
+      @Override
+      public long getValue() {
+        return node.getInputQueueSize();
+      }
+    });
+    metrics.addGauge(nodeMetric(WRITE_QUEUE_METRIC, node), new LongGauge() {
+      @Override
+      public long getValue() {
+        return node.getWriteQueueSize();
+      }
+    });
+    metrics.addGauge(nodeMetric(READ_QUEUE_METRIC, node), new LongGauge() {
+      @Override
+      public long getValue() {
+        return node.getReadQueueSize();
+      }
+    });
+    metrics.addGauge(nodeMetric(WRITE_BUFFER_METRIC, node), new LongGauge() {
+      @Override
+      public long getValue() {
+        return node.getBytesRemainingToWrite();
+      }
+    });
+  }
+
+  /**
+   * Remove the metrics sampled from a node.
+   *
+   * @param node the node.
+   */
+  private void removeNodeMetrics(final MemcachedNode node) {
+    metrics.removeLatencies(nodeMetric(LATENCIES_METRIC, node));
+    metrics.removeGauge(nodeMetric(INPUT_QUEUE_METRIC, node));
+    metrics.removeGauge(nodeMetric(WRITE_QUEUE_METRIC, node));
+    metrics.removeGauge(nodeMetric(READ_QUEUE_METRIC, node));
+    metrics.removeGauge(nodeMetric(WRITE_BUFFER_METRIC, node));
+  }
+
+  /**
+   * Get the name of a metric of a node.
+   *
+   * @param prefix the name of the metric.
+   * @param node the node.
+   * @return the name, which tells apart the connections to a server.
+   */
+  private String nodeMetric(final String prefix, final MemcachedNode node) {
+    String name = prefix + node.getSocketAddress();
+    MemcachedNode[] group = connectionGroups.get(node);
+    if (group != null) {
+      name += " #" + Arrays.asList(group).indexOf(node);
+    }
+    return name;
+  }
+
   /**
    * Create connections for the given list of addresses.
    *
+   * If more than one connection per server is configured, the additional
+   * connections are opened as well but only the first connection of each
+   * server is returned.
+   *
    * @param addrs the list of addresses to connect to.
    * @return addrs list of {@link MemcachedNode}s.
    * @throws IOException if connecting was not successful.
@@ -343,34 +501,19 @@ public class MemcachedConnection extends SpyThread {
   protected List<MemcachedNode> createConnections(
     final Collection<InetSocketAddress> addrs) throws IOException {
     List<MemcachedNode> connections = new ArrayList<MemcachedNode>(addrs.size());
+    int perServer = connectionFactory.getConnectionsPerServer();
 
     for (SocketAddress sa : addrs) {
-      SocketChannel ch = SocketChannel.open();
-      ch.configureBlocking(false);
-      MemcachedNode qa = connectionFactory.createMemcachedNode(sa, ch, bufSize);
-      qa.setConnection(this);
-      int ops = 0;
-      Socket socket = ch.socket();
-      socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
-      socket.setKeepAlive(connectionFactory.getKeepAlive());
-      
-      try {
-        if (ch.connect(sa)) {
-          getLogger().info("Connected to %s immediately", qa);
-          connected(qa);
-        } else {
-          getLogger().info("Added %s to connect queue", qa);
-          ops = SelectionKey.OP_CONNECT;
+      MemcachedNode qa = openConnection(sa);
+      if (perServer > 1) {
+        MemcachedNode[] group = new MemcachedNode[perServer];
+        group[0] = qa;
+        for (int i = 1; i < perServer; i++) {
+          group[i] = openConnection(sa);
+        }
+        for (MemcachedNode node : group) {
+          connectionGroups.put(node, group);
         }
-
-        selector.wakeup();
-        qa.setSk(ch.register(selector, ops, qa));
-        assert ch.isConnected()
-            || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
-            : "Not connected, and not wanting to connect";
-      } catch (SocketException e) {
-        getLogger().warn("Socket error on initial connect", e);
-        queueReconnect(qa);
       }
       connections.add(qa);
     }
@@ -378,26 +521,90 @@ public class MemcachedConnection extends SpyThread {
     return connections;
   }
 
+  /**
+   * Open a single connection to the given address.
+   *
+   * @param sa the address to connect to.
+   * @return the {@link MemcachedNode} for the connection.
+   * @throws IOException if connecting was not successful.
+   */
+  protected MemcachedNode openConnection(final SocketAddress sa)
+    throws IOException {
+    SocketChannel ch = SocketChannel.open();
+    ch.configureBlocking(false);
+    MemcachedNode qa = connectionFactory.createMemcachedNode(sa, ch, bufSize);
+    qa.setConnection(this);
+    int ops = 0;
+    Socket socket = ch.socket();
+    socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
+    socket.setKeepAlive(connectionFactory.getKeepAlive());
+    
+    try {
+      if (ch.connect(sa)) {
+        getLogger().info("Connected to %s immediately", qa);
+        connected(qa);
+      } else {
+        getLogger().info("Added %s to connect queue", qa);
+        ops = SelectionKey.OP_CONNECT;
+      }
+
+      selector.wakeup();
+      qa.setSk(ch.register(selector, ops, qa));
+      assert ch.isConnected()
+          || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
+          : "Not connected, and not wanting to connect";
+    } catch (SocketException e) {
+      getLogger().warn("Socket error on initial connect", e);
+      queueReconnect(qa);
+    }
+    return qa;
+  }
+
+  /**
+   * Returns all nodes, including the additional connections to each server.
+   *
+   * @return the nodes of all connections.
+   */
+  public Collection<MemcachedNode> getAllNodes() {
+    Collection<MemcachedNode> primaries = locator.getAll();
+    if (connectionGroups.isEmpty()) {
+      return primaries;
+    }
+    List<MemcachedNode> rv = new ArrayList<MemcachedNode>();
+    for (MemcachedNode node : primaries) {
+      MemcachedNode[] group = connectionGroups.get(node);
+      if (group == null) {
+        rv.add(node);
+      } else {
+        rv.addAll(Arrays.asList(group));
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Returns the node that is being connected on the current thread, while
+   * the connection observers are notified.
+   *
+   * @return the node, or null.
+   */
+  MemcachedNode getConnectingNode() {
+    return connectingNode.get();
+  }
+
   /**
    * Make sure that the current selectors make sense.
    *
    * @return true if they do.
    */
   private boolean selectorsMakeSense() {
-    for (MemcachedNode qa : locator.getAll()) {
+    for (MemcachedNode qa : getAllNodes()) {
       if (qa.getSk() != null && qa.getSk().isValid()) {
         if (qa.getChannel().isConnected()) {
           int sops = qa.getSk().interestOps();
-          int expected = 0;
-          if (qa.hasReadOp()) {
-            expected |= SelectionKey.OP_READ;
-          }
-          if (qa.hasWriteOp()) {
-            expected |= SelectionKey.OP_WRITE;
-          }
-          if (qa.getBytesRemainingToWrite() > 0) {
-            expected |= SelectionKey.OP_WRITE;
-          }
+          // Writes are not selected while the node has as many operations
+          // in flight as it may.
+          int expected = qa.getSelectionOps();
           assert sops == expected : "Invalid ops:  " + qa + ", expected "
             + expected + ", got " + sops;
         } else {
@@ -423,10 +630,11 @@ public class MemcachedConnection extends SpyThread {
       return;
     }
 
+    long start = metricsEnabled ? System.nanoTime() : 0;
     handleInputQueue();
     getLogger().debug("Done dealing with queue.");
 
-    long delay = wakeupDelay;
+    long delay = getSelectDelay(wakeupDelay);
     if (!reconnectQueue.isEmpty()) {
       long now = System.currentTimeMillis();
       long then = reconnectQueue.firstKey();
@@ -434,7 +642,12 @@ public class MemcachedConnection extends SpyThread {
     }
     getLogger().debug("Selecting with delay of %sms", delay);
     assert selectorsMakeSense() : "Selectors don't make sense.";
+    long selecting = metricsEnabled ? System.nanoTime() : 0;
     int selected = selector.select(delay);
+    if (metricsEnabled) {
+      selectHistogram.update((System.nanoTime() - selecting) / 1000);
+      selectedKeysHistogram.update(selector.selectedKeys().size());
+    }
 
     if (shutDown) {
       return;
@@ -456,6 +669,9 @@ public class MemcachedConnection extends SpyThread {
     }
 
     handleOperationalTasks();
+    if (metricsEnabled) {
+      ioLoopHistogram.update((System.nanoTime() - start) / 1000);
+    }
   }
 
   /**
@@ -482,7 +698,8 @@ public class MemcachedConnection extends SpyThread {
    *
    * @throws IOException if an error happens during shutdown queue handling.
    */
-  private void handleOperationalTasks() throws IOException {
+  protected void handleOperationalTasks() throws IOException {
+    timeouts.expire();
     checkPotentiallyTimedOutConnection();
 
     if (!shutDown && !reconnectQueue.isEmpty()) {
@@ -529,7 +746,8 @@ public class MemcachedConnection extends SpyThread {
     for (MemcachedNode qa : nodesToShutdown) {
       if (!addedQueue.contains(qa)) {
         nodesToShutdown.remove(qa);
-        metrics.decrementCounter(SHUTD_QUEUE_METRIC);
+        shutdownQueueCounter.add(-1);
+        removeNodeMetrics(qa);
         Collection<Operation> notCompletedOperations = qa.destroyInputQueue();
         if (qa.getChannel() != null) {
           qa.getChannel().close();
@@ -582,6 +800,7 @@ public class MemcachedConnection extends SpyThread {
         todo.add(qaNode);
       }
 
+      int drained = 0;
       for (MemcachedNode node : todo) {
         boolean readyForIO = false;
         if (node.isActive()) {
@@ -592,7 +811,7 @@ public class MemcachedConnection extends SpyThread {
         } else {
           toAdd.add(node);
         }
-        node.copyInputQueue();
+        drained += node.copyInputQueue();
         if (readyForIO) {
           try {
             if (node.getWbuf().hasRemaining()) {
@@ -606,6 +825,7 @@ public class MemcachedConnection extends SpyThread {
         node.fixupOps();
       }
       addedQueue.addAll(toAdd);
+      drainedOpsHistogram.update(drained);
     }
   }
 
@@ -632,13 +852,39 @@ public class MemcachedConnection extends SpyThread {
    *
    * @param node the node which was successfully connected.
    */
-  private void connected(final MemcachedNode node) {
+  protected void connected(final MemcachedNode node) {
     assert node.getChannel().isConnected() : "Not connected.";
     int rt = node.getReconnectCount();
     node.connected();
+    if (rt > 0) {
+      ClientEvents.get().reconnected(node, rt);
+    }
 
     for (ConnectionObserver observer : connObservers) {
-      observer.connectionEstablished(node.getSocketAddress(), rt);
+      notifyConnected(observer, node, rt);
+    }
+  }
+
+  /**
+   * Tell one observer that the given node is connected, so that it can find
+   * the node by identity through {@link #getConnectingNode()}.
+   *
+   * @param observer the observer to notify.
+   * @param node the connected node.
+   * @param reconnectCount the reconnect count to pass along.
+   */
+  void notifyConnected(final ConnectionObserver observer,
+    final MemcachedNode node, final int reconnectCount) {
+    MemcachedNode previous = connectingNode.get();
+    connectingNode.set(node);
+    try {
+      observer.connectionEstablished(node.getSocketAddress(), reconnectCount);
+    } finally {
+      if (previous == null) {
+        connectingNode.remove();
+      } else {
+        connectingNode.set(previous);
+      }
     }
   }
 
@@ -647,7 +893,8 @@ public class MemcachedConnection extends SpyThread {
    *
    * @param node the node where the connection was lost.
    */
-  private void lostConnection(final MemcachedNode node) {
+  protected void lostConnection(final MemcachedNode node) {
+    ClientEvents.get().connectionLost(node);
     queueReconnect(node);
     for (ConnectionObserver observer : connObservers) {
       observer.connectionLost(node.getSocketAddress());
@@ -805,12 +1052,12 @@ public class MemcachedConnection extends SpyThread {
    * @param node the node to handle writes for.
    * @throws IOException can be raised during writing failures.
    */
-  private void handleWrites(final MemcachedNode node) throws IOException {
+  protected void handleWrites(final MemcachedNode node) throws IOException {
     node.fillWriteBuffer(shouldOptimize);
     boolean canWriteMore = node.getBytesRemainingToWrite() > 0;
     while (canWriteMore) {
       int wrote = node.writeSome();
-      metrics.updateHistogram(OVERALL_AVG_BYTES_WRITE_METRIC, wrote);
+      bytesWrittenHistogram.update(wrote);
       node.fillWriteBuffer(shouldOptimize);
       canWriteMore = wrote > 0 && node.getBytesRemainingToWrite() > 0;
     }
@@ -822,7 +1069,7 @@ public class MemcachedConnection extends SpyThread {
    * @param node the node to handle reads for.
    * @throws IOException can be raised during reading failures.
    */
-  private void handleReads(final MemcachedNode node) throws IOException {
+  protected void handleReads(final MemcachedNode node) throws IOException {
     Operation currentOp = node.getCurrentReadOp();
     if (currentOp instanceof TapAckOperationImpl) {
       node.removeCurrentReadOp();
@@ -832,7 +1079,7 @@ public class MemcachedConnection extends SpyThread {
     ByteBuffer rbuf = node.getRbuf();
     final SocketChannel channel = node.getChannel();
     int read = channel.read(rbuf);
-    metrics.updateHistogram(OVERALL_AVG_BYTES_READ_METRIC, read);
+    bytesReadHistogram.update(read);
     if (read < 0) {
       currentOp = handleReadsWhenChannelEndOfStream(currentOp, node, rbuf);
     }
@@ -841,27 +1088,47 @@ public class MemcachedConnection extends SpyThread {
       getLogger().debug("Read %d bytes", read);
       rbuf.flip();
       while (rbuf.remaining() > 0) {
+        if (currentOp == null) {
+          // A blocking read may have started before the operation was
+          // handed over for reading.
+          currentOp = node.getCurrentReadOp();
+        }
         if (currentOp == null) {
           throw new IllegalStateException("No read operation.");
         }
 
-        long timeOnWire =
-          System.nanoTime() - currentOp.getWriteCompleteTimestamp();
-        metrics.updateHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC,
-          (int)(timeOnWire / 1000));
-        metrics.markMeter(OVERALL_RESPONSE_METRIC);
-        synchronized(currentOp) {
+        if (metricsEnabled) {
+          long timeOnWire =
+            System.nanoTime() - currentOp.getWriteCompleteTimestamp();
+          timeOnWireHistogram.update(timeOnWire / 1000);
+          responseMeter.increment();
+        }
+        currentOp.getLock().lock();
+        try {
           readBufferAndLogMetrics(currentOp, rbuf, node);
+        } finally {
+          currentOp.getLock().unlock();
         }
 
         currentOp = node.getCurrentReadOp();
       }
+      responsesHandled(node);
       rbuf.clear();
       read = channel.read(rbuf);
       node.completedRead();
     }
   }
 
+  /**
+   * Called after the responses in the read buffer of a node were handled,
+   * before reading more.
+   *
+   * @param node the node the responses came from.
+   */
+  protected void responsesHandled(final MemcachedNode node) {
+    // Write interest is fixed up once the IO of the node is handled.
+  }
+
   /**
    * Read from the buffer and add metrics information.
    *
@@ -872,6 +1139,11 @@ public class MemcachedConnection extends SpyThread {
    */
   private void readBufferAndLogMetrics(final Operation currentOp,
     final ByteBuffer rbuf, final MemcachedNode node) throws IOException {
+    OperationLatencies latencies = metricsEnabled ? node.getLatencies() : null;
+    if (latencies != null) {
+      latencies.responseRead(currentOp, System.nanoTime());
+    }
+    currentOp.traceStage(OperationStage.FIRST_BYTE);
     currentOp.readFromBuffer(rbuf);
     if (currentOp.getState() == OperationState.COMPLETE) {
       getLogger().debug("Completed read op: %s and giving the next %d "
@@ -879,24 +1151,29 @@ public class MemcachedConnection extends SpyThread {
       Operation op = node.removeCurrentReadOp();
       assert op == currentOp : "Expected to pop " + currentOp + " got "
         + op;
+      if (latencies != null) {
+        latencies.completed(op, System.nanoTime());
+      }
 
       if (op.hasErrored()) {
-        metrics.markMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        responseFailureMeter.increment();
       } else {
-        metrics.markMeter(OVERALL_RESPONSE_SUCC_METRIC);
+        responseSuccessMeter.increment();
       }
     } else if (currentOp.getState() == OperationState.RETRY) {
       handleRetryInformation(currentOp.getErrorMsg());
       getLogger().debug("Reschedule read op due to NOT_MY_VBUCKET error: "
         + "%s ", currentOp);
-      ((VBucketAware) currentOp).addNotMyVbucketNode(
-        currentOp.getHandlingNode());
+      if (currentOp instanceof VBucketAware) {
+        ((VBucketAware) currentOp).addNotMyVbucketNode(
+          currentOp.getHandlingNode());
+      }
       Operation op = node.removeCurrentReadOp();
       assert op == currentOp : "Expected to pop " + currentOp + " got "
         + op;
 
       retryOperation(currentOp);
-      metrics.markMeter(OVERALL_RESPONSE_RETRY_METRIC);
+      responseRetryMeter.increment();
     }
   }
 
@@ -970,6 +1247,25 @@ public class MemcachedConnection extends SpyThread {
     if (shutDown) {
       return;
     }
+    long delay = closeForReconnect(node);
+    long reconnectTime = System.currentTimeMillis() + delay;
+    while (reconnectQueue.containsKey(reconnectTime)) {
+      reconnectTime++;
+    }
+
+    reconnectQueue.put(reconnectTime, node);
+    reconnectQueueCounter.increment();
+
+    requeueAfterDisconnect(node);
+  }
+
+  /**
+   * Close the channel of a node that is about to be reconnected.
+   *
+   * @param node the node to reconnect.
+   * @return the number of milliseconds to wait before reconnecting.
+   */
+  protected long closeForReconnect(final MemcachedNode node) {
     getLogger().warn("Closing, and reopening %s, attempt %d.", node,
       node.getReconnectCount());
 
@@ -990,16 +1286,17 @@ public class MemcachedConnection extends SpyThread {
     }
     node.setChannel(null);
 
-    long delay = (long) Math.min(maxDelay, Math.pow(2,
+    return (long) Math.min(maxDelay, Math.pow(2,
         node.getReconnectCount()) * 1000);
-    long reconnectTime = System.currentTimeMillis() + delay;
-    while (reconnectQueue.containsKey(reconnectTime)) {
-      reconnectTime++;
-    }
-
-    reconnectQueue.put(reconnectTime, node);
-    metrics.incrementCounter(RECON_QUEUE_METRIC);
+  }
 
+  /**
+   * Reset the queues of a disconnected node and, depending on the
+   * {@link FailureMode}, move its pending operations elsewhere.
+   *
+   * @param node the node that lost its connection.
+   */
+  protected void requeueAfterDisconnect(final MemcachedNode node) {
     node.setupResend();
     if (failureMode == FailureMode.Redistribute) {
       redistributeOperations(node.destroyInputQueue());
@@ -1062,7 +1359,15 @@ public class MemcachedConnection extends SpyThread {
       return;
     }
 
-    if (op instanceof MultiGetOperationImpl) {
+    // The clones take permits of their own, and the original never
+    // completes to give its permit back.
+    releasePermit(op);
+
+    if (op instanceof PipelinedOperationImpl) {
+      for (Operation o : ((PipelinedOperationImpl) op).getRetryOperations()) {
+        redistributeOperation(o);
+      }
+    } else if (op instanceof MultiGetOperationImpl) {
       for (String key : ((MultiGetOperationImpl) op).getRetryKeys()) {
         addOperation(key, opFact.get(key,
           (GetOperation.Callback) op.getCallback()));
@@ -1114,7 +1419,7 @@ public class MemcachedConnection extends SpyThread {
     while(i.hasNext()) {
       final MemcachedNode node = i.next();
       i.remove();
-      metrics.decrementCounter(RECON_QUEUE_METRIC);
+      reconnectQueueCounter.add(-1);
 
       try {
         if (!belongsToCluster(node)) {
@@ -1240,7 +1545,7 @@ public class MemcachedConnection extends SpyThread {
 
     assert o.isCancelled() || placeIn != null : "No node found for key " + key;
     if (placeIn != null) {
-      addOperation(placeIn, o);
+      addOperation(placeIn, getConnection(placeIn, key), o);
     } else {
       assert o.isCancelled() : "No node found for " + key + " (and not "
         + "immediately cancelled)";
@@ -1257,34 +1562,208 @@ public class MemcachedConnection extends SpyThread {
     o.setHandlingNode(node);
     o.initialize();
     node.insertOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
-
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    requestMeter.increment();
+    operationsAdded(node);
     getLogger().debug("Added %s to %s", o, node);
   }
 
   /**
    * Enqueue an operation on the given node.
    *
-   * @param node the node where to enqueue the {@link Operation}.
+   * If there is more than one connection to the server of the node, an
+   * operation on keys goes to the connection of its first key, and any other
+   * operation to the least loaded connection.
+   *
+   * @param primary the node where to enqueue the {@link Operation}.
    * @param o the operation to add.
    */
-  protected void addOperation(final MemcachedNode node, final Operation o) {
+  protected void addOperation(final MemcachedNode primary, final Operation o) {
+    MemcachedNode node = null;
+    if (o instanceof KeyedOperation) {
+      Iterator<String> keys = ((KeyedOperation) o).getKeys().iterator();
+      if (keys.hasNext()) {
+        node = getConnection(primary, keys.next());
+      }
+    }
+    addOperation(primary, node == null ? leastLoaded(primary) : node, o);
+  }
+
+  /**
+   * Enqueue an operation on the given connection to the server of a node.
+   *
+   * @param primary the node the operation was added to.
+   * @param node the connection to enqueue the operation on.
+   * @param o the operation to add.
+   */
+  private void addOperation(final MemcachedNode primary,
+    final MemcachedNode node, final Operation o) {
+    if (!canMeetTimeout(node, o)) {
+      getLogger().debug("Rejecting %s, %s can't complete it in time", o, node);
+      o.timeOut();
+      return;
+    }
     if (!node.isAuthenticated()) {
       retryOperation(o);
       return;
     }
     o.setHandlingNode(node);
     o.initialize();
+    if (!admit(serverOf(primary), o)) {
+      getLogger().debug("Rejecting %s, admission limits reached", o);
+      ClientEvents.get().rejected(node, o, "admission limits reached");
+      o.reject();
+      return;
+    }
+    if (tracer != null && tracer.isTraced(o)) {
+      o.enableTracing(tracer);
+    }
+    o.traceStage(OperationStage.ENQUEUED);
     node.addOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    requestMeter.increment();
+    operationsAdded(node);
+    getLogger().debug("Added %s to %s", o, node);
+  }
+
+  /**
+   * Take an admission permit for the operation, sized by its write buffer.
+   *
+   * Operations that are added again after a retry or redistribution keep
+   * the permit they already hold.
+   *
+   * @param primary the node the operation was added to.
+   * @param o the initialized operation.
+   * @return false if the operation should be rejected.
+   */
+  private boolean admit(final MemcachedNode primary, final Operation o) {
+    if (admission == null || o.getPermit() != null
+        || o instanceof TapOperation) {
+      return true;
+    }
+    ByteBuffer buffer = o.getBuffer();
+    AdmissionController.Permit permit = admission.tryAcquire(primary,
+      buffer == null ? 0 : buffer.remaining());
+    if (permit == null) {
+      return false;
+    }
+    o.setPermit(permit);
+    return true;
+  }
+
+  /**
+   * Give back the admission permit of an operation replaced by clones.
+   *
+   * @param o the operation being replaced.
+   */
+  private static void releasePermit(final Operation o) {
+    AdmissionController.Permit permit = o.getPermit();
+    if (permit != null) {
+      o.setPermit(null);
+      permit.release();
+    }
+  }
 
+  /**
+   * Returns the admission controller bounding the operations in flight.
+   *
+   * @return the admission controller, or null if admission is not bounded.
+   */
+  public AdmissionController getAdmissionController() {
+    return admission;
+  }
+
+  /**
+   * Signal that operations were queued on the given node.
+   *
+   * Hands the node to the IO thread and wakes up the selector.
+   *
+   * @param node the node that has new operations.
+   */
+  protected void operationsAdded(final MemcachedNode node) {
+    addedQueue.offer(node);
     Selector s = selector.wakeup();
     assert s == selector : "Wakeup returned the wrong selector.";
-    getLogger().debug("Added %s to %s", o, node);
+  }
+
+  /**
+   * Check if the node is expected to complete the operation before its own
+   * timeout passes.
+   *
+   * @param node the node to add the operation to.
+   * @param o the operation.
+   * @return false if the operation should be rejected.
+   */
+  private boolean canMeetTimeout(final MemcachedNode node, final Operation o) {
+    long timeout = o.getTimeout();
+    if (timeout <= 0) {
+      return true;
+    }
+    long remaining = o.getCreationTime()
+      + TimeUnit.MILLISECONDS.toNanos(timeout) - System.nanoTime();
+    return remaining > 0 && node.getEstimatedCompletionTime() <= remaining;
+  }
+
+  /**
+   * Get the connection to the server of the given node that operations on a
+   * key go to, so reads of the key are written after its writes.
+   *
+   * The connection is picked by the hash of the key. If it is down, the next
+   * connection up is used instead.
+   *
+   * @param node a node of the server.
+   * @param key the key.
+   * @return the node of the connection to use.
+   */
+  public MemcachedNode getConnection(final MemcachedNode node,
+    final String key) {
+    MemcachedNode[] group = connectionGroups.get(node);
+    if (group == null) {
+      return node;
+    }
+    int first = (key.hashCode() & Integer.MAX_VALUE) % group.length;
+    for (int i = 0; i < group.length; i++) {
+      MemcachedNode n = group[(first + i) % group.length];
+      if (n.isActive() && n.isAuthenticated()) {
+        return n;
+      }
+    }
+    return group[first];
+  }
+
+  /**
+   * Get the node the locator knows for the server of a connection.
+   *
+   * @param node the node of a connection.
+   * @return the first connection to the same server.
+   */
+  private MemcachedNode serverOf(final MemcachedNode node) {
+    MemcachedNode[] group = connectionGroups.get(node);
+    return group == null ? node : group[0];
+  }
+
+  /**
+   * Pick the connection with the fewest pending operations out of all
+   * connections to the server of the given node.
+   *
+   * @param node a node of the server.
+   * @return the node to use.
+   */
+  private MemcachedNode leastLoaded(final MemcachedNode node) {
+    MemcachedNode[] group = connectionGroups.get(node);
+    if (group == null) {
+      return node;
+    }
+    MemcachedNode rv = node;
+    int least = Integer.MAX_VALUE;
+    for (MemcachedNode n : group) {
+      if (n.isActive() && n.isAuthenticated()) {
+        int pending = n.getPendingOperationCount();
+        if (pending < least) {
+          least = pending;
+          rv = n;
+        }
+      }
+    }
+    return rv;
   }
 
   /**
@@ -1324,12 +1803,10 @@ public class MemcachedConnection extends SpyThread {
       op.initialize();
       node.addOp(op);
       op.setHandlingNode(node);
-      addedQueue.offer(node);
-      metrics.markMeter(OVERALL_REQUEST_METRIC);
+      requestMeter.increment();
+      operationsAdded(node);
     }
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
     return latch;
   }
 
@@ -1341,7 +1818,7 @@ public class MemcachedConnection extends SpyThread {
     try {
       Selector s = selector.wakeup();
       assert s == selector : "Wakeup returned the wrong selector.";
-      for (MemcachedNode node : locator.getAll()) {
+      for (MemcachedNode node : getAllNodes()) {
         if (node.getChannel() != null) {
           node.getChannel().close();
           node.setSk(null);
@@ -1379,7 +1856,7 @@ public class MemcachedConnection extends SpyThread {
   public String connectionsStatus() {
     StringBuilder connStatus = new StringBuilder();
     connStatus.append("Connection Status {");
-    for (MemcachedNode node : locator.getAll()) {
+    for (MemcachedNode node : getAllNodes()) {
       connStatus
         .append(" ")
         .append(node.getSocketAddress())
@@ -1389,6 +1866,10 @@ public class MemcachedConnection extends SpyThread {
         .append(node.isAuthenticated())
         .append(MessageFormat.format(", last read: {0} ms ago",
           node.lastReadDelta()));
+      if (node.getInFlightLimit() > 0) {
+        connStatus.append(", in flight limit: ")
+          .append(node.getInFlightLimit());
+      }
     }
     connStatus.append(" }");
     return connStatus.toString();
@@ -1498,6 +1979,32 @@ public class MemcachedConnection extends SpyThread {
     return shutDown;
   }
 
+  /**
+   * Time out the given operation if it did not complete within its own
+   * timeout, counted from its creation.
+   *
+   * Called once the operation is written, the IO thread times it out.
+   * Operations without a timeout of their own are left to the caller waiting
+   * on their future, and TAP streams are never timed out.
+   *
+   * @param op the written operation.
+   */
+  public void scheduleTimeout(final Operation op) {
+    if (op.getTimeout() > 0 && !(op instanceof TapOperation)) {
+      timeouts.schedule(op);
+    }
+  }
+
+  /**
+   * Shorten the delay of a select if operations wait to be timed out.
+   *
+   * @param delay the delay in milliseconds.
+   * @return the delay to use.
+   */
+  protected long getSelectDelay(final long delay) {
+    return timeouts.delay(delay);
+  }
+
   /**
    * Add a operation to the retry queue.
    *
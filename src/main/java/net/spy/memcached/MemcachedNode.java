@@ -30,6 +30,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
+import net.spy.memcached.metrics.OperationLatencies;
 import net.spy.memcached.ops.Operation;
 
 /**
@@ -40,8 +41,10 @@ public interface MemcachedNode {
   /**
    * Move all of the operations delivered via addOperation into the internal
    * write queue.
+   *
+   * @return the number of operations moved.
    */
-  void copyInputQueue();
+  int copyInputQueue();
 
   /**
    * Extract all queued items for this node destructively.
@@ -239,6 +242,56 @@ public interface MemcachedNode {
 
   int getContinuousTimeout();
 
+  /**
+   * Get the number of operations queued on or awaiting a response from this
+   * node.
+   *
+   * This is used to balance operations over several connections to the same
+   * server.
+   */
+  int getPendingOperationCount();
+
+  /**
+   * Get the number of operations added to this node but not yet moved to
+   * its write queue.
+   */
+  int getInputQueueSize();
+
+  /**
+   * Get the number of operations waiting to be written to this node.
+   */
+  int getWriteQueueSize();
+
+  /**
+   * Get the number of operations awaiting a response from this node.
+   */
+  int getReadQueueSize();
+
+  /**
+   * Estimate how long an operation added now would take to complete, given
+   * the operations already pending on this node.
+   *
+   * @return the estimate in nanoseconds, or 0 if there is none yet.
+   */
+  long getEstimatedCompletionTime();
+
+  /**
+   * Get the current limit on the operations awaiting a response from this
+   * node, which adapts to the latency of the server.
+   *
+   * Operations beyond the limit wait in the write queue of the node.
+   *
+   * @return the limit, or 0 if there is no adaptive limit.
+   */
+  int getInFlightLimit();
+
+  /**
+   * Get the latencies of the operations completed by this node.
+   *
+   * @return the latencies, or null if they are not recorded.
+   */
+  OperationLatencies getLatencies();
+
   MemcachedConnection getConnection();
 
   void setConnection(MemcachedConnection connection);
@@ -30,6 +30,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
+import net.spy.memcached.metrics.OperationLatencies;
 import net.spy.memcached.ops.Operation;
 
 public class MemcachedNodeROImpl implements MemcachedNode {
@@ -58,7 +59,7 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
-  public void copyInputQueue() {
+  public int copyInputQueue() {
     throw new UnsupportedOperationException();
   }
 
@@ -174,6 +175,34 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public int getPendingOperationCount() {
+    return root.getPendingOperationCount();
+  }
+
+  public int getInputQueueSize() {
+    return root.getInputQueueSize();
+  }
+
+  public int getWriteQueueSize() {
+    return root.getWriteQueueSize();
+  }
+
+  public int getReadQueueSize() {
+    return root.getReadQueueSize();
+  }
+
+  public long getEstimatedCompletionTime() {
+    return root.getEstimatedCompletionTime();
+  }
+
+  public int getInFlightLimit() {
+    return root.getInFlightLimit();
+  }
+
+  public OperationLatencies getLatencies() {
+    return root.getLatencies();
+  }
+
   public void setContinuousTimeout(boolean isIncrease) {
     throw new UnsupportedOperationException();
   }
@@ -53,6 +53,7 @@ import net.spy.memcached.ops.UnlockOperation;
 import net.spy.memcached.ops.VersionOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.transcoders.StreamingTranscoder;
 
 import javax.security.auth.callback.CallbackHandler;
 import java.util.Collection;
@@ -239,6 +240,24 @@ public interface OperationFactory {
   StoreOperation store(StoreType storeType, String key, int flags, int exp,
       byte[] data, StoreOperation.Callback cb);
 
+  /**
+   * Create a store operation that lets the transcoder encode the value
+   * directly into the request.
+   *
+   * <p>Protocols which cannot stream the value will encode it into an
+   * intermediate array and create a regular store operation instead.</p>
+   *
+   * @param storeType the type of store operation
+   * @param key the key to store
+   * @param exp the expiration time
+   * @param value the value to encode
+   * @param tc the transcoder to encode the value with
+   * @param cb the status callback
+   * @return the new store operation
+   */
+  <T> StoreOperation store(StoreType storeType, String key, int exp, T value,
+      StreamingTranscoder<T> tc, StoreOperation.Callback cb);
+
   /**
    * Resets a keys expiration time.
    *
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.util.MpscRingBlockingQueue;
+
+/**
+ * A hashed timing wheel that times out written operations with a timeout of
+ * their own, so they complete even if the server never answers.
+ *
+ * Any thread may {@link #schedule(Operation)} an operation. Scheduled
+ * operations are handed to the IO thread through a ring queue, which puts
+ * them into the bucket of the tick their deadline falls into. Every bucket
+ * is an array that grows on demand and is reused, so scheduling takes
+ * constant time and does not allocate. Operations that don't fit into the
+ * ring wait in an unbounded overflow queue instead. Operations that complete before
+ * their deadline are not removed, they are dropped when their bucket comes
+ * around.
+ *
+ * Only the IO thread may call {@link #expire()}.
+ */
+final class OperationTimeoutWheel extends SpyObject {
+
+  /**
+   * Duration of a tick of the wheel in milliseconds.
+   */
+  static final long TICK_MILLIS = 50;
+
+  /**
+   * Number of operations that can wait to be scheduled without overflowing.
+   */
+  static final int PENDING_SIZE = 16384;
+
+  private static final int BUCKETS = 128;
+  private static final int INITIAL_BUCKET_SIZE = 16;
+
+  private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+  private final long start = System.nanoTime();
+  private final BlockingQueue<Operation> pending =
+    new MpscRingBlockingQueue<Operation>(PENDING_SIZE);
+  private final Queue<Operation> overflow =
+    new ConcurrentLinkedQueue<Operation>();
+  private final Operation[][] buckets = new Operation[BUCKETS][];
+  private final int[] sizes = new int[BUCKETS];
+  private long currentTick;
+  private int scheduled;
+
+  /**
+   * Time out the given operation once it exceeds its own timeout, counted
+   * from its creation.
+   *
+   * @param op the operation, with a timeout of its own
+   */
+  void schedule(Operation op) {
+    assert op.getTimeout() > 0 : "Operation without a timeout";
+    if (!pending.offer(op)) {
+      if (overflow.isEmpty()) {
+        getLogger().warn("More than %d operations waiting to be scheduled, "
+          + "the IO thread is falling behind", PENDING_SIZE);
+      }
+      overflow.add(op);
+    }
+  }
+
+  /**
+   * Whether there are operations left to check.
+   *
+   * @return true if nothing is scheduled
+   */
+  boolean isEmpty() {
+    return scheduled == 0 && pending.isEmpty() && overflow.isEmpty();
+  }
+
+  /**
+   * Milliseconds until the wheel wants to be checked again.
+   *
+   * @param delay the delay to shorten
+   * @return the given delay, or less if operations are scheduled
+   */
+  long delay(long delay) {
+    return isEmpty() ? delay : Math.min(delay, TICK_MILLIS);
+  }
+
+  /**
+   * Time out the operations whose deadline has passed.
+   *
+   * @return the number of operations timed out
+   */
+  int expire() {
+    long now = System.nanoTime();
+    long tick = (now - start) / tickNanos;
+    Operation op;
+    while ((op = pending.poll()) != null) {
+      add(op);
+    }
+    while ((op = overflow.poll()) != null) {
+      add(op);
+    }
+
+    int expired = 0;
+    // A tick is handled once it has passed completely, so all operations
+    // of the current round in its bucket are due.
+    for (int i = 0; currentTick < tick && i < BUCKETS; i++) {
+      expired += expire((int) (currentTick & (BUCKETS - 1)), now);
+      currentTick++;
+    }
+    // Every bucket has been handled if the wheel fell behind by more than a
+    // round.
+    currentTick = Math.max(currentTick, tick);
+    return expired;
+  }
+
+  private long timeoutOf(Operation op) {
+    return TimeUnit.MILLISECONDS.toNanos(op.getTimeout());
+  }
+
+  private long tick(long nanos) {
+    return (nanos - start) / tickNanos;
+  }
+
+  private void add(Operation op) {
+    add(op, Math.max(tick(op.getCreationTime() + timeoutOf(op)),
+      currentTick));
+  }
+
+  private void add(Operation op, long tick) {
+    int b = (int) (tick & (BUCKETS - 1));
+    Operation[] bucket = buckets[b];
+    if (bucket == null) {
+      bucket = new Operation[INITIAL_BUCKET_SIZE];
+      buckets[b] = bucket;
+    } else if (sizes[b] == bucket.length) {
+      Operation[] grown = new Operation[bucket.length * 2];
+      System.arraycopy(bucket, 0, grown, 0, bucket.length);
+      bucket = grown;
+      buckets[b] = bucket;
+    }
+    bucket[sizes[b]++] = op;
+    scheduled++;
+  }
+
+  private int expire(int b, long now) {
+    Operation[] bucket = buckets[b];
+    int size = sizes[b];
+    int kept = 0;
+    int expired = 0;
+    for (int i = 0; i < size; i++) {
+      Operation op = bucket[i];
+      bucket[i] = null;
+      if (op.getState() == OperationState.COMPLETE || op.isCancelled()
+        || op.isTimedOut()) {
+        continue;
+      }
+      if (now - op.getCreationTime() < timeoutOf(op)) {
+        // Due in a later round.
+        bucket[kept++] = op;
+        continue;
+      }
+      timeOut(op);
+      expired++;
+    }
+    scheduled -= size - kept;
+    sizes[b] = kept;
+    return expired;
+  }
+
+  private void timeOut(Operation op) {
+    getLogger().debug("Timing out %s", op);
+    MemcachedConnection.opTimedOut(op);
+    op.timeOut();
+  }
+}
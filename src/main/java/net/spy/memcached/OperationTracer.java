@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStage;
+
+/**
+ * Users of this interface receive the timestamps of the stages that traced
+ * operations passed through.
+ *
+ * <p>
+ * Only the operations chosen by {@link #isTraced(Operation)} record their
+ * stages; the others take no clock readings and allocate nothing for
+ * tracing. Operations merged by the optimizer pass through the later stages
+ * along with the merged operation.
+ * </p>
+ */
+public interface OperationTracer {
+
+  /**
+   * Decide if an operation is traced. This is called once the operation is
+   * added to a node, on the thread adding it.
+   *
+   * @param op the operation
+   * @return true if the stages of the operation should be recorded
+   */
+  boolean isTraced(Operation op);
+
+  /**
+   * A traced operation completed, was cancelled or timed out. The
+   * timestamps of its stages are given by
+   * {@link Operation#getStageTimestamp(OperationStage)}, those it never
+   * reached are 0.
+   *
+   * This is called on the thread that completed the operation, usually the
+   * IO thread, so it must not block.
+   *
+   * @param op the operation
+   */
+  void traced(Operation op);
+}
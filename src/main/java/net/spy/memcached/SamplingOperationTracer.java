@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStage;
+
+/**
+ * An {@link OperationTracer} that logs the traces of a fraction of all
+ * operations and of every operation slower than a threshold.
+ *
+ * <p>
+ * Without a threshold, only the sampled operations are traced at all. With
+ * a threshold every operation records its stages, so the slow ones can be
+ * told apart once they complete.
+ * </p>
+ */
+public class SamplingOperationTracer extends SpyObject
+  implements OperationTracer {
+
+  private static final OperationStage[] STAGES = OperationStage.values();
+
+  private final double fraction;
+  private final long threshold;
+  private final Random random = new Random();
+
+  /**
+   * Trace a fraction of all operations.
+   *
+   * @param fraction the fraction of operations traced, from 0 to 1
+   */
+  public SamplingOperationTracer(double fraction) {
+    this(fraction, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Trace a fraction of all operations and the slow ones.
+   *
+   * @param fraction the fraction of operations traced, from 0 to 1
+   * @param threshold the time from creation to completion above which an
+   *          operation is traced, 0 to only sample
+   * @param unit the unit of the threshold
+   */
+  public SamplingOperationTracer(double fraction, long threshold,
+      TimeUnit unit) {
+    if (fraction < 0 || fraction > 1) {
+      throw new IllegalArgumentException("Fraction must be between 0 and 1");
+    }
+    if (threshold < 0) {
+      throw new IllegalArgumentException("Threshold must be >= 0");
+    }
+    this.fraction = fraction;
+    this.threshold = unit.toNanos(threshold);
+  }
+
+  private boolean sample() {
+    return fraction > 0 && random.nextDouble() < fraction;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.OperationTracer#isTraced(Operation)
+   */
+  public boolean isTraced(Operation op) {
+    return threshold > 0 || sample();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.OperationTracer#traced(Operation)
+   */
+  public void traced(Operation op) {
+    if (threshold == 0 || duration(op) >= threshold || sample()) {
+      emit(op, format(op));
+    }
+  }
+
+  private static long duration(Operation op) {
+    return op.getStageTimestamp(OperationStage.COMPLETED)
+      - op.getStageTimestamp(OperationStage.CREATED);
+  }
+
+  /**
+   * Format the trace of an operation, giving each stage in nanoseconds
+   * since its creation.
+   *
+   * @param op the traced operation
+   * @return the trace
+   */
+  protected String format(Operation op) {
+    StringBuilder sb = new StringBuilder("Trace of ").append(op).append(':');
+    long created = op.getStageTimestamp(OperationStage.CREATED);
+    for (OperationStage stage : STAGES) {
+      long ts = op.getStageTimestamp(stage);
+      sb.append(' ').append(stage).append('=');
+      if (ts == 0) {
+        sb.append('-');
+      } else {
+        sb.append('+').append(ts - created).append("ns");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Emit the trace of an operation. By default it is logged at info level.
+   *
+   * @param op the traced operation
+   * @param trace the formatted trace
+   */
+  protected void emit(Operation op, String trace) {
+    getLogger().info(trace);
+  }
+}
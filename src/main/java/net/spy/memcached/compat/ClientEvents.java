@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.compat;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Notable events of the client, which are emitted to Java Flight Recorder
+ * when it is available.
+ *
+ * <p>
+ * This class discards all events. On a JVM with Flight Recorder, the
+ * instance returned by {@link #get()} records them as the events of the
+ * net.spy.memcached.jfr package instead, which are enabled and thresholded
+ * through the usual recording settings.
+ * </p>
+ */
+public class ClientEvents {
+
+  private static final String FLIGHT_RECORDER_EVENTS =
+    "net.spy.memcached.jfr.FlightRecorderEvents";
+
+  private static final ClientEvents INSTANCE = load();
+
+  protected ClientEvents() {
+    super();
+  }
+
+  private static ClientEvents load() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return (ClientEvents) Class.forName(FLIGHT_RECORDER_EVENTS)
+        .getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      return new ClientEvents();
+    } catch (LinkageError e) {
+      return new ClientEvents();
+    }
+  }
+
+  /**
+   * Get the events of this JVM.
+   */
+  public static ClientEvents get() {
+    return INSTANCE;
+  }
+
+  /**
+   * The connection to a node was lost.
+   *
+   * @param node the node
+   */
+  public void connectionLost(MemcachedNode node) {
+    // discarded
+  }
+
+  /**
+   * The connection to a node was established again.
+   *
+   * @param node the node
+   * @param attempts the failed attempts before the connection was made
+   */
+  public void reconnected(MemcachedNode node, int attempts) {
+    // discarded
+  }
+
+  /**
+   * An operation was rejected before it was queued.
+   *
+   * @param node the node the operation was meant for
+   * @param op the operation
+   * @param reason why it was rejected
+   */
+  public void rejected(MemcachedNode node, Operation op, String reason) {
+    // discarded
+  }
+
+  /**
+   * The optimizer merged operations into one.
+   *
+   * @param node the node of the operations
+   * @param type the kind of merge
+   * @param ops the number of operations merged
+   * @param bytes the bytes written by the merged operation
+   */
+  public void optimized(MemcachedNode node, String type, int ops, int bytes) {
+    // discarded
+  }
+
+  /**
+   * A value is about to be compressed.
+   *
+   * @return a token to pass to {@link #compressed(Object, int, int)}, or
+   *         null if compressions are not recorded
+   */
+  public Object compressing() {
+    return null;
+  }
+
+  /**
+   * A value was compressed.
+   *
+   * @param token the token returned by {@link #compressing()}
+   * @param in the bytes before compression
+   * @param out the bytes after compression
+   */
+  public void compressed(Object token, int in, int out) {
+    // discarded
+  }
+}
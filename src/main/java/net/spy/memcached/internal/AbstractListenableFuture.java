@@ -25,18 +25,20 @@ package net.spy.memcached.internal;
 
 import net.spy.memcached.compat.SpyObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The {@link AbstractListenableFuture} implements common functionality shared
  * by all futures that implement the {@link ListenableFuture}.
  *
  * It handles storage and notification of listeners and making sure this is
- * done in a thread-safe manner. The subclassing methods need to implement
- * the abstract methods, which in turn need to call both
+ * done in a thread-safe manner without taking a lock. Each registered listener
+ * is notified exactly once, even if completion and registration race. The
+ * subclassing methods need to implement the abstract methods, which in turn
+ * need to call both
  * {@link #addToListeners(GenericCompletionListener)} and
  * {@link #removeFromListeners(GenericCompletionListener)}. See the
  * {@link OperationFuture} as an example.
@@ -51,10 +53,18 @@ public abstract class AbstractListenableFuture
    */
   private final ExecutorService service;
 
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<AbstractListenableFuture,
+    ConcurrentLinkedQueue> LISTENERS = AtomicReferenceFieldUpdater.newUpdater(
+      AbstractListenableFuture.class, ConcurrentLinkedQueue.class, "listeners");
+
   /**
-   * Holds the list of listeners which will be notified upon completion.
+   * Holds the listeners which will be notified upon completion.
+   *
+   * Created on first registration, since most futures never get one.
    */
-  private List<GenericCompletionListener<? extends Future<T>>> listeners;
+  private volatile ConcurrentLinkedQueue<
+    GenericCompletionListener<? extends Future<T>>> listeners;
 
   /**
    * Creates a new {@link AbstractListenableFuture}.
@@ -63,7 +73,6 @@ public abstract class AbstractListenableFuture
    */
   protected AbstractListenableFuture(ExecutorService executor) {
     service = executor;
-    listeners = new ArrayList<GenericCompletionListener<? extends Future<T>>>();
   }
 
   /**
@@ -90,9 +99,15 @@ public abstract class AbstractListenableFuture
       throw new IllegalArgumentException("The listener can't be null.");
     }
 
-    synchronized(this) {
-      listeners.add(listener);
+    ConcurrentLinkedQueue<GenericCompletionListener<? extends Future<T>>> q =
+      listeners;
+    if (q == null) {
+      LISTENERS.compareAndSet(this, null,
+        new ConcurrentLinkedQueue<
+          GenericCompletionListener<? extends Future<T>>>());
+      q = listeners;
     }
+    q.add(listener);
 
     if(isDone()) {
       notifyListeners();
@@ -141,14 +156,13 @@ public abstract class AbstractListenableFuture
    * @param future the future to pass on to the listeners.
    */
   protected void notifyListeners(final Future<?> future) {
-    final List<GenericCompletionListener<? extends Future<T>>> copy =
-      new ArrayList<GenericCompletionListener<? extends Future<T>>>();
-    synchronized(this) {
-      copy.addAll(listeners);
-      listeners = new ArrayList<GenericCompletionListener<? extends Future<T>>>();
+    ConcurrentLinkedQueue<GenericCompletionListener<? extends Future<T>>> q =
+      listeners;
+    if (q == null) {
+      return;
     }
-    for (GenericCompletionListener<? extends Future<? super T>> listener
-      : copy) {
+    GenericCompletionListener<? extends Future<T>> listener;
+    while ((listener = q.poll()) != null) {
       notifyListener(executor(), future, listener);
     }
   }
@@ -165,10 +179,10 @@ public abstract class AbstractListenableFuture
       throw new IllegalArgumentException("The listener can't be null.");
     }
 
-    if (!isDone()) {
-      synchronized(this) {
-        listeners.remove(listener);
-      }
+    ConcurrentLinkedQueue<GenericCompletionListener<? extends Future<T>>> q =
+      listeners;
+    if (q != null && !isDone()) {
+      q.remove(listener);
     }
     return this;
   }
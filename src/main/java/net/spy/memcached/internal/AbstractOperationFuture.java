@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.internal;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Base of the futures of single operations.
+ *
+ * <p>Futures created without a latch complete through
+ * {@link #signalComplete()} alone: completion is a single compare-and-set on a
+ * state word and blocked callers are parked until it happens, so no latch or
+ * result holder has to be allocated per operation.</p>
+ *
+ * @param <T> Type of object returned from this future.
+ * @param <L> Type of the listeners of this future.
+ */
+public abstract class AbstractOperationFuture
+  <T, L extends GenericCompletionListener>
+  extends AbstractListenableFuture<T, L>
+  implements Future<T> {
+
+  private static final int PENDING = 0;
+  private static final int COMPLETE = 1;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<AbstractOperationFuture>
+  STATE = AtomicIntegerFieldUpdater.newUpdater(AbstractOperationFuture.class,
+    "state");
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<AbstractOperationFuture,
+    Waiter> WAITERS = AtomicReferenceFieldUpdater.newUpdater(
+      AbstractOperationFuture.class, Waiter.class, "waiters");
+
+  private final CountDownLatch latch;
+  private volatile int state;
+  private volatile Waiter waiters;
+  protected OperationStatus status;
+  private final long timeout;
+  private Operation op;
+  private final String key;
+
+  /**
+   * Create a future for a given async operation.
+   *
+   * @param k the key for the operation
+   * @param l the latch to be used counting down the future, or null if it
+   *          completes through {@link #signalComplete()} alone
+   * @param opTimeout the timeout within which the operation needs to be done
+   * @param service the executor the listeners are notified in
+   */
+  protected AbstractOperationFuture(String k, CountDownLatch l,
+    long opTimeout, ExecutorService service) {
+    super(service);
+    latch = l;
+    timeout = opTimeout;
+    key = k;
+  }
+
+  /**
+   * Cancel this operation, if possible.
+   *
+   * @param ign not used
+   * @deprecated
+   * @return true if the operation has not yet been written to the network
+   */
+  public boolean cancel(boolean ign) {
+    assert op != null : "No operation";
+    op.cancel();
+    notifyListeners();
+    return op.getState() == OperationState.WRITE_QUEUED;
+  }
+
+  /**
+   * Cancel this operation, if possible.
+   *
+   * @return true if the operation has not yet been written to the network
+   */
+  public boolean cancel() {
+    assert op != null : "No operation";
+    op.cancel();
+    notifyListeners();
+    return op.getState() == OperationState.WRITE_QUEUED;
+  }
+
+  /**
+   * Get the results of the given operation.
+   *
+   * As with the Future interface, this call will block until the results of
+   * the future operation has been received.
+   *
+   * @return the operation results of this future
+   * @throws InterruptedException
+   * @throws ExecutionException
+   */
+  public T get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for operation", e);
+    }
+  }
+
+  /**
+   * Wait for the operation to complete, failing if it didn't succeed.
+   *
+   * An operation with a timeout of its own, as given to
+   * {@link net.spy.memcached.MemcachedClient#asyncGet(String, long, TimeUnit)},
+   * is timed out by the connection once that timeout has passed since it was
+   * created, and this call then throws an ExecutionException caused by a
+   * CheckedOperationTimeoutException before the given duration is up. Other
+   * operations are waited on for the full duration.
+   *
+   * @param duration amount of time to wait
+   * @param units unit of time to wait
+   * @throws InterruptedException
+   * @throws TimeoutException
+   * @throws ExecutionException
+   */
+  protected final void waitFor(long duration, TimeUnit units)
+    throws InterruptedException, TimeoutException, ExecutionException {
+    if (!await(duration, units)) {
+      // whenever timeout occurs, continuous timeout counter will increase by 1.
+      MemcachedConnection.opTimedOut(op);
+      if (op != null) { // op can be null on a flush
+        op.timeOut();
+      }
+      throw new CheckedOperationTimeoutException(
+          "Timed out waiting for operation", op);
+    } else if (op == null || !op.isTimedOut()) {
+      // continuous timeout counter will be reset, unless the operation was
+      // timed out without anybody waiting on it
+      MemcachedConnection.opSucceeded(op);
+    }
+    if (op != null && op.hasErrored()) {
+      throw new ExecutionException(op.getException());
+    }
+    if (isCancelled()) {
+      throw new ExecutionException(new CancellationException("Cancelled"));
+    }
+    if (op != null && op.isRejected()) {
+      throw new ExecutionException(
+        new RejectedExecutionException("Rejected by admission control"));
+    }
+    if (op != null && op.isTimedOut()) {
+      throw new ExecutionException(new CheckedOperationTimeoutException(
+          "Operation timed out.", op));
+    }
+
+    /* TODO: re-add assertion that op.getState() == OperationState.COMPLETE */
+  }
+
+  /**
+   * Wait for the latch, or for {@link #signalComplete()} if there is none.
+   */
+  private boolean await(long duration, TimeUnit units)
+    throws InterruptedException {
+    if (latch != null) {
+      return latch.await(duration, units);
+    }
+    if (state == COMPLETE) {
+      return true;
+    }
+    final long deadline = System.nanoTime() + units.toNanos(duration);
+    Waiter w = null;
+    boolean queued = false;
+    try {
+      for (;;) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (state == COMPLETE) {
+          return true;
+        }
+        if (w == null) {
+          w = new Waiter(Thread.currentThread());
+        } else if (!queued) {
+          w.next = waiters;
+          queued = WAITERS.compareAndSet(this, w.next, w);
+        } else {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+    } finally {
+      if (w != null) {
+        // Abandoned waiters stay linked until completion, which unparks no
+        // one through them.
+        w.thread = null;
+      }
+    }
+  }
+
+  /**
+   * Mark this future complete and wake up all parked callers.
+   */
+  private void complete() {
+    if (!STATE.compareAndSet(this, PENDING, COMPLETE)) {
+      return;
+    }
+    Waiter w = WAITERS.getAndSet(this, null);
+    while (w != null) {
+      Thread t = w.thread;
+      if (t != null) {
+        w.thread = null;
+        LockSupport.unpark(t);
+      }
+      w = w.next;
+    }
+  }
+
+  /**
+   * Get the key for this operation.
+   *
+   * @return the key for this operation
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the current status of this operation.
+   *
+   * Note that the operation status may change as the operation is tried and
+   * potentially retried against the servers specified by the NodeLocator.
+   *
+   * The interrupted status of the current thread is cleared by this method.
+   * Inspect the returned OperationStatus to check whether an interruption has taken place.
+   *
+   * @return OperationStatus
+   */
+  public OperationStatus getStatus() {
+    if (status == null) {
+      try {
+        get();
+      } catch (InterruptedException e) {
+        status = new OperationStatus(false, "Interrupted", StatusCode.INTERRUPTED);
+      } catch (ExecutionException e) {
+        getLogger().warn("Error getting status of operation", e);
+      }
+    }
+    return status;
+  }
+
+  /**
+   *  Set the Operation associated with this future.
+   *
+   * This is intended for internal use only.
+   *
+   * @param to the Operation to set this future to be tracking
+   */
+  public void setOperation(Operation to) {
+    op = to;
+  }
+
+  /**
+   * Whether or not the Operation associated with this future has been
+   * canceled.
+   *
+   * One scenario in which this can occur is if the connection is lost and the
+   * Operation has been sent over the network.  In this case, the operation may
+   * or may not have reached the server before the connection was dropped.
+   *
+   * @return true if the Operation has been canceled
+   */
+  public boolean isCancelled() {
+    assert op != null : "No operation";
+    return op.isCancelled();
+  }
+
+  /**
+   * Whether or not the Operation is done and result can be retrieved with
+   * get().
+   *
+   * The most common way to wait for this future is to use the get() method
+   * which will block.  This method allows one to check if it's complete
+   * without blocking.
+   *
+   * @return true if the Operation is done
+   */
+  public boolean isDone() {
+    assert op != null : "No operation";
+    return state == COMPLETE || (latch != null && latch.getCount() == 0)
+        || op.isCancelled()
+        || op.getState() == OperationState.COMPLETE;
+  }
+
+  /**
+   * Signals that this future is complete.
+   *
+   * Callers blocked in {@link #get()} are released and the listeners are
+   * notified. Futures created with a latch additionally need it counted down.
+   */
+  public void signalComplete() {
+    complete();
+    notifyListeners();
+  }
+
+  /**
+   * A thread parked in {@link AbstractOperationFuture#get(long, TimeUnit)}.
+   */
+  private static final class Waiter {
+    private volatile Thread thread;
+    private Waiter next;
+
+    Waiter(Thread t) {
+      thread = t;
+    }
+  }
+
+}
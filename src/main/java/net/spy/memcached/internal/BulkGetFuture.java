@@ -32,6 +32,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -161,6 +162,14 @@ public class BulkGetFuture<T>
       if (op.hasErrored()) {
         throw new ExecutionException(op.getException());
       }
+      if (op.isRejected()) {
+        throw new ExecutionException(
+          new RejectedExecutionException("Rejected by admission control"));
+      }
+      if (op.isTimedOut()) {
+        // timed out by the connection while nobody was waiting
+        timedoutOps.add(op);
+      }
     }
     Map<String, T> m = new HashMap<String, T>();
     for (Map.Entry<String, Future<T>> me : rvMap.entrySet()) {
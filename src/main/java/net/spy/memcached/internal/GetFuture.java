@@ -31,7 +31,6 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationStatus;
 
 /**
@@ -42,52 +41,33 @@ import net.spy.memcached.ops.OperationStatus;
  * @param <T> Type of object returned from the get
  */
 public class GetFuture<T>
-  extends AbstractListenableFuture<T, GetCompletionListener>
-  implements Future<T> {
+  extends AbstractOperationFuture<T, GetCompletionListener> {
 
-  private final OperationFuture<Future<T>> rv;
+  private volatile Future<T> value;
 
-  public GetFuture(CountDownLatch l, long opTimeout, String key,
-    ExecutorService service) {
-    super(service);
-    this.rv = new OperationFuture<Future<T>>(key, l, opTimeout, service);
-  }
-
-  public boolean cancel(boolean ign) {
-    boolean result = rv.cancel(ign);
-    notifyListeners();
-    return result;
+  /**
+   * Create a GetFuture that completes without a latch, once
+   * {@link #signalComplete()} is called.
+   */
+  public GetFuture(long opTimeout, String key, ExecutorService service) {
+    super(key, null, opTimeout, service);
   }
 
-  public T get() throws InterruptedException, ExecutionException {
-    Future<T> v = rv.get();
-    return v == null ? null : v.get();
+  public GetFuture(CountDownLatch l, long opTimeout, String key,
+    ExecutorService service) {
+    super(key, l, opTimeout, service);
   }
 
   public T get(long duration, TimeUnit units) throws InterruptedException,
       TimeoutException, ExecutionException {
-    Future<T> v = rv.get(duration, units);
+    waitFor(duration, units);
+    Future<T> v = value;
     return v == null ? null : v.get();
   }
 
-  public OperationStatus getStatus() {
-    return rv.getStatus();
-  }
-
   public void set(Future<T> d, OperationStatus s) {
-    rv.set(d, s);
-  }
-
-  public void setOperation(Operation to) {
-    rv.setOperation(to);
-  }
-
-  public boolean isCancelled() {
-    return rv.isCancelled();
-  }
-
-  public boolean isDone() {
-    return rv.isDone();
+    value = d;
+    status = s;
   }
 
   @Override
@@ -102,11 +82,4 @@ public class GetFuture<T>
     return this;
   }
 
-  /**
-   * Signals that this future is complete.
-   */
-  public void signalComplete() {
-    notifyListeners();
-  }
-
 }
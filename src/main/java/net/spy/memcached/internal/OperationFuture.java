@@ -23,18 +23,13 @@
 
 package net.spy.memcached.internal;
 
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
-import net.spy.memcached.MemcachedConnection;
-import net.spy.memcached.ops.Operation;
-import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 
@@ -49,20 +44,34 @@ import net.spy.memcached.ops.StatusCode;
  * verify the change occurred as expected interacting with the user, we can
  * fire multiple IO operations simultaneously with this concept.
  *
+ * <p>Futures created without a latch complete through
+ * {@link #signalComplete()} alone, and hold their result in a field instead
+ * of a result holder.
+ *
  * @param <T> Type of object returned from this future.
  */
 public class OperationFuture<T>
-  extends AbstractListenableFuture<T, OperationCompletionListener>
-  implements Future<T> {
+  extends AbstractOperationFuture<T, OperationCompletionListener> {
 
-  private final CountDownLatch latch;
   private final AtomicReference<T> objRef;
-  protected OperationStatus status;
-  private final long timeout;
-  private Operation op;
-  private final String key;
+  private volatile T value;
   private Long cas;
 
+  /**
+   * Create an OperationFuture for a given async operation that completes
+   * without a latch.
+   *
+   * The future is done once {@link #signalComplete()} is called.
+   *
+   * This is intended for internal use only.
+   *
+   * @param k the key for the operation
+   * @param opTimeout the timeout within which the operation needs to be done
+   */
+  public OperationFuture(String k, long opTimeout, ExecutorService service) {
+    this(k, null, null, opTimeout, service);
+  }
+
   /**
    * Create an OperationFuture for a given async operation.
    *
@@ -89,65 +98,24 @@ public class OperationFuture<T>
    */
   public OperationFuture(String k, CountDownLatch l, AtomicReference<T> oref,
       long opTimeout, ExecutorService service) {
-    super(service);
+    super(k, l, opTimeout, service);
 
-    latch = l;
     objRef = oref;
-    status = null;
-    timeout = opTimeout;
-    key = k;
     cas = null;
   }
 
-  /**
-   * Cancel this operation, if possible.
-   *
-   * @param ign not used
-   * @deprecated
-   * @return true if the operation has not yet been written to the network
-   */
-  public boolean cancel(boolean ign) {
-    assert op != null : "No operation";
-    op.cancel();
-    notifyListeners();
-    return op.getState() == OperationState.WRITE_QUEUED;
-  }
-
-  /**
-   * Cancel this operation, if possible.
-   *
-   * @return true if the operation has not yet been written to the network
-   */
-  public boolean cancel() {
-    assert op != null : "No operation";
-    op.cancel();
-    notifyListeners();
-    return op.getState() == OperationState.WRITE_QUEUED;
-  }
-
   /**
    * Get the results of the given operation.
    *
    * As with the Future interface, this call will block until the results of
    * the future operation has been received.
    *
-   * @return the operation results of this OperationFuture
-   * @throws InterruptedException
-   * @throws ExecutionException
-   */
-  public T get() throws InterruptedException, ExecutionException {
-    try {
-      return get(timeout, TimeUnit.MILLISECONDS);
-    } catch (TimeoutException e) {
-      throw new RuntimeException("Timed out waiting for operation", e);
-    }
-  }
-
-  /**
-   * Get the results of the given operation.
-   *
-   * As with the Future interface, this call will block until the results of
-   * the future operation has been received.
+   * An operation with a timeout of its own, as given to
+   * {@link net.spy.memcached.MemcachedClient#asyncGet(String, long, TimeUnit)},
+   * is timed out by the connection once that timeout has passed since it was
+   * created, and this call then throws an ExecutionException caused by a
+   * CheckedOperationTimeoutException before the given duration is up. Other
+   * operations are waited on for the full duration.
    *
    * @param duration amount of time to wait
    * @param units unit of time to wait
@@ -158,41 +126,8 @@ public class OperationFuture<T>
    */
   public T get(long duration, TimeUnit units) throws InterruptedException,
       TimeoutException, ExecutionException {
-    if (!latch.await(duration, units)) {
-      // whenever timeout occurs, continuous timeout counter will increase by 1.
-      MemcachedConnection.opTimedOut(op);
-      if (op != null) { // op can be null on a flush
-        op.timeOut();
-      }
-      throw new CheckedOperationTimeoutException(
-          "Timed out waiting for operation", op);
-    } else {
-      // continuous timeout counter will be reset
-      MemcachedConnection.opSucceeded(op);
-    }
-    if (op != null && op.hasErrored()) {
-      throw new ExecutionException(op.getException());
-    }
-    if (isCancelled()) {
-      throw new ExecutionException(new CancellationException("Cancelled"));
-    }
-    if (op != null && op.isTimedOut()) {
-      throw new ExecutionException(new CheckedOperationTimeoutException(
-          "Operation timed out.", op));
-    }
-
-    /* TODO: re-add assertion that op.getState() == OperationState.COMPLETE */
-
-    return objRef.get();
-  }
-
-  /**
-   * Get the key for this operation.
-   *
-   * @return the key for this operation
-   */
-  public String getKey() {
-    return key;
+    waitFor(duration, units);
+    return objRef == null ? value : objRef.get();
   }
 
  /**
@@ -231,30 +166,6 @@ public class OperationFuture<T>
     }
     return cas;
   }
-  /**
-   * Get the current status of this operation.
-   *
-   * Note that the operation status may change as the operation is tried and
-   * potentially retried against the servers specified by the NodeLocator.
-   *
-   * The interrupted status of the current thread is cleared by this method.
-   * Inspect the returned OperationStatus to check whether an interruption has taken place.
-   *
-   * @return OperationStatus
-   */
-  public OperationStatus getStatus() {
-    if (status == null) {
-      try {
-        get();
-      } catch (InterruptedException e) {
-        status = new OperationStatus(false, "Interrupted", StatusCode.INTERRUPTED);
-      } catch (ExecutionException e) {
-        getLogger().warn("Error getting status of operation", e);
-      }
-    }
-    return status;
-  }
-
   /**
    * Set the Operation associated with this OperationFuture.
    *
@@ -264,52 +175,14 @@ public class OperationFuture<T>
    * @param s the OperationStatus associated with this operation
    */
   public void set(T o, OperationStatus s) {
-    objRef.set(o);
+    if (objRef == null) {
+      value = o;
+    } else {
+      objRef.set(o);
+    }
     status = s;
   }
 
-  /**
-   *  Set the Operation associated with this OperationFuture.
-   *
-   * This is intended for internal use only.
-   *
-   * @param to the Operation to set this OperationFuture to be tracking
-   */
-  public void setOperation(Operation to) {
-    op = to;
-  }
-
-  /**
-   * Whether or not the Operation associated with this OperationFuture has been
-   * canceled.
-   *
-   * One scenario in which this can occur is if the connection is lost and the
-   * Operation has been sent over the network.  In this case, the operation may
-   * or may not have reached the server before the connection was dropped.
-   *
-   * @return true if the Operation has been canceled
-   */
-  public boolean isCancelled() {
-    assert op != null : "No operation";
-    return op.isCancelled();
-  }
-
-  /**
-   * Whether or not the Operation is done and result can be retrieved with
-   * get().
-   *
-   * The most common way to wait for this OperationFuture is to use the get()
-   * method which will block.  This method allows one to check if it's complete
-   * without blocking.
-   *
-   * @return true if the Operation is done
-   */
-  public boolean isDone() {
-    assert op != null : "No operation";
-    return latch.getCount() == 0 || op.isCancelled()
-        || op.getState() == OperationState.COMPLETE;
-  }
-
   @Override
   public OperationFuture<T> addListener(OperationCompletionListener listener) {
     super.addToListeners((GenericCompletionListener) listener);
@@ -323,11 +196,4 @@ public class OperationFuture<T>
     return this;
   }
 
-  /**
-   * Signals that this future is complete.
-   */
-  public void signalComplete() {
-    notifyListeners();
-  }
-
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.jfr;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.ClientEvents;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationKind;
+
+/**
+ * Records the events of the client with Java Flight Recorder.
+ *
+ * <p>
+ * This is loaded by {@link ClientEvents#get()} if the JVM has Flight
+ * Recorder. Events are only built if they are enabled in a recording.
+ * </p>
+ */
+public class FlightRecorderEvents extends ClientEvents {
+
+  static String describe(MemcachedNode node) {
+    return node == null ? null : String.valueOf(node.getSocketAddress());
+  }
+
+  @Override
+  public void connectionLost(MemcachedNode node) {
+    ConnectionLostEvent e = new ConnectionLostEvent();
+    if (e.isEnabled()) {
+      e.node = describe(node);
+      e.commit();
+    }
+  }
+
+  @Override
+  public void reconnected(MemcachedNode node, int attempts) {
+    ReconnectEvent e = new ReconnectEvent();
+    if (e.isEnabled()) {
+      e.node = describe(node);
+      e.attempts = attempts;
+      e.commit();
+    }
+  }
+
+  @Override
+  public void rejected(MemcachedNode node, Operation op, String reason) {
+    RejectedOperationEvent e = new RejectedOperationEvent();
+    if (e.isEnabled()) {
+      e.node = describe(node);
+      e.type = OperationKind.of(op).name();
+      e.reason = reason;
+      e.commit();
+    }
+  }
+
+  @Override
+  public void optimized(MemcachedNode node, String type, int ops,
+      int bytes) {
+    OptimizedOperationsEvent e = new OptimizedOperationsEvent();
+    if (e.isEnabled()) {
+      e.node = describe(node);
+      e.type = type;
+      e.operations = ops;
+      e.bytes = bytes;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object compressing() {
+    CompressionEvent e = new CompressionEvent();
+    if (!e.isEnabled()) {
+      return null;
+    }
+    e.begin();
+    return e;
+  }
+
+  @Override
+  public void compressed(Object token, int in, int out) {
+    if (token != null) {
+      CompressionEvent e = (CompressionEvent) token;
+      e.end();
+      if (e.shouldCommit()) {
+        e.uncompressed = in;
+        e.compressed = out;
+        e.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.jfr;
+
+import java.util.Collection;
+
+import jdk.jfr.EventType;
+
+import net.spy.memcached.OperationTracer;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationKind;
+import net.spy.memcached.ops.OperationStage;
+
+/**
+ * An {@link OperationTracer} that records completed, cancelled and timed out
+ * operations as an {@link OperationEvent}.
+ *
+ * <p>
+ * Operations are only traced while the event is enabled in a recording,
+ * and only those slower than its latencyThreshold setting are recorded.
+ * This needs a JVM with Java Flight Recorder.
+ * </p>
+ */
+public class FlightRecorderTracer implements OperationTracer {
+
+  private static final EventType OPERATION =
+      EventType.getEventType(OperationEvent.class);
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.OperationTracer#isTraced(Operation)
+   */
+  public boolean isTraced(Operation op) {
+    return OPERATION.isEnabled();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.OperationTracer#traced(Operation)
+   */
+  public void traced(Operation op) {
+    OperationEvent e = new OperationEvent();
+    long created = op.getStageTimestamp(OperationStage.CREATED);
+    long written = op.getStageTimestamp(OperationStage.WRITTEN);
+    long firstByte = op.getStageTimestamp(OperationStage.FIRST_BYTE);
+    long completed = op.getStageTimestamp(OperationStage.COMPLETED);
+    e.latency = completed - created;
+    if (!e.shouldCommit()) {
+      return;
+    }
+    if (written != 0) {
+      e.queued = written - created;
+      if (firstByte != 0) {
+        e.onWire = firstByte - written;
+        e.reading = completed - firstByte;
+      }
+    }
+    if (op instanceof KeyedOperation) {
+      Collection<String> keys = ((KeyedOperation) op).getKeys();
+      if (!keys.isEmpty()) {
+        e.keyHash = keys.iterator().next().hashCode();
+      }
+    }
+    e.node = FlightRecorderEvents.describe(op.getHandlingNode());
+    e.type = OperationKind.of(op).name();
+    if (op.isCancelled()) {
+      e.outcome = "CANCELLED";
+    } else if (op.isTimedOut()) {
+      e.outcome = "TIMED_OUT";
+    } else {
+      e.outcome = "COMPLETED";
+    }
+    e.commit();
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.jfr;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.SettingControl;
+
+/**
+ * The latency below which an {@link OperationEvent} is not recorded.
+ *
+ * <p>
+ * Operation events are committed once the operation completed, so the
+ * standard threshold setting, which applies to the duration of the commit,
+ * does not fit. This setting takes the same values, such as "20 ms", and
+ * applies to the latency of the operation instead.
+ * </p>
+ */
+public final class LatencyThreshold extends SettingControl {
+
+  private static final String DEFAULT = "0 ns";
+
+  private String value = DEFAULT;
+  private long nanos;
+
+  @Override
+  public String combine(Set<String> values) {
+    String rv = null;
+    long least = Long.MAX_VALUE;
+    for (String v : values) {
+      long n = parse(v);
+      if (n < least) {
+        least = n;
+        rv = v;
+      }
+    }
+    return rv == null ? DEFAULT : rv;
+  }
+
+  @Override
+  public void setValue(String v) {
+    nanos = parse(v);
+    value = v;
+  }
+
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  boolean isExceeded(long latency) {
+    return latency >= nanos;
+  }
+
+  static long parse(String v) {
+    String s = v.trim();
+    int i = 0;
+    while (i < s.length() && Character.isDigit(s.charAt(i))) {
+      i++;
+    }
+    if (i == 0) {
+      return s.equals("infinity") ? Long.MAX_VALUE : 0;
+    }
+    long n = Long.parseLong(s.substring(0, i));
+    String unit = s.substring(i).trim();
+    if (unit.equals("ns") || unit.isEmpty()) {
+      return n;
+    } else if (unit.equals("us")) {
+      return TimeUnit.MICROSECONDS.toNanos(n);
+    } else if (unit.equals("ms")) {
+      return TimeUnit.MILLISECONDS.toNanos(n);
+    } else if (unit.equals("s")) {
+      return TimeUnit.SECONDS.toNanos(n);
+    } else if (unit.equals("m")) {
+      return TimeUnit.MINUTES.toNanos(n);
+    }
+    // Record everything rather than nothing when in doubt.
+    return 0;
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A finished operation, with the time it spent in each stage.
+ */
+@Name("net.spy.memcached.Operation")
+@Label("Memcached Operation")
+@Category("Memcached")
+@Description("An operation traced by the FlightRecorderTracer")
+@StackTrace(false)
+public class OperationEvent extends Event {
+
+  @Label("Key Hash")
+  @Description("The hash code of the first key of the operation")
+  int keyHash;
+
+  @Label("Node")
+  String node;
+
+  @Label("Type")
+  String type;
+
+  @Label("Outcome")
+  @Description("COMPLETED, CANCELLED or TIMED_OUT")
+  String outcome;
+
+  @Label("Latency")
+  @Description("From the creation of the operation until it completed")
+  @Timespan
+  long latency;
+
+  @Label("Queued")
+  @Description("From the creation of the operation until it was written")
+  @Timespan
+  long queued;
+
+  @Label("On Wire")
+  @Description("From the write until the first byte of the response")
+  @Timespan
+  long onWire;
+
+  @Label("Reading")
+  @Description("From the first byte of the response until it was decoded")
+  @Timespan
+  long reading;
+
+  @Label("Latency Threshold")
+  @Description("Operations completing faster are not recorded")
+  @Name("latencyThreshold")
+  @SettingDefinition
+  protected boolean latencyThreshold(LatencyThreshold threshold) {
+    return threshold.isExceeded(latency);
+  }
+}
@@ -24,6 +24,9 @@ package net.spy.memcached.metrics;
 
 /**
  * This abstract class implements methods needed by all {@link MetricCollector}s.
+ *
+ * <p>The handles it registers update the metric by its name, and it discards
+ * gauges and latencies. Collectors that can do better override them.</p>
  */
 public abstract class AbstractMetricCollector  implements MetricCollector {
 
@@ -37,4 +40,73 @@ public abstract class AbstractMetricCollector  implements MetricCollector {
     incrementCounter(name, 1);
   }
 
+  @Override
+  public CounterHandle registerCounter(final String name) {
+    addCounter(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        incrementCounter(name);
+      }
+
+      @Override
+      public void add(long amount) {
+        if (amount < 0) {
+          decrementCounter(name, (int) -amount);
+        } else {
+          incrementCounter(name, (int) amount);
+        }
+      }
+    };
+  }
+
+  @Override
+  public CounterHandle registerMeter(final String name) {
+    addMeter(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        markMeter(name);
+      }
+
+      @Override
+      public void add(long amount) {
+        for (long i = 0; i < amount; i++) {
+          markMeter(name);
+        }
+      }
+    };
+  }
+
+  @Override
+  public HistogramHandle registerHistogram(final String name) {
+    addHistogram(name);
+    return new HistogramHandle() {
+      @Override
+      public void update(long value) {
+        updateHistogram(name, (int) value);
+      }
+    };
+  }
+
+  @Override
+  public void addGauge(String name, LongGauge gauge) {
+    return;
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    return;
+  }
+
+  @Override
+  public void addLatencies(String name, OperationLatencies latencies) {
+    return;
+  }
+
+  @Override
+  public void removeLatencies(String name) {
+    return;
+  }
+
 }
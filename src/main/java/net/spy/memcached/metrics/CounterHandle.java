@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+/**
+ * A Counter or Meter registered with a {@link MetricCollector}.
+ *
+ * <p>Updating a handle does not look up the metric by its name, so it is
+ * cheap enough to be used for every operation.</p>
+ */
+public interface CounterHandle {
+
+  /**
+   * A handle that discards all updates.
+   */
+  CounterHandle NOOP = new CounterHandle() {
+    @Override
+    public void increment() {
+      return;
+    }
+
+    @Override
+    public void add(long amount) {
+      return;
+    }
+  };
+
+  /**
+   * Increment the Counter or mark the Meter once.
+   */
+  void increment();
+
+  /**
+   * Add the given amount to the Counter or mark the Meter as many times.
+   *
+   * @param amount the amount to add, negative to decrement a Counter.
+   */
+  void add(long amount);
+
+}
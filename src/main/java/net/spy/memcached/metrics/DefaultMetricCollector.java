@@ -77,6 +77,16 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
    */
   private ConcurrentHashMap<String, Histogram> histograms;
 
+  /**
+   * Contains all registered {@link LongGauge}s.
+   */
+  private ConcurrentHashMap<String, LongGauge> gauges;
+
+  /**
+   * Contains the names of all registered {@link OperationLatencies}.
+   */
+  private ConcurrentHashMap<String, OperationLatencies> latencies;
+
   /**
    * Create a new {@link DefaultMetricCollector}.
    *
@@ -88,6 +98,8 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
     counters = new ConcurrentHashMap<String, Counter>();
     meters = new ConcurrentHashMap<String, Meter>();
     histograms = new ConcurrentHashMap<String, Histogram>();
+    gauges = new ConcurrentHashMap<String, LongGauge>();
+    latencies = new ConcurrentHashMap<String, OperationLatencies>();
 
     initReporter();
   }
@@ -203,4 +215,88 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
       histograms.get(name).update(amount);
     }
   }
+
+  @Override
+  public CounterHandle registerCounter(String name) {
+    addCounter(name);
+    final Counter counter = counters.get(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        counter.inc();
+      }
+
+      @Override
+      public void add(long amount) {
+        counter.inc(amount);
+      }
+    };
+  }
+
+  @Override
+  public CounterHandle registerMeter(String name) {
+    addMeter(name);
+    final Meter meter = meters.get(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        meter.mark();
+      }
+
+      @Override
+      public void add(long amount) {
+        meter.mark(amount);
+      }
+    };
+  }
+
+  @Override
+  public HistogramHandle registerHistogram(String name) {
+    addHistogram(name);
+    final Histogram histogram = histograms.get(name);
+    return new HistogramHandle() {
+      @Override
+      public void update(long value) {
+        histogram.update(value);
+      }
+    };
+  }
+
+  @Override
+  public void addGauge(String name, final LongGauge gauge) {
+    if (gauges.putIfAbsent(name, gauge) == null) {
+      registry.register(name, new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return gauge.getValue();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    if (gauges.remove(name) != null) {
+      registry.remove(name);
+    }
+  }
+
+  @Override
+  public void addLatencies(String name, final OperationLatencies l) {
+    if (latencies.putIfAbsent(name, l) == null) {
+      registry.register(name, new Gauge<String>() {
+        @Override
+        public String getValue() {
+          return l.toString();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void removeLatencies(String name) {
+    if (latencies.remove(name) != null) {
+      registry.remove(name);
+    }
+  }
 }
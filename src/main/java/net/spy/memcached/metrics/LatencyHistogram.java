@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in nanoseconds.
+ *
+ * <p>
+ * Like an HdrHistogram, it counts values in buckets whose width grows with
+ * the value, so every value is kept with the same relative precision: a
+ * recorded value is off by less than 1/64th (about 1.6%) from the bucket
+ * it is counted in, from one nanosecond up to about a minute. Larger
+ * values are counted in the last bucket. The memory taken is fixed, and
+ * recording never allocates or locks.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+  private static final int VALUE_BITS = 36;
+  private static final long HIGHEST_TRACKABLE = (1L << VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT =
+    (VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public LatencyHistogram() {
+    counts = new AtomicLongArray(BUCKET_COUNT);
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency in nanoseconds, negative values count as 0
+   */
+  public void record(long nanos) {
+    long v = Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE);
+    counts.incrementAndGet(indexOf(v));
+    total.incrementAndGet();
+    sum.addAndGet(v);
+    updateMax(v);
+  }
+
+  private void updateMax(long v) {
+    long m = max.get();
+    while (v > m && !max.compareAndSet(m, v)) {
+      m = max.get();
+    }
+  }
+
+  static int indexOf(long v) {
+    if (v < SUB_BUCKET_COUNT) {
+      return (int) v;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKET_HALF + (int) (v >>> shift)
+      - SUB_BUCKET_HALF;
+  }
+
+  /**
+   * Get the highest value counted in the bucket at the given index.
+   */
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_HALF - 1;
+    long sub = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Get the number of latencies recorded.
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * Get the highest latency recorded, in nanoseconds.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Get the mean of the latencies recorded, in nanoseconds.
+   */
+  public double getMean() {
+    long n = total.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Get the latency at the given percentile.
+   *
+   * @param percentile the percentile, such as 99.9
+   * @return the highest latency in the bucket holding the percentile, in
+   *         nanoseconds, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long n = 0;
+    long[] snapshot = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      n += snapshot[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestValueAt(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Get a copy of this histogram that no longer changes.
+   */
+  public LatencyHistogram snapshot() {
+    LatencyHistogram rv = new LatencyHistogram();
+    rv.add(this);
+    return rv;
+  }
+
+  /**
+   * Add the latencies recorded by another histogram to this one.
+   *
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long c = other.counts.get(i);
+      if (c != 0) {
+        counts.addAndGet(i, c);
+        total.addAndGet(c);
+      }
+    }
+    sum.addAndGet(other.sum.get());
+    updateMax(other.max.get());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d, p50=%dns, p99=%dns, p99.9=%dns, max=%dns",
+      getCount(), getValueAtPercentile(50), getValueAtPercentile(99),
+      getValueAtPercentile(99.9), getMax());
+  }
+}
@@ -31,6 +31,10 @@ package net.spy.memcached.metrics;
  * {@link NoopMetricCollector} for a discarding collector that has no
  * runtime overhead.</p>
  *
+ * <p>Metrics updated on every operation should be registered once to get a
+ * {@link CounterHandle} or {@link HistogramHandle}, which are updated
+ * without looking up the metric by its name.</p>
+ *
  * <p>Please note that the implementation is not expected to raise any kind
  * of error if the metric does not exist. To keep the actual application code
  * short, no extra checking needs to be done. If the counter has not been added
@@ -126,4 +130,58 @@ public interface MetricCollector {
    */
   void updateHistogram(String name, int amount);
 
+  /**
+   * Add a Counter to the Collector and get a handle to update it.
+   *
+   * @param name the name of the counter.
+   * @return the handle of the counter.
+   */
+  CounterHandle registerCounter(String name);
+
+  /**
+   * Add a Meter to the Collector and get a handle to mark it.
+   *
+   * @param name the name of the meter.
+   * @return the handle of the meter.
+   */
+  CounterHandle registerMeter(String name);
+
+  /**
+   * Add a Histogram to the Collector and get a handle to update it.
+   *
+   * @param name the name of the histogram.
+   * @return the handle of the histogram.
+   */
+  HistogramHandle registerHistogram(String name);
+
+  /**
+   * Add a Gauge to the Collector.
+   *
+   * @param name the name of the gauge.
+   * @param gauge the value of the gauge.
+   */
+  void addGauge(String name, LongGauge gauge);
+
+  /**
+   * Remove a Gauge from the Collector.
+   *
+   * @param name the name of the gauge.
+   */
+  void removeGauge(String name);
+
+  /**
+   * Add the {@link OperationLatencies} of a node to the Collector.
+   *
+   * @param name the name of the latencies.
+   * @param latencies the latencies to report.
+   */
+  void addLatencies(String name, OperationLatencies latencies);
+
+  /**
+   * Remove {@link OperationLatencies} from the Collector.
+   *
+   * @param name the name of the latencies.
+   */
+  void removeLatencies(String name);
+
 }
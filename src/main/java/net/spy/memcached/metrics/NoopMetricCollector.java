@@ -80,4 +80,39 @@ public final class NoopMetricCollector extends AbstractMetricCollector {
     return;
   }
 
+  @Override
+  public CounterHandle registerCounter(String name) {
+    return CounterHandle.NOOP;
+  }
+
+  @Override
+  public CounterHandle registerMeter(String name) {
+    return CounterHandle.NOOP;
+  }
+
+  @Override
+  public HistogramHandle registerHistogram(String name) {
+    return HistogramHandle.NOOP;
+  }
+
+  @Override
+  public void addGauge(String name, LongGauge gauge) {
+    return;
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    return;
+  }
+
+  @Override
+  public void addLatencies(String name, OperationLatencies latencies) {
+    return;
+  }
+
+  @Override
+  public void removeLatencies(String name) {
+    return;
+  }
+
 }
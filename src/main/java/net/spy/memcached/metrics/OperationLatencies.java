@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationKind;
+
+/**
+ * Latency histograms of the operations of one node, by kind of operation
+ * and by phase.
+ *
+ * <p>
+ * An operation is timed from its creation until it was written, from then
+ * until the first byte of its response was read, and from then until it
+ * completed. Operations merged by the optimizer are timed one by one, from
+ * their own creation and with the write and response of the merged
+ * operation. Histograms are only allocated for the kinds of operations that
+ * were recorded.
+ * </p>
+ */
+public final class OperationLatencies {
+
+  /**
+   * The phases of an operation that are timed.
+   */
+  public enum Phase {
+    /**
+     * From the creation of an operation until it was written.
+     */
+    QUEUE,
+    /**
+     * From the write of an operation until the first byte of its response.
+     */
+    WIRE,
+    /**
+     * From the first byte of the response until the operation completed.
+     */
+    READ
+  }
+
+  private static final OperationKind[] KINDS = OperationKind.values();
+  private static final Phase[] PHASES = Phase.values();
+
+  private final AtomicReferenceArray<LatencyHistogram> histograms =
+    new AtomicReferenceArray<LatencyHistogram>(KINDS.length * PHASES.length);
+
+  // Only used by the thread reading responses from the node.
+  private Operation reading;
+  private long firstByte;
+
+  private LatencyHistogram histogram(OperationKind kind, Phase phase) {
+    int i = kind.ordinal() * PHASES.length + phase.ordinal();
+    LatencyHistogram h = histograms.get(i);
+    if (h == null) {
+      histograms.compareAndSet(i, null, new LatencyHistogram());
+      h = histograms.get(i);
+    }
+    return h;
+  }
+
+  /**
+   * Note that the response of the given operation is being read. Only the
+   * first call for an operation counts.
+   *
+   * @param op the operation whose response is read
+   * @param now the current {@link System#nanoTime()}
+   */
+  public void responseRead(Operation op, long now) {
+    if (op != reading) {
+      reading = op;
+      firstByte = now;
+    }
+  }
+
+  /**
+   * Record the latencies of an operation that completed.
+   *
+   * @param op the operation, whose response was read last
+   * @param now the current {@link System#nanoTime()}
+   */
+  public void completed(Operation op, long now) {
+    if (op != reading) {
+      firstByte = now;
+    }
+    long written = op.getWriteCompleteTimestamp();
+    List<Operation> folded = op.getFoldedOperations();
+    if (folded.isEmpty()) {
+      record(op, written, now);
+    } else {
+      for (Operation f : folded) {
+        record(f, written, now);
+      }
+    }
+    reading = null;
+  }
+
+  private void record(Operation op, long written, long now) {
+    OperationKind kind = OperationKind.of(op);
+    histogram(kind, Phase.QUEUE).record(written - op.getCreationTime());
+    histogram(kind, Phase.WIRE).record(firstByte - written);
+    histogram(kind, Phase.READ).record(now - firstByte);
+  }
+
+  /**
+   * Get a snapshot of the latencies of a kind of operation in one phase.
+   *
+   * @param kind the kind of operation
+   * @param phase the phase
+   * @return the snapshot, or null if no such operation completed yet
+   */
+  public LatencyHistogram getHistogram(OperationKind kind, Phase phase) {
+    LatencyHistogram h =
+      histograms.get(kind.ordinal() * PHASES.length + phase.ordinal());
+    return h == null ? null : h.snapshot();
+  }
+
+  /**
+   * Add the latencies recorded by another instance to this one, such as
+   * those of another connection to the same server.
+   *
+   * @param other the latencies to add
+   */
+  public void add(OperationLatencies other) {
+    for (OperationKind kind : KINDS) {
+      for (Phase phase : PHASES) {
+        LatencyHistogram h = other.getHistogram(kind, phase);
+        if (h != null) {
+          histogram(kind, phase).add(h);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (OperationKind kind : KINDS) {
+      for (Phase phase : PHASES) {
+        LatencyHistogram h = getHistogram(kind, phase);
+        if (h != null) {
+          if (sb.length() > 0) {
+            sb.append('\n');
+          }
+          sb.append(kind).append(' ').append(phase).append(": ").append(h);
+        }
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -23,9 +23,13 @@
 
 package net.spy.memcached.ops;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.OperationFactory;
+import net.spy.memcached.transcoders.StreamingTranscoder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -43,6 +47,26 @@ public abstract class BaseOperationFactory implements OperationFactory {
     return keys.iterator().next();
   }
 
+  /**
+   * Create a store operation from a streaming transcoder.
+   *
+   * <p>This default encodes the value into an intermediate array and creates
+   * a regular store operation. Protocols that can write the value straight
+   * into their request buffer should override it.</p>
+   */
+  public <T> StoreOperation store(StoreType storeType, String key, int exp,
+      T value, StreamingTranscoder<T> tc, StoreOperation.Callback cb) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    int flags;
+    try {
+      flags = tc.encode(value, bos);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not encode value", e);
+    }
+    CachedData co = new CachedData(flags, bos.toByteArray(), tc.getMaxSize());
+    return store(storeType, key, co.getFlags(), exp, co.getData(), cb);
+  }
+
   public Collection<Operation> clone(KeyedOperation op) {
     assert (op.getState() == OperationState.WRITE_QUEUED || op.getState()
         == OperationState.RETRY) : "Who passed me an operation in the "
@@ -25,8 +25,12 @@ package net.spy.memcached.ops;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
+import net.spy.memcached.AdmissionController;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationTracer;
 
 /**
  * Base interface for all operations.
@@ -152,6 +156,69 @@ public interface Operation {
    */
   boolean isTimedOutUnsent();
 
+  /**
+   * Returns the timestamp from the point where the operation was created.
+   *
+   * The timestamp comes from {@link System#nanoTime()}, timeouts are counted
+   * from this point.
+   */
+  long getCreationTime();
+
+  /**
+   * Set the timeout of this operation, counted from its creation.
+   *
+   * An operation with a timeout of its own is not written once the timeout
+   * has passed, and is rejected right away if the node it is added to is
+   * not expected to complete it in time.
+   *
+   * @param timeoutMillis the timeout in milliseconds, or 0 to use the
+   *          default operation timeout.
+   */
+  void setTimeout(long timeoutMillis);
+
+  /**
+   * Returns the timeout of this operation in milliseconds, or 0 if it uses
+   * the default operation timeout.
+   */
+  long getTimeout();
+
+  /**
+   * Set the priority class of this operation, which decides the lane it is
+   * written from.
+   *
+   * @param priority the priority class.
+   */
+  void setPriority(OperationPriority priority);
+
+  /**
+   * Returns the priority class of this operation, NORMAL unless it was set.
+   */
+  OperationPriority getPriority();
+
+  /**
+   * Reject the operation before it was queued, because the admission limits
+   * were reached. The callback receives a rejected status and completes.
+   */
+  void reject();
+
+  /**
+   * True if the operation was rejected by admission control.
+   */
+  boolean isRejected();
+
+  /**
+   * Hand the operation its admission permit, which is given back once the
+   * operation completes, is cancelled or times out.
+   *
+   * @param permit the permit, or null if admission is not bounded.
+   */
+  void setPermit(AdmissionController.Permit permit);
+
+  /**
+   * Returns the admission permit of this operation, or null if it has none.
+   */
+  AdmissionController.Permit getPermit();
+
   /**
    * Returns the timestamp from the point where the WRITE was completed.
    *
@@ -159,6 +226,38 @@ public interface Operation {
    */
   long getWriteCompleteTimestamp();
 
+  /**
+   * Returns the operations folded into this one by the optimizer, which are
+   * written and answered along with it. The list is empty unless this is a
+   * merged operation.
+   */
+  List<Operation> getFoldedOperations();
+
+  /**
+   * Record the stages this operation passes through, and hand it to the
+   * tracer once it completed, was cancelled or timed out.
+   *
+   * @param tracer the tracer to hand the operation to.
+   */
+  void enableTracing(OperationTracer tracer);
+
+  /**
+   * Note that the operation reached the given stage. This takes the time
+   * only if the operation is traced and did not reach the stage before.
+   *
+   * @param stage the stage reached.
+   */
+  void traceStage(OperationStage stage);
+
+  /**
+   * Returns the {@link System#nanoTime()} at which the operation reached
+   * the given stage, or 0 if it was not recorded. The creation and the write
+   * are recorded for every operation.
+   *
+   * @param stage the stage.
+   */
+  long getStageTimestamp(OperationStage stage);
+
   /**
    * Returns the raw bytes of the error message content.
    *
@@ -184,4 +283,15 @@ public interface Operation {
    * Sets the clone count for this operation.
    */
   void setCloneCount(int count);
+
+  /**
+   * Get the lock guarding the state transitions of this operation.
+   *
+   * The IO thread holds it while writing or reading the operation, so that
+   * cancellations and timeouts coming from application threads are not
+   * interleaved with those transitions.
+   *
+   * @return the lock of this operation.
+   */
+  Lock getLock();
 }
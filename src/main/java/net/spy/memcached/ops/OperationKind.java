@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * The kind of an operation, as far as its latency is concerned.
+ */
+public enum OperationKind {
+  /**
+   * Fetches of a single key, with or without CAS, lock or touch.
+   */
+  GET,
+  /**
+   * Fetches of several keys, including gets merged by the optimizer.
+   */
+  MULTIGET,
+  /**
+   * Sets, adds, replaces, CAS, appends and prepends.
+   */
+  STORE,
+  /**
+   * Deletes.
+   */
+  DELETE,
+  /**
+   * Increments and decrements.
+   */
+  MUTATE,
+  /**
+   * Touches.
+   */
+  TOUCH,
+  /**
+   * Everything else, such as stats, noops and merged stores.
+   */
+  OTHER;
+
+  /**
+   * Get the kind of the given operation.
+   *
+   * @param op the operation
+   * @return its kind
+   */
+  public static OperationKind of(Operation op) {
+    if (op instanceof GetOperation) {
+      return ((GetOperation) op).getKeys().size() > 1 ? MULTIGET : GET;
+    } else if (op instanceof GetsOperation || op instanceof GetlOperation
+        || op instanceof GetAndTouchOperation
+        || op instanceof ReplicaGetOperation
+        || op instanceof ReplicaGetsOperation) {
+      return GET;
+    } else if (op instanceof StoreOperation || op instanceof CASOperation
+        || op instanceof ConcatenationOperation) {
+      return STORE;
+    } else if (op instanceof DeleteOperation) {
+      return DELETE;
+    } else if (op instanceof MutatorOperation) {
+      return MUTATE;
+    } else if (op instanceof TouchOperation) {
+      return TOUCH;
+    }
+    return OTHER;
+  }
+}
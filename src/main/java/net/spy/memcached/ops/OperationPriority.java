@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * The priority class of an operation.
+ *
+ * <p>
+ * Each node keeps a lane per priority class and takes turns between the
+ * lanes when writing. A lane may write as many operations in its turn as its
+ * weight, so bulk operations yield the connection to interactive ones
+ * without being starved by them.
+ * </p>
+ */
+public enum OperationPriority {
+  /**
+   * Latency sensitive operations, such as the gets a user is waiting for.
+   */
+  INTERACTIVE(8),
+  /**
+   * Operations without a priority of their own.
+   */
+  NORMAL(4),
+  /**
+   * Throughput oriented operations, such as loading data into the cache.
+   */
+  BULK(1);
+
+  private final int weight;
+
+  OperationPriority(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Get the number of operations of this class written in its turn.
+   */
+  public int getWeight() {
+    return weight;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * The stages an operation passes through, in order.
+ */
+public enum OperationStage {
+  /**
+   * The operation was created.
+   */
+  CREATED,
+  /**
+   * The operation was added to the input queue of a node.
+   */
+  ENQUEUED,
+  /**
+   * The operation was moved from the input queue to the write queue.
+   */
+  WRITE_QUEUED,
+  /**
+   * The operation was completely written to the node.
+   */
+  WRITTEN,
+  /**
+   * The first bytes of the response were read.
+   */
+  FIRST_BYTE,
+  /**
+   * The response was decoded, right before the callback is completed.
+   */
+  COMPLETED
+}
@@ -45,6 +45,7 @@ public enum StatusCode {
   CANCELLED,
   INTERRUPTED,
   TIMEDOUT,
+  REJECTED,
   ERR_CLIENT;
 
   public static StatusCode fromBinaryCode(int code) {
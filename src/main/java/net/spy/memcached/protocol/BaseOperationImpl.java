@@ -31,22 +31,34 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.spy.memcached.AdmissionController;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationTracer;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationPriority;
+import net.spy.memcached.ops.OperationStage;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.RejectedOperationStatus;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.TimedOutOperationStatus;
 
 /**
  * Base class for protocol-specific operation implementations.
+ *
+ * <p>State transitions are guarded by a {@link ReentrantLock} rather than the
+ * object monitor, so application threads cancelling or timing out an
+ * operation do not pin the carrier of a virtual thread. Reading the state is
+ * lock-free.</p>
  */
 public abstract class BaseOperationImpl extends SpyObject implements Operation {
 
@@ -57,25 +69,45 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       new CancelledOperationStatus();
   public static final OperationStatus TIMED_OUT=
       new TimedOutOperationStatus();
+  /**
+   * Status object for operations rejected by admission control.
+   */
+  public static final OperationStatus REJECTED =
+      new RejectedOperationStatus();
   private volatile OperationState state = OperationState.WRITE_QUEUED;
-  private ByteBuffer cmd = null;
-  private boolean cancelled = false;
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile ByteBuffer cmd = null;
+  private volatile boolean cancelled = false;
   private OperationException exception = null;
   protected OperationCallback callback = null;
   private volatile MemcachedNode handlingNode = null;
   private volatile boolean timedout;
   private long creationTime;
-  private boolean timedOutUnsent = false;
+  private volatile long timeout;
+  private volatile boolean timedOutUnsent = false;
+  private volatile boolean rejected = false;
+  private volatile OperationPriority priority = OperationPriority.NORMAL;
+  private volatile AdmissionController.Permit permit = null;
+  private List<AdmissionController.Permit> carriedPermits = null;
+  /**
+   * Operations folded into this one, null unless there are any.
+   */
+  private List<Operation> folded = null;
   protected Collection<MemcachedNode> notMyVbucketNodes =
       new HashSet<MemcachedNode>();
   private long writeCompleteTimestamp;
+  private OperationTracer tracer = null;
+  /**
+   * The time each stage was reached, null unless the operation is traced.
+   */
+  private long[] stageTimestamps = null;
+  private boolean traceReported = false;
 
   /**
    * If the operation gets cloned, the reference is used to cascade cancellations
    * and timeouts.
    */
-  private List<Operation> clones =
-    Collections.synchronizedList(new ArrayList<Operation>());
+  private List<Operation> clones = new CopyOnWriteArrayList<Operation>();
 
   /**
    * Number of clones for this operation.
@@ -101,7 +133,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     callback = to;
   }
 
-  public final synchronized boolean isCancelled() {
+  public final boolean isCancelled() {
     return cancelled;
   }
 
@@ -113,19 +145,24 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     return exception;
   }
 
-  public final synchronized void cancel() {
-    cancelled = true;
+  public final void cancel() {
+    lock.lock();
+    try {
+      cancelled = true;
 
-    synchronized (clones) {
       Iterator<Operation> i = clones.iterator();
       while(i.hasNext()) {
         i.next().cancel();
       }
-    }
 
-    wasCancelled();
-    callback.receivedStatus(CANCELLED);
-    callback.complete();
+      wasCancelled();
+      releasePermit();
+      traceCompleted();
+      callback.receivedStatus(CANCELLED);
+      callback.complete();
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -135,36 +172,47 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     getLogger().debug("was cancelled.");
   }
 
-  public final synchronized OperationState getState() {
+  public final OperationState getState() {
     return state;
   }
 
-  public final synchronized ByteBuffer getBuffer() {
+  public final ByteBuffer getBuffer() {
     return cmd;
   }
 
+  public final Lock getLock() {
+    return lock;
+  }
+
   /**
    * Set the write buffer for this operation.
    */
-  protected final synchronized void setBuffer(ByteBuffer to) {
+  protected final void setBuffer(ByteBuffer to) {
     assert to != null : "Trying to set buffer to null";
+    to.mark();
     cmd = to;
-    cmd.mark();
   }
 
   /**
    * Transition the state of this operation to the given state.
    */
-  protected final synchronized void transitionState(OperationState newState) {
-    getLogger().debug("Transitioned state from %s to %s", state, newState);
-    state = newState;
-    // Discard our buffer when we no longer need it.
-    if(state != OperationState.WRITE_QUEUED
-        && state != OperationState.WRITING) {
-      cmd = null;
-    }
-    if (state == OperationState.COMPLETE) {
-      callback.complete();
+  protected final void transitionState(OperationState newState) {
+    lock.lock();
+    try {
+      getLogger().debug("Transitioned state from %s to %s", state, newState);
+      state = newState;
+      // Discard our buffer when we no longer need it.
+      if(state != OperationState.WRITE_QUEUED
+          && state != OperationState.WRITING) {
+        cmd = null;
+      }
+      if (state == OperationState.COMPLETE) {
+        releasePermit();
+        traceCompleted();
+        callback.complete();
+      }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -174,6 +222,14 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
 
   public final void writeComplete() {
     writeCompleteTimestamp = System.nanoTime();
+    if (folded != null) {
+      for (Operation op : folded) {
+        if (op instanceof BaseOperationImpl) {
+          ((BaseOperationImpl) op).writeCompleteTimestamp =
+            writeCompleteTimestamp;
+        }
+      }
+    }
     transitionState(OperationState.READING);
   }
 
@@ -216,34 +272,46 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   }
 
   @Override
-  public synchronized void timeOut() {
-    timedout = true;
+  public void timeOut() {
+    lock.lock();
+    try {
+      timedout = true;
 
-    synchronized (clones) {
       Iterator<Operation> i = clones.iterator();
       while(i.hasNext()) {
         i.next().timeOut();
       }
-    }
 
-    callback.receivedStatus(TIMED_OUT);
-    callback.complete();
+      releasePermit();
+      traceCompleted();
+      callback.receivedStatus(TIMED_OUT);
+      callback.complete();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized boolean isTimedOut() {
+  public boolean isTimedOut() {
     return timedout;
   }
 
   @Override
-  public synchronized boolean isTimedOut(long ttlMillis) {
+  public boolean isTimedOut(long ttlMillis) {
     long elapsed = System.nanoTime();
     long ttlNanos = ttlMillis * 1000 * 1000;
     if (elapsed - creationTime > ttlNanos) {
-      timedOutUnsent = true;
-      timedout = true;
-      callback.receivedStatus(TIMED_OUT);
-      callback.complete();
+      lock.lock();
+      try {
+        timedOutUnsent = true;
+        timedout = true;
+        releasePermit();
+        traceCompleted();
+        callback.receivedStatus(TIMED_OUT);
+        callback.complete();
+      } finally {
+        lock.unlock();
+      }
     } // else
       // timedout would be false, but we cannot allow you to untimeout an
       // operation.  This can happen when the latch timeout is shorter than the
@@ -256,11 +324,172 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     return timedOutUnsent;
   }
 
+  @Override
+  public long getCreationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public void setTimeout(long timeoutMillis) {
+    timeout = timeoutMillis;
+  }
+
+  @Override
+  public long getTimeout() {
+    return timeout;
+  }
+
+  @Override
+  public void setPriority(OperationPriority to) {
+    assert to != null : "Priority is null";
+    priority = to;
+  }
+
+  @Override
+  public OperationPriority getPriority() {
+    return priority;
+  }
+
+  @Override
+  public void reject() {
+    lock.lock();
+    try {
+      rejected = true;
+      callback.receivedStatus(REJECTED);
+      callback.complete();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isRejected() {
+    return rejected;
+  }
+
+  @Override
+  public void setPermit(AdmissionController.Permit to) {
+    permit = to;
+  }
+
+  @Override
+  public AdmissionController.Permit getPermit() {
+    return permit;
+  }
+
+  /**
+   * Take over the admission permit of an operation folded into this one.
+   *
+   * The folded operation completes through this operation's callbacks and
+   * never by itself, so its permit is given back along with this one.
+   */
+  protected final void carryPermit(Operation folded) {
+    AdmissionController.Permit p = folded.getPermit();
+    if (p != null) {
+      if (carriedPermits == null) {
+        carriedPermits = new ArrayList<AdmissionController.Permit>();
+      }
+      carriedPermits.add(p);
+    }
+  }
+
+  /**
+   * Note that an operation was folded into this one.
+   *
+   * The folded operation is written and read along with this operation, so
+   * it passes through the same stages.
+   */
+  protected final void fold(Operation op) {
+    if (folded == null) {
+      folded = new ArrayList<Operation>();
+    }
+    folded.add(op);
+  }
+
+  @Override
+  public final List<Operation> getFoldedOperations() {
+    return folded == null ? Collections.<Operation>emptyList() : folded;
+  }
+
+  /**
+   * Hand the stages of the operation and of those folded into it to the
+   * tracer, once, whether it completed, was cancelled or timed out.
+   */
+  private void traceCompleted() {
+    if (stageTimestamps != null && !traceReported) {
+      traceReported = true;
+      traceStage(OperationStage.COMPLETED);
+      tracer.traced(this);
+    }
+    if (folded != null) {
+      for (Operation op : folded) {
+        if (op instanceof BaseOperationImpl) {
+          BaseOperationImpl b = (BaseOperationImpl) op;
+          b.lock.lock();
+          try {
+            b.traceCompleted();
+          } finally {
+            b.lock.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Give back the admission permit, if the operation holds one.
+   */
+  private void releasePermit() {
+    AdmissionController.Permit p = permit;
+    if (p != null) {
+      p.release();
+    }
+    if (carriedPermits != null) {
+      for (AdmissionController.Permit carried : carriedPermits) {
+        carried.release();
+      }
+    }
+  }
+
   @Override
   public long getWriteCompleteTimestamp() {
     return writeCompleteTimestamp;
   }
 
+  @Override
+  public void enableTracing(OperationTracer to) {
+    if (stageTimestamps == null) {
+      stageTimestamps = new long[OperationStage.COMPLETED.ordinal() + 1];
+    }
+    tracer = to;
+  }
+
+  @Override
+  public final void traceStage(OperationStage stage) {
+    long[] ts = stageTimestamps;
+    if (ts != null && ts[stage.ordinal()] == 0) {
+      ts[stage.ordinal()] = System.nanoTime();
+    }
+    if (folded != null) {
+      for (Operation op : folded) {
+        op.traceStage(stage);
+      }
+    }
+  }
+
+  @Override
+  public long getStageTimestamp(OperationStage stage) {
+    switch (stage) {
+    case CREATED:
+      return creationTime;
+    case WRITTEN:
+      return writeCompleteTimestamp;
+    default:
+      long[] ts = stageTimestamps;
+      return ts == null ? 0 : ts[stage.ordinal()];
+    }
+  }
+
   @Override
   public void addClone(Operation op) {
     clones.add(op);
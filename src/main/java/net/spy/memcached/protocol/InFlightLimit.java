@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+/**
+ * Limit on the operations awaiting a response from a node, adapted from the
+ * round trip times of the operations it answers.
+ *
+ * <p>
+ * This works like TCP Vegas. The lowest round trip time seen lately is taken
+ * as the time the server needs without any queueing. From the current round
+ * trip time follows how many of the operations in flight are only queued at
+ * the server. The limit grows while fewer than {@link #ALPHA} operations are
+ * queued, shrinks when more than {@link #BETA} are, and is halved when an
+ * operation times out. As in TCP, it is halved at most once per round trip:
+ * operations written before the last halving were sent under the larger
+ * limit, so their timeouts don't halve it again.
+ * </p>
+ *
+ * <p>
+ * Samples are only taken by the thread reading from the node, the limit may
+ * be read from any thread.
+ * </p>
+ */
+final class InFlightLimit {
+
+  /**
+   * Queued operations below which the limit grows.
+   */
+  static final int ALPHA = 3;
+
+  /**
+   * Queued operations above which the limit shrinks.
+   */
+  static final int BETA = 6;
+
+  /**
+   * Samples after which the lowest round trip time is measured anew, so a
+   * server that got slower for good is not taken as overloaded forever.
+   */
+  static final int BASE_RTT_WINDOW = 1024;
+
+  private static final int INITIAL_LIMIT = 16;
+
+  private final int maxLimit;
+  private volatile int limit;
+  private long baseRtt = Long.MAX_VALUE;
+  private long windowMin = Long.MAX_VALUE;
+  private int samples;
+  private long lastBackOff;
+  private boolean backedOff;
+
+  InFlightLimit(int maxLimit) {
+    assert maxLimit > 0 : "Invalid limit: " + maxLimit;
+    this.maxLimit = maxLimit;
+    limit = Math.min(INITIAL_LIMIT, maxLimit);
+  }
+
+  /**
+   * Get the number of operations that may await a response.
+   */
+  int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Adapt the limit to an answered operation.
+   *
+   * @param rtt the time from writing the operation to its response, in
+   *          nanoseconds.
+   * @param inFlight the operations awaiting a response, including this one.
+   */
+  void answered(long rtt, int inFlight) {
+    rtt = Math.max(1, rtt);
+    windowMin = Math.min(windowMin, rtt);
+    if (++samples == BASE_RTT_WINDOW) {
+      baseRtt = windowMin;
+      windowMin = Long.MAX_VALUE;
+      samples = 0;
+    }
+    baseRtt = Math.min(baseRtt, rtt);
+
+    int l = limit;
+    long queued = l - l * baseRtt / rtt;
+    if (queued < ALPHA) {
+      // Only grow a limit that is actually used.
+      if (inFlight * 2 >= l) {
+        l++;
+      }
+    } else if (queued > BETA) {
+      l--;
+    }
+    limit = Math.max(1, Math.min(maxLimit, l));
+  }
+
+  /**
+   * Back off after an operation timed out.
+   *
+   * @param written the {@link System#nanoTime()} the operation was written.
+   * @param now the current {@link System#nanoTime()}.
+   */
+  void timedOut(long written, long now) {
+    if (backedOff && written - lastBackOff < 0) {
+      return;
+    }
+    backedOff = true;
+    lastBackOff = now;
+    limit = Math.max(1, limit / 2);
+  }
+}
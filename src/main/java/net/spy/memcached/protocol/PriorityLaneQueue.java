@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationPriority;
+
+/**
+ * Write queue of a node with a lane for each {@link OperationPriority}.
+ *
+ * <p>
+ * The lanes are served by deficit round robin: a lane may hand out as many
+ * operations as the weight of its priority before the next lane with
+ * operations takes its turn. {@link #peek()} always returns the operation
+ * {@link #poll()} returns next. Once an operation has been peeked its lane
+ * is kept until it is polled, as the node writes the head of the queue over
+ * several calls and an operation added to another lane must not take its
+ * place half way.
+ * </p>
+ *
+ * <p>
+ * Operations {@link #insert(Operation) inserted} at the head, such as the
+ * authentication of a new connection, go ahead of all lanes and don't use up
+ * the credit of any lane.
+ * </p>
+ *
+ * <p>
+ * The normal lane is the queue of the connection factory, the other lanes
+ * are created here. All lanes together hold no more operations than the
+ * factory queue could.
+ * </p>
+ */
+final class PriorityLaneQueue extends AbstractQueue<Operation>
+  implements BlockingQueue<Operation> {
+
+  private static final OperationPriority[] PRIORITIES =
+    OperationPriority.values();
+
+  /**
+   * Index of the lane of inserted operations, after the priority lanes.
+   */
+  private static final int HEAD = PRIORITIES.length;
+
+  private final List<Queue<Operation>> lanes;
+  private final Deque<Operation> head = new ArrayDeque<Operation>();
+  private final int capacity;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private volatile int count;
+  private int lane;
+  private int credit;
+  private int pinned = -1;
+
+  PriorityLaneQueue(BlockingQueue<Operation> normal) {
+    assert normal.isEmpty() : "Lanes must start out empty";
+    capacity = normal.remainingCapacity();
+    lanes = new ArrayList<Queue<Operation>>(PRIORITIES.length + 1);
+    for (OperationPriority p : PRIORITIES) {
+      lanes.add(p == OperationPriority.NORMAL ? normal
+        : new ArrayDeque<Operation>());
+    }
+    lanes.add(head);
+    lane = OperationPriority.NORMAL.ordinal();
+  }
+
+  /**
+   * Find the lane the next operation is taken from.
+   *
+   * @return the index of the lane, or -1 if all lanes are empty.
+   */
+  private int nextLane() {
+    if (pinned >= 0) {
+      return pinned;
+    }
+    if (!head.isEmpty()) {
+      return HEAD;
+    }
+    if (credit > 0 && !lanes.get(lane).isEmpty()) {
+      return lane;
+    }
+    for (int i = 1; i <= PRIORITIES.length; i++) {
+      int l = (lane + i) % PRIORITIES.length;
+      if (!lanes.get(l).isEmpty()) {
+        return l;
+      }
+    }
+    return -1;
+  }
+
+  public boolean offer(Operation o) {
+    lock.lock();
+    try {
+      if (count >= capacity
+          || !lanes.get(o.getPriority().ordinal()).offer(o)) {
+        return false;
+      }
+      count++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Insert an operation ahead of all operations not yet peeked.
+   *
+   * Inserted operations are taken last in, first out, and may exceed the
+   * capacity.
+   *
+   * @param o the operation to insert
+   */
+  void insert(Operation o) {
+    lock.lock();
+    try {
+      head.addFirst(o);
+      count++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Operation peek() {
+    lock.lock();
+    try {
+      pinned = nextLane();
+      return pinned < 0 ? null : lanes.get(pinned).peek();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Operation poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Operation dequeue() {
+    int l = nextLane();
+    pinned = -1;
+    if (l < 0) {
+      return null;
+    }
+    if (l == HEAD) {
+      count--;
+      return head.poll();
+    }
+    if (l != lane || credit == 0) {
+      lane = l;
+      credit = PRIORITIES[l].getWeight();
+    }
+    credit--;
+    count--;
+    return lanes.get(l).poll();
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  public int remainingCapacity() {
+    return Math.max(0, capacity - count);
+  }
+
+  public void put(Operation o) {
+    add(o);
+  }
+
+  public boolean offer(Operation o, long timeout, TimeUnit unit) {
+    return offer(o);
+  }
+
+  public Operation take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super Operation> c, int max) {
+    lock.lock();
+    try {
+      int n = 0;
+      Operation o;
+      while (n < max && (o = dequeue()) != null) {
+        c.add(o);
+        n++;
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Iterate over a snapshot of the inserted operations and the lanes, in
+   * lane order.
+   */
+  @Override
+  public Iterator<Operation> iterator() {
+    lock.lock();
+    try {
+      List<Operation> all = new ArrayList<Operation>(count);
+      all.addAll(head);
+      for (int i = 0; i < PRIORITIES.length; i++) {
+        all.addAll(lanes.get(i));
+      }
+      return Collections.unmodifiableList(all).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -30,17 +30,24 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.DefaultConnectionFactory;
 import net.spy.memcached.FailureMode;
 import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.ClientEvents;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.metrics.OperationLatencies;
+import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStage;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
 
@@ -55,8 +62,13 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private final ByteBuffer rbuf;
   private final ByteBuffer wbuf;
   protected final BlockingQueue<Operation> writeQ;
+  private final PriorityLaneQueue writeLanes;
   private final BlockingQueue<Operation> readQ;
   private final BlockingQueue<Operation> inputQueue;
+  // Inserted operations, waiting for the IO thread to put them at the head
+  // of the write queue.
+  private final Queue<Operation> insertQueue =
+    new ConcurrentLinkedQueue<Operation>();
   private final long opQueueMaxBlockTime;
   private final long authWaitTime;
   private final ConnectionFactory connectionFactory;
@@ -64,12 +76,37 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private SocketChannel channel;
   private int toWrite = 0;
   protected Operation optimizedOp = null;
+  /**
+   * The most keys the optimizer merges into one get.
+   */
+  protected final int maxGetKeys;
+  /**
+   * The most request bytes the optimizer merges into one get.
+   */
+  protected static final int MAX_GET_OPTIMIZATION_BYTES = 64 * 1024;
+  /**
+   * How long an idle node takes to halve its service time estimate.
+   */
+  private static final long SERVICE_TIME_HALF_LIFE =
+    TimeUnit.MILLISECONDS.toNanos(100);
   private volatile SelectionKey sk = null;
   private boolean shouldAuth = false;
   private CountDownLatch authLatch;
   private ArrayList<Operation> reconnectBlocked;
   private long defaultOpTimeout;
   private volatile long lastReadTimestamp = System.nanoTime();
+  /**
+   * Moving average of the time it takes the server to answer an operation,
+   * in nanoseconds. Only updated by the thread reading from this node.
+   */
+  private volatile long serviceTime;
+  private volatile long lastCompletion;
+  /**
+   * Adaptive limit on the operations awaiting a response, null if only the
+   * read queue bounds them.
+   */
+  private final InFlightLimit inFlightLimit;
+  private final OperationLatencies latencies = new OperationLatencies();
   private MemcachedConnection connection;
 
   // operation Future.get timeout counter
@@ -98,11 +135,17 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     wbuf = ByteBuffer.allocateDirect(bufSize);
     getWbuf().clear();
     readQ = rq;
-    writeQ = wq;
+    writeLanes = new PriorityLaneQueue(wq);
+    writeQ = writeLanes;
     inputQueue = iq;
     this.opQueueMaxBlockTime = opQueueMaxBlockTime;
     shouldAuth = waitForAuth;
     defaultOpTimeout = dt;
+    int maxInFlight = fact == null ? 0 : fact.getMaxInFlight();
+    inFlightLimit = maxInFlight > 0 ? new InFlightLimit(maxInFlight) : null;
+    maxGetKeys = fact == null
+      ? DefaultConnectionFactory.DEFAULT_MAX_KEYS_PER_GET
+      : fact.getMaxKeysPerGet();
     setupForAuth();
   }
 
@@ -111,12 +154,24 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    *
    * @see net.spy.memcached.MemcachedNode#copyInputQueue()
    */
-  public final void copyInputQueue() {
+  public final int copyInputQueue() {
+    int inserted = 0;
+    for (Operation op = insertQueue.poll(); op != null;
+      op = insertQueue.poll()) {
+      op.traceStage(OperationStage.WRITE_QUEUED);
+      writeLanes.insert(op);
+      inserted++;
+    }
+
     Collection<Operation> tmp = new ArrayList<Operation>();
 
     // don't drain more than we have space to place
     inputQueue.drainTo(tmp, writeQ.remainingCapacity());
+    for (Operation op : tmp) {
+      op.traceStage(OperationStage.WRITE_QUEUED);
+    }
     writeQ.addAll(tmp);
+    return inserted + tmp.size();
   }
 
   /*
@@ -126,6 +181,10 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    */
   public Collection<Operation> destroyInputQueue() {
     Collection<Operation> rv = new ArrayList<Operation>();
+    for (Operation op = insertQueue.poll(); op != null;
+      op = insertQueue.poll()) {
+      rv.add(op);
+    }
     inputQueue.drainTo(rv);
     return rv;
   }
@@ -165,6 +224,10 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
       getLogger().warn("Discarding partially completed op: %s", op);
       op.cancel();
     }
+    while (shouldAuth && (op = insertQueue.poll()) != null) {
+      getLogger().warn("Discarding partially completed op: %s", op);
+      op.cancel();
+    }
 
     getWbuf().clear();
     getRbuf().clear();
@@ -193,20 +256,27 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#fillWriteBuffer(boolean)
    */
   public final void fillWriteBuffer(boolean shouldOptimize) {
-    if (toWrite == 0 && readQ.remainingCapacity() > 0) {
+    // An operation already partly written has to be finished even at the in
+    // flight limit, getNextWritableOp() holds back the ones not yet begun.
+    if (toWrite == 0) {
       getWbuf().clear();
       Operation o=getNextWritableOp();
 
       while(o != null && toWrite < getWbuf().capacity()) {
-        synchronized(o) {
+        Operation current = o;
+        current.getLock().lock();
+        try {
           assert o.getState() == OperationState.WRITING;
 
           ByteBuffer obuf = o.getBuffer();
           assert obuf != null : "Didn't get a write buffer from " + o;
           int bytesToCopy = Math.min(getWbuf().remaining(), obuf.remaining());
-          byte[] b = new byte[bytesToCopy];
-          obuf.get(b);
-          getWbuf().put(b);
+          // Copy straight from the operation buffer, limiting it to what
+          // fits into wbuf instead of staging the bytes in a temporary array.
+          int limit = obuf.limit();
+          obuf.limit(obuf.position() + bytesToCopy);
+          getWbuf().put(obuf);
+          obuf.limit(limit);
           getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
           if (!o.getBuffer().hasRemaining()) {
             o.writeComplete();
@@ -220,6 +290,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
             o=getNextWritableOp();
           }
           toWrite += bytesToCopy;
+        } finally {
+          current.getLock().unlock();
         }
       }
       getWbuf().flip();
@@ -236,28 +308,78 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private Operation getNextWritableOp() {
     Operation o = getCurrentWriteOp();
     while (o != null && o.getState() == OperationState.WRITE_QUEUED) {
-      synchronized(o) {
+      o.getLock().lock();
+      try {
         if (o.isCancelled()) {
           getLogger().debug("Not writing cancelled op.");
           Operation cancelledOp = removeCurrentWriteOp();
           assert o == cancelledOp;
-        } else if (o.isTimedOut(defaultOpTimeout)) {
+        } else if (isExpired(o)) {
           getLogger().debug("Not writing timed out op.");
           Operation timedOutOp = removeCurrentWriteOp();
           assert o == timedOutOp;
+        } else if (isInFlightLimitReached()) {
+          // No room to wait for the response, write it once reads complete.
+          return null;
         } else {
           o.writing();
           if (!(o instanceof TapAckOperationImpl)) {
             readQ.add(o);
+            if (connection != null) {
+              connection.scheduleTimeout(o);
+            }
           }
           return o;
         }
-        o = getCurrentWriteOp();
+      } finally {
+        o.getLock().unlock();
       }
+      o = getCurrentWriteOp();
     }
     return o;
   }
 
+  /**
+   * Check if the next operation to write can be merged into the optimized
+   * operation: it is of the given type and comes from the same lane.
+   *
+   * @param type the type of operations the optimized operation merges.
+   * @return true if the next operation can be merged.
+   */
+  protected final boolean isMergeable(Class<? extends Operation> type) {
+    Operation next = writeQ.peek();
+    return type.isInstance(next)
+      && next.getPriority() == optimizedOp.getPriority();
+  }
+
+  /**
+   * Get the number of keys of the next operation to write, a get.
+   */
+  protected final int keysOfNextGet() {
+    return ((GetOperation) writeQ.peek()).getKeys().size();
+  }
+
+  /**
+   * Check if no more operations may await a response, either because the read
+   * queue is full or because of the adaptive in flight limit.
+   */
+  private boolean isInFlightLimitReached() {
+    return readQ.remainingCapacity() == 0
+      || (inFlightLimit != null && readQ.size() >= inFlightLimit.getLimit());
+  }
+
+  /**
+   * Check if the operation timed out before it was written, using its own
+   * timeout if it has one.
+   *
+   * @param o the operation
+   * @return true if the operation timed out
+   */
+  protected final boolean isExpired(Operation o) {
+    return o.isTimedOut(o.getTimeout() > 0 ? o.getTimeout()
+      : defaultOpTimeout);
+  }
+
   /* (non-Javadoc)
    * @see net.spy.memcached.MemcachedNode#transitionWriteItem()
    */
@@ -289,7 +411,26 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#removeCurrentReadOp()
    */
   public final Operation removeCurrentReadOp() {
-    return readQ.remove();
+    Operation op = readQ.remove();
+    if (op.getState() == OperationState.COMPLETE) {
+      // Time spent on this operation alone: since it was written, or since
+      // the previous one completed if it was already waiting behind it.
+      long now = System.nanoTime();
+      long sample = now - Math.max(lastCompletion,
+        op.getWriteCompleteTimestamp());
+      lastCompletion = now;
+      long avg = serviceTime;
+      serviceTime = avg == 0 ? sample : avg + ((sample - avg) >> 3);
+      if (inFlightLimit != null) {
+        if (op.isTimedOut()) {
+          inFlightLimit.timedOut(op.getWriteCompleteTimestamp(), now);
+        } else {
+          inFlightLimit.answered(now - op.getWriteCompleteTimestamp(),
+            readQ.size() + 1);
+        }
+      }
+    }
+    return op;
   }
 
   /*
@@ -359,6 +500,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
         return;
       }
       if (!inputQueue.offer(op, opQueueMaxBlockTime, TimeUnit.MILLISECONDS)) {
+        ClientEvents.get().rejected(this, op, "input queue full");
         throw new IllegalStateException("Timed out waiting to add " + op
             + "(max wait=" + opQueueMaxBlockTime + "ms)");
       }
@@ -376,10 +518,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * net.spy.memcached.MemcachedNode#insertOp(net.spy.memcached.ops.Operation)
    */
   public final void insertOp(Operation op) {
-    ArrayList<Operation> tmp = new ArrayList<Operation>(inputQueue.size() + 1);
-    tmp.add(op);
-    inputQueue.drainTo(tmp);
-    inputQueue.addAll(tmp);
+    // The IO thread puts it into the write queue, ahead of the operations
+    // of every lane.
+    insertQueue.add(op);
   }
 
   /*
@@ -393,7 +534,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
       if (hasReadOp()) {
         rv |= SelectionKey.OP_READ;
       }
-      if (toWrite > 0 || hasWriteOp()) {
+      if (toWrite > 0 || (hasWriteOp() && !isInFlightLimitReached())) {
         rv |= SelectionKey.OP_WRITE;
       }
     } else {
@@ -490,7 +631,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     }
     int rsize = readQ.size() + (optimizedOp == null ? 0 : 1);
     int wsize = writeQ.size();
-    int isize = inputQueue.size();
+    int isize = getInputQueueSize();
     return "{QA sa=" + getSocketAddress() + ", #Rops=" + rsize
         + ", #Wops=" + wsize
         + ", #iq=" + isize
@@ -597,6 +738,78 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return continuousTimeout.get();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getPendingOperationCount
+   */
+  public int getPendingOperationCount() {
+    return getInputQueueSize() + writeQ.size() + readQ.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getInputQueueSize
+   */
+  public int getInputQueueSize() {
+    return insertQueue.size() + inputQueue.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getWriteQueueSize
+   */
+  public int getWriteQueueSize() {
+    return writeQ.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getReadQueueSize
+   */
+  public int getReadQueueSize() {
+    return readQ.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getEstimatedCompletionTime
+   */
+  public long getEstimatedCompletionTime() {
+    long estimate = serviceTime;
+    int pending = getPendingOperationCount();
+    if (pending == 0 && estimate > 0) {
+      // Operations rejected on the estimate never bring it down, so an idle
+      // node forgets a slow response by halving the estimate every half life.
+      long halvings = (System.nanoTime() - lastCompletion)
+        / SERVICE_TIME_HALF_LIFE;
+      estimate = halvings >= Long.SIZE - 1 ? 0 : estimate >> halvings;
+    }
+    return (pending + 1) * estimate;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getInFlightLimit
+   */
+  public int getInFlightLimit() {
+    return inFlightLimit == null ? 0 : inFlightLimit.getLimit();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getLatencies
+   */
+  public OperationLatencies getLatencies() {
+    return latencies;
+  }
+
   public final void fixupOps() {
     // As the selection key can be changed at any point due to node
     // failure, we'll grab the current volatile value and configure it.
@@ -28,6 +28,7 @@ import java.nio.channels.SocketChannel;
 import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.compat.ClientEvents;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
@@ -53,14 +54,18 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
     // attempting to optimize them.
     if (writeQ.peek() instanceof GetOperation) {
       optimizedOp = writeQ.remove();
-      if (writeQ.peek() instanceof GetOperation) {
+      if (isMergeable(GetOperation.class)) {
+        int bytes = optimizedOp.getBuffer().remaining();
         OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) optimizedOp);
         optimizedOp = og;
 
-        while (writeQ.peek() instanceof GetOperation) {
+        while (isMergeable(GetOperation.class)
+            && og.size() + keysOfNextGet() <= maxGetKeys
+            && bytes < MAX_GET_OPTIMIZATION_BYTES) {
           GetOperationImpl o = (GetOperationImpl) writeQ.remove();
-          if (!o.isCancelled()) {
+          if (!o.isCancelled() && !isExpired(o)) {
             og.addOperation(o);
+            bytes += o.getBuffer().remaining();
           }
         }
 
@@ -70,6 +75,7 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
         ProxyCallback pcb = (ProxyCallback) og.getCallback();
         getLogger().debug("Set up %s with %s keys and %s callbacks", this,
             pcb.numKeys(), pcb.numCallbacks());
+        ClientEvents.get().optimized(this, "get", pcb.numCallbacks(), bytes);
       }
     }
   }
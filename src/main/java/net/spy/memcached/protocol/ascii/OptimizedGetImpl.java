@@ -40,6 +40,7 @@ final class OptimizedGetImpl extends GetOperationImpl {
   public OptimizedGetImpl(GetOperation firstGet) {
     super(new HashSet<String>(), new ProxyCallback());
     pcb = (ProxyCallback) getCallback();
+    setPriority(firstGet.getPriority());
     addOperation(firstGet);
   }
 
@@ -49,5 +50,11 @@ final class OptimizedGetImpl extends GetOperationImpl {
   public void addOperation(GetOperation o) {
     getKeys().addAll(o.getKeys());
     pcb.addCallbacks(o);
+    fold(o);
+    carryPermit(o);
+  }
+
+  public int size() {
+    return pcb.numKeys();
   }
 }
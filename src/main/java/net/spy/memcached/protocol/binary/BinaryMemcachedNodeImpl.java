@@ -28,6 +28,7 @@ import java.nio.channels.SocketChannel;
 import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.compat.ClientEvents;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.Operation;
@@ -41,9 +42,9 @@ import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
  */
 public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 
-  private static final int MAX_GET_OPTIMIZATION_COUNT = 4096;
   private static final int MAX_SET_OPTIMIZATION_COUNT = 65535;
   private static final int MAX_SET_OPTIMIZATION_BYTES = 2 * 1024 * 1024;
+  private static final int MAX_PIPELINE_OPTIMIZATION_COUNT = 4096;
 
   public BinaryMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
       int bufSize, BlockingQueue<Operation> rq, BlockingQueue<Operation> wq,
@@ -55,59 +56,90 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 
   @Override
   protected void optimize() {
-    Operation firstOp = writeQ.peek();
-    if (firstOp instanceof GetOperation) {
+    if (writeQ.isEmpty()) {
+      return;
+    }
+    // make sure there are at least two operations that go together before
+    // attempting to optimize them.
+    optimizedOp = writeQ.remove();
+    if (optimizedOp instanceof GetOperation
+        && isMergeable(GetOperation.class)) {
       optimizeGets();
-    } else if (firstOp instanceof CASOperation) {
+    } else if (optimizedOp instanceof CASOperation
+        && isMergeable(CASOperation.class)) {
       optimizeSets();
+    } else if (PipelinedOperationImpl.canPipeline(optimizedOp)
+        && canPipelineNext()) {
+      optimizePipeline();
     }
   }
 
+  private boolean canPipelineNext() {
+    return isMergeable(Operation.class)
+      && PipelinedOperationImpl.canPipeline(writeQ.peek());
+  }
+
   private void optimizeGets() {
-    // make sure there are at least two get operations in a row before
-    // attempting to optimize them.
-    optimizedOp = writeQ.remove();
-    if (writeQ.peek() instanceof GetOperation) {
-      OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) optimizedOp);
-      optimizedOp = og;
-
-      while (writeQ.peek() instanceof GetOperation
-          && og.size() < MAX_GET_OPTIMIZATION_COUNT) {
-        GetOperation o = (GetOperation) writeQ.remove();
-        if (!o.isCancelled()) {
-          og.addOperation(o);
-        }
-      }
+    int bytes = optimizedOp.getBuffer().remaining();
+    OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) optimizedOp);
+    optimizedOp = og;
 
-      // Initialize the new mega get
-      optimizedOp.initialize();
-      assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
-      ProxyCallback pcb = (ProxyCallback) og.getCallback();
-      getLogger().debug("Set up %s with %s keys and %s callbacks", this,
-          pcb.numKeys(), pcb.numCallbacks());
+    while (isMergeable(GetOperation.class)
+        && og.size() + keysOfNextGet() <= maxGetKeys
+        && bytes < MAX_GET_OPTIMIZATION_BYTES) {
+      GetOperation o = (GetOperation) writeQ.remove();
+      if (!o.isCancelled() && !isExpired(o)) {
+        og.addOperation(o);
+        bytes += o.getBuffer().remaining();
+      }
     }
+
+    // Initialize the new mega get
+    optimizedOp.initialize();
+    assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+    ProxyCallback pcb = (ProxyCallback) og.getCallback();
+    getLogger().debug("Set up %s with %s keys and %s callbacks", this,
+        pcb.numKeys(), pcb.numCallbacks());
+    ClientEvents.get().optimized(this, "get", pcb.numCallbacks(), bytes);
   }
 
   private void optimizeSets() {
-    // make sure there are at least two get operations in a row before
-    // attempting to optimize them.
-    optimizedOp = writeQ.remove();
-    if (writeQ.peek() instanceof CASOperation) {
-      OptimizedSetImpl og = new OptimizedSetImpl((CASOperation) optimizedOp);
-      optimizedOp = og;
-
-      while (writeQ.peek() instanceof StoreOperation
-          && og.size() < MAX_SET_OPTIMIZATION_COUNT
-          && og.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
-        CASOperation o = (CASOperation) writeQ.remove();
-        if (!o.isCancelled()) {
-          og.addOperation(o);
-        }
+    OptimizedSetImpl og = new OptimizedSetImpl((CASOperation) optimizedOp);
+    optimizedOp = og;
+
+    while (isMergeable(StoreOperation.class)
+        && og.size() < MAX_SET_OPTIMIZATION_COUNT
+        && og.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
+      CASOperation o = (CASOperation) writeQ.remove();
+      if (!o.isCancelled() && !isExpired(o)) {
+        og.addOperation(o);
       }
+    }
 
-      // Initialize the new mega set
-      optimizedOp.initialize();
-      assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+    // Initialize the new mega set
+    optimizedOp.initialize();
+    assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+    ClientEvents.get().optimized(this, "set", og.size(), og.bytes());
+  }
+
+  private void optimizePipeline() {
+    PipelinedOperationImpl po = new PipelinedOperationImpl(optimizedOp);
+    optimizedOp = po;
+
+    while (canPipelineNext()
+        && po.size() < MAX_PIPELINE_OPTIMIZATION_COUNT
+        && po.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
+      Operation o = writeQ.remove();
+      if (!o.isCancelled() && !isExpired(o)) {
+        po.addOperation(o);
+      }
     }
+
+    // Initialize the new pipeline
+    optimizedOp.initialize();
+    assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+    getLogger().debug("Set up %s with a pipeline of %s operations", this,
+        po.size());
+    ClientEvents.get().optimized(this, "pipeline", po.size(), po.bytes());
   }
 }
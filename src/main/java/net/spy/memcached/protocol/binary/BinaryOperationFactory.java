@@ -58,6 +58,7 @@ import net.spy.memcached.ops.UnlockOperation;
 import net.spy.memcached.ops.VersionOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.transcoders.StreamingTranscoder;
 
 import javax.security.auth.callback.CallbackHandler;
 import java.util.ArrayList;
@@ -141,6 +142,13 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new StoreOperationImpl(storeType, key, flags, exp, data, 0, cb);
   }
 
+  @Override
+  public <T> StoreOperation store(StoreType storeType, String key, int exp,
+      T value, StreamingTranscoder<T> tc, StoreOperation.Callback cb) {
+    return new StreamingStoreOperationImpl(storeType, key, exp, 0, value, tc,
+      cb);
+  }
+
   public TouchOperation touch(String key, int expiration,
       OperationCallback cb) {
     return new TouchOperationImpl(key, expiration, cb);
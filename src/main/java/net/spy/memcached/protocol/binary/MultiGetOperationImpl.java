@@ -47,8 +47,8 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
 
   private static final byte CMD_GETQ = 0x09;
 
-  private final Map<Integer, String> keys = new HashMap<Integer, String>();
-  private final Map<Integer, byte[]> bkeys = new HashMap<Integer, byte[]>();
+  private final OpaqueMap<String> keys = new OpaqueMap<String>();
+  private final OpaqueMap<byte[]> bkeys = new OpaqueMap<byte[]>();
   private final Map<String, Integer> rkeys = new HashMap<String, Integer>();
 
   private final int terminalOpaque = generateOpaque();
@@ -86,9 +86,9 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     }
     // set up the initial header stuff
     ByteBuffer bb = ByteBuffer.allocate(size);
-    for (Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
-      final byte[] keyBytes = me.getValue();
-      final String key = keys.get(me.getKey());
+    for (Map.Entry<String, Integer> me : rkeys.entrySet()) {
+      final String key = me.getKey();
+      final byte[] keyBytes = bkeys.get(me.getValue());
 
       // Custom header
       bb.put(REQ_MAGIC);
@@ -98,7 +98,7 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
       bb.put((byte) 0); // data type
       bb.putShort(vbmap.get(key).shortValue()); // vbucket
       bb.putInt(keyBytes.length);
-      bb.putInt(me.getKey());
+      bb.putInt(me.getValue());
       bb.putLong(0); // cas
       // the actual key
       bb.put(keyBytes);
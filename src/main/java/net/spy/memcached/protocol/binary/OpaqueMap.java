@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map from the opaque of a request to whatever its response is for.
+ *
+ * <p>
+ * Opaques are handed out in sequence, so the opaques of the requests merged
+ * into one operation mostly follow each other. They are used as slot index
+ * directly, which lays them out like a ring without collisions; the opaques
+ * that do collide are placed by linear probing. Opaques are never boxed, and
+ * nothing is allocated unless the table grows.
+ * </p>
+ *
+ * <p>
+ * This map is not thread safe, and does not take null values.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+final class OpaqueMap<V> {
+
+  private static final int MIN_CAPACITY = 8;
+
+  private int[] opaques;
+  private Object[] values;
+  private int mask;
+  private int size;
+
+  OpaqueMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * Create a map sized for the given number of entries.
+   *
+   * @param expected the number of entries expected
+   */
+  OpaqueMap(int expected) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expected * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    opaques = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Find the slot holding the given opaque, or the empty slot it would go in.
+   */
+  private int find(int opaque) {
+    int i = opaque & mask;
+    while (values[i] != null && opaques[i] != opaque) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /**
+   * Map the opaque to the given value.
+   *
+   * @param opaque the opaque
+   * @param value the value, not null
+   * @return the value previously mapped to the opaque, or null
+   */
+  @SuppressWarnings("unchecked")
+  V put(int opaque, V value) {
+    assert value != null : "Value is null";
+    int i = find(opaque);
+    V old = (V) values[i];
+    opaques[i] = opaque;
+    values[i] = value;
+    if (old == null && ++size * 2 > values.length) {
+      grow();
+    }
+    return old;
+  }
+
+  /**
+   * Get the value the opaque maps to.
+   *
+   * @param opaque the opaque
+   * @return the value, or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  V get(int opaque) {
+    return (V) values[find(opaque)];
+  }
+
+  boolean containsKey(int opaque) {
+    return values[find(opaque)] != null;
+  }
+
+  /**
+   * Remove the value the opaque maps to.
+   *
+   * @param opaque the opaque
+   * @return the value the opaque mapped to, or null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  V remove(int opaque) {
+    int hole = find(opaque);
+    V old = (V) values[hole];
+    if (old == null) {
+      return null;
+    }
+    size--;
+    // Shift back the entries that probed past the hole, so lookups never
+    // stop early at it.
+    int i = (hole + 1) & mask;
+    while (values[i] != null) {
+      int home = opaques[i] & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        opaques[hole] = opaques[i];
+        values[hole] = values[i];
+        hole = i;
+      }
+      i = (i + 1) & mask;
+    }
+    values[hole] = null;
+    return old;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * Get a copy of the values in the map.
+   */
+  @SuppressWarnings("unchecked")
+  List<V> values() {
+    List<V> rv = new ArrayList<V>(size);
+    for (Object v : values) {
+      if (v != null) {
+        rv.add((V) v);
+      }
+    }
+    return rv;
+  }
+
+  private void grow() {
+    int[] oldOpaques = opaques;
+    Object[] oldValues = values;
+    allocate(oldValues.length * 2);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int j = find(oldOpaques[i]);
+        opaques[j] = oldOpaques[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+}
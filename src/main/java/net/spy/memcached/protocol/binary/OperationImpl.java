@@ -214,6 +214,17 @@ public  abstract class OperationImpl extends BaseOperationImpl
     }
   }
 
+  /**
+   * Complete an operation written as part of a pipeline that will not read a
+   * response of its own, such as a quiet get the server had no value for.
+   *
+   * @param status the status to report.
+   */
+  void completePipelined(OperationStatus status) {
+    getCallback().receivedStatus(status);
+    transitionState(OperationState.COMPLETE);
+  }
+
   /**
    * Get the OperationStatus object for the given error code.
    *
@@ -42,6 +42,7 @@ final class OptimizedGetImpl extends MultiGetOperationImpl {
   public OptimizedGetImpl(GetOperation firstGet) {
     super(Collections.<String>emptySet(), new ProxyCallback());
     pcb = (ProxyCallback) getCallback();
+    setPriority(firstGet.getPriority());
     addOperation(firstGet);
   }
 
@@ -50,6 +51,8 @@ final class OptimizedGetImpl extends MultiGetOperationImpl {
    */
   public void addOperation(GetOperation o) {
     pcb.addCallbacks(o);
+    fold(o);
+    carryPermit(o);
     for (String k : o.getKeys()) {
       addKey(k);
       setVBucket(k, ((VBucketAware) o).getVBucket(k));
@@ -26,10 +26,8 @@ package net.spy.memcached.protocol.binary;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.CASOperation;
@@ -47,8 +45,8 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   private static final OperationCallback NOOP_CALLBACK = new NoopCallback();
 
   private final int terminalOpaque = generateOpaque();
-  private final Map<Integer, OperationCallback> callbacks =
-      new HashMap<Integer, OperationCallback>();
+  private final OpaqueMap<OperationCallback> callbacks =
+      new OpaqueMap<OperationCallback>();
   private final List<CASOperation> ops = new ArrayList<CASOperation>();
 
   // If nothing else, this will be a NOOP.
@@ -59,11 +57,14 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
    */
   public OptimizedSetImpl(CASOperation firstStore) {
     super(DUMMY_OPCODE, -1, NOOP_CALLBACK);
+    setPriority(firstStore.getPriority());
     addOperation(firstStore);
   }
 
   public void addOperation(CASOperation op) {
     ops.add(op);
+    fold(op);
+    carryPermit(op);
 
     // Count the bytes required by this operation.
     Iterator<String> is = op.getKeys().iterator();
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.VBucketAware;
+
+/**
+ * Pipeline of single key operations of any type written as one request.
+ *
+ * <p>
+ * The requests of the operations are written back to back, followed by a
+ * noop. Gets are sent quietly so the server only answers the hits; the gets
+ * still waiting when the noop is answered were misses. Each response is
+ * handed to the operation with its opaque, which decodes it just as it would
+ * if it had been written by itself.
+ * </p>
+ *
+ * <p>
+ * Operations answered with NOT_MY_VBUCKET are kept aside, and the pipeline
+ * ends in the RETRY state so that the connection redistributes them.
+ * </p>
+ */
+public class PipelinedOperationImpl extends OperationImpl {
+
+  private static final byte CMD_GETQ = 0x09;
+
+  private static final OperationStatus NOT_FOUND = new CASOperationStatus(
+      false, "Not found", CASResponse.NOT_FOUND, StatusCode.ERR_NOT_FOUND);
+
+  private final int terminalOpaque = generateOpaque();
+  private final List<OperationImpl> ops = new ArrayList<OperationImpl>();
+  private final OpaqueMap<OperationImpl> pending =
+      new OpaqueMap<OperationImpl>();
+  private final OpaqueMap<OperationImpl> quiet = new OpaqueMap<OperationImpl>();
+  private final List<OperationImpl> retries = new ArrayList<OperationImpl>();
+
+  // Response currently being handed to an operation.
+  private final byte[] header = new byte[MIN_RECV_PACKET];
+  private int headerOffset = 0;
+  private int bodyRemaining = 0;
+  private OperationImpl reader = null;
+
+  // If nothing else, this will be a NOOP.
+  private int byteCount = MIN_RECV_PACKET;
+
+  /**
+   * Construct a pipeline starting with the given operation.
+   */
+  public PipelinedOperationImpl(Operation first) {
+    super(DUMMY_OPCODE, -1, new OptimizedSetImpl.NoopCallback());
+    setPriority(first.getPriority());
+    addOperation(first);
+  }
+
+  /**
+   * Check if an operation can be written as part of a pipeline: it must get
+   * exactly one response, matched by its own opaque.
+   *
+   * @param op the operation
+   * @return true if it can be added to a pipeline
+   */
+  public static boolean canPipeline(Operation op) {
+    return op instanceof SingleKeyOperationImpl
+      && !(op instanceof KeyStatsOperationImpl)
+      && op.getBuffer() != null;
+  }
+
+  public void addOperation(Operation o) {
+    assert canPipeline(o) : "Can't pipeline " + o;
+    ops.add((OperationImpl) o);
+    fold(o);
+    byteCount += o.getBuffer().remaining();
+  }
+
+  public int size() {
+    return ops.size();
+  }
+
+  public int bytes() {
+    return byteCount;
+  }
+
+  @Override
+  public void initialize() {
+    ByteBuffer bb = ByteBuffer.allocate(byteCount);
+    for (OperationImpl op : ops) {
+      int start = bb.position();
+      bb.put(op.getBuffer().duplicate());
+      if (bb.get(start + 1) == GetOperationImpl.GET_CMD) {
+        bb.put(start + 1, CMD_GETQ);
+        quiet.put(op.opaque, op);
+      } else {
+        pending.put(op.opaque, op);
+      }
+    }
+    // Add the noop
+    bb.put(REQ_MAGIC);
+    bb.put(NoopOperationImpl.CMD);
+    bb.putShort((short) 0);
+    bb.put((byte) 0); // extralen
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // reserved
+    bb.putInt(0);
+    bb.putInt(terminalOpaque);
+    bb.putLong(0); // cas
+
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  /**
+   * Read the next part of a response and hand it to the operation it
+   * belongs to.
+   */
+  @Override
+  public void readFromBuffer(ByteBuffer buffer) throws IOException {
+    if (headerOffset < MIN_RECV_PACKET) {
+      int toRead = Math.min(MIN_RECV_PACKET - headerOffset,
+        buffer.remaining());
+      buffer.get(header, headerOffset, toRead);
+      headerOffset += toRead;
+      if (headerOffset < MIN_RECV_PACKET) {
+        return;
+      }
+      startResponse();
+    }
+    if (bodyRemaining > 0) {
+      int toRead = Math.min(bodyRemaining, buffer.remaining());
+      int limit = buffer.limit();
+      buffer.limit(buffer.position() + toRead);
+      reader.readFromBuffer(buffer);
+      buffer.limit(limit);
+      bodyRemaining -= toRead;
+    }
+    if (bodyRemaining == 0 && reader != null) {
+      finishResponse();
+    }
+  }
+
+  private void startResponse() throws IOException {
+    assert header[0] == RES_MAGIC : "Invalid magic:  " + header[0];
+    int responseOpq = decodeInt(header, 12);
+    bodyRemaining = decodeInt(header, 8);
+    if (responseOpq == terminalOpaque) {
+      assert bodyRemaining == 0 : "Noop response with a body";
+      headerOffset = 0;
+      finishPipeline();
+      return;
+    }
+    reader = pending.remove(responseOpq);
+    if (reader == null) {
+      reader = quiet.remove(responseOpq);
+      assert reader != null : "No operation for " + responseOpq;
+      // The operation expects the response to the command it asked for.
+      header[1] = GetOperationImpl.GET_CMD;
+    }
+    reader.readFromBuffer(ByteBuffer.wrap(header));
+  }
+
+  private void finishResponse() {
+    if (reader.getState() == OperationState.RETRY) {
+      ((VBucketAware) reader).addNotMyVbucketNode(reader.getHandlingNode());
+      retries.add(reader);
+    } else {
+      assert reader.getState() == OperationState.COMPLETE
+        : "Response didn't complete " + reader;
+    }
+    reader = null;
+    headerOffset = 0;
+  }
+
+  private void finishPipeline() {
+    assert pending.isEmpty() : "No response for " + pending.values();
+    for (OperationImpl op : quiet.values()) {
+      op.completePipelined(NOT_FOUND);
+    }
+    quiet.clear();
+    transitionState(retries.isEmpty() ? OperationState.COMPLETE
+      : OperationState.RETRY);
+  }
+
+  /**
+   * Get the operations that have to be sent again because the server
+   * answered NOT_MY_VBUCKET.
+   *
+   * @return the operations to retry
+   */
+  public List<OperationImpl> getRetryOperations() {
+    return retries;
+  }
+
+  @Override
+  public byte[] getErrorMsg() {
+    return retries.isEmpty() ? super.getErrorMsg()
+      : retries.get(0).getErrorMsg();
+  }
+
+  @Override
+  protected void wasCancelled() {
+    for (OperationImpl op : unanswered()) {
+      op.cancel();
+    }
+  }
+
+  @Override
+  public void timeOut() {
+    super.timeOut();
+    for (OperationImpl op : unanswered()) {
+      op.timeOut();
+    }
+  }
+
+  private List<OperationImpl> unanswered() {
+    List<OperationImpl> rv = pending.values();
+    rv.addAll(quiet.values());
+    rv.addAll(retries);
+    return rv;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " Operations: " + ops.size();
+  }
+}
@@ -47,7 +47,7 @@ class StoreOperationImpl extends SingleKeyOperationImpl implements
   private final long cas;
   private final byte[] data;
 
-  private static byte cmdMap(StoreType t) {
+  static byte cmdMap(StoreType t) {
     byte rv;
     switch (t) {
     case set:
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.transcoders.StreamingTranscoder;
+import net.spy.memcached.util.ByteBufferOutputStream;
+
+/**
+ * A store operation that encodes its value straight into the request buffer.
+ *
+ * <p>The header, extras and key are written first with placeholders for the
+ * flags and the total body length. The value is then streamed behind them by
+ * the {@link StreamingTranscoder} and the placeholders are patched once its
+ * length is known, so the value is never held in a separate array.</p>
+ */
+class StreamingStoreOperationImpl extends SingleKeyOperationImpl implements
+    StoreOperation, CASOperation {
+
+  private static final int VBUCKET_OFFSET = 6;
+  private static final int BODY_LENGTH_OFFSET = 8;
+  private static final int FLAGS_OFFSET = MIN_RECV_PACKET;
+
+  /**
+   * Space reserved for the value before the buffer needs to grow.
+   */
+  private static final int INITIAL_VALUE_CAPACITY = 1024;
+
+  private final StoreType storeType;
+  private final int flags;
+  private final int exp;
+  private final long cas;
+  private final ByteBuffer request;
+  private final int valueOffset;
+  private final int valueLength;
+
+  public <T> StreamingStoreOperationImpl(StoreType t, String k, int e, long c,
+      T value, StreamingTranscoder<T> tc, StoreOperation.Callback cb) {
+    super(StoreOperationImpl.cmdMap(t), generateOpaque(), k, cb);
+    storeType = t;
+    exp = e;
+    cas = c;
+
+    byte[] keyBytes = KeyUtil.getKeyBytes(k);
+    ByteBufferOutputStream out = new ByteBufferOutputStream(MIN_RECV_PACKET
+      + StoreOperationImpl.EXTRA_LEN + keyBytes.length
+      + INITIAL_VALUE_CAPACITY);
+    ByteBuffer bb = out.getBuffer();
+    bb.put(REQ_MAGIC);
+    bb.put(StoreOperationImpl.cmdMap(t));
+    bb.putShort((short) keyBytes.length);
+    bb.put((byte) StoreOperationImpl.EXTRA_LEN);
+    bb.put((byte) 0);
+    bb.putShort(vbucket);
+    bb.putInt(0); // body length, patched below
+    bb.putInt(opaque);
+    bb.putLong(cas);
+    bb.putInt(0); // flags, patched below
+    bb.putInt(exp);
+    bb.put(keyBytes);
+
+    valueOffset = out.size();
+    try {
+      flags = tc.encode(value, out);
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("Could not encode value", ex);
+    }
+    valueLength = out.size() - valueOffset;
+    if (valueLength > tc.getMaxSize()) {
+      throw new IllegalArgumentException("Cannot cache data larger than "
+          + tc.getMaxSize() + " bytes (you tried to cache a " + valueLength
+          + " byte object)");
+    }
+
+    bb = out.getBuffer();
+    bb.putInt(BODY_LENGTH_OFFSET,
+      StoreOperationImpl.EXTRA_LEN + keyBytes.length + valueLength);
+    bb.putInt(FLAGS_OFFSET, flags);
+    bb.flip();
+    request = bb;
+  }
+
+  @Override
+  public void initialize() {
+    // The vbucket may have been assigned after construction.
+    request.putShort(VBUCKET_OFFSET, vbucket);
+    request.rewind();
+    setBuffer(request);
+  }
+
+  public long getCasValue() {
+    return cas;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  /**
+   * Get a copy of the encoded value.
+   *
+   * <p>This is only needed when the operation gets cloned or merged, so the
+   * copy is made on demand rather than kept around.</p>
+   */
+  public byte[] getData() {
+    byte[] rv = new byte[valueLength];
+    ByteBuffer value = request.duplicate();
+    value.position(valueOffset);
+    value.get(rv);
+    return rv;
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  @Override
+  protected void decodePayload(byte[] pl) {
+    super.decodePayload(pl);
+    ((StoreOperation.Callback) getCallback()).gotData(key, responseCas);
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " Cas: " + cas + " Exp: " + exp + " Flags: "
+      + flags + " Data Length: " + valueLength;
+  }
+}
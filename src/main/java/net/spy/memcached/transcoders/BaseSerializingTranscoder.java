@@ -33,6 +33,7 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import net.spy.memcached.CachedData;
+import net.spy.memcached.compat.ClientEvents;
 import net.spy.memcached.compat.CloseUtil;
 import net.spy.memcached.compat.SpyObject;
 
@@ -150,6 +151,7 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
     if (in == null) {
       throw new NullPointerException("Can't compress null");
     }
+    Object event = ClientEvents.get().compressing();
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     GZIPOutputStream gz = null;
     try {
@@ -163,6 +165,7 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
     }
     byte[] rv = bos.toByteArray();
     getLogger().debug("Compressed %d bytes to %d", in.length, rv.length);
+    ClientEvents.get().compressed(event, in.length, rv.length);
     return rv;
   }
 
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * A {@link SerializingTranscoder} that serializes objects straight into the
+ * request buffer when used for store operations.
+ *
+ * <p>Values of the specially handled types (strings, numbers, dates, byte
+ * arrays) are encoded exactly like {@link SerializingTranscoder} does. Other
+ * objects are written through an {@link ObjectOutputStream} directly into the
+ * outgoing buffer. Since the serialized size is not known up front, the
+ * compression threshold does not apply to them; enable
+ * {@link #setCompressStreamed(boolean)} to always gzip streamed objects.</p>
+ *
+ * <p>Values written by this transcoder can be decoded by any
+ * {@link SerializingTranscoder}.</p>
+ */
+public class StreamingSerializingTranscoder extends SerializingTranscoder
+  implements StreamingTranscoder<Object> {
+
+  private volatile boolean compressStreamed = false;
+
+  /**
+   * Get a streaming serializing transcoder with the default max data size.
+   */
+  public StreamingSerializingTranscoder() {
+    this(CachedData.MAX_SIZE);
+  }
+
+  /**
+   * Get a streaming serializing transcoder that specifies the max data size.
+   */
+  public StreamingSerializingTranscoder(int max) {
+    super(max);
+  }
+
+  /**
+   * Whether serialized objects should be gzipped while they are streamed.
+   *
+   * @param to true to compress all streamed objects.
+   */
+  public void setCompressStreamed(boolean to) {
+    compressStreamed = to;
+  }
+
+  public int encode(Object o, OutputStream out) throws IOException {
+    if (o == null) {
+      throw new NullPointerException("Can't serialize null");
+    }
+    if (isSpecial(o)) {
+      CachedData d = encode(o);
+      out.write(d.getData());
+      return d.getFlags();
+    }
+
+    int flags = SERIALIZED;
+    GZIPOutputStream gz = null;
+    OutputStream target = out;
+    if (compressStreamed) {
+      gz = new GZIPOutputStream(out);
+      target = gz;
+      flags |= COMPRESSED;
+    }
+    // The streams are only flushed and finished, never closed, since the
+    // caller owns the target stream.
+    ObjectOutputStream os = new ObjectOutputStream(target);
+    try {
+      os.writeObject(o);
+      os.flush();
+    } catch (ObjectStreamException e) {
+      throw new IllegalArgumentException("Non-serializable object", e);
+    }
+    if (gz != null) {
+      gz.finish();
+    }
+    return flags;
+  }
+
+  private static boolean isSpecial(Object o) {
+    return o instanceof String || o instanceof Long || o instanceof Integer
+      || o instanceof Boolean || o instanceof Date
+      || o instanceof Byte || o instanceof Float || o instanceof Double
+      || o instanceof byte[];
+  }
+}
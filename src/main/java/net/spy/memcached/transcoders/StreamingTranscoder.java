@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link Transcoder} that is able to write the encoded form of an object
+ * straight into a stream.
+ *
+ * <p>When a store operation is created with a streaming transcoder, the value
+ * is encoded directly into the request buffer that will be written to the
+ * network instead of going through an intermediate {@code byte[]}.</p>
+ */
+public interface StreamingTranscoder<T> extends Transcoder<T> {
+
+  /**
+   * Encode the given object onto the given stream.
+   *
+   * <p>Implementations must not close the stream.</p>
+   *
+   * @param o the object
+   * @param out the stream to write the encoded value to
+   * @return the flags to be stored along with the value
+   * @throws IOException if writing to the stream fails
+   */
+  int encode(T o, OutputStream out) throws IOException;
+}
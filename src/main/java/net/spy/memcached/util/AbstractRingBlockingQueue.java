@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class of the bounded, array backed ring queues.
+ *
+ * Subclasses implement the non-blocking {@link #tryOffer(Object)} and
+ * {@link #tryPoll()} on top of the {@link #head} and {@link #tail} indexes.
+ * Blocking calls park the calling thread and are woken up by the other side
+ * of the queue. A thread only parks for a short slice at a time, so a
+ * wake-up lost to a racing thread delays it by at most one slice.
+ *
+ * The iterator works on a snapshot of the queue and does not support
+ * removal.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public abstract class AbstractRingBlockingQueue<E> extends AbstractQueue<E>
+  implements BlockingQueue<E> {
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * The elements, the length of the array is a power of two.
+   */
+  protected final Object[] buffer;
+
+  /**
+   * Mask to turn an index into a position in the buffer.
+   */
+  protected final int mask;
+
+  /**
+   * Index of the next element to take out of the queue.
+   */
+  protected final AtomicLong head = new AtomicLong();
+
+  /**
+   * Index of the next element to put into the queue.
+   */
+  protected final AtomicLong tail = new AtomicLong();
+
+  private final Queue<Thread> producers = new ConcurrentLinkedQueue<Thread>();
+  private final Queue<Thread> consumers = new ConcurrentLinkedQueue<Thread>();
+
+  /**
+   * Create a queue.
+   *
+   * @param capacity the capacity, rounded up to the next power of two
+   */
+  protected AbstractRingBlockingQueue(int capacity) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    buffer = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Add the element if there is room for it.
+   *
+   * @param e the element, never null
+   * @return true if the element was added
+   */
+  protected abstract boolean tryOffer(E e);
+
+  /**
+   * Take the next element if there is one.
+   *
+   * @return the element, or null if the queue is empty
+   */
+  protected abstract E tryPoll();
+
+  /**
+   * Get the element at the given index without removing it.
+   *
+   * @param index the index, not yet masked
+   * @return the element, or null if the slot is empty
+   */
+  @SuppressWarnings("unchecked")
+  protected final E elementAt(long index) {
+    return (E) buffer[(int) index & mask];
+  }
+
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    if (tryOffer(e)) {
+      signal(consumers);
+      return true;
+    }
+    return false;
+  }
+
+  public E poll() {
+    E e = tryPoll();
+    if (e != null) {
+      signal(producers);
+    }
+    return e;
+  }
+
+  public void put(E e) throws InterruptedException {
+    awaitOffer(e, false, 0);
+  }
+
+  public boolean offer(E e, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return offer(e) || awaitOffer(e, true, unit.toNanos(timeout));
+  }
+
+  public E take() throws InterruptedException {
+    return awaitPoll(false, 0);
+  }
+
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E e = poll();
+    return e != null ? e : awaitPoll(true, unit.toNanos(timeout));
+  }
+
+  public int size() {
+    long h = head.get();
+    long size = tail.get() - h;
+    return (int) Math.max(0, Math.min(buffer.length, size));
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int remainingCapacity() {
+    return buffer.length - size();
+  }
+
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = tryPoll()) != null) {
+      c.add(e);
+      n++;
+    }
+    if (n > 0) {
+      signal(producers);
+    }
+    return n;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    List<E> rv = new ArrayList<E>(size());
+    long t = tail.get();
+    for (long i = head.get(); i < t; i++) {
+      E e = elementAt(i);
+      if (e != null) {
+        rv.add(e);
+      }
+    }
+    return Collections.unmodifiableList(rv).iterator();
+  }
+
+  private boolean awaitOffer(E e, boolean timed, long nanos)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + nanos;
+    Thread me = Thread.currentThread();
+    producers.add(me);
+    try {
+      while (!offer(e)) {
+        if (!park(timed, deadline)) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      producers.remove(me);
+    }
+  }
+
+  private E awaitPoll(boolean timed, long nanos) throws InterruptedException {
+    long deadline = System.nanoTime() + nanos;
+    Thread me = Thread.currentThread();
+    consumers.add(me);
+    try {
+      E e;
+      while ((e = poll()) == null) {
+        if (!park(timed, deadline)) {
+          return null;
+        }
+      }
+      return e;
+    } finally {
+      consumers.remove(me);
+    }
+  }
+
+  private boolean park(boolean timed, long deadline)
+    throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    long slice = MAX_PARK_NANOS;
+    if (timed) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      slice = Math.min(slice, remaining);
+    }
+    LockSupport.parkNanos(this, slice);
+    return true;
+  }
+
+  private static void signal(Queue<Thread> waiters) {
+    if (!waiters.isEmpty()) {
+      Thread t = waiters.peek();
+      if (t != null) {
+        LockSupport.unpark(t);
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} that writes into a growable heap {@link ByteBuffer}.
+ *
+ * <p>This allows callers to reserve space (for example for a protocol
+ * header), stream a body behind it and then patch the reserved area once the
+ * length of the body is known.</p>
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+  private ByteBuffer buffer;
+
+  /**
+   * Create a stream with the given initial capacity.
+   *
+   * @param initialCapacity the number of bytes to allocate up front.
+   */
+  public ByteBufferOutputStream(int initialCapacity) {
+    buffer = ByteBuffer.allocate(initialCapacity);
+  }
+
+  @Override
+  public void write(int b) {
+    ensureRemaining(1);
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureRemaining(len);
+    buffer.put(b, off, len);
+  }
+
+  /**
+   * Number of bytes written so far.
+   */
+  public int size() {
+    return buffer.position();
+  }
+
+  /**
+   * Returns the underlying buffer.
+   *
+   * <p>The buffer is positioned after the last written byte. It may be
+   * replaced by a bigger one on subsequent writes, so callers should only
+   * hold on to it once writing is done.</p>
+   *
+   * @return the current buffer.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  private void ensureRemaining(int needed) {
+    if (buffer.remaining() < needed) {
+      int capacity = Math.max(buffer.capacity() << 1,
+        buffer.position() + needed);
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      buffer.flip();
+      grown.put(buffer);
+      buffer = grown;
+    }
+  }
+}
@@ -28,9 +28,12 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import net.spy.memcached.AdmissionListener;
 import net.spy.memcached.MemcachedClientIF;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.StatusCode;
 
 /**
  * CacheLoader provides efficient mechanisms for storing lots of data.
@@ -41,6 +44,11 @@ public class CacheLoader extends SpyObject {
   private final StorageListener storageListener;
   private final MemcachedClientIF client;
   private final int expiration;
+  private final AdmissionListener capacity = new AdmissionListener() {
+    public synchronized void capacityAvailable(int ops) {
+      notifyAll();
+    }
+  };
 
   /**
    * Simple CacheLoader constructor that doesn't provide any feedback and caches
@@ -73,12 +81,14 @@ public class CacheLoader extends SpyObject {
   /**
    * Load data from the given iterator.
    *
+   * Loading stops if the current thread is interrupted.
+   *
    * @param <T> type of data being loaded
    * @param i the iterator of data to load
    */
   public <T> Future<?> loadData(Iterator<Map.Entry<String, T>> i) {
     Future<Boolean> mostRecent = null;
-    while (i.hasNext()) {
+    while (i.hasNext() && !Thread.currentThread().isInterrupted()) {
       Map.Entry<String, T> e = i.next();
       mostRecent = push(e.getKey(), e.getValue());
       watch(e.getKey(), mostRecent);
@@ -100,7 +110,12 @@ public class CacheLoader extends SpyObject {
   /**
    * Push a value into the cache.
    *
-   * This is a wrapper around set that throttles and retries on full queues.
+   * This is a wrapper around set that throttles and retries on full queues,
+   * or when the set is rejected for reaching the admission limits.
+   *
+   * If the current thread is interrupted while waiting to retry, it gives up
+   * and returns a future failing with the InterruptedException, leaving the
+   * thread interrupted.
    *
    * @param <T> the type being stored
    * @param k the key
@@ -112,6 +127,13 @@ public class CacheLoader extends SpyObject {
     while (rv == null) {
       try {
         rv = client.set(k, expiration, value);
+        if (isRejected(rv)) {
+          rv = null;
+          awaitCapacity();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return new ImmediateFuture(ie);
       } catch (IllegalStateException ex) {
         // Need to slow down a bit when we start getting rejections.
         try {
@@ -122,6 +144,7 @@ public class CacheLoader extends SpyObject {
           }
         } catch (InterruptedException ie) {
           Thread.currentThread().interrupt();
+          return new ImmediateFuture(ie);
         } catch (Exception e2) {
           // Ignore exceptions here. We're just trying to slow
           // down input.
@@ -132,6 +155,27 @@ public class CacheLoader extends SpyObject {
     return rv;
   }
 
+  private boolean isRejected(Future<Boolean> f) {
+    return f instanceof OperationFuture && f.isDone()
+      && ((OperationFuture<Boolean>) f).getStatus().getStatusCode()
+        == StatusCode.REJECTED;
+  }
+
+  /**
+   * Wait until rejected operations can be admitted again, or a bit longer than
+   * that if the capacity came back before listening for it.
+   */
+  private void awaitCapacity() throws InterruptedException {
+    client.addAdmissionListener(capacity);
+    try {
+      synchronized (capacity) {
+        capacity.wait(250);
+      }
+    } finally {
+      client.removeAdmissionListener(capacity);
+    }
+  }
+
   private void watch(final String key, final Future<Boolean> f) {
     if (executorService != null && storageListener != null) {
       executorService.execute(new Runnable() {
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free ring queue for many producers and one consumer.
+ *
+ * Each slot carries a sequence number that tells producers and consumers
+ * whether the slot is free or filled for the lap they are working on, so
+ * neither side takes a lock or allocates. The consumer claims slots with a
+ * compare-and-set as well, which keeps the occasional take from a second
+ * thread (such as draining a node's input queue on shutdown) correct.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class MpscRingBlockingQueue<E> extends AbstractRingBlockingQueue<E> {
+
+  private final AtomicLongArray sequences;
+
+  /**
+   * Create a queue.
+   *
+   * @param capacity the capacity, rounded up to the next power of two and
+   *          to at least two, as a single slot cannot tell full from empty
+   */
+  public MpscRingBlockingQueue(int capacity) {
+    super(capacity == 1 ? 2 : capacity);
+    sequences = new AtomicLongArray(buffer.length);
+    for (int i = 0; i < buffer.length; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  @Override
+  protected boolean tryOffer(E e) {
+    while (true) {
+      long t = tail.get();
+      int i = (int) t & mask;
+      long seq = sequences.get(i);
+      if (seq == t) {
+        if (tail.compareAndSet(t, t + 1)) {
+          buffer[i] = e;
+          sequences.lazySet(i, t + 1);
+          return true;
+        }
+      } else if (seq < t) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  protected E tryPoll() {
+    while (true) {
+      long h = head.get();
+      int i = (int) h & mask;
+      long seq = sequences.get(i);
+      if (seq == h + 1) {
+        if (head.compareAndSet(h, h + 1)) {
+          E e = elementAt(i);
+          buffer[i] = null;
+          sequences.lazySet(i, h + buffer.length);
+          return e;
+        }
+      } else if (seq < h + 1) {
+        return null;
+      }
+    }
+  }
+
+  public E peek() {
+    long h = head.get();
+    int i = (int) h & mask;
+    return sequences.get(i) == h + 1 ? elementAt(i) : null;
+  }
+}
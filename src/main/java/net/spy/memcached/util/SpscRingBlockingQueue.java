@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+/**
+ * A bounded, lock-free ring queue for one producer and one consumer.
+ *
+ * Only the producer moves the tail and only the consumer moves the head, so
+ * both sides get away with ordered writes of their own index. The producer
+ * and consumer may be the same thread, or may be handed over to other
+ * threads, as long as the hand-over itself is properly synchronized. Other
+ * threads may look at the size of the queue at any time.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class SpscRingBlockingQueue<E> extends AbstractRingBlockingQueue<E> {
+
+  /**
+   * Create a queue.
+   *
+   * @param capacity the capacity, rounded up to the next power of two
+   */
+  public SpscRingBlockingQueue(int capacity) {
+    super(capacity);
+  }
+
+  @Override
+  protected boolean tryOffer(E e) {
+    long t = tail.get();
+    if (t - head.get() >= buffer.length) {
+      return false;
+    }
+    buffer[(int) t & mask] = e;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  @Override
+  protected E tryPoll() {
+    long h = head.get();
+    if (h >= tail.get()) {
+      return null;
+    }
+    int i = (int) h & mask;
+    E e = elementAt(i);
+    buffer[i] = null;
+    head.lazySet(h + 1);
+    return e;
+  }
+
+  public E peek() {
+    long h = head.get();
+    return h < tail.get() ? elementAt(h) : null;
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.server.FaultMode;
+
+/**
+ * Test bounding the operations and bytes in flight.
+ */
+public class AdmissionControllerTest extends EmbeddedServerCase {
+
+  private final MemcachedNode node1 =
+    new MockMemcachedNode(InetSocketAddress.createUnresolved("one", 11211));
+  private final MemcachedNode node2 =
+    new MockMemcachedNode(InetSocketAddress.createUnresolved("two", 11211));
+
+  public void testOperationsPerNode() {
+    AdmissionController ac = new AdmissionController(2, 0, 0, 0);
+    AdmissionController.Permit p1 = ac.tryAcquire(node1, 10);
+    assertNotNull(p1);
+    assertNotNull(ac.tryAcquire(node1, 10));
+    assertNull(ac.tryAcquire(node1, 10));
+    assertNotNull(ac.tryAcquire(node2, 10));
+    assertEquals(2, ac.getOperationsInFlight(node1));
+    assertEquals(3, ac.getOperationsInFlight());
+    assertEquals(Integer.MAX_VALUE, ac.getAvailableOperations());
+
+    p1.release();
+    p1.release();
+    assertEquals(1, ac.getOperationsInFlight(node1));
+    assertEquals(10, ac.getBytesInFlight(node1));
+    assertNotNull(ac.tryAcquire(node1, 10));
+  }
+
+  public void testBytes() {
+    AdmissionController ac = new AdmissionController(0, 0, 0, 100);
+    AdmissionController.Permit p1 = ac.tryAcquire(node1, 60);
+    assertNotNull(p1);
+    assertNull(ac.tryAcquire(node2, 60));
+    assertNotNull(ac.tryAcquire(node2, 40));
+    assertEquals(100, ac.getBytesInFlight());
+    assertEquals(60, ac.getBytesInFlight(node1));
+    assertEquals(40, ac.getBytesInFlight(node2));
+  }
+
+  public void testOversizedOperationAdmittedAlone() {
+    AdmissionController ac = new AdmissionController(0, 100, 0, 0);
+    AdmissionController.Permit p1 = ac.tryAcquire(node1, 1000);
+    assertNotNull(p1);
+    assertNull(ac.tryAcquire(node1, 1));
+    p1.release();
+    assertEquals(0, ac.getBytesInFlight(node1));
+    assertNotNull(ac.tryAcquire(node1, 1));
+  }
+
+  public void testListenerAfterRejection() {
+    AdmissionController ac = new AdmissionController(0, 0, 1, 0);
+    final int[] signals = new int[1];
+    ac.addListener(new AdmissionListener() {
+      public void capacityAvailable(int ops) {
+        assertEquals(1, ops);
+        signals[0]++;
+      }
+    });
+    AdmissionController.Permit p1 = ac.tryAcquire(node1, 1);
+    p1.release();
+    assertEquals(0, signals[0]);
+
+    p1 = ac.tryAcquire(node1, 1);
+    assertNull(ac.tryAcquire(node1, 1));
+    assertNull(ac.tryAcquire(node2, 1));
+    p1.release();
+    assertEquals(1, signals[0]);
+    ac.tryAcquire(node1, 1).release();
+    assertEquals(1, signals[0]);
+  }
+
+  public void testClientRejectsWithoutBlocking() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setOpTimeout(500)
+      .setAdmissionLimits(0, 0, 4, 0));
+    assertTrue(client.set("key", 0, "value").get());
+    AdmissionController ac = client.getConnection().getAdmissionController();
+    assertEquals(0, ac.getOperationsInFlight());
+
+    server.setFaultMode(FaultMode.STALL);
+    List<OperationFuture<Boolean>> stalled =
+      new ArrayList<OperationFuture<Boolean>>();
+    for (int i = 0; i < 4; i++) {
+      stalled.add(client.set("stalled" + i, 0, "value"));
+    }
+    final CountDownLatch available = new CountDownLatch(1);
+    assertTrue(client.addAdmissionListener(new AdmissionListener() {
+      public void capacityAvailable(int ops) {
+        available.countDown();
+      }
+    }));
+
+    OperationFuture<Boolean> rejected = client.set("rejected", 0, "value");
+    assertTrue(rejected.isDone());
+    assertEquals(StatusCode.REJECTED, rejected.getStatus().getStatusCode());
+    try {
+      rejected.get();
+      fail("Expected a rejection");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    Future<Object> get = client.asyncGet("key");
+    assertTrue(get.isDone());
+
+    // The stalled operations time out and give their permits back.
+    for (OperationFuture<Boolean> f : stalled) {
+      try {
+        f.get(100, TimeUnit.MILLISECONDS);
+        fail("Expected a timeout");
+      } catch (CheckedOperationTimeoutException e) {
+        // expected
+      }
+    }
+    assertTrue(available.await(5, TimeUnit.SECONDS));
+    awaitNothingInFlight(ac);
+  }
+
+  public void testRedistributedOperationsGiveBackPermits() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setAdmissionLimits(0, 0, 4, 0));
+    MemcachedConnection conn = client.getConnection();
+    AdmissionController ac = conn.getAdmissionController();
+    MemcachedNode node = conn.getLocator().getPrimary("key");
+    for (int i = 0; i < 8; i++) {
+      // An operation answered with NOT_MY_VBUCKET is cloned, and the
+      // original never completes.
+      final CountDownLatch done = new CountDownLatch(1);
+      Operation op = new BinaryOperationFactory().store(StoreType.set,
+        "key", 0, 0, new byte[10], new StoreOperation.Callback() {
+          public void gotData(String key, long cas) {
+            // Nothing to do
+          }
+
+          public void receivedStatus(OperationStatus status) {
+            assertTrue(status.isSuccess());
+          }
+
+          public void complete() {
+            done.countDown();
+          }
+        });
+      op.setPermit(ac.tryAcquire(node, 10));
+      op.initialize();
+      int opaque = op.getBuffer().getInt(12);
+      op.writing();
+      op.writeComplete();
+      ByteBuffer response = ByteBuffer.allocate(24);
+      response.put(0, (byte) 0x81);
+      response.put(1, (byte) 0x01);
+      response.putShort(6, (short) 0x07);
+      response.putInt(12, opaque);
+      op.readFromBuffer(response);
+      assertSame(OperationState.RETRY, op.getState());
+      conn.redistributeOperation(op);
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      awaitNothingInFlight(ac);
+    }
+    assertTrue(client.set("key", 0, "value").get());
+  }
+
+  public void testDroppedConnectionsGiveBackPermits() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setAdmissionLimits(0, 0, 4, 0)
+      .setMaxReconnectDelay(1));
+    AdmissionController ac = client.getConnection().getAdmissionController();
+    for (int round = 0; round < 3; round++) {
+      server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+      List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(client.set("dropped" + i, 0, "value"));
+      }
+      Thread.sleep(100);
+      server.setLatency(0, 0, TimeUnit.MILLISECONDS);
+      server.dropConnections();
+      for (Future<Boolean> f : futures) {
+        try {
+          f.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+          // Cancelled along with the connection
+        }
+      }
+      awaitNothingInFlight(ac);
+    }
+  }
+
+  private static void awaitNothingInFlight(AdmissionController ac)
+    throws InterruptedException {
+    long start = System.nanoTime();
+    while (ac.getOperationsInFlight() > 0
+      && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, ac.getOperationsInFlight());
+    assertEquals(0, ac.getBytesInFlight());
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Check the bytes every operation allocates against a recorded budget.
+ *
+ * <p>Operations are run synchronously against an embedded server, and the
+ * bytes allocated by the calling thread and the client's IO thread are
+ * divided by the number of operations. The server's own allocations are not
+ * counted. Each operation is measured a few times and the lowest count is
+ * kept, since a busy machine makes the IO thread go around its loop more
+ * often.</p>
+ *
+ * <p>Budgets are recorded per {@code java.specification.version}, on a 64 bit
+ * JVM with about a quarter added for noise, and the test is skipped on
+ * versions without any. When a change makes an operation allocate less,
+ * lower its budget so the gain is kept; run with
+ * {@code -Dallocation.record=true} to print the measurements.</p>
+ */
+public abstract class AllocationBudgetCase extends TestCase {
+
+  /**
+   * Print what every operation allocates.
+   */
+  public static final String RECORD_PROP = "allocation.record";
+
+  private static final int WARMUP = 20000;
+  private static final int ROUNDS = 3;
+  private static final int ITERATIONS = 10000;
+  private static final int KEY_COUNT = 100;
+
+  private EmbeddedMemcachedServer server;
+  private MemcachedClient client;
+  private ThreadMXBean threadBean;
+  private Method getThreadAllocatedBytes;
+  private long[] threadIds;
+
+  protected final String[] keys = new String[KEY_COUNT];
+  protected final List<String> bulkKeys = new ArrayList<String>();
+
+  /**
+   * An operation to measure.
+   */
+  protected interface Op {
+    void run(MemcachedClient c, String key) throws Exception;
+  }
+
+  protected abstract Protocol getProtocol();
+
+  /**
+   * Get the operations to measure and their budgets in bytes per operation.
+   *
+   * @param javaVersion the {@code java.specification.version} of the JVM
+   * @return the budgets, or null if none were recorded for the version
+   */
+  protected abstract Map<String, Long> getBudgets(String javaVersion);
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer();
+    server.start();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(getProtocol()).setDaemon(true).build(),
+      Arrays.asList(server.getAddress()));
+    threadIds = new long[] {Thread.currentThread().getId(),
+      client.getConnection().getId()};
+    threadBean = allocationBean();
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = "allocation:" + i;
+      assertTrue(client.set(keys[i], 0, "value").get());
+    }
+    bulkKeys.addAll(Arrays.asList(keys).subList(0, 10));
+    assertTrue(client.set("allocation:counter", 0, "0").get());
+  }
+
+  /**
+   * Get the thread bean if it measures the memory threads allocate. The
+   * interface doing so is specific to some JVMs, and loaded reflectively.
+   */
+  private ThreadMXBean allocationBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      if (!type.isInstance(bean) || !((Boolean) type.getMethod(
+          "isThreadAllocatedMemorySupported").invoke(bean))) {
+        return null;
+      }
+      type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class)
+        .invoke(bean, true);
+      getThreadAllocatedBytes =
+        type.getMethod("getThreadAllocatedBytes", long[].class);
+      return bean;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    server.stop();
+    super.tearDown();
+  }
+
+  protected Map<String, Op> getOps() {
+    Map<String, Op> rv = new LinkedHashMap<String, Op>();
+    rv.put("get", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.get(key);
+      }
+    });
+    rv.put("getMiss", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.get("allocation:missing");
+      }
+    });
+    rv.put("gets", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.gets(key);
+      }
+    });
+    rv.put("getBulk", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.getBulk(bulkKeys);
+      }
+    });
+    rv.put("set", new Op() {
+      public void run(MemcachedClient c, String key) throws Exception {
+        c.set(key, 0, "value").get();
+      }
+    });
+    rv.put("add", new Op() {
+      public void run(MemcachedClient c, String key) throws Exception {
+        c.add(key, 0, "value").get();
+      }
+    });
+    rv.put("replace", new Op() {
+      public void run(MemcachedClient c, String key) throws Exception {
+        c.replace(key, 0, "value").get();
+      }
+    });
+    rv.put("cas", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.cas(key, 1, "value");
+      }
+    });
+    rv.put("delete", new Op() {
+      public void run(MemcachedClient c, String key) throws Exception {
+        c.delete("allocation:missing").get();
+      }
+    });
+    rv.put("incr", new Op() {
+      public void run(MemcachedClient c, String key) {
+        c.incr("allocation:counter", 1);
+      }
+    });
+    rv.put("touch", new Op() {
+      public void run(MemcachedClient c, String key) throws Exception {
+        c.touch(key, 0).get();
+      }
+    });
+    return rv;
+  }
+
+  public void testAllocationBudgets() throws Exception {
+    if (threadBean == null) {
+      System.err.println("Thread allocation isn't measurable in this JVM, "
+        + "skipping " + getClass().getSimpleName());
+      return;
+    }
+    String javaVersion = System.getProperty("java.specification.version");
+    Map<String, Long> budgets = getBudgets(javaVersion);
+    if (budgets == null) {
+      System.err.println("No allocation budgets recorded for Java "
+        + javaVersion + ", skipping " + getClass().getSimpleName());
+      return;
+    }
+    Map<String, Op> ops = getOps();
+    assertEquals(budgets.keySet(), ops.keySet());
+
+    boolean record = Boolean.getBoolean(RECORD_PROP);
+    List<String> failures = new ArrayList<String>();
+    for (Map.Entry<String, Op> e : ops.entrySet()) {
+      long allocated = measure(e.getValue());
+      long budget = budgets.get(e.getKey());
+      if (record) {
+        System.out.printf("%s %s: %d bytes/op, budget %d%n", getProtocol(),
+          e.getKey(), allocated, budget);
+      }
+      if (allocated > budget) {
+        failures.add(e.getKey() + " allocated " + allocated
+          + " bytes/op, over its budget of " + budget);
+      }
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+  }
+
+  private long measure(Op op) throws Exception {
+    for (int i = 0; i < WARMUP; i++) {
+      op.run(client, keys[i % KEY_COUNT]);
+    }
+    long rv = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long before = allocatedBytes();
+      for (int i = 0; i < ITERATIONS; i++) {
+        op.run(client, keys[i % KEY_COUNT]);
+      }
+      rv = Math.min(rv, (allocatedBytes() - before) / ITERATIONS);
+    }
+    return rv;
+  }
+
+  private long allocatedBytes() throws Exception {
+    long rv = 0;
+    for (long bytes : (long[]) getThreadAllocatedBytes.invoke(threadBean,
+        (Object) threadIds)) {
+      assertTrue("A measured thread has died", bytes >= 0);
+      rv += bytes;
+    }
+    return rv;
+  }
+}
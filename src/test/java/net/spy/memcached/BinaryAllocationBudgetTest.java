@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+
+/**
+ * Allocation budgets of the binary protocol.
+ */
+public class BinaryAllocationBudgetTest extends AllocationBudgetCase {
+
+  @Override
+  protected Protocol getProtocol() {
+    return Protocol.BINARY;
+  }
+
+  @Override
+  protected Map<String, Long> getBudgets(String javaVersion) {
+    if (!javaVersion.equals("17")) {
+      return null;
+    }
+    Map<String, Long> rv = new LinkedHashMap<String, Long>();
+    rv.put("get", 2300L);
+    rv.put("getMiss", 2200L);
+    rv.put("gets", 2100L);
+    rv.put("getBulk", 12000L);
+    rv.put("set", 2300L);
+    rv.put("add", 2400L);
+    rv.put("replace", 2300L);
+    rv.put("cas", 2400L);
+    rv.put("delete", 2100L);
+    rv.put("incr", 2200L);
+    rv.put("touch", 2000L);
+    return rv;
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+
+/**
+ * Test the blocking transport against an embedded binary protocol server.
+ */
+public class BlockingMemcachedConnectionTest extends EmbeddedServerCase {
+
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    client = connect(builder()
+      .setTransport(Transport.BLOCKING)
+      .setOpTimeout(5000)
+      .setMaxReconnectDelay(1));
+  }
+
+  public void testConnectionType() {
+    assertTrue(client.getConnection() instanceof BlockingMemcachedConnection);
+  }
+
+  public void testSetAndGet() throws Exception {
+    assertTrue(client.set("key", 0, "value").get());
+    assertEquals("value", client.get("key"));
+    assertNull(client.get("missing"));
+  }
+
+  public void testBulkGet() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      keys.add("k" + i);
+      client.set("k" + i, 0, i);
+    }
+    keys.add("missing");
+    Map<String, Object> values = client.getBulk(keys);
+    assertEquals(100, values.size());
+    assertEquals(42, values.get("k42"));
+  }
+
+  public void testConcurrentCallers() throws Exception {
+    ExecutorService callers = Executors.newFixedThreadPool(50);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 500; i++) {
+      final String key = "concurrent" + i;
+      results.add(callers.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          client.set(key, 0, key).get();
+          return key.equals(client.get(key));
+        }
+      }));
+    }
+    for (Future<Boolean> f : results) {
+      assertTrue(f.get(10, TimeUnit.SECONDS));
+    }
+    callers.shutdown();
+  }
+
+  public void testReconnect() throws Exception {
+    assertTrue(client.set("key", 0, "value").get());
+    server.dropConnections();
+    long stop = System.currentTimeMillis() + 10000;
+    Object value = null;
+    while (value == null && System.currentTimeMillis() < stop) {
+      try {
+        value = client.get("key");
+      } catch (RuntimeException e) {
+        Thread.sleep(100);
+      }
+    }
+    assertEquals("value", value);
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the chunked value store against an in-memory client.
+ */
+public class ChunkedValueStoreTest extends TestCase {
+
+  private Map<String, CachedData> cache;
+  private ChunkedValueStore<Object> store;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new HashMap<String, CachedData>();
+    MemcachedClientIF client = (MemcachedClientIF) Proxy.newProxyInstance(
+      getClass().getClassLoader(), new Class<?>[] {MemcachedClientIF.class},
+      new FakeClient());
+    SerializingTranscoder tc = new SerializingTranscoder();
+    tc.setCompressionThreshold(Integer.MAX_VALUE);
+    store = new ChunkedValueStore<Object>(client, tc, 1000);
+  }
+
+  public void testSmallValueIsInline() {
+    assertTrue(store.set("small", 0, "hello"));
+    assertEquals("hello", store.get("small"));
+    assertEquals(1, cache.size());
+  }
+
+  public void testLargeValueIsChunked() {
+    byte[] value = new byte[3500];
+    new Random(7).nextBytes(value);
+    assertTrue(store.set("large", 0, value));
+    assertEquals(5, cache.size());
+    assertTrue(cache.containsKey("large:3"));
+    assertTrue(Arrays.equals(value, (byte[]) store.get("large")));
+  }
+
+  public void testExactMultipleOfChunkSize() {
+    byte[] value = new byte[2000];
+    Arrays.fill(value, (byte) 'x');
+    assertTrue(store.set("exact", 0, value));
+    assertEquals(3, cache.size());
+    assertTrue(Arrays.equals(value, (byte[]) store.get("exact")));
+  }
+
+  public void testMissingChunkIsMiss() {
+    assertTrue(store.set("large", 0, new byte[2500]));
+    cache.remove("large:1");
+    assertNull(store.get("large"));
+  }
+
+  public void testStaleChunkIsMiss() {
+    assertTrue(store.set("large", 0, new byte[2500]));
+    CachedData stale = cache.get("large:2");
+    assertTrue(store.set("large", 0, new byte[2500]));
+    cache.put("large:2", stale);
+    assertNull(store.get("large"));
+  }
+
+  public void testShortManifestIsMiss() {
+    assertTrue(store.set("small", 0, "hello"));
+    CachedData d = cache.get("small");
+    cache.put("small", new CachedData(d.getFlags(),
+      Arrays.copyOf(d.getData(), d.getData().length - 1),
+      CachedData.MAX_SIZE));
+    assertNull(store.get("small"));
+  }
+
+  public void testNegativeChunkCountIsMiss() {
+    assertTrue(store.set("large", 0, new byte[2500]));
+    CachedData d = cache.get("large");
+    byte[] manifest = d.getData().clone();
+    // The chunk count ends the header.
+    Arrays.fill(manifest, 20, 24, (byte) 0xff);
+    cache.put("large", new CachedData(d.getFlags(), manifest,
+      CachedData.MAX_SIZE));
+    assertNull(store.get("large"));
+  }
+
+  public void testMissingValue() {
+    assertNull(store.get("nothing"));
+  }
+
+  public void testDelete() {
+    assertTrue(store.set("large", 0, new byte[2500]));
+    assertTrue(store.delete("large"));
+    assertNull(store.get("large"));
+  }
+
+  public void testInvalidChunkSize() {
+    try {
+      new ChunkedValueStore<Object>(null, new SerializingTranscoder(), 0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  private class FakeClient implements InvocationHandler {
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method m, Object[] args) {
+      String name = m.getName();
+      if (name.equals("set")) {
+        Transcoder<Object> tc = (Transcoder<Object>) args[3];
+        cache.put((String) args[0], tc.encode(args[2]));
+        return new ImmediateFuture(true);
+      } else if (name.equals("get")) {
+        return decode((String) args[0], (Transcoder<Object>) args[1]);
+      } else if (name.equals("getBulk")) {
+        Map<String, Object> rv = new HashMap<String, Object>();
+        for (String k : (Collection<String>) args[0]) {
+          Object o = decode(k, (Transcoder<Object>) args[1]);
+          if (o != null) {
+            rv.put(k, o);
+          }
+        }
+        return rv;
+      } else if (name.equals("delete")) {
+        return new ImmediateFuture(cache.remove(args[0]) != null);
+      }
+      throw new UnsupportedOperationException(name);
+    }
+
+    private Object decode(String key, Transcoder<Object> tc) {
+      CachedData d = cache.get(key);
+      return d == null ? null : tc.decode(d);
+    }
+  }
+}
@@ -30,11 +30,15 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
 /**
  * A ClientBaseCase.
  */
 public abstract class ClientBaseCase extends TestCase {
 
+  private static EmbeddedMemcachedServer embeddedServer;
+
   protected MemcachedClient client = null;
   protected Boolean membase;
   protected Boolean moxi;
@@ -69,9 +73,19 @@ public abstract class ClientBaseCase extends TestCase {
   @Override
   protected void setUp() throws Exception {
     super.setUp();
+    if (TestConfig.useEmbeddedServer()) {
+      startEmbeddedServer();
+    }
     initClient();
   }
 
+  private static synchronized void startEmbeddedServer() throws Exception {
+    if (embeddedServer == null) {
+      embeddedServer = new EmbeddedMemcachedServer(TestConfig.PORT_NUMBER);
+      embeddedServer.start();
+    }
+  }
+
   @Override
   protected void tearDown() throws Exception {
     // Shut down, start up, flush, and shut down again. Error tests have
@@ -125,6 +125,7 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     OperationQueueFactory opQueueFactory = new DirectFactory(oQueue);
     OperationQueueFactory rQueueFactory = new DirectFactory(rQueue);
     OperationQueueFactory wQueueFactory = new DirectFactory(wQueue);
+    OperationTracer tracer = new SamplingOperationTracer(0.5);
     AuthDescriptor anAuthDescriptor = new AuthDescriptor(
         new String[] { "PLAIN" }, new PlainCallbackHandler("username",
           "password"));
@@ -142,9 +143,15 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         .setAuthDescriptor(anAuthDescriptor)
         .setAuthWaitTime(3000)
         .setKeepAlive(true)
+        .setMaxInFlight(64)
+        .setMaxKeysPerGet(500)
+        .setOperationTracer(tracer)
         .build();
 
     assertEquals(4225, f.getOperationTimeout());
+    assertEquals(64, f.getMaxInFlight());
+    assertEquals(500, f.getMaxKeysPerGet());
+    assertSame(tracer, f.getOperationTracer());
     assertEquals(19, f.getReadBufSize());
     assertSame(DefaultHashAlgorithm.KETAMA_HASH, f.getHashAlg());
     assertTrue(f.getDefaultTranscoder() instanceof WhalinTranscoder);
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+import net.spy.memcached.auth.AuthDescriptor;
+
+/**
+ * Test opening more than one connection to each server.
+ */
+public class ConnectionsPerServerTest extends EmbeddedServerCase {
+
+  private static final int CONNECTIONS = 4;
+
+  public void testInvalidConnectionCount() {
+    try {
+      new ConnectionFactoryBuilder().setConnectionsPerServer(0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testDefaultConnectionCount() {
+    assertEquals(1, new DefaultConnectionFactory().getConnectionsPerServer());
+  }
+
+  public void testNIOConnections() throws Exception {
+    assertConnectionsUsed(Transport.NIO);
+  }
+
+  public void testBlockingConnections() throws Exception {
+    assertConnectionsUsed(Transport.BLOCKING);
+  }
+
+  public void testNIOConnectionsAuthenticated() throws Exception {
+    assertConnectionsAuthenticated(Transport.NIO);
+  }
+
+  public void testBlockingConnectionsAuthenticated() throws Exception {
+    assertConnectionsAuthenticated(Transport.BLOCKING);
+  }
+
+  public void testLateObserverSeesEveryConnection() throws Exception {
+    final MemcachedClient client = connect(builder()
+      .setConnectionsPerServer(CONNECTIONS));
+    waitForConnections(client);
+    final List<MemcachedNode> seen = new ArrayList<MemcachedNode>();
+    client.addObserver(new ConnectionObserver() {
+      @Override
+      public void connectionEstablished(SocketAddress sa, int count) {
+        seen.add(client.getConnection().getConnectingNode());
+      }
+
+      @Override
+      public void connectionLost(SocketAddress sa) {
+        // Not tested.
+      }
+    });
+    assertEquals(new HashSet<MemcachedNode>(
+      client.getConnection().getAllNodes()),
+      new HashSet<MemcachedNode>(seen));
+    assertEquals(CONNECTIONS, seen.size());
+  }
+
+  public void testReadsFollowWritesOfTheirKey() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setConnectionsPerServer(CONNECTIONS)
+      .setOpTimeout(5000));
+    waitForConnections(client);
+    // A large value takes longer to read than a get sent right after it.
+    byte[] value = new byte[256 * 1024];
+    List<Future<Object>> gets = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 20; i++) {
+      client.set("ryw" + i, 0, value);
+      gets.add(client.asyncGet("ryw" + i));
+    }
+    for (int i = 0; i < gets.size(); i++) {
+      assertNotNull("get ryw" + i, gets.get(i).get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(CONNECTIONS, server.getServedConnectionCount());
+  }
+
+  public void testKeysSpreadOverConnections() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setConnectionsPerServer(CONNECTIONS));
+    waitForConnections(client);
+    MemcachedConnection conn = client.getConnection();
+    MemcachedNode primary = conn.getLocator().getPrimary("key");
+    Set<MemcachedNode> used = new HashSet<MemcachedNode>();
+    for (int i = 0; i < 100; i++) {
+      MemcachedNode node = conn.getConnection(primary, "key" + i);
+      assertSame(node, conn.getConnection(primary, "key" + i));
+      used.add(node);
+    }
+    assertEquals(CONNECTIONS, used.size());
+  }
+
+  public void testLargeMultigetSplitAcrossConnections() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    MemcachedClient loader = connect(builder());
+    Future<Boolean> last = null;
+    for (int i = 0; i < 1000; i++) {
+      keys.add("bulk" + i);
+      last = loader.set("bulk" + i, 0, "v" + i);
+    }
+    assertTrue(last.get(10, TimeUnit.SECONDS));
+    assertEquals(1, server.getServedConnectionCount());
+
+    MemcachedClient client = connect(builder()
+      .setConnectionsPerServer(CONNECTIONS)
+      .setMaxKeysPerGet(100)
+      .setShouldOptimize(true)
+      .setOpTimeout(5000));
+    // Chunks only go to connections that are up.
+    waitForConnections(client);
+    // Gets queued ahead of the chunks are merged with them up to the limit.
+    List<Future<Object>> singles = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 4 * CONNECTIONS; i++) {
+      singles.add(client.asyncGet("bulk" + i));
+    }
+    Map<String, Object> values = client.getBulk(keys);
+    assertEquals(1000, values.size());
+    assertEquals("v999", values.get("bulk999"));
+    for (int i = 0; i < singles.size(); i++) {
+      assertEquals("v" + i, singles.get(i).get());
+    }
+    assertTrue(server.getGetRequestCount() >= 10);
+    assertTrue("Got " + server.getMaxKeysPerGet() + " keys in one request",
+      server.getMaxKeysPerGet() <= 100);
+    // The loader's connection and every connection of the client.
+    assertEquals(1 + CONNECTIONS, server.getServedConnectionCount());
+  }
+
+  private void assertConnectionsAuthenticated(Transport transport)
+    throws Exception {
+    server.setCredentials("user", "secret");
+    MemcachedClient client = connect(builder()
+      .setTransport(transport)
+      .setConnectionsPerServer(CONNECTIONS)
+      .setAuthDescriptor(AuthDescriptor.typical("user", "secret"))
+      .setOpTimeout(5000));
+    waitForConnections(client);
+    // The server refuses every command on a connection that didn't
+    // authenticate, whichever connection the key lands on.
+    for (int i = 0; i < 200; i++) {
+      assertTrue("set auth" + i, client.set("auth" + i, 0, "v").get());
+    }
+    // A connection dropped under load reconnects and authenticates again.
+    waitForConnections(client);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (server.getConnectionCount() != CONNECTIONS
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(CONNECTIONS, server.getConnectionCount());
+  }
+
+  private void assertConnectionsUsed(Transport transport) throws Exception {
+    final MemcachedClient client = connect(builder()
+      .setTransport(transport)
+      .setConnectionsPerServer(CONNECTIONS)
+      .setOpTimeout(5000));
+    MemcachedConnection conn = client.getConnection();
+    assertEquals(1, conn.getLocator().getAll().size());
+    assertEquals(CONNECTIONS, conn.getAllNodes().size());
+
+    ExecutorService callers = Executors.newFixedThreadPool(32);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 2000; i++) {
+      final String key = "spread" + i;
+      results.add(callers.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          client.set(key, 0, key).get();
+          return key.equals(client.get(key));
+        }
+      }));
+    }
+    for (Future<Boolean> f : results) {
+      assertTrue(f.get(10, TimeUnit.SECONDS));
+    }
+    callers.shutdown();
+
+    assertTrue(client.waitForQueues(5, TimeUnit.SECONDS));
+    assertEquals(CONNECTIONS, server.getConnectionCount());
+    assertEquals(CONNECTIONS, server.getServedConnectionCount());
+  }
+
+  private static void waitForConnections(MemcachedClient client)
+    throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    for (MemcachedNode node : client.getConnection().getAllNodes()) {
+      while (!(node.isActive() && node.isAuthenticated())
+        && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+    }
+  }
+}
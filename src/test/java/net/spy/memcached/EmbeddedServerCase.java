@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Base for tests of a client talking to an {@link EmbeddedMemcachedServer}.
+ *
+ * <p>Every test gets a server of its own. Clients opened with
+ * {@link #connect(ConnectionFactoryBuilder)} are shut down after the test,
+ * before the server is stopped.</p>
+ */
+public abstract class EmbeddedServerCase extends TestCase {
+
+  protected EmbeddedMemcachedServer server;
+
+  private final List<MemcachedClient> clients =
+    new ArrayList<MemcachedClient>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer();
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (MemcachedClient c : clients) {
+      c.shutdown();
+    }
+    clients.clear();
+    server.stop();
+    super.tearDown();
+  }
+
+  /**
+   * Get a builder for a binary protocol client with daemon threads.
+   */
+  protected static ConnectionFactoryBuilder builder() {
+    return new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY)
+      .setDaemon(true);
+  }
+
+  /**
+   * Connect a client built by the given builder to the server.
+   *
+   * @param b the builder of the client's connection factory
+   * @return the client, shut down after the test
+   */
+  protected MemcachedClient connect(ConnectionFactoryBuilder b)
+    throws IOException {
+    MemcachedClient c = new MemcachedClient(b.build(),
+      Collections.singletonList(server.getAddress()));
+    clients.add(c);
+    return c;
+  }
+}
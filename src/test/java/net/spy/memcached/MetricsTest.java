@@ -23,15 +23,21 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.metrics.CounterHandle;
 import net.spy.memcached.metrics.DefaultMetricCollector;
 import net.spy.memcached.metrics.DummyMetricCollector;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
@@ -70,6 +76,67 @@ public class MetricsTest {
     assertTrue(cf.getMetricCollector() instanceof DefaultMetricCollector);
   }
 
+  @Test
+  public void handlesDiscardWhenDisabled() throws Exception {
+    MetricCollector collector = new NoopMetricCollector();
+    assertSame(CounterHandle.NOOP, collector.registerCounter("counter"));
+    assertSame(CounterHandle.NOOP, collector.registerMeter("meter"));
+    assertSame(HistogramHandle.NOOP, collector.registerHistogram("histo"));
+  }
+
+  @Test
+  public void handlesUpdateRegisteredMetrics() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    CounterHandle counter = collector.registerCounter("counter");
+    CounterHandle meter = collector.registerMeter("meter");
+    HistogramHandle histogram = collector.registerHistogram("histo");
+    counter.increment();
+    counter.add(-3);
+    meter.increment();
+    meter.add(2);
+    histogram.update(5);
+
+    // The collector only implements the named metrics, the handles of
+    // AbstractMetricCollector update them.
+    HashMap<String, Integer> metrics = collector.getMetrics();
+    assertEquals(-2, (long) metrics.get("counter"));
+    assertEquals(3, (long) metrics.get("meter"));
+    assertEquals(5, (long) metrics.get("histo"));
+  }
+
+  @Test
+  public void samplesEventLoopAndNodes() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+    server.start();
+    DummyMetricCollector collector = new DummyMetricCollector();
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setEnableMetrics(MetricType.PERFORMANCE)
+      .setMetricCollector(collector)
+      .setDaemon(true)
+      .build();
+
+    MemcachedClient client = new MemcachedClient(cf,
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertTrue(client.set("metrics:loop", 0, "value").get());
+    } finally {
+      client.shutdown();
+      server.stop();
+    }
+
+    HashMap<String, Integer> metrics = collector.getMetrics();
+    assertTrue(metrics.get("[MEM] Keys ready per select") > 0);
+    assertTrue(metrics.get("[MEM] Operations drained per input queue pass")
+      > 0);
+    assertTrue(metrics.containsKey("[MEM] Input Queue: "
+      + server.getAddress()));
+    assertTrue(metrics.containsKey("[MEM] Write Queue: "
+      + server.getAddress()));
+    assertTrue(metrics.containsKey("[MEM] Bytes pending in write buffer: "
+      + server.getAddress()));
+  }
+
   @Test
   public void doStuff() throws Exception {
     DummyMetricCollector collector = new DummyMetricCollector();
@@ -87,6 +154,12 @@ public class MetricsTest {
 
     HashMap<String, Integer> metrics = collector.getMetrics();
     assertTrue(metrics.get("[MEM] Average Bytes written to OS per write") > 0);
+    // The IO thread marks a response after its callback let the caller go.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (metrics.get("[MEM] Response Rate: Success") < 2
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
     assertEquals(2, (long) metrics.get("[MEM] Response Rate: Success"));
 
     client.shutdown();
@@ -31,6 +31,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
+import net.spy.memcached.metrics.OperationLatencies;
 import net.spy.memcached.ops.Operation;
 
 /**
@@ -71,8 +72,8 @@ public class MockMemcachedNode implements MemcachedNode {
     return (socketAddress != null ? socketAddress.hashCode() : 0);
   }
 
-  public void copyInputQueue() {
-    // noop
+  public int copyInputQueue() {
+    return 0;
   }
 
   public void setupResend() {
@@ -195,6 +196,34 @@ public class MockMemcachedNode implements MemcachedNode {
     return 0;
   }
 
+  public int getPendingOperationCount() {
+    return 0;
+  }
+
+  public int getInputQueueSize() {
+    return 0;
+  }
+
+  public int getWriteQueueSize() {
+    return 0;
+  }
+
+  public int getReadQueueSize() {
+    return 0;
+  }
+
+  public long getEstimatedCompletionTime() {
+    return 0;
+  }
+
+  public int getInFlightLimit() {
+    return 0;
+  }
+
+  public OperationLatencies getLatencies() {
+    return null;
+  }
+
   public void setContinuousTimeout(boolean timedOut) {
     // noop
   }
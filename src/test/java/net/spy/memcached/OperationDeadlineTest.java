@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.server.FaultMode;
+
+/**
+ * Test operations with a timeout of their own.
+ */
+public class OperationDeadlineTest extends EmbeddedServerCase {
+
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    client = connect(builder()
+      .setOpTimeout(10000)
+      .setOpQueueMaxBlockTime(10000));
+  }
+
+  public void testRoundTrip() throws Exception {
+    assertTrue(client.set("key", 0, "value", 1, TimeUnit.SECONDS).get());
+    assertEquals("value", client.get("key", 1, TimeUnit.SECONDS));
+    assertEquals("value", client.asyncGet("key", 1, TimeUnit.SECONDS).get());
+    assertEquals(1, client.getBulk(Arrays.asList("key", "missing"), 1,
+      TimeUnit.SECONDS).size());
+  }
+
+  public void testShorterThanDefaultTimeout() throws Exception {
+    assertTrue(client.set("key", 0, "value").get());
+    server.setFaultMode(FaultMode.STALL);
+    long start = System.nanoTime();
+    try {
+      client.get("key", 100, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (OperationTimeoutException e) {
+      // expected
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+    // Nobody waits on this one, it still times out long before the default.
+    GetFuture<Object> f = client.asyncGet("key", 100, TimeUnit.MILLISECONDS);
+    start = System.nanoTime();
+    while (!f.isDone()
+      && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+      Thread.sleep(10);
+    }
+    assertTrue(f.isDone());
+    assertEquals(StatusCode.TIMEDOUT, f.getStatus().getStatusCode());
+  }
+
+  public void testRejectedWhenNodeIsBacklogged() throws Exception {
+    // Let the node learn how long the server takes.
+    for (int i = 0; i < 100; i++) {
+      client.set("key" + i, 0, "value" + i).get();
+    }
+    server.setFaultMode(FaultMode.STALL);
+    Future<Boolean> last = null;
+    for (int i = 0; i < 10000; i++) {
+      last = client.set("backlog" + i, 0, "value");
+    }
+    GetFuture<Object> f = client.asyncGet("key1", 1, TimeUnit.MILLISECONDS);
+    // Rejected when it is added, without waiting for the timeout.
+    assertTrue(f.isDone());
+    assertEquals(StatusCode.TIMEDOUT, f.getStatus().getStatusCode());
+    assertFalse(last.isDone());
+  }
+
+  public void testRecoversAfterSlowResponse() throws Exception {
+    server.setLatency(500, 500, TimeUnit.MILLISECONDS);
+    assertTrue(client.set("key", 0, "value").get());
+    server.setLatency(0, 0, TimeUnit.MILLISECONDS);
+    // The node now expects half a second, more than these callers wait.
+    long start = System.nanoTime();
+    Object value = null;
+    while (value == null
+      && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+      try {
+        value = client.get("key", 50, TimeUnit.MILLISECONDS);
+      } catch (OperationTimeoutException e) {
+        Thread.sleep(10);
+      }
+    }
+    assertEquals("value", value);
+  }
+}
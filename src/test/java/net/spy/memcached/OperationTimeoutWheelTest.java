@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.TapOperation;
+import net.spy.memcached.protocol.BaseOperationImpl;
+import net.spy.memcached.server.FaultMode;
+
+/**
+ * Test timing out operations nobody waits on.
+ */
+public class OperationTimeoutWheelTest extends EmbeddedServerCase {
+
+  public void testExpiresAfterTimeout() throws Exception {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel();
+    assertTrue(wheel.isEmpty());
+    assertEquals(1000, wheel.delay(1000));
+
+    TestOperation op = new TestOperation(100);
+    wheel.schedule(op);
+    assertFalse(wheel.isEmpty());
+    assertEquals(OperationTimeoutWheel.TICK_MILLIS, wheel.delay(1000));
+    assertEquals(0, wheel.expire());
+    assertFalse(op.isTimedOut());
+
+    Thread.sleep(100 + 2 * OperationTimeoutWheel.TICK_MILLIS);
+    assertEquals(1, wheel.expire());
+    assertTrue(op.isTimedOut());
+    assertTrue(op.completed);
+    assertEquals(StatusCode.TIMEDOUT, op.status.getStatusCode());
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testSkipsCompletedOperations() throws Exception {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel();
+    TestOperation done = new TestOperation(10);
+    TestOperation cancelled = new TestOperation(10);
+    wheel.schedule(done);
+    wheel.schedule(cancelled);
+    wheel.expire();
+    done.finish();
+    cancelled.cancel();
+
+    Thread.sleep(10 + 2 * OperationTimeoutWheel.TICK_MILLIS);
+    assertEquals(0, wheel.expire());
+    assertFalse(done.isTimedOut());
+    assertFalse(cancelled.isTimedOut());
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testSchedulesAcrossRounds() throws Exception {
+    // Longer than a round of the wheel.
+    long timeout = 200 * OperationTimeoutWheel.TICK_MILLIS;
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel();
+    TestOperation op = new TestOperation(timeout);
+    wheel.schedule(op);
+    wheel.expire();
+    Thread.sleep(3 * OperationTimeoutWheel.TICK_MILLIS);
+    assertEquals(0, wheel.expire());
+    assertFalse(wheel.isEmpty());
+  }
+
+  public void testOverflowingOperationsTimeOut() throws Exception {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel();
+    TestOperation[] ops =
+      new TestOperation[OperationTimeoutWheel.PENDING_SIZE + 10];
+    for (int i = 0; i < ops.length; i++) {
+      ops[i] = new TestOperation(10);
+      wheel.schedule(ops[i]);
+    }
+
+    Thread.sleep(10 + 2 * OperationTimeoutWheel.TICK_MILLIS);
+    assertEquals(ops.length, wheel.expire());
+    assertTrue(ops[ops.length - 1].isTimedOut());
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testTimesOutOnStalledServer() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setTransport(Transport.NIO)
+      .setOpTimeout(200));
+    // Connecting may take longer than the timeout on a busy machine.
+    assertTrue(client.set("key", 0, "value").get(5, TimeUnit.SECONDS));
+    server.setFaultMode(FaultMode.STALL);
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<OperationStatus> status =
+      new AtomicReference<OperationStatus>();
+    GetFuture<Object> f =
+      client.asyncGet("key", 200, TimeUnit.MILLISECONDS);
+    f.addListener(new GetCompletionListener() {
+      @Override
+      public void onComplete(GetFuture<?> future) throws Exception {
+        status.set(future.getStatus());
+        latch.countDown();
+      }
+    });
+    // Nobody calls get, the connection times the operation out.
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(StatusCode.TIMEDOUT, status.get().getStatusCode());
+    assertTrue(f.isDone());
+
+    Future<Object> other =
+      client.asyncGet("other", 200, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    while (!other.isDone() && System.nanoTime() - start
+      < TimeUnit.SECONDS.toNanos(5)) {
+      Thread.sleep(10);
+    }
+    assertTrue(other.isDone());
+  }
+
+  public void testWaitsLongerThanOperationTimeout() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setTransport(Transport.NIO)
+      .setOpTimeout(200));
+    assertTrue(client.set("key", 0, "value").get());
+    server.setLatency(500, 500, TimeUnit.MILLISECONDS);
+
+    // The operation has no timeout of its own, so the connection leaves it
+    // to the caller.
+    assertEquals("value", client.asyncGet("key").get(5, TimeUnit.SECONDS));
+  }
+
+  public void testDoesNotTimeOutTapStreams() throws Exception {
+    MemcachedClient client = connect(builder()
+      .setTransport(Transport.NIO)
+      .setOpTimeout(200));
+    TestTapOperation tap = new TestTapOperation(200);
+    client.getConnection().scheduleTimeout(tap);
+
+    Thread.sleep(200 + 4 * OperationTimeoutWheel.TICK_MILLIS);
+    assertFalse(tap.isTimedOut());
+    assertFalse(tap.completed);
+  }
+
+  static class TestOperation extends BaseOperationImpl {
+
+    volatile boolean completed;
+    volatile OperationStatus status;
+
+    TestOperation(long timeout) {
+      setTimeout(timeout);
+      setCallback(new OperationCallback() {
+        @Override
+        public void receivedStatus(OperationStatus s) {
+          status = s;
+        }
+
+        @Override
+        public void complete() {
+          completed = true;
+        }
+      });
+    }
+
+    void finish() {
+      transitionState(OperationState.COMPLETE);
+    }
+
+    @Override
+    public void initialize() {
+      setBuffer(ByteBuffer.allocate(0));
+    }
+
+    @Override
+    public void readFromBuffer(ByteBuffer data) throws IOException {
+      throw new RuntimeException("Not implemented");
+    }
+
+    @Override
+    public byte[] getErrorMsg() {
+      return new byte[] {};
+    }
+  }
+
+  static class TestTapOperation extends TestOperation
+    implements TapOperation {
+
+    TestTapOperation(long timeout) {
+      super(timeout);
+    }
+
+    @Override
+    public void streamClosed(OperationState state) {
+      transitionState(state);
+    }
+  }
+}
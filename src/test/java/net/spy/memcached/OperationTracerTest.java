@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStage;
+import net.spy.memcached.server.FaultMode;
+
+/**
+ * Test tracing the stages of operations.
+ */
+public class OperationTracerTest extends EmbeddedServerCase {
+
+  public void testInvalidFraction() {
+    try {
+      new SamplingOperationTracer(1.5);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testStagesInOrder() throws Exception {
+    final List<String> traces =
+      Collections.synchronizedList(new ArrayList<String>());
+    final List<Operation> ops =
+      Collections.synchronizedList(new ArrayList<Operation>());
+    MemcachedClient client = connect(builder()
+      .setOperationTracer(new SamplingOperationTracer(1) {
+        @Override
+        protected void emit(Operation op, String trace) {
+          ops.add(op);
+          traces.add(trace);
+        }
+      }));
+    assertTrue(client.set("traced", 0, "v").get(5, TimeUnit.SECONDS));
+    assertEquals("v", client.get("traced"));
+    // Stop the IO thread so it is done tracing.
+    client.shutdown();
+
+    assertEquals(2, ops.size());
+    for (Operation op : ops) {
+      long last = op.getStageTimestamp(OperationStage.CREATED);
+      for (OperationStage stage : OperationStage.values()) {
+        long ts = op.getStageTimestamp(stage);
+        assertTrue(stage + " not recorded", ts != 0);
+        assertTrue(stage + " before the previous stage", ts - last >= 0);
+        last = ts;
+      }
+    }
+    assertTrue(traces.get(0), traces.get(0).contains("COMPLETED=+"));
+  }
+
+  public void testMergedOperationsTraced() throws Exception {
+    final List<Operation> ops =
+      Collections.synchronizedList(new ArrayList<Operation>());
+    MemcachedClient client = connect(builder()
+      .setShouldOptimize(true)
+      .setMaxInFlight(1)
+      .setOperationTracer(new SamplingOperationTracer(1) {
+        @Override
+        protected void emit(Operation op, String trace) {
+          ops.add(op);
+        }
+      }));
+    assertTrue(client.set("merged", 0, "v").get(5, TimeUnit.SECONDS));
+    ops.clear();
+    // The gets pile up behind the one in flight and are merged.
+    server.setLatency(50, 50, TimeUnit.MILLISECONDS);
+    List<Future<Object>> gets = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 20; i++) {
+      gets.add(client.asyncGet("merged"));
+    }
+    for (Future<Object> f : gets) {
+      assertEquals("v", f.get(5, TimeUnit.SECONDS));
+    }
+    client.shutdown();
+
+    assertEquals(gets.size(), ops.size());
+    Set<Long> writes = new HashSet<Long>();
+    for (Operation op : ops) {
+      for (OperationStage stage : OperationStage.values()) {
+        assertTrue(stage + " not recorded", op.getStageTimestamp(stage) != 0);
+      }
+      writes.add(op.getStageTimestamp(OperationStage.WRITTEN));
+    }
+    assertTrue("No get was merged", writes.size() < ops.size());
+  }
+
+  public void testCancelledAndTimedOutOperationsTraced() throws Exception {
+    final List<Operation> ops =
+      Collections.synchronizedList(new ArrayList<Operation>());
+    MemcachedClient client = connect(builder()
+      .setOperationTracer(new SamplingOperationTracer(1) {
+        @Override
+        protected void emit(Operation op, String trace) {
+          ops.add(op);
+        }
+      }));
+    server.setFaultMode(FaultMode.STALL);
+    Future<Object> timedOut =
+      client.asyncGet("stalled", 100, TimeUnit.MILLISECONDS);
+    Future<Object> cancelled = client.asyncGet("stalled");
+    assertTrue(cancelled.cancel(true));
+    try {
+      timedOut.get(5, TimeUnit.SECONDS);
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+    client.shutdown();
+
+    assertEquals(2, ops.size());
+    for (Operation op : ops) {
+      assertTrue(op.isCancelled() || op.isTimedOut());
+      assertTrue(op.getStageTimestamp(OperationStage.COMPLETED) != 0);
+      assertEquals(0, op.getStageTimestamp(OperationStage.FIRST_BYTE));
+    }
+  }
+
+  public void testOnlySlowOperationsEmitted() throws Exception {
+    final List<Operation> ops =
+      Collections.synchronizedList(new ArrayList<Operation>());
+    MemcachedClient client = connect(builder()
+      .setOperationTracer(new SamplingOperationTracer(0, 1, TimeUnit.HOURS) {
+        @Override
+        protected void emit(Operation op, String trace) {
+          ops.add(op);
+        }
+      }));
+    assertTrue(client.set("fast", 0, "v").get(5, TimeUnit.SECONDS));
+    client.shutdown();
+    assertTrue(ops.isEmpty());
+  }
+}
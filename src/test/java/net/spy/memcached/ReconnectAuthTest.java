@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.auth.PlainCallbackHandler;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationPriority;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test authenticating a connection that has operations queued in its lanes.
+ */
+public class ReconnectAuthTest extends EmbeddedServerCase {
+
+  public void testAuthenticatesBeforeQueuedOperations() throws Exception {
+    server.setCredentials("user", "secret");
+    MemcachedClient client = connect(builder()
+      .setFailureMode(FailureMode.Retry)
+      .setMaxReconnectDelay(1)
+      .setOpTimeout(5000)
+      .setAuthDescriptor(new AuthDescriptor(new String[] {"PLAIN"},
+        new PlainCallbackHandler("user", "secret"))));
+    assertTrue(client.set("key", 0, "value").get());
+    MemcachedNode node =
+      client.getConnection().getLocator().getPrimary("key");
+
+    server.stop();
+    // An idle connection is only found to be lost by the next operation.
+    client.asyncGet("key");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (node.isActive() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(node.isActive());
+
+    // Queued in the normal and bulk lanes while the node reconnects.
+    Transcoder<Object> tc = new SerializingTranscoder();
+    List<OperationFuture<Boolean>> sets =
+      new ArrayList<OperationFuture<Boolean>>();
+    for (int i = 0; i < 10; i++) {
+      sets.add(client.set("bulk" + i, 0, "v", tc, OperationPriority.BULK));
+      sets.add(client.set("normal" + i, 0, "v", tc,
+        OperationPriority.NORMAL));
+    }
+    server.start();
+
+    // The server refuses every command written before the authentication.
+    for (OperationFuture<Boolean> f : sets) {
+      assertTrue(f.getKey(), f.get(10, TimeUnit.SECONDS));
+    }
+  }
+}
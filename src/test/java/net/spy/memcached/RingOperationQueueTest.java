@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+import net.spy.memcached.ops.MpscOperationQueueFactory;
+import net.spy.memcached.ops.SpscOperationQueueFactory;
+
+/**
+ * Test a client using the ring queues for all operation queues.
+ */
+public class RingOperationQueueTest extends EmbeddedServerCase {
+
+  public void testNIO() throws Exception {
+    assertRoundTrips(Transport.NIO);
+  }
+
+  public void testBlocking() throws Exception {
+    assertRoundTrips(Transport.BLOCKING);
+  }
+
+  private void assertRoundTrips(Transport transport) throws Exception {
+    MemcachedClient client = connect(builder()
+      .setTransport(transport)
+      .setOpQueueFactory(new MpscOperationQueueFactory(1024))
+      .setReadOpQueueFactory(new SpscOperationQueueFactory(64))
+      .setWriteOpQueueFactory(new SpscOperationQueueFactory(64))
+      .setOpTimeout(5000));
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      keys.add("ring" + i);
+      client.set("ring" + i, 0, i);
+    }
+    assertEquals(499, client.get("ring499"));
+    Map<String, Object> values = client.getBulk(keys);
+    assertEquals(500, values.size());
+    assertEquals(42, values.get("ring42"));
+  }
+}
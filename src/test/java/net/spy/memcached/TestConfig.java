@@ -30,6 +30,7 @@ public final class TestConfig {
   public static final String IPV6_PROP = "server.address_v6";
   public static final String TEST_PROP = "test.type";
   public static final String PORT_PROP = "server.port_number";
+  public static final String EMBEDDED_PROP = "server.embedded";
   public static final String TYPE_TEST_UNIT = "unit";
   public static final String TYPE_TEST_CI = "ci";
 
@@ -65,6 +66,14 @@ public final class TestConfig {
     return false;
   }
 
+  /**
+   * Whether the tests should run against an embedded memcached started on
+   * the configured port, instead of an external server.
+   */
+  public static boolean useEmbeddedServer() {
+    return Boolean.getBoolean(EMBEDDED_PROP);
+  }
+
   public static boolean isCITest() {
     return TEST_TYPE.equals(TYPE_TEST_CI);
   }
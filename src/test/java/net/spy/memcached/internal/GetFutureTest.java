@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies the latch-free completion of a {@link GetFuture}.
+ */
+public class GetFutureTest {
+
+  private ExecutorService service = Executors.newCachedThreadPool();
+  private GetFuture<Boolean> future;
+
+  @Before
+  public void setUp() {
+    future = new GetFuture<Boolean>(1000, "key", service);
+    future.setOperation(new BinaryOperationFactory().get("key",
+      new GetOperation.Callback() {
+        @Override
+        public void receivedStatus(OperationStatus status) {
+        }
+
+        @Override
+        public void gotData(String key, int flags, byte[] data) {
+        }
+
+        @Override
+        public void complete() {
+        }
+      }));
+  }
+
+  @Test
+  public void verifyCompletedFutureDoesNotBlock() throws Exception {
+    assertFalse(future.isDone());
+    future.set(new ImmediateFuture(true), new OperationStatus(true, "OK"));
+    future.signalComplete();
+    assertTrue(future.isDone());
+    assertEquals(Boolean.TRUE, future.get(0, TimeUnit.MILLISECONDS));
+    assertTrue(future.getStatus().isSuccess());
+  }
+
+  @Test
+  public void verifyMissIsNull() throws Exception {
+    future.set(null, new OperationStatus(false, "Not found"));
+    future.signalComplete();
+    assertNull(future.get());
+    assertFalse(future.getStatus().isSuccess());
+  }
+
+  @Test
+  public void verifyBlockedCallersAreReleased() throws Exception {
+    final int callers = 8;
+    final CountDownLatch started = new CountDownLatch(callers);
+    final CountDownLatch released = new CountDownLatch(callers);
+    for (int i = 0; i < callers; i++) {
+      service.submit(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            if (Boolean.TRUE.equals(future.get(5, TimeUnit.SECONDS))) {
+              released.countDown();
+            }
+          } catch (Exception e) {
+            // The latch is not counted down.
+          }
+        }
+      });
+    }
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    future.set(new ImmediateFuture(true), new OperationStatus(true, "OK"));
+    future.signalComplete();
+    assertTrue(released.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void verifyTimeout() throws Exception {
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (CheckedOperationTimeoutException e) {
+      // pass
+    }
+  }
+
+  @Test
+  public void verifyListenerNotified() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    future.addListener(new GetCompletionListener() {
+      @Override
+      public void onComplete(GetFuture<?> f) throws Exception {
+        latch.countDown();
+      }
+    });
+    future.signalComplete();
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies the latch-free completion of an {@link OperationFuture}.
+ */
+public class OperationFutureTest {
+
+  private ExecutorService service = Executors.newCachedThreadPool();
+  private OperationFuture<String> future;
+
+  @Before
+  public void setUp() {
+    future = new OperationFuture<String>("key", 1000, service);
+    future.setOperation(new BinaryOperationFactory().noop(
+      new OperationCallback() {
+        @Override
+        public void receivedStatus(OperationStatus status) {
+        }
+
+        @Override
+        public void complete() {
+        }
+      }));
+  }
+
+  @Test
+  public void verifyCompletedFutureDoesNotBlock() throws Exception {
+    assertFalse(future.isDone());
+    future.set("value", new OperationStatus(true, "OK"));
+    future.setCas(42);
+    future.signalComplete();
+    assertTrue(future.isDone());
+    assertEquals("value", future.get(0, TimeUnit.MILLISECONDS));
+    assertTrue(future.getStatus().isSuccess());
+    assertEquals(Long.valueOf(42), future.getCas());
+  }
+
+  @Test
+  public void verifyBlockedCallersAreReleased() throws Exception {
+    final int callers = 8;
+    final CountDownLatch started = new CountDownLatch(callers);
+    final CountDownLatch released = new CountDownLatch(callers);
+    for (int i = 0; i < callers; i++) {
+      service.submit(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            if ("value".equals(future.get(5, TimeUnit.SECONDS))) {
+              released.countDown();
+            }
+          } catch (Exception e) {
+            // The latch is not counted down.
+          }
+        }
+      });
+    }
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    future.set("value", new OperationStatus(true, "OK"));
+    future.signalComplete();
+    assertTrue(released.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void verifyTimeout() throws Exception {
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (CheckedOperationTimeoutException e) {
+      // pass
+    }
+  }
+
+  @Test
+  public void verifyListenerNotifiedOnce() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(1);
+    future.addListener(new OperationCompletionListener() {
+      @Override
+      public void onComplete(OperationFuture<?> f) throws Exception {
+        calls.incrementAndGet();
+        latch.countDown();
+      }
+    });
+    future.signalComplete();
+    future.signalComplete();
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertEquals(1, calls.get());
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.jfr;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.compat.ClientEvents;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStage;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+/**
+ * Test the events recorded with Java Flight Recorder.
+ */
+public class FlightRecorderEventsTest extends TestCase {
+
+  private final MockMemcachedNode node =
+    new MockMemcachedNode(new InetSocketAddress("127.0.0.1", 11211));
+
+  public void testLoadedWithFlightRecorder() {
+    assertTrue(ClientEvents.get() instanceof FlightRecorderEvents);
+  }
+
+  public void testClientEvents() throws Exception {
+    Recording recording = new Recording();
+    recording.enable(ConnectionLostEvent.class);
+    recording.enable(ReconnectEvent.class);
+    recording.enable(RejectedOperationEvent.class);
+    recording.enable(OptimizedOperationsEvent.class);
+    recording.enable(CompressionEvent.class);
+    recording.start();
+    ClientEvents.get().connectionLost(node);
+    ClientEvents.get().reconnected(node, 3);
+    ClientEvents.get().rejected(node, newGet(), "input queue full");
+    ClientEvents.get().optimized(node, "get", 10, 200);
+    new SerializingTranscoder().encode(new String(new char[20000]));
+    List<RecordedEvent> events = stop(recording);
+
+    assertEquals(5, events.size());
+    assertEquals("/127.0.0.1:11211", events.get(0).getString("node"));
+    assertEquals(3, events.get(1).getInt("attempts"));
+    assertEquals("GET", events.get(2).getString("type"));
+    assertEquals(10, events.get(3).getInt("operations"));
+    assertTrue(events.get(4).getInt("compressed")
+      < events.get(4).getInt("uncompressed"));
+  }
+
+  public void testOperationEvent() throws Exception {
+    FlightRecorderTracer tracer = new FlightRecorderTracer();
+    GetOperation op = newGet();
+    assertFalse(tracer.isTraced(op));
+
+    Recording recording = new Recording();
+    recording.enable(OperationEvent.class).with("latencyThreshold", "0 ns");
+    recording.start();
+    assertTrue(tracer.isTraced(op));
+    op.enableTracing(tracer);
+    op.traceStage(OperationStage.COMPLETED);
+    tracer.traced(op);
+    List<RecordedEvent> events = stop(recording);
+
+    assertEquals(1, events.size());
+    assertEquals("key".hashCode(), events.get(0).getInt("keyHash"));
+    assertEquals("GET", events.get(0).getString("type"));
+    assertEquals("COMPLETED", events.get(0).getString("outcome"));
+  }
+
+  public void testCancelledOperationEvent() throws Exception {
+    FlightRecorderTracer tracer = new FlightRecorderTracer();
+    GetOperation op = newGet();
+    Recording recording = new Recording();
+    recording.enable(OperationEvent.class).with("latencyThreshold", "0 ns");
+    recording.start();
+    op.enableTracing(tracer);
+    op.cancel();
+    List<RecordedEvent> events = stop(recording);
+
+    assertEquals(1, events.size());
+    assertEquals("CANCELLED", events.get(0).getString("outcome"));
+  }
+
+  public void testOperationBelowThreshold() throws Exception {
+    FlightRecorderTracer tracer = new FlightRecorderTracer();
+    GetOperation op = newGet();
+    Recording recording = new Recording();
+    recording.enable(OperationEvent.class).with("latencyThreshold", "1 m");
+    recording.start();
+    op.enableTracing(tracer);
+    op.traceStage(OperationStage.COMPLETED);
+    tracer.traced(op);
+    assertTrue(stop(recording).isEmpty());
+  }
+
+  public void testParseThreshold() {
+    assertEquals(20000000, LatencyThreshold.parse("20 ms"));
+    assertEquals(5000, LatencyThreshold.parse("5 us"));
+    assertEquals(Long.MAX_VALUE, LatencyThreshold.parse("infinity"));
+  }
+
+  private static GetOperation newGet() {
+    return new BinaryOperationFactory().get("key", new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // none
+      }
+
+      public void gotData(String key, int flags, byte[] data) {
+        // none
+      }
+
+      public void complete() {
+        // none
+      }
+    });
+  }
+
+  private static List<RecordedEvent> stop(Recording recording)
+    throws Exception {
+    recording.stop();
+    File f = File.createTempFile("memcached", ".jfr");
+    try {
+      recording.dump(f.toPath());
+      List<RecordedEvent> rv = new ArrayList<RecordedEvent>();
+      for (RecordedEvent e : RecordingFile.readAllEvents(f.toPath())) {
+        if (e.getEventType().getName().startsWith("net.spy.memcached.")) {
+          rv.add(e);
+        }
+      }
+      return rv;
+    } finally {
+      recording.close();
+      f.delete();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.List;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.LinkedOperationQueueFactory;
+import net.spy.memcached.ops.MpscOperationQueueFactory;
+import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.ops.SpscOperationQueueFactory;
+
+/**
+ * A client configuration to put under load, described by comma separated
+ * options such as {@code protocol=binary,optimize=false}.
+ *
+ * <ul>
+ * <li>protocol: binary or text</li>
+ * <li>optimize: true or false</li>
+ * <li>locator: array_mod or consistent</li>
+ * <li>transport: nio or blocking</li>
+ * <li>failure: redistribute, retry or cancel</li>
+ * <li>timeout: the operation timeout in milliseconds</li>
+ * <li>timeoutThreshold: the timeouts in a row before reconnecting</li>
+ * <li>reconnectDelay: the longest wait between reconnects, in seconds</li>
+ * <li>connections: the number of connections per server</li>
+ * <li>queue: the input queue, array, linked or mpsc, optionally followed by
+ * a colon and a capacity</li>
+ * <li>rwqueue: the read and write queues, array, linked or spsc, optionally
+ * followed by a colon and a capacity</li>
+ * </ul>
+ */
+final class ClientConfiguration {
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 16384;
+
+  private final String description;
+  private final ConnectionFactoryBuilder builder;
+
+  ClientConfiguration(String desc) {
+    description = desc;
+    builder = new ConnectionFactoryBuilder().setDaemon(true)
+      // Completions are recorded on the thread completing the operation, so
+      // the listener executor doesn't add to the latencies.
+      .setListenerExecutorService(new DirectExecutor());
+    for (String option : desc.split(",")) {
+      String[] kv = option.split("=", 2);
+      if (kv.length != 2) {
+        throw new IllegalArgumentException("Bad client option: " + option);
+      }
+      apply(kv[0].trim(), kv[1].trim());
+    }
+  }
+
+  private void apply(String name, String value) {
+    if (name.equals("protocol")) {
+      builder.setProtocol(Protocol.valueOf(value.toUpperCase()));
+    } else if (name.equals("optimize")) {
+      builder.setShouldOptimize(Boolean.parseBoolean(value));
+    } else if (name.equals("locator")) {
+      builder.setLocatorType(Locator.valueOf(value.toUpperCase()));
+    } else if (name.equals("transport")) {
+      builder.setTransport(Transport.valueOf(value.toUpperCase()));
+    } else if (name.equals("failure")) {
+      builder.setFailureMode(failureMode(value));
+    } else if (name.equals("timeout")) {
+      builder.setOpTimeout(Long.parseLong(value));
+    } else if (name.equals("timeoutThreshold")) {
+      builder.setTimeoutExceptionThreshold(Integer.parseInt(value));
+    } else if (name.equals("reconnectDelay")) {
+      builder.setMaxReconnectDelay(Long.parseLong(value));
+    } else if (name.equals("connections")) {
+      builder.setConnectionsPerServer(Integer.parseInt(value));
+    } else if (name.equals("queue")) {
+      builder.setOpQueueFactory(queueFactory(value));
+    } else if (name.equals("rwqueue")) {
+      builder.setReadOpQueueFactory(queueFactory(value));
+      builder.setWriteOpQueueFactory(queueFactory(value));
+    } else {
+      throw new IllegalArgumentException("Unknown client option: " + name);
+    }
+  }
+
+  private static FailureMode failureMode(String value) {
+    for (FailureMode fm : FailureMode.values()) {
+      if (fm.name().equalsIgnoreCase(value)) {
+        return fm;
+      }
+    }
+    throw new IllegalArgumentException("Unknown failure mode: " + value);
+  }
+
+  private static OperationQueueFactory queueFactory(String value) {
+    String[] kv = value.split(":");
+    int capacity = kv.length > 1 ? Integer.parseInt(kv[1])
+      : DEFAULT_QUEUE_CAPACITY;
+    if (kv[0].equals("array")) {
+      return new ArrayOperationQueueFactory(capacity);
+    } else if (kv[0].equals("linked")) {
+      return new LinkedOperationQueueFactory();
+    } else if (kv[0].equals("mpsc")) {
+      return new MpscOperationQueueFactory(capacity);
+    } else if (kv[0].equals("spsc")) {
+      return new SpscOperationQueueFactory(capacity);
+    }
+    throw new IllegalArgumentException("Unknown queue: " + value);
+  }
+
+  ConnectionFactoryBuilder getBuilder() {
+    return builder;
+  }
+
+  ConnectionFactory build() {
+    return builder.build();
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+  /**
+   * Runs tasks on the submitting thread.
+   */
+  private static final class DirectExecutor extends AbstractExecutorService {
+    private volatile boolean shutdown;
+
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return java.util.Collections.emptyList();
+    }
+
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    public boolean isTerminated() {
+      return shutdown;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return shutdown;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+import net.spy.memcached.server.FaultInjectingProxy;
+
+/**
+ * Measures how client configurations ride out a failing node.
+ *
+ * <p>A cluster of embedded servers is put behind {@link FaultInjectingProxy}
+ * instances and loaded with a {@link LoadGenerator}. Every fault is run
+ * against every configuration in three phases: before the fault, while the
+ * first node has it and after it is healed, so both the effect of the fault
+ * and how long the client takes to recover show.</p>
+ *
+ * <pre>
+ * java net.spy.memcached.loadgen.FailureScenario --faults=blackhole,reset
+ *     --config=failure=redistribute --config=failure=retry
+ * </pre>
+ *
+ * <p>Besides the options of the {@link LoadGenerator}, which apply to the
+ * load, the options are:</p>
+ *
+ * <ul>
+ * <li>nodes: the number of nodes in the cluster</li>
+ * <li>faults: the faults to inject, out of latency, bandwidth, halfopen,
+ * reset and blackhole</li>
+ * <li>latency: the milliseconds the latency fault adds to responses</li>
+ * <li>bandwidth: the bytes per second the bandwidth fault allows</li>
+ * <li>before, during and after: the seconds to measure each phase for</li>
+ * </ul>
+ */
+public final class FailureScenario {
+
+  /**
+   * The faults which can be injected into a node.
+   */
+  enum Fault {
+    LATENCY, BANDWIDTH, HALFOPEN, RESET, BLACKHOLE
+  }
+
+  static final String[] PHASES = {"before", "during", "after"};
+
+  private static final String[] DEFAULT_CONFIGS = {
+    "protocol=binary,failure=redistribute",
+    "protocol=binary,failure=retry",
+    "protocol=binary,failure=cancel",
+  };
+
+  private final LoadGenerator generator;
+  private final FaultInjectingProxy proxy;
+  private final long latency;
+  private final long bandwidth;
+
+  /**
+   * Create a scenario.
+   *
+   * @param g the load generator, loading the proxies
+   * @param p the proxy to inject faults into
+   * @param latencyMillis the latency to add for the latency fault
+   * @param bytesPerSecond the bandwidth to allow for the bandwidth fault
+   */
+  FailureScenario(LoadGenerator g, FaultInjectingProxy p, long latencyMillis,
+      long bytesPerSecond) {
+    generator = g;
+    proxy = p;
+    latency = latencyMillis;
+    bandwidth = bytesPerSecond;
+  }
+
+  /**
+   * Run a fault against a client configuration.
+   *
+   * @param config the client configuration
+   * @param fault the fault to inject
+   * @param warmup how long to warm up for
+   * @param phases how long to measure before, during and after the fault
+   * @param unit the unit of the warmup and phases
+   * @return the latencies before, during and after the fault
+   */
+  List<LatencyReport> run(ClientConfiguration config, final Fault fault,
+      long warmup, long[] phases, TimeUnit unit) throws Exception {
+    if (phases.length != PHASES.length) {
+      throw new IllegalArgumentException("Expected " + PHASES.length
+        + " phases, got " + phases.length);
+    }
+    try {
+      return generator.run(config, warmup, phases, unit,
+        new LoadGenerator.PhaseListener() {
+          public void phaseStarted(int phase) {
+            if (phase == 1) {
+              inject(fault);
+            } else if (phase == 2) {
+              proxy.heal();
+            }
+          }
+        });
+    } finally {
+      proxy.heal();
+    }
+  }
+
+  private void inject(Fault fault) {
+    switch (fault) {
+    case LATENCY:
+      proxy.setLatency(latency, TimeUnit.MILLISECONDS);
+      break;
+    case BANDWIDTH:
+      proxy.setBandwidth(bandwidth);
+      break;
+    case HALFOPEN:
+      proxy.halfOpen();
+      break;
+    case RESET:
+      proxy.reset();
+      break;
+    case BLACKHOLE:
+      proxy.setBlackhole(true);
+      break;
+    default:
+      throw new IllegalStateException("Unhandled fault: " + fault);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<String>> options = LoadGenerator.parseOptions(args);
+    int nodes = Integer.parseInt(LoadGenerator.option(options, "nodes", "3"));
+    int rate = Integer.parseInt(LoadGenerator.option(options, "rate",
+      "5000"));
+    int threads = Integer.parseInt(LoadGenerator.option(options, "threads",
+      "4"));
+    long seed = Long.parseLong(LoadGenerator.option(options, "seed", "0"));
+    int warmup = Integer.parseInt(LoadGenerator.option(options, "warmup",
+      "5"));
+    long[] phases = new long[PHASES.length];
+    for (int i = 0; i < phases.length; i++) {
+      phases[i] = Long.parseLong(LoadGenerator.option(options, PHASES[i],
+        "10"));
+    }
+    List<Fault> faults = new ArrayList<Fault>();
+    for (String f : LoadGenerator.option(options, "faults",
+        "latency,bandwidth,halfopen,reset,blackhole").split(",")) {
+      faults.add(Fault.valueOf(f.trim().toUpperCase()));
+    }
+    List<String> configs = options.get("config");
+    if (configs == null) {
+      configs = Arrays.asList(DEFAULT_CONFIGS);
+    }
+
+    List<EmbeddedMemcachedServer> servers =
+      new ArrayList<EmbeddedMemcachedServer>();
+    List<FaultInjectingProxy> proxies = new ArrayList<FaultInjectingProxy>();
+    List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+    Map<String, LatencyReport> reports =
+      new LinkedHashMap<String, LatencyReport>();
+    try {
+      for (int i = 0; i < nodes; i++) {
+        EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+        server.start();
+        servers.add(server);
+        FaultInjectingProxy proxy = new FaultInjectingProxy(
+          server.getAddress());
+        proxy.start();
+        proxies.add(proxy);
+        addrs.add(proxy.getAddress());
+      }
+      LoadGenerator generator = new LoadGenerator(
+        LoadGenerator.createWorkload(options, seed), addrs, rate, threads,
+        seed);
+      FailureScenario scenario = new FailureScenario(generator,
+        proxies.get(0),
+        Long.parseLong(LoadGenerator.option(options, "latency", "100")),
+        Long.parseLong(LoadGenerator.option(options, "bandwidth", "65536")));
+
+      for (String desc : configs) {
+        ClientConfiguration config = new ClientConfiguration(desc);
+        for (Fault fault : faults) {
+          System.out.printf("%s: %s on 1 of %d nodes at %d ops/s%n", config,
+            fault.name().toLowerCase(), nodes, rate);
+          List<LatencyReport> results = scenario.run(config, fault, warmup,
+            phases, TimeUnit.SECONDS);
+          for (int i = 0; i < PHASES.length; i++) {
+            System.out.println(PHASES[i] + ":");
+            results.get(i).print(System.out);
+            reports.put(config + " " + fault.name().toLowerCase() + " "
+              + PHASES[i], results.get(i));
+          }
+          System.out.println();
+        }
+      }
+    } finally {
+      for (FaultInjectingProxy proxy : proxies) {
+        proxy.stop();
+      }
+      for (EmbeddedMemcachedServer server : servers) {
+        server.stop();
+      }
+    }
+    LoadGenerator.printComparison(System.out, reports);
+    String csv = LoadGenerator.option(options, "csv", null);
+    if (csv != null) {
+      LoadGenerator.writeCsv(csv, reports);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.loadgen.Workload.OpType;
+import net.spy.memcached.metrics.LatencyHistogram;
+
+/**
+ * The latencies recorded during a run, per operation type.
+ *
+ * <p>Two latencies are kept for every operation. The response time runs
+ * from the time the operation was meant to be issued according to the
+ * target rate, and so includes any time spent waiting for the client to
+ * accept it; this is the latency an application sees, and the one that
+ * matters. The service time runs from the time the operation was actually
+ * issued, and is what a closed loop benchmark would report.</p>
+ */
+final class LatencyReport {
+
+  static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+  private final Map<OpType, LatencyHistogram> response =
+    new EnumMap<OpType, LatencyHistogram>(OpType.class);
+  private final Map<OpType, LatencyHistogram> service =
+    new EnumMap<OpType, LatencyHistogram>(OpType.class);
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong issued = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private volatile long elapsed;
+
+  LatencyReport() {
+    for (OpType t : OpType.values()) {
+      response.put(t, new LatencyHistogram());
+      service.put(t, new LatencyHistogram());
+    }
+  }
+
+  void issued() {
+    issued.incrementAndGet();
+  }
+
+  /**
+   * Record a completed operation.
+   *
+   * @param type the type of the operation
+   * @param intended when the operation should have been issued
+   * @param actual when the operation was issued
+   * @param now when the operation completed
+   * @param ok whether the operation succeeded
+   */
+  void record(OpType type, long intended, long actual, long now,
+      boolean ok) {
+    response.get(type).record(now - intended);
+    service.get(type).record(now - actual);
+    completed.incrementAndGet();
+    if (!ok) {
+      errors.incrementAndGet();
+    }
+  }
+
+  void setElapsed(long nanos) {
+    elapsed = nanos;
+  }
+
+  LatencyHistogram getResponseTimes() {
+    return merge(response);
+  }
+
+  LatencyHistogram getServiceTimes() {
+    return merge(service);
+  }
+
+  long getCompleted() {
+    return completed.get();
+  }
+
+  long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * Get the number of operations which never completed.
+   */
+  long getIncomplete() {
+    return issued.get() - completed.get();
+  }
+
+  double getThroughput() {
+    return elapsed == 0 ? 0
+      : completed.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+
+  /**
+   * Print the percentiles of every operation type which was issued.
+   */
+  void print(PrintStream out) {
+    out.printf("%-8s %-8s %10s", "op", "latency", "count");
+    for (double p : PERCENTILES) {
+      out.printf(" %10s", label(p));
+    }
+    out.println();
+    for (OpType t : OpType.values()) {
+      if (response.get(t).getCount() > 0) {
+        printRow(out, t.name().toLowerCase(), "response", response.get(t));
+        printRow(out, "", "service", service.get(t));
+      }
+    }
+    printRow(out, "all", "response", getResponseTimes());
+    printRow(out, "", "service", getServiceTimes());
+    out.printf("throughput %.0f/s, %d errors, %d incomplete%n",
+      getThroughput(), getErrors(), getIncomplete());
+  }
+
+  static void printRow(PrintStream out, String op, String kind,
+      LatencyHistogram h) {
+    out.printf("%-8s %-8s %10d", op, kind, h.getCount());
+    for (double p : PERCENTILES) {
+      out.printf(" %10.1f", micros(h.getValueAtPercentile(p)));
+    }
+    out.println();
+  }
+
+  static String label(double percentile) {
+    if (percentile == 100) {
+      return "max(us)";
+    }
+    String s = String.valueOf(percentile);
+    return "p" + (s.endsWith(".0") ? s.substring(0, s.length() - 2) : s)
+      + "(us)";
+  }
+
+  static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+
+  private static LatencyHistogram merge(Map<OpType, LatencyHistogram> m) {
+    LatencyHistogram rv = new LatencyHistogram();
+    for (LatencyHistogram h : m.values()) {
+      rv.add(h);
+    }
+    return rv;
+  }
+}
@@ -0,0 +1,521 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.loadgen.Workload.OpType;
+import net.spy.memcached.metrics.LatencyHistogram;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * An open loop load generator.
+ *
+ * <p>Operations are issued at a fixed target rate whatever the client's
+ * latency, each according to a schedule fixed before the run, and their
+ * latency is measured from the time the schedule said they should be issued.
+ * A closed loop benchmark waiting for each operation before issuing the next
+ * one stops issuing while the client stalls, so the stall is recorded once
+ * instead of against every operation that should have been issued during it;
+ * measuring from the intended start time records it as an application would
+ * see it.</p>
+ *
+ * <p>Every client configuration is run with the same workload, and the
+ * percentiles of each are printed and compared:</p>
+ *
+ * <pre>
+ * java net.spy.memcached.loadgen.LoadGenerator --rate=20000 --mix=get:90,set:10
+ *     --config=protocol=binary --config=protocol=binary,optimize=false
+ * </pre>
+ *
+ * <p>Options are given as {@code --name=value}:</p>
+ *
+ * <ul>
+ * <li>servers: the servers to load, by default an embedded server</li>
+ * <li>server-latency: the latency of the embedded server, as
+ * {@code min-max} microseconds</li>
+ * <li>config: a client configuration, see {@link ClientConfiguration}, which
+ * may be repeated</li>
+ * <li>rate: operations per second</li>
+ * <li>threads: the number of threads issuing operations</li>
+ * <li>warmup and duration: the seconds to warm up and measure for</li>
+ * <li>mix: the operations and their weights, such as {@code get:90,set:10},
+ * out of get, set, delete, incr, touch and bulk</li>
+ * <li>keys, distribution, values and bulk: see {@link Workload}</li>
+ * <li>seed: the seed for the workload</li>
+ * <li>csv: a file to write the comparison to</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+
+  private static final String[] DEFAULT_CONFIGS = {
+    "protocol=binary",
+    "protocol=binary,optimize=false",
+    "protocol=text",
+    "protocol=binary,locator=consistent",
+    "protocol=binary,queue=linked",
+  };
+
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+  private static final int PRELOAD_BATCH = 1024;
+
+  private final Workload workload;
+  private final List<InetSocketAddress> servers;
+  private final int rate;
+  private final int threads;
+  private final long seed;
+
+  /**
+   * Create a load generator.
+   *
+   * @param w the workload to issue
+   * @param addrs the servers to issue it to
+   * @param opsPerSecond the target rate
+   * @param issuers the number of threads issuing operations
+   * @param s the seed for the workload
+   */
+  LoadGenerator(Workload w, List<InetSocketAddress> addrs, int opsPerSecond,
+      int issuers, long s) {
+    if (opsPerSecond <= 0 || issuers <= 0) {
+      throw new IllegalArgumentException("Rate and threads must be positive");
+    }
+    workload = w;
+    servers = addrs;
+    rate = opsPerSecond;
+    threads = issuers;
+    seed = s;
+  }
+
+  /**
+   * Told when each phase of a run starts.
+   */
+  interface PhaseListener {
+    void phaseStarted(int phase) throws Exception;
+  }
+
+  /**
+   * Run the workload with a client configuration.
+   *
+   * @param config the client configuration
+   * @param warmup how long to issue operations before measuring
+   * @param duration how long to measure for
+   * @param unit the unit of the warmup and duration
+   * @return the latencies measured after the warmup
+   */
+  LatencyReport run(ClientConfiguration config, long warmup, long duration,
+      TimeUnit unit) throws Exception {
+    return run(config, warmup, new long[] {duration}, unit, null).get(0);
+  }
+
+  /**
+   * Run the workload with a client configuration, measuring consecutive
+   * phases separately.
+   *
+   * <p>Operations are counted in the phase they were meant to be issued in,
+   * wherever they complete.</p>
+   *
+   * @param config the client configuration
+   * @param warmup how long to issue operations before measuring
+   * @param phases how long to measure each phase for
+   * @param unit the unit of the warmup and phases
+   * @param listener told when each phase starts, or null
+   * @return the latencies measured in each phase
+   */
+  List<LatencyReport> run(ClientConfiguration config, long warmup,
+      long[] phases, TimeUnit unit, PhaseListener listener) throws Exception {
+    final MemcachedClient client =
+      new MemcachedClient(config.build(), servers);
+    try {
+      preload(client);
+      final LatencyReport warmupReport = new LatencyReport();
+      final List<LatencyReport> reports = new ArrayList<LatencyReport>();
+      final long[] phaseStarts = new long[phases.length];
+      final long interval = TimeUnit.SECONDS.toNanos(1) * threads / rate;
+      final long start = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(10);
+      long t = start + unit.toNanos(warmup);
+      for (int i = 0; i < phases.length; i++) {
+        reports.add(new LatencyReport());
+        phaseStarts[i] = t;
+        t += unit.toNanos(phases[i]);
+      }
+      final long end = t;
+
+      Thread[] issuers = new Thread[threads];
+      for (int i = 0; i < threads; i++) {
+        // Issuers are staggered so together they issue at an even rate.
+        final long first = start + TimeUnit.SECONDS.toNanos(1) * i / rate;
+        final Random random = new Random(seed + i);
+        issuers[i] = new Thread("loadgen issuer " + i) {
+          @Override
+          public void run() {
+            LatencyReport report = warmupReport;
+            int phase = 0;
+            for (long intended = first; intended < end; intended += interval) {
+              while (phase < phaseStarts.length
+                  && intended >= phaseStarts[phase]) {
+                report = reports.get(phase++);
+              }
+              awaitNanos(intended);
+              issue(client, report, intended, random);
+            }
+          }
+        };
+        issuers[i].start();
+      }
+      for (int i = 0; i < phases.length; i++) {
+        reports.get(i).setElapsed(unit.toNanos(phases[i]));
+        if (listener != null) {
+          awaitNanos(phaseStarts[i]);
+          listener.phaseStarted(i);
+        }
+      }
+      for (Thread issuer : issuers) {
+        issuer.join();
+      }
+      long deadline = System.nanoTime() + DRAIN_TIMEOUT;
+      while (isIncomplete(warmupReport, reports)
+          && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      return reports;
+    } finally {
+      client.shutdown(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private static boolean isIncomplete(LatencyReport warmupReport,
+      List<LatencyReport> reports) {
+    if (warmupReport.getIncomplete() > 0) {
+      return true;
+    }
+    for (LatencyReport r : reports) {
+      if (r.getIncomplete() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void preload(MemcachedClient client) throws Exception {
+    String[] keys = workload.getKeys();
+    Random random = new Random(seed);
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < keys.length; i++) {
+      futures.add(client.set(keys[i], 0, workload.nextValue(random)));
+      futures.add(client.set(counter(keys[i]), 0, "0"));
+      if (futures.size() >= PRELOAD_BATCH || i == keys.length - 1) {
+        for (Future<Boolean> f : futures) {
+          f.get(1, TimeUnit.MINUTES);
+        }
+        futures.clear();
+      }
+    }
+  }
+
+  /**
+   * Get the key of the counter incremented for a key, as the workload's
+   * values aren't numbers.
+   */
+  private static String counter(String key) {
+    return key + ":counter";
+  }
+
+  private static void awaitNanos(long deadline) {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  private void issue(MemcachedClient client, LatencyReport report,
+      long intended, Random random) {
+    OpType type = workload.nextOp(random);
+    Completion c = new Completion(report, type, intended);
+    report.issued();
+    try {
+      switch (type) {
+      case GET:
+        client.asyncGet(workload.nextKey(random)).addListener(c.forGet());
+        break;
+      case SET:
+        client.set(workload.nextKey(random), 0, workload.nextValue(random))
+          .addListener(c.forOperation());
+        break;
+      case DELETE:
+        client.delete(workload.nextKey(random)).addListener(c.forOperation());
+        break;
+      case INCR:
+        // The text protocol can't create counters here, so they're preloaded.
+        client.asyncIncr(counter(workload.nextKey(random)), 1L)
+          .addListener(c.forOperation());
+        break;
+      case TOUCH:
+        client.touch(workload.nextKey(random), 0)
+          .addListener(c.forOperation());
+        break;
+      case BULK:
+        client.asyncGetBulk(workload.nextKeys(random))
+          .addListener(c.forBulkGet());
+        break;
+      default:
+        throw new IllegalStateException("Unhandled op: " + type);
+      }
+    } catch (RuntimeException e) {
+      // The client refused the operation, typically because its queue is full.
+      c.complete(null);
+    }
+  }
+
+  /**
+   * Records the latency of one operation when it completes.
+   */
+  private static final class Completion {
+    private final LatencyReport report;
+    private final OpType type;
+    private final long intended;
+    private final long actual;
+
+    Completion(LatencyReport r, OpType t, long i) {
+      report = r;
+      type = t;
+      intended = i;
+      actual = System.nanoTime();
+    }
+
+    GetCompletionListener forGet() {
+      return new GetCompletionListener() {
+        public void onComplete(GetFuture<?> future) {
+          complete(future.getStatus());
+        }
+      };
+    }
+
+    OperationCompletionListener forOperation() {
+      return new OperationCompletionListener() {
+        public void onComplete(OperationFuture<?> future) {
+          complete(future.getStatus());
+        }
+      };
+    }
+
+    BulkGetCompletionListener forBulkGet() {
+      return new BulkGetCompletionListener() {
+        public void onComplete(BulkGetFuture<?> future) {
+          complete(future.getStatus());
+        }
+      };
+    }
+
+    void complete(OperationStatus status) {
+      report.record(type, intended, actual, System.nanoTime(),
+        isExpected(status));
+    }
+
+    private static boolean isExpected(OperationStatus status) {
+      if (status == null) {
+        return false;
+      }
+      StatusCode code = status.getStatusCode();
+      return status.isSuccess() || code == StatusCode.ERR_NOT_FOUND
+        || code == StatusCode.ERR_EXISTS || code == StatusCode.ERR_NOT_STORED;
+    }
+  }
+
+  /**
+   * Print the main percentiles of every configuration side by side.
+   */
+  static void printComparison(PrintStream out,
+      Map<String, LatencyReport> reports) {
+    int width = 3;
+    for (String run : reports.keySet()) {
+      width = Math.max(width, run.length());
+    }
+    String runFormat = "%-" + width + "s";
+    out.printf(runFormat + " %10s", "run", "ops/s");
+    for (double p : LatencyReport.PERCENTILES) {
+      out.printf(" %10s", LatencyReport.label(p));
+    }
+    out.printf(" %8s%n", "errors");
+    for (Map.Entry<String, LatencyReport> e
+        : reports.entrySet()) {
+      LatencyHistogram h = e.getValue().getResponseTimes();
+      out.printf(runFormat + " %10.0f", e.getKey(),
+        e.getValue().getThroughput());
+      for (double p : LatencyReport.PERCENTILES) {
+        out.printf(" %10.1f",
+          LatencyReport.micros(h.getValueAtPercentile(p)));
+      }
+      out.printf(" %8d%n", e.getValue().getErrors()
+        + e.getValue().getIncomplete());
+    }
+  }
+
+  static void writeCsv(String file, Map<String, LatencyReport> reports)
+    throws IOException {
+    PrintWriter w = new PrintWriter(new FileWriter(file));
+    try {
+      w.print("run,throughput,count,errors,incomplete");
+      for (double p : LatencyReport.PERCENTILES) {
+        w.print("," + LatencyReport.label(p));
+      }
+      w.println();
+      for (Map.Entry<String, LatencyReport> e
+          : reports.entrySet()) {
+        LatencyReport r = e.getValue();
+        LatencyHistogram h = r.getResponseTimes();
+        w.printf("\"%s\",%.0f,%d,%d,%d", e.getKey(), r.getThroughput(),
+          h.getCount(), r.getErrors(), r.getIncomplete());
+        for (double p : LatencyReport.PERCENTILES) {
+          w.printf(",%.1f", LatencyReport.micros(h.getValueAtPercentile(p)));
+        }
+        w.println();
+      }
+    } finally {
+      w.close();
+    }
+  }
+
+  static Map<String, List<String>> parseOptions(String[] args) {
+    Map<String, List<String>> rv = new LinkedHashMap<String, List<String>>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+        throw new IllegalArgumentException("Expected --name=value, got "
+          + arg);
+      }
+      String name = arg.substring(2, arg.indexOf('='));
+      List<String> values = rv.get(name);
+      if (values == null) {
+        values = new ArrayList<String>();
+        rv.put(name, values);
+      }
+      values.add(arg.substring(arg.indexOf('=') + 1));
+    }
+    return rv;
+  }
+
+  static String option(Map<String, List<String>> options, String name,
+      String def) {
+    List<String> values = options.get(name);
+    return values == null ? def : values.get(values.size() - 1);
+  }
+
+  static Workload createWorkload(Map<String, List<String>> options,
+      long seed) {
+    return new Workload(option(options, "mix", "get:90,set:10"),
+      Integer.parseInt(option(options, "keys", "100000")),
+      option(options, "distribution", "zipf"),
+      option(options, "values", "fixed:100"),
+      Integer.parseInt(option(options, "bulk", "10")), new Random(seed));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<String>> options = parseOptions(args);
+    int rate = Integer.parseInt(option(options, "rate", "10000"));
+    int threads = Integer.parseInt(option(options, "threads", "4"));
+    int warmup = Integer.parseInt(option(options, "warmup", "10"));
+    int duration = Integer.parseInt(option(options, "duration", "30"));
+    long seed = Long.parseLong(option(options, "seed", "0"));
+    Workload workload = createWorkload(options, seed);
+
+    EmbeddedMemcachedServer server = null;
+    List<InetSocketAddress> servers;
+    String serverList = option(options, "servers", null);
+    if (serverList == null) {
+      server = new EmbeddedMemcachedServer();
+      String latency = option(options, "server-latency", null);
+      if (latency != null) {
+        String[] range = latency.split("-");
+        server.setLatency(Long.parseLong(range[0]),
+          Long.parseLong(range[range.length - 1]), TimeUnit.MICROSECONDS);
+      }
+      server.start();
+      servers = Collections.singletonList(server.getAddress());
+    } else {
+      servers = AddrUtil.getAddresses(serverList);
+    }
+
+    List<String> configs = options.get("config");
+    if (configs == null) {
+      configs = new ArrayList<String>();
+      Collections.addAll(configs, DEFAULT_CONFIGS);
+    }
+
+    LoadGenerator generator =
+      new LoadGenerator(workload, servers, rate, threads, seed);
+    Map<String, LatencyReport> reports =
+      new LinkedHashMap<String, LatencyReport>();
+    try {
+      for (String desc : configs) {
+        ClientConfiguration config = new ClientConfiguration(desc);
+        System.out.printf("%s: %d ops/s for %ds after %ds of warmup%n",
+          config, rate, duration, warmup);
+        LatencyReport report =
+          generator.run(config, warmup, duration, TimeUnit.SECONDS);
+        report.print(System.out);
+        System.out.println();
+        reports.put(config.toString(), report);
+        if (server != null) {
+          server.getStore().clear();
+        }
+      }
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+    printComparison(System.out, reports);
+    String csv = option(options, "csv", null);
+    if (csv != null) {
+      writeCsv(csv, reports);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.loadgen.Workload.OpType;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+import net.spy.memcached.server.FaultInjectingProxy;
+
+/**
+ * Test the load generator against an embedded server.
+ */
+public class LoadGeneratorTest extends TestCase {
+
+  private EmbeddedMemcachedServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer();
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    super.tearDown();
+  }
+
+  public void testOperationMix() {
+    Workload w = new Workload("get:3,set:1,delete:0", 10, "uniform",
+      "fixed:8", 1, new Random(1));
+    Map<OpType, Integer> counts = new EnumMap<OpType, Integer>(OpType.class);
+    Random random = new Random(2);
+    for (int i = 0; i < 40000; i++) {
+      OpType t = w.nextOp(random);
+      Integer n = counts.get(t);
+      counts.put(t, n == null ? 1 : n + 1);
+    }
+    assertEquals(2, counts.size());
+    assertEquals(30000, counts.get(OpType.GET), 600);
+    assertEquals(10000, counts.get(OpType.SET), 600);
+  }
+
+  public void testZipfianKeys() {
+    Workload w = new Workload("get", 1000, "zipf:0.99", "fixed:8", 1,
+      new Random(1));
+    Random random = new Random(2);
+    int first = 0;
+    int last = 0;
+    for (int i = 0; i < 100000; i++) {
+      String key = w.nextKey(random);
+      if (key.equals("loadgen:0")) {
+        first++;
+      } else if (key.equals("loadgen:999")) {
+        last++;
+      }
+    }
+    assertTrue(first + " vs " + last, first > last * 100);
+  }
+
+  public void testValueSizes() {
+    Workload w = new Workload("set", 10, "uniform", "uniform:10-20", 1,
+      new Random(1));
+    Random random = new Random(2);
+    for (int i = 0; i < 1000; i++) {
+      int size = w.nextValue(random).length;
+      assertTrue(String.valueOf(size), size >= 10 && size <= 20);
+    }
+  }
+
+  public void testBadOptions() {
+    try {
+      new Workload("get", 10, "gaussian", "fixed:8", 1, new Random());
+      fail("Accepted an unknown distribution");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    try {
+      new ClientConfiguration("protocol=binary,colour=blue");
+      fail("Accepted an unknown option");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testRun() throws Exception {
+    Workload w = new Workload("get:4,set:2,delete:1,incr:1,bulk:1", 100,
+      "zipf", "uniform:10-100", 5, new Random(1));
+    LoadGenerator generator = new LoadGenerator(w,
+      Collections.singletonList(server.getAddress()), 2000, 2, 1);
+    Map<String, LatencyReport> reports =
+      new LinkedHashMap<String, LatencyReport>();
+    for (String desc : new String[] {"protocol=binary",
+      "protocol=text,queue=linked,rwqueue=array:1024"}) {
+      ClientConfiguration config = new ClientConfiguration(desc);
+      LatencyReport r = generator.run(config, 100, 500,
+        TimeUnit.MILLISECONDS);
+      assertEquals(desc, 1000, r.getCompleted(), 50);
+      assertEquals(desc, 0, r.getErrors());
+      assertEquals(desc, 0, r.getIncomplete());
+      assertEquals(desc, r.getCompleted(), r.getResponseTimes().getCount());
+      assertTrue(desc, r.getResponseTimes().getMax()
+        >= r.getServiceTimes().getMax());
+      reports.put(desc, r);
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    LoadGenerator.printComparison(new PrintStream(bos, true), reports);
+    String table = bos.toString();
+    assertTrue(table, table.contains("p99.9(us)"));
+    assertTrue(table, table.contains("protocol=text"));
+  }
+
+  public void testFailureScenario() throws Exception {
+    FaultInjectingProxy proxy = new FaultInjectingProxy(server.getAddress());
+    proxy.start();
+    try {
+      Workload w = new Workload("get", 10, "uniform", "fixed:8", 1,
+        new Random(1));
+      LoadGenerator generator = new LoadGenerator(w,
+        Collections.singletonList(proxy.getAddress()), 200, 1, 1);
+      FailureScenario scenario = new FailureScenario(generator, proxy, 50, 0);
+      List<LatencyReport> reports = scenario.run(
+        new ClientConfiguration("protocol=binary"),
+        FailureScenario.Fault.LATENCY, 0, new long[] {300, 300, 300},
+        TimeUnit.MILLISECONDS);
+      assertEquals(3, reports.size());
+      long spike = TimeUnit.MILLISECONDS.toNanos(50);
+      assertTrue(reports.get(0).getResponseTimes().getValueAtPercentile(50)
+        < spike);
+      assertTrue(reports.get(1).getResponseTimes().getValueAtPercentile(50)
+        >= spike);
+      assertTrue(reports.get(2).getResponseTimes().getValueAtPercentile(50)
+        < spike);
+      assertEquals(0, proxy.getLatency());
+    } finally {
+      proxy.stop();
+    }
+  }
+
+  public void testResponseTimeIncludesStalls() throws Exception {
+    Workload w = new Workload("get", 10, "uniform", "fixed:8", 1,
+      new Random(1));
+    LoadGenerator generator = new LoadGenerator(w,
+      Collections.singletonList(server.getAddress()), 1000, 1, 1);
+    // Every response waits 20ms, so operations queue up behind each other
+    // on the connection and wait longer than the server takes.
+    server.setLatency(20, 20, TimeUnit.MILLISECONDS);
+    LatencyReport r = generator.run(new ClientConfiguration("protocol=binary"),
+      0, 300, TimeUnit.MILLISECONDS);
+    assertTrue(r.getCompleted() > 0);
+    assertTrue(String.valueOf(r.getResponseTimes()),
+      r.getResponseTimes().getValueAtPercentile(50)
+        >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * What the load generator asks for: the operation mix, which keys are used
+ * and how large the stored values are.
+ */
+final class Workload {
+
+  /**
+   * The operations the load generator can issue.
+   */
+  enum OpType {
+    GET, SET, DELETE, INCR, TOUCH, BULK
+  }
+
+  private static final int VALUE_POOL_SIZE = 64;
+
+  private final OpType[] mix;
+  private final int[] cumulativeWeights;
+  private final String[] keys;
+  private final ZipfianGenerator zipf;
+  private final byte[][] values;
+  private final int bulkSize;
+
+  /**
+   * Create a workload.
+   *
+   * @param opMix the operations and their weights, such as
+   *          {@code get:90,set:10}
+   * @param keyCount the number of distinct keys
+   * @param keyDistribution {@code uniform} or {@code zipf[:skew]}
+   * @param valueSizes {@code fixed:size} or {@code uniform:min-max}
+   * @param bulk the number of keys per bulk get
+   * @param random the source of the value sizes
+   */
+  Workload(String opMix, int keyCount, String keyDistribution,
+      String valueSizes, int bulk, Random random) {
+    List<OpType> ops = new ArrayList<OpType>();
+    List<Integer> weights = new ArrayList<Integer>();
+    int total = 0;
+    for (String part : opMix.split(",")) {
+      String[] kv = part.split(":");
+      int weight = kv.length > 1 ? Integer.parseInt(kv[1]) : 1;
+      if (weight > 0) {
+        ops.add(OpType.valueOf(kv[0].trim().toUpperCase()));
+        total += weight;
+        weights.add(total);
+      }
+    }
+    if (ops.isEmpty()) {
+      throw new IllegalArgumentException("Empty operation mix: " + opMix);
+    }
+    mix = ops.toArray(new OpType[ops.size()]);
+    cumulativeWeights = new int[weights.size()];
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      cumulativeWeights[i] = weights.get(i);
+    }
+
+    keys = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keys[i] = "loadgen:" + i;
+    }
+    if (keyDistribution.equals("uniform")) {
+      zipf = null;
+    } else if (keyDistribution.startsWith("zipf")) {
+      String[] kv = keyDistribution.split(":");
+      zipf = new ZipfianGenerator(keyCount,
+        kv.length > 1 ? Double.parseDouble(kv[1]) : 0.99);
+    } else {
+      throw new IllegalArgumentException("Unknown key distribution: "
+        + keyDistribution);
+    }
+
+    // Values are drawn from a pool, so building them isn't part of the load.
+    String[] kv = valueSizes.split(":");
+    int min;
+    int max;
+    if (kv[0].equals("fixed") && kv.length == 2) {
+      min = Integer.parseInt(kv[1]);
+      max = min;
+    } else if (kv[0].equals("uniform") && kv.length == 2) {
+      String[] range = kv[1].split("-");
+      min = Integer.parseInt(range[0]);
+      max = Integer.parseInt(range[1]);
+    } else {
+      throw new IllegalArgumentException("Unknown value sizes: "
+        + valueSizes);
+    }
+    values = new byte[VALUE_POOL_SIZE][];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = new byte[min + random.nextInt(max - min + 1)];
+      Arrays.fill(values[i], (byte) 'v');
+    }
+    bulkSize = bulk;
+  }
+
+  OpType nextOp(Random random) {
+    int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      if (r < cumulativeWeights[i]) {
+        return mix[i];
+      }
+    }
+    throw new IllegalStateException("Unreachable");
+  }
+
+  String nextKey(Random random) {
+    if (zipf == null) {
+      return keys[random.nextInt(keys.length)];
+    }
+    return keys[(int) zipf.next(random)];
+  }
+
+  List<String> nextKeys(Random random) {
+    List<String> rv = new ArrayList<String>(bulkSize);
+    for (int i = 0; i < bulkSize; i++) {
+      rv.add(nextKey(random));
+    }
+    return rv;
+  }
+
+  byte[] nextValue(Random random) {
+    return values[random.nextInt(values.length)];
+  }
+
+  String[] getKeys() {
+    return keys;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.loadgen;
+
+import java.util.Random;
+
+/**
+ * Draws ranks from a Zipfian distribution, where rank 0 is the most popular.
+ *
+ * <p>This is the algorithm from "Quickly Generating Billion-Record Synthetic
+ * Databases" by Gray et al., as also used by YCSB. Setting it up takes time
+ * linear in the number of items, drawing a rank is constant time.</p>
+ */
+final class ZipfianGenerator {
+
+  private final long items;
+  private final double theta;
+  private final double zetan;
+  private final double alpha;
+  private final double eta;
+  private final double halfPowTheta;
+
+  /**
+   * Create a generator.
+   *
+   * @param n the number of items
+   * @param skew the skew of the distribution, between 0 and 1 exclusive;
+   *          0.99 is the usual choice
+   */
+  ZipfianGenerator(long n, double skew) {
+    if (n < 1) {
+      throw new IllegalArgumentException("Need at least one item");
+    }
+    if (skew <= 0 || skew >= 1) {
+      throw new IllegalArgumentException("Skew must be in (0, 1): " + skew);
+    }
+    items = n;
+    theta = skew;
+    double z = 0;
+    for (long i = 1; i <= n; i++) {
+      z += 1 / Math.pow(i, theta);
+    }
+    zetan = z;
+    double zeta2 = 1 + Math.pow(0.5, theta);
+    alpha = 1 / (1 - theta);
+    eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+    halfPowTheta = Math.pow(0.5, theta);
+  }
+
+  long next(Random random) {
+    double u = random.nextDouble();
+    double uz = u * zetan;
+    if (uz < 1) {
+      return 0;
+    } else if (uz < 1 + halfPowTheta) {
+      return Math.min(1, items - 1);
+    }
+    long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+    return Math.min(rank, items - 1);
+  }
+}
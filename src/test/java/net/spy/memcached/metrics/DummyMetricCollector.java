@@ -28,7 +28,7 @@ import java.util.HashMap;
 /**
  * A dummy {@link MetricCollector} to measure executions.
  */
-public class DummyMetricCollector implements MetricCollector {
+public class DummyMetricCollector extends AbstractMetricCollector {
 
   private HashMap<String, Integer> metrics;
 
@@ -96,6 +96,16 @@ public class DummyMetricCollector implements MetricCollector {
     metrics.put(name, metrics.get(name) + amount);
   }
 
+  @Override
+  public void addGauge(String name, LongGauge gauge) {
+    metrics.put(name, (int) gauge.getValue());
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    metrics.remove(name);
+  }
+
   public HashMap<String, Integer> getMetrics() {
     return metrics;
   }
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the latency histogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testBucketsKeepPrecision() {
+    Random r = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      long v = r.nextLong() & ((1L << 36) - 1);
+      v >>>= r.nextInt(36);
+      int index = LatencyHistogram.indexOf(v);
+      long high = LatencyHistogram.highestValueAt(index);
+      assertTrue(v + " above " + high, v <= high);
+      assertTrue(v + " too far from " + high, high - v <= v / 64);
+      if (index > 0) {
+        assertTrue(v > LatencyHistogram.highestValueAt(index - 1));
+      }
+    }
+  }
+
+  public void testPercentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.getValueAtPercentile(99));
+    long[] values = new long[10000];
+    Random r = new Random(7);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1000 + r.nextInt(10000000);
+      h.record(values[i]);
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, h.getCount());
+    assertEquals(values[values.length - 1], h.getMax());
+    for (double p : new double[] {50, 90, 99, 99.9}) {
+      long expected = values[(int) Math.ceil(p / 100 * values.length) - 1];
+      long actual = h.getValueAtPercentile(p);
+      assertTrue(p + ": " + actual + " below " + expected, actual >= expected);
+      assertTrue(p + ": " + actual + " far from " + expected,
+        actual - expected <= expected / 64);
+    }
+    assertEquals(h.getMax(), h.getValueAtPercentile(100));
+  }
+
+  public void testSnapshotAndAdd() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.record(-5);
+    h.record(100);
+    h.record(Long.MAX_VALUE);
+    LatencyHistogram s = h.snapshot();
+    h.record(200);
+    assertEquals(3, s.getCount());
+    assertEquals(0, s.getValueAtPercentile(1));
+    assertEquals((1L << 36) - 1, s.getMax());
+    s.add(h);
+    assertEquals(7, s.getCount());
+    assertEquals(4, h.getCount());
+  }
+}
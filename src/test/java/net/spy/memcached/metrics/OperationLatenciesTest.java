@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.metrics;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.metrics.OperationLatencies.Phase;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationKind;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.protocol.binary.PipelinedOperationImpl;
+
+/**
+ * Test the latencies recorded for the operations of a node.
+ */
+public class OperationLatenciesTest extends TestCase {
+
+  private static final long MILLIS = 1000000;
+
+  private final BinaryOperationFactory opFact = new BinaryOperationFactory();
+
+  public void testRecordsPhases() throws Exception {
+    Operation op = get("key");
+    op.initialize();
+    op.writeComplete();
+    long written = op.getWriteCompleteTimestamp();
+    OperationLatencies latencies = new OperationLatencies();
+    latencies.responseRead(op, written + 2 * MILLIS);
+    latencies.completed(op, written + 5 * MILLIS);
+
+    assertEquals(1, count(latencies, OperationKind.GET, Phase.QUEUE));
+    assertEquals(2 * MILLIS, latencies.getHistogram(OperationKind.GET,
+      Phase.WIRE).getMax(), MILLIS / 32);
+    assertEquals(3 * MILLIS, latencies.getHistogram(OperationKind.GET,
+      Phase.READ).getMax(), MILLIS / 32);
+  }
+
+  public void testRecordsEachMergedOperation() throws Exception {
+    Operation first = get("first");
+    Thread.sleep(20);
+    Operation second = opFact.delete("second", null);
+    first.initialize();
+    second.initialize();
+    PipelinedOperationImpl pipeline = new PipelinedOperationImpl(first);
+    pipeline.addOperation(second);
+    pipeline.initialize();
+    pipeline.writeComplete();
+    OperationLatencies latencies = new OperationLatencies();
+    latencies.completed(pipeline, System.nanoTime());
+
+    assertEquals(1, count(latencies, OperationKind.GET, Phase.QUEUE));
+    assertEquals(1, count(latencies, OperationKind.DELETE, Phase.READ));
+    assertNull(latencies.getHistogram(OperationKind.OTHER, Phase.QUEUE));
+    // Each is timed from its own creation.
+    long queued = pipeline.getWriteCompleteTimestamp()
+      - first.getCreationTime();
+    assertEquals(queued, latencies.getHistogram(OperationKind.GET,
+      Phase.QUEUE).getMax(), queued / 32);
+    assertTrue(latencies.getHistogram(OperationKind.DELETE, Phase.QUEUE)
+      .getMax() < queued - 10 * MILLIS);
+  }
+
+  private static long count(OperationLatencies latencies, OperationKind kind,
+    Phase phase) {
+    LatencyHistogram h = latencies.getHistogram(kind, phase);
+    return h == null ? 0 : h.getCount();
+  }
+
+  private Operation get(String key) {
+    return opFact.get(key, new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // none
+      }
+
+      public void gotData(String k, int flags, byte[] data) {
+        // none
+      }
+
+      public void complete() {
+        // none
+      }
+    });
+  }
+}
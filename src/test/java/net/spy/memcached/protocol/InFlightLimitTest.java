@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Test the adaptive limit on operations awaiting a response.
+ */
+public class InFlightLimitTest extends TestCase {
+
+  private static final long RTT = 100000;
+
+  public void testGrowsWhileNothingQueues() {
+    InFlightLimit limit = new InFlightLimit(100);
+    assertEquals(16, limit.getLimit());
+    for (int i = 0; i < 10; i++) {
+      limit.answered(RTT, limit.getLimit());
+    }
+    assertEquals(26, limit.getLimit());
+  }
+
+  public void testDoesNotGrowUnused() {
+    InFlightLimit limit = new InFlightLimit(100);
+    for (int i = 0; i < 10; i++) {
+      limit.answered(RTT, 1);
+    }
+    assertEquals(16, limit.getLimit());
+  }
+
+  public void testCappedAtMaximum() {
+    InFlightLimit limit = new InFlightLimit(20);
+    for (int i = 0; i < 100; i++) {
+      limit.answered(RTT, limit.getLimit());
+    }
+    assertEquals(20, limit.getLimit());
+  }
+
+  public void testShrinksWhenLatencyRises() {
+    InFlightLimit limit = new InFlightLimit(100);
+    limit.answered(RTT, 16);
+    assertEquals(17, limit.getLimit());
+    // Half of the operations in flight queue at the server.
+    for (int i = 0; i < 5; i++) {
+      limit.answered(2 * RTT, limit.getLimit());
+    }
+    assertEquals(12, limit.getLimit());
+    // Between alpha and beta nothing changes.
+    limit.answered(RTT * 12 / 8, 12);
+    assertEquals(12, limit.getLimit());
+  }
+
+  public void testHalvedOnTimeout() {
+    InFlightLimit limit = new InFlightLimit(100);
+    limit.timedOut(0, RTT);
+    assertEquals(8, limit.getLimit());
+    // Each operation was written after the previous halving.
+    for (int i = 1; i <= 10; i++) {
+      limit.timedOut(i * RTT, (i + 1) * RTT);
+    }
+    assertEquals(1, limit.getLimit());
+  }
+
+  public void testHalvedOncePerBurstOfTimeouts() {
+    InFlightLimit limit = new InFlightLimit(100);
+    // All of them were written before the first timeout.
+    for (int i = 0; i < 16; i++) {
+      limit.timedOut(i, 10 * RTT + i);
+    }
+    assertEquals(8, limit.getLimit());
+    // One written after the limit was halved times out as well.
+    limit.timedOut(11 * RTT, 20 * RTT);
+    assertEquals(4, limit.getLimit());
+  }
+
+  public void testBaseRttIsMeasuredAnew() {
+    InFlightLimit limit = new InFlightLimit(100);
+    limit.answered(RTT, 16);
+    for (int i = 2; i < 2 * InFlightLimit.BASE_RTT_WINDOW; i++) {
+      limit.answered(10 * RTT, limit.getLimit());
+    }
+    int shrunk = limit.getLimit();
+    assertTrue(shrunk < 16);
+    // The server got slower for good, its new latency is the base now.
+    limit.answered(10 * RTT, shrunk);
+    assertEquals(shrunk + 1, limit.getLimit());
+  }
+
+  public void testLargeValuesAtLimitOfOne() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+    server.start();
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setMaxInFlight(1).setOpTimeout(5000).setDaemon(true).build(),
+      Arrays.asList(server.getAddress()));
+    try {
+      // Larger than the write buffer, so each is written in several goes
+      // while it is the one operation in flight.
+      byte[] value = new byte[100000];
+      new Random(1).nextBytes(value);
+      List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 5; i++) {
+        sets.add(client.set("large" + i, 0, value));
+      }
+      for (Future<Boolean> f : sets) {
+        assertTrue(f.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(value.length, ((byte[]) client.get("large4")).length);
+    } finally {
+      client.shutdown();
+      server.stop();
+    }
+  }
+}
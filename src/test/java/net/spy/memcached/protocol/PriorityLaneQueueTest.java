@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationPriority;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the lanes of the write queue.
+ */
+public class PriorityLaneQueueTest extends TestCase {
+
+  private final OperationFactory opFact = new AsciiOperationFactory();
+
+  private Operation op(OperationPriority priority) {
+    Operation op = opFact.get("k", new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // Nothing to do
+      }
+
+      public void gotData(String key, int flags, byte[] data) {
+        // Nothing to do
+      }
+
+      public void complete() {
+        // Nothing to do
+      }
+    });
+    op.setPriority(priority);
+    return op;
+  }
+
+  private PriorityLaneQueue lanes() {
+    return new PriorityLaneQueue(new LinkedBlockingQueue<Operation>());
+  }
+
+  public void testSingleLaneIsFifo() {
+    PriorityLaneQueue q = lanes();
+    List<Operation> ops = new ArrayList<Operation>();
+    for (int i = 0; i < 10; i++) {
+      Operation o = op(OperationPriority.BULK);
+      ops.add(o);
+      q.add(o);
+    }
+    assertEquals(10, q.size());
+    for (Operation o : ops) {
+      assertSame(o, q.poll());
+    }
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+  }
+
+  public void testLanesTakeWeightedTurns() {
+    PriorityLaneQueue q = lanes();
+    for (int i = 0; i < 20; i++) {
+      q.add(op(OperationPriority.BULK));
+      q.add(op(OperationPriority.NORMAL));
+      q.add(op(OperationPriority.INTERACTIVE));
+    }
+    int[] taken = new int[OperationPriority.values().length];
+    for (int i = 0; i < 26; i++) {
+      taken[q.poll().getPriority().ordinal()]++;
+    }
+    assertEquals(16, taken[OperationPriority.INTERACTIVE.ordinal()]);
+    assertEquals(8, taken[OperationPriority.NORMAL.ordinal()]);
+    assertEquals(2, taken[OperationPriority.BULK.ordinal()]);
+    assertEquals(34, q.size());
+  }
+
+  public void testInteractiveNotStuckBehindBulk() {
+    PriorityLaneQueue q = lanes();
+    for (int i = 0; i < 100; i++) {
+      q.add(op(OperationPriority.BULK));
+    }
+    q.poll();
+    Operation interactive = op(OperationPriority.INTERACTIVE);
+    q.add(interactive);
+    assertSame(interactive, q.poll());
+  }
+
+  public void testPeekMatchesPoll() {
+    PriorityLaneQueue q = lanes();
+    for (int i = 0; i < 10; i++) {
+      q.add(op(OperationPriority.BULK));
+      q.add(op(OperationPriority.NORMAL));
+      q.add(op(OperationPriority.INTERACTIVE));
+    }
+    Operation o;
+    while ((o = q.peek()) != null) {
+      assertSame(o, q.poll());
+    }
+    assertTrue(q.isEmpty());
+  }
+
+  public void testPeekedHeadKeptWhenOtherLaneFills() {
+    PriorityLaneQueue q = lanes();
+    Operation normal = op(OperationPriority.NORMAL);
+    q.add(normal);
+    assertSame(normal, q.peek());
+    Operation bulk = op(OperationPriority.BULK);
+    Operation interactive = op(OperationPriority.INTERACTIVE);
+    q.add(bulk);
+    q.add(interactive);
+    assertSame(normal, q.peek());
+    assertSame(normal, q.poll());
+    List<Operation> rest = new ArrayList<Operation>();
+    q.drainTo(rest);
+    assertEquals(2, rest.size());
+    assertTrue(rest.contains(bulk));
+    assertTrue(rest.contains(interactive));
+  }
+
+  public void testInsertedOperationsGoFirst() {
+    PriorityLaneQueue q = lanes();
+    for (int i = 0; i < 10; i++) {
+      q.add(op(OperationPriority.BULK));
+      q.add(op(OperationPriority.NORMAL));
+    }
+    // Leave the normal lane with credit to spare.
+    while (q.peek().getPriority() != OperationPriority.NORMAL) {
+      q.poll();
+    }
+    q.poll();
+    Operation first = op(OperationPriority.BULK);
+    Operation second = op(OperationPriority.NORMAL);
+    q.insert(second);
+    q.insert(first);
+    assertSame(first, q.peek());
+    assertSame(first, q.poll());
+    assertSame(second, q.poll());
+    assertEquals(OperationPriority.NORMAL, q.poll().getPriority());
+  }
+
+  public void testInsertedOperationKeepsPeekedHead() {
+    PriorityLaneQueue q = lanes();
+    Operation normal = op(OperationPriority.NORMAL);
+    q.add(normal);
+    assertSame(normal, q.peek());
+    Operation inserted = op(OperationPriority.BULK);
+    q.insert(inserted);
+    assertSame(normal, q.poll());
+    assertSame(inserted, q.poll());
+  }
+
+  public void testInsertedOperationsExceedCapacity() {
+    PriorityLaneQueue q =
+      new PriorityLaneQueue(new ArrayBlockingQueue<Operation>(1));
+    assertTrue(q.offer(op(OperationPriority.NORMAL)));
+    q.insert(op(OperationPriority.NORMAL));
+    assertEquals(2, q.size());
+    assertEquals(0, q.remainingCapacity());
+    assertEquals(2, q.drainTo(new ArrayList<Operation>()));
+  }
+
+  public void testTakeWaitsForAnOperation() throws Exception {
+    final PriorityLaneQueue q = lanes();
+    final Operation o = op(OperationPriority.BULK);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        q.add(o);
+      }
+    };
+    t.start();
+    assertSame(o, q.take());
+    t.join();
+    assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  public void testLanesShareCapacity() {
+    PriorityLaneQueue q =
+      new PriorityLaneQueue(new ArrayBlockingQueue<Operation>(2));
+    assertEquals(2, q.remainingCapacity());
+    assertTrue(q.offer(op(OperationPriority.INTERACTIVE)));
+    assertTrue(q.offer(op(OperationPriority.BULK)));
+    assertFalse(q.offer(op(OperationPriority.NORMAL)));
+    assertEquals(0, q.remainingCapacity());
+    List<Operation> drained = new ArrayList<Operation>();
+    assertEquals(2, q.drainTo(drained));
+    assertEquals(2, q.remainingCapacity());
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Drives thousands of callers blocked in {@link OperationFuture#get()} while
+ * a single thread completes their operations the way the IO thread does, and
+ * some callers cancel concurrently.
+ *
+ * Virtual threads are used for the callers when the runtime provides them.
+ */
+public class BlockingGetLoadTest extends TestCase {
+
+  private static final int CALLERS = 2000;
+
+  public void testConcurrentBlockingGets() throws Exception {
+    BinaryOperationFactory opFact = new BinaryOperationFactory();
+    final List<Operation> ops = new ArrayList<Operation>(CALLERS);
+    List<OperationFuture<Boolean>> futures =
+      new ArrayList<OperationFuture<Boolean>>(CALLERS);
+    for (int i = 0; i < CALLERS; i++) {
+      final OperationFuture<Boolean> rv =
+        new OperationFuture<Boolean>("noop", 10000, null);
+      Operation op = opFact.noop(new OperationCallback() {
+        @Override
+        public void receivedStatus(OperationStatus status) {
+          rv.set(status.isSuccess(), status);
+        }
+
+        @Override
+        public void complete() {
+          rv.signalComplete();
+        }
+      });
+      op.initialize();
+      rv.setOperation(op);
+      ops.add(op);
+      futures.add(rv);
+    }
+
+    final AtomicInteger succeeded = new AtomicInteger();
+    final AtomicInteger cancelled = new AtomicInteger();
+    ExecutorService callers = newCallerExecutor();
+    List<Future<?>> done = new ArrayList<Future<?>>(CALLERS);
+    for (int i = 0; i < CALLERS; i++) {
+      final OperationFuture<Boolean> f = futures.get(i);
+      final boolean cancel = i % 10 == 0;
+      done.add(callers.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (cancel) {
+            f.cancel();
+          }
+          try {
+            if (f.get()) {
+              succeeded.incrementAndGet();
+            }
+          } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+            cancelled.incrementAndGet();
+          }
+          return null;
+        }
+      }));
+    }
+
+    Thread io = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (Operation op : ops) {
+          op.getLock().lock();
+          try {
+            if (!op.isCancelled()) {
+              op.writing();
+              op.writeComplete();
+              op.readFromBuffer(response(op));
+            }
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          } finally {
+            op.getLock().unlock();
+          }
+        }
+      }
+    });
+    io.start();
+
+    for (Future<?> f : done) {
+      f.get(30, TimeUnit.SECONDS);
+    }
+    io.join(TimeUnit.SECONDS.toMillis(30));
+    callers.shutdown();
+
+    assertEquals(CALLERS, succeeded.get() + cancelled.get());
+    assertTrue(cancelled.get() >= CALLERS / 10);
+  }
+
+  private static ByteBuffer response(Operation op) {
+    ByteBuffer b = ByteBuffer.allocate(24);
+    b.put(OperationImpl.RES_MAGIC);
+    b.put(NoopOperationImpl.CMD);
+    b.putInt(12, ((OperationImpl) op).opaque);
+    b.position(24);
+    b.flip();
+    return b;
+  }
+
+  private static ExecutorService newCallerExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Exception e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the map of opaques.
+ */
+public class OpaqueMapTest extends TestCase {
+
+  public void testSequentialOpaques() {
+    OpaqueMap<String> m = new OpaqueMap<String>();
+    for (int i = 1000; i < 2000; i++) {
+      assertNull(m.put(i, "v" + i));
+    }
+    assertEquals(1000, m.size());
+    for (int i = 1000; i < 2000; i++) {
+      assertEquals("v" + i, m.get(i));
+    }
+    assertNull(m.get(999));
+    assertNull(m.get(2000));
+    assertEquals("v1500", m.put(1500, "x"));
+    assertEquals("x", m.remove(1500));
+    assertFalse(m.containsKey(1500));
+    assertEquals(999, m.size());
+    assertEquals(999, m.values().size());
+  }
+
+  public void testCollidingOpaques() {
+    OpaqueMap<Integer> m = new OpaqueMap<Integer>(4);
+    // All of these start probing at the same slot.
+    int[] opaques = {0, 1 << 20, 2 << 20, 3 << 20, 1, 2};
+    for (int o : opaques) {
+      m.put(o, o);
+    }
+    assertEquals(Integer.valueOf(1 << 20), m.remove(1 << 20));
+    for (int o : opaques) {
+      if (o != 1 << 20) {
+        assertEquals(Integer.valueOf(o), m.get(o));
+      }
+    }
+    assertNull(m.get(1 << 20));
+  }
+
+  public void testMatchesHashMap() {
+    Random rand = new Random(42);
+    OpaqueMap<Integer> m = new OpaqueMap<Integer>();
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for (int i = 0; i < 100000; i++) {
+      int opaque = rand.nextInt(512) * (rand.nextBoolean() ? 1 : 4096);
+      if (rand.nextInt(3) == 0) {
+        assertEquals(expected.remove(opaque), m.remove(opaque));
+      } else {
+        assertEquals(expected.put(opaque, i), m.put(opaque, i));
+      }
+      assertEquals(expected.size(), m.size());
+    }
+    for (Map.Entry<Integer, Integer> me : expected.entrySet()) {
+      assertEquals(me.getValue(), m.get(me.getKey()));
+    }
+    assertEquals(new HashSet<Integer>(expected.values()),
+      new HashSet<Integer>(m.values()));
+    m.clear();
+    assertTrue(m.isEmpty());
+    assertNull(m.get(0));
+  }
+}
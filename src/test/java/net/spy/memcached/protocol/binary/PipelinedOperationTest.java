@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Test pipelines of mixed binary operations.
+ */
+public class PipelinedOperationTest extends TestCase {
+
+  private final BinaryOperationFactory opFact = new BinaryOperationFactory();
+
+  private Recorder hit;
+  private Recorder miss;
+  private Recorder deleted;
+  private Recorder incremented;
+  private Operation[] ops;
+  private PipelinedOperationImpl pipeline;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    hit = new Recorder();
+    miss = new Recorder();
+    deleted = new Recorder();
+    incremented = new Recorder();
+    ops = new Operation[] {
+      opFact.get("hit", hit),
+      opFact.delete("deleted", deleted),
+      opFact.get("miss", miss),
+      opFact.mutate(Mutator.incr, "incremented", 1, 0, 0, incremented),
+    };
+    for (Operation op : ops) {
+      op.initialize();
+    }
+    pipeline = new PipelinedOperationImpl(ops[0]);
+    for (int i = 1; i < ops.length; i++) {
+      pipeline.addOperation(ops[i]);
+    }
+    pipeline.initialize();
+  }
+
+  private static int opaque(Operation op) {
+    return ((OperationImpl) op).opaque;
+  }
+
+  private static byte[] response(int cmd, int status, int opaque,
+      byte[] body) {
+    ByteBuffer bb = ByteBuffer.allocate(OperationImpl.MIN_RECV_PACKET
+      + body.length);
+    bb.put(OperationImpl.RES_MAGIC);
+    bb.put((byte) cmd);
+    bb.putShort((short) 0);
+    bb.put((byte) 0);
+    bb.put((byte) 0);
+    bb.putShort((short) status);
+    bb.putInt(body.length);
+    bb.putInt(opaque);
+    bb.putLong(0);
+    bb.put(body);
+    return bb.array();
+  }
+
+  private ByteBuffer responses() {
+    ByteBuffer hitBody = ByteBuffer.allocate(GetOperationImpl.EXTRA_HDR_LEN
+      + 3);
+    hitBody.putInt(7);
+    hitBody.put("val".getBytes());
+    ByteBuffer count = ByteBuffer.allocate(8);
+    count.putLong(42);
+    return join(
+      response(0x09, 0, opaque(ops[0]), hitBody.array()),
+      response(0x04, 0, opaque(ops[1]), new byte[0]),
+      response(0x05, 0, opaque(ops[3]), count.array()),
+      response(0x0a, 0, terminalOpaque(), new byte[0]));
+  }
+
+  private static ByteBuffer join(byte[]... parts) {
+    int size = 0;
+    for (byte[] p : parts) {
+      size += p.length;
+    }
+    ByteBuffer bb = ByteBuffer.allocate(size);
+    for (byte[] p : parts) {
+      bb.put(p);
+    }
+    bb.flip();
+    return bb;
+  }
+
+  private int terminalOpaque() {
+    ByteBuffer request = pipeline.getBuffer();
+    return request.getInt(request.limit() - 12);
+  }
+
+  public void testRequestLayout() {
+    ByteBuffer request = pipeline.getBuffer();
+    int expected = OperationImpl.MIN_RECV_PACKET;
+    for (Operation op : ops) {
+      expected += op.getBuffer().remaining();
+    }
+    assertEquals(expected, request.remaining());
+    assertEquals(4, pipeline.size());
+
+    // Gets are quiet, everything else is sent as is.
+    int pos = 0;
+    byte[] cmds = {0x09, 0x04, 0x09, 0x05, 0x0a};
+    for (int i = 0; i < cmds.length; i++) {
+      assertEquals(OperationImpl.REQ_MAGIC, request.get(pos));
+      assertEquals("Command " + i, cmds[i], request.get(pos + 1));
+      if (i < ops.length) {
+        assertEquals(opaque(ops[i]), request.getInt(pos + 12));
+      }
+      pos += OperationImpl.MIN_RECV_PACKET + request.getInt(pos + 8);
+    }
+    assertEquals(request.limit(), pos);
+  }
+
+  public void testResponsesMatchedByOpaque() throws Exception {
+    ByteBuffer in = responses();
+    while (in.hasRemaining()) {
+      pipeline.readFromBuffer(in);
+    }
+    assertSame(OperationState.COMPLETE, pipeline.getState());
+    for (Operation op : ops) {
+      assertSame(OperationState.COMPLETE, op.getState());
+    }
+    assertEquals("val", hit.value);
+    assertTrue(hit.status.isSuccess());
+    assertNull(miss.value);
+    assertSame(StatusCode.ERR_NOT_FOUND, miss.status.getStatusCode());
+    assertTrue(deleted.status.isSuccess());
+    assertEquals("42", incremented.status.getMessage());
+    assertEquals(1, hit.completions);
+    assertEquals(1, miss.completions);
+    assertEquals(1, deleted.completions);
+    assertEquals(1, incremented.completions);
+  }
+
+  public void testResponsesSplitAcrossReads() throws Exception {
+    ByteBuffer in = responses();
+    while (in.hasRemaining()) {
+      ByteBuffer one = ByteBuffer.wrap(new byte[] {in.get()});
+      pipeline.readFromBuffer(one);
+      assertFalse(one.hasRemaining());
+    }
+    assertSame(OperationState.COMPLETE, pipeline.getState());
+    assertEquals("val", hit.value);
+    assertEquals("42", incremented.status.getMessage());
+    assertSame(StatusCode.ERR_NOT_FOUND, miss.status.getStatusCode());
+  }
+
+  public void testTimeoutReachesPendingOperations() throws Exception {
+    ByteBuffer in = ByteBuffer.wrap(response(0x09, 0, opaque(ops[0]),
+      new byte[GetOperationImpl.EXTRA_HDR_LEN]));
+    pipeline.readFromBuffer(in);
+    assertEquals(1, hit.completions);
+    pipeline.timeOut();
+    assertEquals(1, hit.completions);
+    assertSame(StatusCode.TIMEDOUT, miss.status.getStatusCode());
+    assertSame(StatusCode.TIMEDOUT, deleted.status.getStatusCode());
+    assertSame(StatusCode.TIMEDOUT, incremented.status.getStatusCode());
+  }
+
+  public void testNotMyVbucketLeftForRetry() throws Exception {
+    ByteBuffer in = join(
+      response(0x04, 0x07, opaque(ops[1]), new byte[0]),
+      response(0x05, 0, opaque(ops[3]), new byte[8]),
+      response(0x0a, 0, terminalOpaque(), new byte[0]));
+    while (in.hasRemaining()) {
+      pipeline.readFromBuffer(in);
+    }
+    assertSame(OperationState.RETRY, pipeline.getState());
+    assertEquals(1, pipeline.getRetryOperations().size());
+    assertSame(ops[1], pipeline.getRetryOperations().get(0));
+    assertSame(OperationState.RETRY, ops[1].getState());
+    assertNull(deleted.status);
+    assertEquals(0, deleted.completions);
+    assertEquals(1, incremented.completions);
+    assertSame(StatusCode.ERR_NOT_FOUND, hit.status.getStatusCode());
+  }
+
+  public void testOnlySingleResponseOperations() {
+    assertTrue(PipelinedOperationImpl.canPipeline(ops[0]));
+    assertFalse(PipelinedOperationImpl.canPipeline(pipeline));
+    Operation stats = opFact.keyStats("k", null);
+    stats.initialize();
+    assertFalse(PipelinedOperationImpl.canPipeline(stats));
+  }
+
+  static class Recorder implements GetOperation.Callback,
+      DeleteOperation.Callback {
+    private OperationStatus status;
+    private String value;
+    private int completions;
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      value = new String(data);
+    }
+
+    public void gotData(long cas) {
+      // Not checked
+    }
+
+    public void complete() {
+      completions++;
+    }
+  }
+}
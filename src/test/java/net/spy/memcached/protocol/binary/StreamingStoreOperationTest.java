@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.transcoders.StreamingSerializingTranscoder;
+
+/**
+ * Verifies that streamed store requests match their array based counterparts.
+ */
+public class StreamingStoreOperationTest extends TestCase {
+
+  private static final int OPAQUE_OFFSET = 12;
+
+  private final StreamingSerializingTranscoder tc =
+    new StreamingSerializingTranscoder();
+
+  private byte[] bytes(ByteBuffer bb) {
+    byte[] rv = new byte[bb.remaining()];
+    bb.duplicate().get(rv);
+    // Opaques are generated per operation, blank them out for comparison.
+    Arrays.fill(rv, OPAQUE_OFFSET, OPAQUE_OFFSET + 4, (byte) 0);
+    return rv;
+  }
+
+  private void assertSameRequest(Object value) {
+    CachedData cd = tc.encode(value);
+    StoreOperationImpl plain = new StoreOperationImpl(StoreType.set, "key",
+      cd.getFlags(), 60, cd.getData(), 0, null);
+    plain.setVBucket("key", (short) 3);
+    plain.initialize();
+
+    StreamingStoreOperationImpl streamed = new StreamingStoreOperationImpl(
+      StoreType.set, "key", 60, 0, value, tc, null);
+    streamed.setVBucket("key", (short) 3);
+    streamed.initialize();
+
+    assertTrue(Arrays.equals(bytes(plain.getBuffer()),
+      bytes(streamed.getBuffer())));
+    assertEquals(cd.getFlags(), streamed.getFlags());
+    assertTrue(Arrays.equals(cd.getData(), streamed.getData()));
+  }
+
+  public void testSmallValue() {
+    assertSameRequest("hello");
+  }
+
+  public void testValueLargerThanInitialBuffer() {
+    byte[] value = new byte[64 * 1024];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = (byte) i;
+    }
+    assertSameRequest(value);
+  }
+
+  public void testTooLargeValue() {
+    try {
+      new StreamingStoreOperationImpl(StoreType.set, "key", 0, 0,
+        new byte[1024], new StreamingSerializingTranscoder(512), null);
+      fail("Stored a value larger than the max size.");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testReinitializeRewinds() {
+    StreamingStoreOperationImpl op = new StreamingStoreOperationImpl(
+      StoreType.add, "key", 0, 0, "value", tc, null);
+    op.initialize();
+    int size = op.getBuffer().remaining();
+    op.getBuffer().position(size);
+    op.initialize();
+    assertEquals(size, op.getBuffer().remaining());
+  }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.server.ItemStore.Item;
+import net.spy.memcached.server.ItemStore.Mode;
+import net.spy.memcached.server.ItemStore.Result;
+
+/**
+ * The ASCII protocol.
+ */
+final class AsciiProtocol extends Protocol {
+
+  // Retrievals of many keys make for long command lines.
+  private static final int MAX_LINE = 1024 * 1024;
+
+  AsciiProtocol(EmbeddedMemcachedServer s) {
+    super(s);
+  }
+
+  @Override
+  boolean process(ServerConnection c, ByteBuffer in) throws IOException {
+    while (in.hasRemaining()) {
+      int start = in.position();
+      int eol = -1;
+      for (int i = start; i < in.limit(); i++) {
+        if (in.get(i) == '\n') {
+          eol = i;
+          break;
+        }
+      }
+      if (eol < 0) {
+        if (in.remaining() > MAX_LINE) {
+          write(c.out, "CLIENT_ERROR line is too long");
+          return false;
+        }
+        return true;
+      }
+      int end = eol > start && in.get(eol - 1) == '\r' ? eol - 1 : eol;
+      String line = new String(in.array(), in.arrayOffset() + start,
+        end - start, ItemStore.UTF8);
+      String[] args = line.trim().split(" +");
+      String cmd = args[0];
+      boolean noreply = args.length > 1
+        && args[args.length - 1].equals("noreply");
+      byte[] data = null;
+      if (isStorage(cmd)) {
+        int length;
+        try {
+          length = args.length < 5 ? -1 : Integer.parseInt(args[4]);
+        } catch (NumberFormatException e) {
+          length = -1;
+        }
+        if (length < 0) {
+          in.position(eol + 1);
+          write(c.out, "CLIENT_ERROR bad command line format");
+          continue;
+        }
+        if (in.limit() < eol + 1 + length + 2) {
+          // Wait for the rest of the data block
+          in.position(start);
+          return true;
+        }
+        data = new byte[length];
+        in.position(eol + 1);
+        in.get(data);
+        if (in.get() != '\r' || in.get() != '\n') {
+          write(c.out, "CLIENT_ERROR bad data chunk");
+          return false;
+        }
+      } else {
+        in.position(eol + 1);
+      }
+      if (!handle(c, cmd, args, data, noreply)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean handle(ServerConnection c, String cmd, String[] args,
+      byte[] data, boolean noreply) throws IOException {
+    DataOutputStream out = c.out;
+    if (cmd.equals("quit")) {
+      return false;
+    } else if (server.getFaultMode() == FaultMode.ERROR) {
+      write(out, "SERVER_ERROR temporary failure");
+      return true;
+    } else if (server.requiresAuthentication()) {
+      write(out, "CLIENT_ERROR unauthenticated");
+      return true;
+    }
+    try {
+      if (cmd.equals("get") || cmd.equals("gets")) {
+        server.gotGet(args.length - 1);
+        for (int i = 1; i < args.length; i++) {
+          writeValue(out, args[i], store.get(args[i]), cmd.equals("gets"));
+        }
+        write(out, "END");
+      } else if (cmd.equals("gat") || cmd.equals("gats")) {
+        // The expiration follows the key, as sent by the client.
+        String key = args[1];
+        writeValue(out, key, store.touch(key, Integer.parseInt(args[2])),
+          cmd.equals("gats"));
+        write(out, "END");
+      } else if (isStorage(cmd)) {
+        storeItem(out, cmd, args, data, noreply);
+      } else if (cmd.equals("delete")) {
+        reply(out, noreply, store.delete(args[1], 0).status
+          == ItemStore.Status.STORED ? "DELETED" : "NOT_FOUND");
+      } else if (cmd.equals("incr") || cmd.equals("decr")) {
+        mutate(out, cmd.equals("incr"), args, noreply);
+      } else if (cmd.equals("touch")) {
+        reply(out, noreply, store.touch(args[1], Integer.parseInt(args[2]))
+          != null ? "TOUCHED" : "NOT_FOUND");
+      } else if (cmd.equals("flush_all")) {
+        store.flush(args.length > 1 && !args[1].equals("noreply")
+          ? Integer.parseInt(args[1]) : 0);
+        reply(out, noreply, "OK");
+      } else if (cmd.equals("version")) {
+        write(out, "VERSION " + EmbeddedMemcachedServer.VERSION);
+      } else if (cmd.equals("verbosity")) {
+        reply(out, noreply, "OK");
+      } else if (cmd.equals("stats")) {
+        for (Map.Entry<String, String> e : server.getStats(
+          args.length > 1 ? args[1] : null).entrySet()) {
+          write(out, "STAT " + e.getKey() + " " + e.getValue());
+        }
+        write(out, "END");
+      } else {
+        write(out, "ERROR");
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      write(out, "ERROR");
+    } catch (NumberFormatException e) {
+      write(out, "CLIENT_ERROR bad command line format");
+    }
+    return true;
+  }
+
+  private void storeItem(DataOutputStream out, String cmd, String[] args,
+      byte[] data, boolean noreply) throws IOException {
+    int flags = (int) Long.parseLong(args[2]);
+    int exp = Integer.parseInt(args[3]);
+    long cas = 0;
+    Mode mode;
+    if (cmd.equals("cas")) {
+      mode = Mode.SET;
+      cas = Long.parseLong(args[5]);
+    } else {
+      mode = Mode.valueOf(cmd.toUpperCase());
+    }
+    Result r = store.store(mode, args[1], flags, exp, data, cas);
+    switch (r.status) {
+    case STORED:
+      reply(out, noreply, "STORED");
+      break;
+    case EXISTS:
+      reply(out, noreply, "EXISTS");
+      break;
+    case NOT_FOUND:
+      reply(out, noreply, "NOT_FOUND");
+      break;
+    case TOO_LARGE:
+      write(out, "SERVER_ERROR object too large for cache");
+      break;
+    default:
+      reply(out, noreply, "NOT_STORED");
+    }
+  }
+
+  private void mutate(DataOutputStream out, boolean incr, String[] args,
+      boolean noreply) throws IOException {
+    BigInteger delta = new BigInteger(args[2]);
+    if (delta.signum() < 0 || delta.bitLength() > 64) {
+      write(out, "CLIENT_ERROR invalid numeric delta argument");
+      return;
+    }
+    Result r = store.mutate(args[1], incr, delta, null, 0);
+    switch (r.status) {
+    case STORED:
+      reply(out, noreply, new String(r.item.data, ItemStore.ASCII));
+      break;
+    case NON_NUMERIC:
+      write(out, "CLIENT_ERROR cannot increment or decrement non-numeric "
+        + "value");
+      break;
+    default:
+      reply(out, noreply, "NOT_FOUND");
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, String key, Item item,
+      boolean withCas) throws IOException {
+    if (item == null) {
+      return;
+    }
+    write(out, "VALUE " + key + " " + (item.flags & 0xffffffffL) + " "
+      + item.data.length + (withCas ? " " + item.cas : ""));
+    out.write(item.data);
+    out.write('\r');
+    out.write('\n');
+  }
+
+  private static boolean isStorage(String cmd) {
+    return cmd.equals("set") || cmd.equals("add") || cmd.equals("replace")
+      || cmd.equals("append") || cmd.equals("prepend") || cmd.equals("cas");
+  }
+
+  private static void reply(DataOutputStream out, boolean noreply,
+      String line) throws IOException {
+    if (!noreply) {
+      write(out, line);
+    }
+  }
+
+  private static void write(DataOutputStream out, String line)
+    throws IOException {
+    out.write(line.getBytes(ItemStore.UTF8));
+    out.write('\r');
+    out.write('\n');
+  }
+}
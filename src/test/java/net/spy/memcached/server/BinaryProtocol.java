@@ -0,0 +1,463 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.server.ItemStore.Item;
+import net.spy.memcached.server.ItemStore.Mode;
+import net.spy.memcached.server.ItemStore.Result;
+
+/**
+ * The binary protocol.
+ */
+final class BinaryProtocol extends Protocol {
+
+  static final byte REQ_MAGIC = (byte) 0x80;
+  private static final byte RES_MAGIC = (byte) 0x81;
+  private static final int HEADER_SIZE = 24;
+
+  private static final byte GET = 0x00;
+  private static final byte SET = 0x01;
+  private static final byte ADD = 0x02;
+  private static final byte REPLACE = 0x03;
+  private static final byte DELETE = 0x04;
+  private static final byte INCR = 0x05;
+  private static final byte DECR = 0x06;
+  private static final byte QUIT = 0x07;
+  private static final byte FLUSH = 0x08;
+  private static final byte GETQ = 0x09;
+  private static final byte NOOP = 0x0a;
+  private static final byte VERSION = 0x0b;
+  private static final byte GETK = 0x0c;
+  private static final byte GETKQ = 0x0d;
+  private static final byte APPEND = 0x0e;
+  private static final byte PREPEND = 0x0f;
+  private static final byte STAT = 0x10;
+  private static final byte SETQ = 0x11;
+  private static final byte ADDQ = 0x12;
+  private static final byte REPLACEQ = 0x13;
+  private static final byte DELETEQ = 0x14;
+  private static final byte INCRQ = 0x15;
+  private static final byte DECRQ = 0x16;
+  private static final byte QUITQ = 0x17;
+  private static final byte FLUSHQ = 0x18;
+  private static final byte APPENDQ = 0x19;
+  private static final byte PREPENDQ = 0x1a;
+  private static final byte TOUCH = 0x1c;
+  private static final byte GAT = 0x1d;
+  private static final byte GATQ = 0x1e;
+  private static final byte SASL_LIST_MECHS = 0x20;
+  private static final byte SASL_AUTH = 0x21;
+  private static final byte SASL_STEP = 0x22;
+
+  private static final int SUCCESS = 0x00;
+  private static final int ERR_NOT_FOUND = 0x01;
+  private static final int ERR_EXISTS = 0x02;
+  private static final int ERR_2BIG = 0x03;
+  private static final int ERR_INVAL = 0x04;
+  private static final int ERR_NOT_STORED = 0x05;
+  private static final int ERR_DELTA_BADVAL = 0x06;
+  private static final int ERR_AUTH = 0x20;
+  private static final int AUTH_CONTINUE = 0x21;
+  private static final int ERR_UNKNOWN_COMMAND = 0x81;
+  private static final int ERR_TEMP_FAIL = 0x86;
+
+  private static final byte[] EMPTY = new byte[0];
+  private static final long NO_CREATE = 0xffffffffL;
+
+  BinaryProtocol(EmbeddedMemcachedServer s) {
+    super(s);
+  }
+
+  @Override
+  boolean process(ServerConnection c, ByteBuffer in) throws IOException {
+    while (in.remaining() >= HEADER_SIZE) {
+      int start = in.position();
+      if (in.get(start) != REQ_MAGIC) {
+        return false;
+      }
+      int bodyLength = in.getInt(start + 8);
+      if (bodyLength < 0 || in.remaining() < HEADER_SIZE + bodyLength) {
+        return bodyLength >= 0;
+      }
+      Request r = new Request(in);
+      if (!handle(c, r)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean handle(ServerConnection c, Request r) throws IOException {
+    DataOutputStream out = c.out;
+    countGets(c, r.opcode);
+    switch (r.opcode) {
+    case QUIT:
+      respond(out, r, SUCCESS);
+      return false;
+    case QUITQ:
+      return false;
+    case NOOP:
+      respond(out, r, SUCCESS);
+      return true;
+    case VERSION:
+      respond(out, r, SUCCESS, 0, EMPTY, EMPTY,
+        EmbeddedMemcachedServer.VERSION.getBytes(ItemStore.ASCII));
+      return true;
+    case SASL_LIST_MECHS:
+      respond(out, r, SUCCESS, 0, EMPTY, EMPTY,
+        "CRAM-MD5 PLAIN".getBytes(ItemStore.ASCII));
+      return true;
+    case SASL_AUTH:
+    case SASL_STEP:
+      authenticate(c, r);
+      return true;
+    default:
+      break;
+    }
+    if (server.getFaultMode() == FaultMode.ERROR) {
+      respond(out, r, ERR_TEMP_FAIL, "Temporary failure");
+    } else if (server.requiresAuthentication() && !c.authenticated) {
+      respond(out, r, ERR_AUTH, "Auth failure");
+    } else if (r.extras.length != expectedExtras(r.opcode)
+      && r.opcode != FLUSH && r.opcode != FLUSHQ) {
+      respond(out, r, ERR_INVAL, "Invalid arguments");
+    } else {
+      handleData(out, r);
+    }
+    return true;
+  }
+
+  /**
+   * Count the keys of get requests: a multiget is a run of quiet gets ended
+   * by a get or a noop.
+   */
+  private void countGets(ServerConnection c, byte opcode) {
+    if (opcode == GETQ || opcode == GETKQ) {
+      c.quietGets++;
+    } else if (opcode == GET || opcode == GETK) {
+      server.gotGet(c.quietGets + 1);
+      c.quietGets = 0;
+    } else if (opcode == NOOP && c.quietGets > 0) {
+      server.gotGet(c.quietGets);
+      c.quietGets = 0;
+    }
+  }
+
+  private void handleData(DataOutputStream out, Request r)
+    throws IOException {
+    switch (r.opcode) {
+    case GET:
+    case GETQ:
+    case GETK:
+    case GETKQ:
+      get(out, r, store.get(r.key));
+      break;
+    case GAT:
+    case GATQ:
+      get(out, r, store.touch(r.key, r.extras().getInt(0)));
+      break;
+    case TOUCH:
+      respond(out, r, store.touch(r.key, r.extras().getInt(0)) == null
+        ? ERR_NOT_FOUND : SUCCESS);
+      break;
+    case SET:
+    case SETQ:
+    case ADD:
+    case ADDQ:
+    case REPLACE:
+    case REPLACEQ:
+      ByteBuffer extras = r.extras();
+      respondStored(out, r, store.store(mode(r.opcode), r.key, extras.getInt(0),
+        extras.getInt(4), r.value, r.cas));
+      break;
+    case APPEND:
+    case APPENDQ:
+    case PREPEND:
+    case PREPENDQ:
+      respondStored(out, r, store.store(mode(r.opcode), r.key, 0, 0, r.value,
+        r.cas));
+      break;
+    case DELETE:
+    case DELETEQ:
+      respondStored(out, r, store.delete(r.key, r.cas));
+      break;
+    case INCR:
+    case INCRQ:
+    case DECR:
+    case DECRQ:
+      mutate(out, r);
+      break;
+    case FLUSH:
+    case FLUSHQ:
+      store.flush(r.extras.length == 4 ? r.extras().getInt(0) : 0);
+      if (!r.isQuiet()) {
+        respond(out, r, SUCCESS);
+      }
+      break;
+    case STAT:
+      for (Map.Entry<String, String> e : server.getStats(
+        r.key.length() == 0 ? null : r.key).entrySet()) {
+        respond(out, r, SUCCESS, 0, e.getKey().getBytes(ItemStore.ASCII),
+          EMPTY, e.getValue().getBytes(ItemStore.ASCII));
+      }
+      respond(out, r, SUCCESS);
+      break;
+    default:
+      respond(out, r, ERR_UNKNOWN_COMMAND, "Unknown command");
+    }
+  }
+
+  private void get(DataOutputStream out, Request r, Item item)
+    throws IOException {
+    boolean withKey = r.opcode == GETK || r.opcode == GETKQ;
+    if (item == null) {
+      if (!r.isQuiet()) {
+        respond(out, r, ERR_NOT_FOUND, 0, withKey ? r.keyBytes : EMPTY, EMPTY,
+          "Not found".getBytes(ItemStore.ASCII));
+      }
+      return;
+    }
+    byte[] flags = ByteBuffer.allocate(4).putInt(item.flags).array();
+    respond(out, r, SUCCESS, item.cas, withKey ? r.keyBytes : EMPTY, flags,
+      item.data);
+  }
+
+  private void respondStored(DataOutputStream out, Request r,
+      Result result) throws IOException {
+    if (result.status == ItemStore.Status.STORED) {
+      if (!r.isQuiet()) {
+        respond(out, r, SUCCESS, result.item.cas, EMPTY, EMPTY, EMPTY);
+      }
+    } else {
+      respond(out, r, status(result, r.opcode));
+    }
+  }
+
+  private void mutate(DataOutputStream out, Request r) throws IOException {
+    ByteBuffer extras = r.extras();
+    boolean incr = r.opcode == INCR || r.opcode == INCRQ;
+    BigInteger delta = unsigned(extras.getLong(0));
+    long exp = extras.getInt(16) & 0xffffffffL;
+    BigInteger initial = exp == NO_CREATE ? null : unsigned(extras.getLong(8));
+    Result result = store.mutate(r.key, incr, delta, initial, (int) exp);
+    if (result.status == ItemStore.Status.STORED) {
+      if (!r.isQuiet()) {
+        long value = new BigInteger(new String(result.item.data,
+          ItemStore.ASCII)).longValue();
+        respond(out, r, SUCCESS, result.item.cas, EMPTY, EMPTY,
+          ByteBuffer.allocate(8).putLong(value).array());
+      }
+    } else {
+      respond(out, r, status(result, r.opcode));
+    }
+  }
+
+  private void authenticate(ServerConnection c, Request r)
+    throws IOException {
+    String challenge = c.challenge;
+    c.challenge = null;
+    c.authenticated = false;
+    boolean valid = false;
+    if (r.opcode == SASL_AUTH && r.key.equals("PLAIN")) {
+      // [authzid] NUL authcid NUL passwd
+      String[] parts = new String(r.value, ItemStore.UTF8).split("\0", -1);
+      valid = parts.length == 3
+        && server.checkCredentials(parts[1], parts[2]);
+    } else if (r.opcode == SASL_AUTH && r.key.equals("CRAM-MD5")) {
+      c.challenge = "<" + System.nanoTime() + "@embedded-memcached>";
+      respond(c.out, r, AUTH_CONTINUE, 0, EMPTY, EMPTY,
+        c.challenge.getBytes(ItemStore.ASCII));
+      return;
+    } else if (r.opcode == SASL_STEP && r.key.equals("CRAM-MD5")
+      && challenge != null) {
+      // authcid SP hex(hmac-md5(passwd, challenge))
+      String[] parts = new String(r.value, ItemStore.UTF8).split(" ");
+      valid = parts.length == 2
+        && server.checkDigest(parts[0], challenge, parts[1]);
+    }
+    if (valid) {
+      c.authenticated = true;
+      respond(c.out, r, SUCCESS, 0, EMPTY, EMPTY,
+        "Authenticated".getBytes(ItemStore.ASCII));
+    } else {
+      respond(c.out, r, ERR_AUTH, "Auth failure");
+    }
+  }
+
+  private static Mode mode(byte opcode) {
+    switch (opcode) {
+    case ADD:
+    case ADDQ:
+      return Mode.ADD;
+    case REPLACE:
+    case REPLACEQ:
+      return Mode.REPLACE;
+    case APPEND:
+    case APPENDQ:
+      return Mode.APPEND;
+    case PREPEND:
+    case PREPENDQ:
+      return Mode.PREPEND;
+    default:
+      return Mode.SET;
+    }
+  }
+
+  private static int status(Result result, byte opcode) {
+    switch (result.status) {
+    case EXISTS:
+      return ERR_EXISTS;
+    case NOT_FOUND:
+      return ERR_NOT_FOUND;
+    case TOO_LARGE:
+      return ERR_2BIG;
+    case NON_NUMERIC:
+      return ERR_DELTA_BADVAL;
+    default:
+      // An add of an existing item, or a replace of a missing one.
+      Mode mode = mode(opcode);
+      if (mode == Mode.ADD) {
+        return ERR_EXISTS;
+      } else if (mode == Mode.REPLACE) {
+        return ERR_NOT_FOUND;
+      }
+      return ERR_NOT_STORED;
+    }
+  }
+
+  private static int expectedExtras(byte opcode) {
+    switch (opcode) {
+    case SET:
+    case SETQ:
+    case ADD:
+    case ADDQ:
+    case REPLACE:
+    case REPLACEQ:
+      return 8;
+    case INCR:
+    case INCRQ:
+    case DECR:
+    case DECRQ:
+      return 20;
+    case TOUCH:
+    case GAT:
+    case GATQ:
+      return 4;
+    default:
+      return 0;
+    }
+  }
+
+  private static BigInteger unsigned(long l) {
+    BigInteger rv = BigInteger.valueOf(l);
+    return l < 0 ? rv.add(BigInteger.ONE.shiftLeft(64)) : rv;
+  }
+
+  private static void respond(DataOutputStream out, Request r, int status)
+    throws IOException {
+    respond(out, r, status, 0, EMPTY, EMPTY, EMPTY);
+  }
+
+  private static void respond(DataOutputStream out, Request r, int status,
+      String message) throws IOException {
+    respond(out, r, status, 0, EMPTY, EMPTY,
+      message.getBytes(ItemStore.ASCII));
+  }
+
+  private static void respond(DataOutputStream out, Request r, int status,
+      long cas, byte[] key, byte[] extras, byte[] value) throws IOException {
+    out.writeByte(RES_MAGIC);
+    out.writeByte(r.opcode);
+    out.writeShort(key.length);
+    out.writeByte(extras.length);
+    out.writeByte(0);
+    out.writeShort(status);
+    out.writeInt(extras.length + key.length + value.length);
+    out.writeInt(r.opaque);
+    out.writeLong(cas);
+    out.write(extras);
+    out.write(key);
+    out.write(value);
+  }
+
+  /**
+   * A request, read from the front of the input buffer.
+   */
+  private static final class Request {
+    private final byte opcode;
+    private final int opaque;
+    private final long cas;
+    private final byte[] extras;
+    private final byte[] keyBytes;
+    private final String key;
+    private final byte[] value;
+
+    Request(ByteBuffer in) {
+      int start = in.position();
+      opcode = in.get(start + 1);
+      int keyLength = in.getShort(start + 2) & 0xffff;
+      int extrasLength = in.get(start + 4) & 0xff;
+      int bodyLength = in.getInt(start + 8);
+      opaque = in.getInt(start + 12);
+      cas = in.getLong(start + 16);
+      in.position(start + HEADER_SIZE);
+      extras = new byte[extrasLength];
+      in.get(extras);
+      keyBytes = new byte[keyLength];
+      in.get(keyBytes);
+      key = new String(keyBytes, ItemStore.UTF8);
+      value = new byte[bodyLength - extrasLength - keyLength];
+      in.get(value);
+    }
+
+    ByteBuffer extras() {
+      return ByteBuffer.wrap(extras);
+    }
+
+    boolean isQuiet() {
+      switch (opcode) {
+      case GETQ:
+      case GETKQ:
+      case GATQ:
+      case SETQ:
+      case ADDQ:
+      case REPLACEQ:
+      case DELETEQ:
+      case INCRQ:
+      case DECRQ:
+      case FLUSHQ:
+      case APPENDQ:
+      case PREPENDQ:
+        return true;
+      default:
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,499 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A memcached stand-in running inside the JVM.
+ *
+ * <p>The server speaks both the ASCII and the binary protocol, picking one
+ * per connection from the first byte it receives, and keeps its items in an
+ * {@link ItemStore}. It supports the storage, retrieval, arithmetic, touch,
+ * delete, flush, noop, version and stats commands, the quiet variants of the
+ * binary commands and SASL PLAIN and CRAM-MD5 authentication.</p>
+ *
+ * <p>A single thread serves all connections. Responses can be delayed to
+ * simulate a slow network or server with {@link #setLatency}, and failures
+ * can be simulated with {@link #setFaultMode} and {@link #dropConnections}.
+ * The server can be stopped and started again on the same port, keeping its
+ * items, to test failover.</p>
+ *
+ * <pre>
+ * EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+ * server.start();
+ * MemcachedClient client = new MemcachedClient(server.getAddress());
+ * </pre>
+ */
+public class EmbeddedMemcachedServer extends SpyObject implements Runnable {
+
+  /**
+   * The version reported by the server.
+   */
+  public static final String VERSION = "1.6.21";
+
+  private final ItemStore store = new ItemStore();
+  private final Protocol ascii = new AsciiProtocol(this);
+  private final Protocol binary = new BinaryProtocol(this);
+  private final Random random = new Random();
+
+  private final AtomicInteger currConnections = new AtomicInteger();
+  private final AtomicLong totalConnections = new AtomicLong();
+  private final AtomicInteger servedConnections = new AtomicInteger();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong getRequests = new AtomicLong();
+  private final AtomicInteger maxKeysPerGet = new AtomicInteger();
+  private final AtomicBoolean dropRequested = new AtomicBoolean();
+
+  private volatile FaultMode faultMode = FaultMode.NONE;
+  private volatile long minLatency;
+  private volatile long maxLatency;
+  private volatile String username;
+  private volatile String password;
+
+  private int port;
+  private long startTime;
+  private volatile boolean running;
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread thread;
+
+  /**
+   * Create a server listening on an ephemeral port of the loopback address.
+   */
+  public EmbeddedMemcachedServer() {
+    this(0);
+  }
+
+  /**
+   * Create a server listening on the given port of the loopback address.
+   *
+   * @param p the port, or 0 for an ephemeral one
+   */
+  public EmbeddedMemcachedServer(int p) {
+    super();
+    port = p;
+  }
+
+  /**
+   * Start accepting connections.
+   *
+   * <p>A server which was stopped comes back on the port it had.</p>
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      throw new IllegalStateException("Already running");
+    }
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(
+      new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    port = serverChannel.socket().getLocalPort();
+    startTime = System.currentTimeMillis();
+    running = true;
+    thread = new Thread(this, "Embedded memcached on port " + port);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop the server, closing all connections.
+   *
+   * <p>The stored items are kept.</p>
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    thread.join();
+  }
+
+  /**
+   * Get the address the server listens on.
+   */
+  public synchronized InetSocketAddress getAddress() {
+    return new InetSocketAddress("127.0.0.1", port);
+  }
+
+  /**
+   * Get the store holding the items of this server.
+   */
+  public ItemStore getStore() {
+    return store;
+  }
+
+  /**
+   * Delay all responses by a random amount of time within the given range.
+   *
+   * <p>Responses keep their order, so a response is never sent before the
+   * ones preceding it on the same connection.</p>
+   *
+   * @param min the minimum delay
+   * @param max the maximum delay
+   * @param unit the unit of the delays
+   */
+  public void setLatency(long min, long max, TimeUnit unit) {
+    if (min < 0 || max < min) {
+      throw new IllegalArgumentException("Invalid latency range: " + min
+        + " - " + max);
+    }
+    minLatency = unit.toNanos(min);
+    maxLatency = unit.toNanos(max);
+  }
+
+  /**
+   * Set the failure to simulate.
+   */
+  public void setFaultMode(FaultMode mode) {
+    faultMode = mode;
+  }
+
+  /**
+   * Get the failure currently simulated.
+   */
+  public FaultMode getFaultMode() {
+    return faultMode;
+  }
+
+  /**
+   * Require SASL authentication with the given credentials from binary
+   * protocol clients.
+   *
+   * <p>ASCII protocol clients can't authenticate, and are refused all
+   * commands while credentials are set.</p>
+   *
+   * @param user the user name, or null to turn authentication off
+   * @param pass the password
+   */
+  public void setCredentials(String user, String pass) {
+    username = user;
+    password = pass;
+  }
+
+  /**
+   * Close all client connections.
+   */
+  public void dropConnections() {
+    dropRequested.set(true);
+    Selector s = selector;
+    if (s != null) {
+      s.wakeup();
+    }
+  }
+
+  /**
+   * Get the number of open client connections.
+   */
+  public int getConnectionCount() {
+    return currConnections.get();
+  }
+
+  /**
+   * Get the number of connections, open or closed, that sent a request.
+   */
+  public int getServedConnectionCount() {
+    return servedConnections.get();
+  }
+
+  /**
+   * Get the number of get requests received, a multiget counting once.
+   */
+  public long getGetRequestCount() {
+    return getRequests.get();
+  }
+
+  /**
+   * Get the largest number of keys received in one get request.
+   */
+  public int getMaxKeysPerGet() {
+    return maxKeysPerGet.get();
+  }
+
+  /**
+   * Get the server statistics, as returned by the stats command.
+   */
+  public Map<String, String> getStats() {
+    Map<String, String> stats = new LinkedHashMap<String, String>();
+    long now = System.currentTimeMillis();
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    stats.put("pid", name.substring(0, Math.max(0, name.indexOf('@'))));
+    stats.put("uptime", String.valueOf((now - startTime) / 1000));
+    stats.put("time", String.valueOf(now / 1000));
+    stats.put("version", VERSION);
+    stats.put("threads", "1");
+    stats.put("curr_connections", String.valueOf(currConnections.get()));
+    stats.put("total_connections", String.valueOf(totalConnections.get()));
+    stats.put("bytes_read", String.valueOf(bytesRead.get()));
+    store.addStats(stats);
+    return stats;
+  }
+
+  /**
+   * Get the statistics of the given group, as returned by the stats command
+   * with an argument.
+   *
+   * @param group the group, or null for the general statistics
+   * @return the statistics, empty for unknown groups
+   */
+  Map<String, String> getStats(String group) {
+    if (group == null) {
+      return getStats();
+    }
+    Map<String, String> stats = new LinkedHashMap<String, String>();
+    if (group.equals("slabs")) {
+      store.addSlabStats(stats);
+    } else if (group.equals("sizes")) {
+      store.addSizeStats(stats);
+    }
+    return stats;
+  }
+
+  boolean checkCredentials(String user, String pass) {
+    return username != null && username.equals(user)
+      && password != null && password.equals(pass);
+  }
+
+  /**
+   * Check the response to a CRAM-MD5 challenge.
+   */
+  boolean checkDigest(String user, String challenge, String digest) {
+    if (username == null || !username.equals(user)) {
+      return false;
+    }
+    try {
+      Mac mac = Mac.getInstance("HmacMD5");
+      mac.init(new SecretKeySpec(password.getBytes(ItemStore.UTF8),
+        "HmacMD5"));
+      StringBuilder expected = new StringBuilder();
+      for (byte b : mac.doFinal(challenge.getBytes(ItemStore.ASCII))) {
+        expected.append(String.format("%02x", b & 0xff));
+      }
+      return expected.toString().equals(digest);
+    } catch (GeneralSecurityException e) {
+      getLogger().warn("Can't check a CRAM-MD5 response", e);
+      return false;
+    }
+  }
+
+  /**
+   * Note a get request for the given number of keys.
+   */
+  void gotGet(int keys) {
+    getRequests.incrementAndGet();
+    if (keys > maxKeysPerGet.get()) {
+      maxKeysPerGet.set(keys);
+    }
+  }
+
+  boolean requiresAuthentication() {
+    return username != null;
+  }
+
+  public void run() {
+    List<ServerConnection> connections = new ArrayList<ServerConnection>();
+    long wait = 0;
+    try {
+      while (running) {
+        selector.select(wait);
+        if (dropRequested.getAndSet(false)) {
+          closeAll(connections);
+        }
+        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey k = i.next();
+          i.remove();
+          if (!k.isValid()) {
+            continue;
+          } else if (k.isAcceptable()) {
+            accept(connections);
+          } else {
+            ServerConnection c = (ServerConnection) k.attachment();
+            if (k.isReadable() && !read(c)) {
+              close(connections, c);
+            }
+          }
+        }
+        wait = flush(connections);
+      }
+    } catch (IOException e) {
+      getLogger().warn("Embedded memcached failed", e);
+    } finally {
+      closeAll(connections);
+      try {
+        serverChannel.close();
+        selector.close();
+      } catch (IOException e) {
+        getLogger().warn("Failed to close the embedded memcached", e);
+      }
+    }
+  }
+
+  private void accept(List<ServerConnection> connections) throws IOException {
+    SocketChannel ch = serverChannel.accept();
+    if (ch == null) {
+      return;
+    } else if (faultMode == FaultMode.REFUSE) {
+      ch.close();
+      return;
+    }
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    ServerConnection c =
+      new ServerConnection(ch, ch.register(selector, SelectionKey.OP_READ));
+    c.key.attach(c);
+    connections.add(c);
+    currConnections.incrementAndGet();
+    totalConnections.incrementAndGet();
+  }
+
+  /**
+   * Read and handle whatever arrived on the given connection.
+   *
+   * @return false if the connection needs to be closed
+   */
+  private boolean read(ServerConnection c) {
+    int n;
+    try {
+      c.ensureCapacity();
+      n = c.channel.read(c.in);
+    } catch (IOException e) {
+      getLogger().debug("Failed to read from %s", c.channel, e);
+      return false;
+    }
+    if (n < 0) {
+      return false;
+    }
+    bytesRead.addAndGet(n);
+    if (n > 0 && !c.served) {
+      c.served = true;
+      servedConnections.incrementAndGet();
+    }
+    FaultMode mode = faultMode;
+    if (mode == FaultMode.DISCONNECT) {
+      return false;
+    } else if (mode == FaultMode.STALL) {
+      c.in.clear();
+      return true;
+    }
+    c.in.flip();
+    if (c.protocol == null && c.in.hasRemaining()) {
+      c.protocol = c.in.get(c.in.position()) == BinaryProtocol.REQ_MAGIC
+        ? binary : ascii;
+    }
+    boolean keep;
+    try {
+      keep = c.protocol == null || c.protocol.process(c, c.in);
+    } catch (IOException e) {
+      getLogger().warn("Failed to handle a request from %s", c.channel, e);
+      keep = false;
+    }
+    c.in.compact();
+    c.respond(System.nanoTime() + latency());
+    return keep;
+  }
+
+  /**
+   * Write the responses which are due.
+   *
+   * @return the number of milliseconds to wait for the next one, or 0 if
+   *         there is none
+   */
+  private long flush(List<ServerConnection> connections) {
+    long now = System.nanoTime();
+    long next = 0;
+    for (Iterator<ServerConnection> i = connections.iterator();
+      i.hasNext();) {
+      ServerConnection c = i.next();
+      try {
+        long due = c.flush(now);
+        if (due != 0 && (next == 0 || due - next < 0)) {
+          next = due;
+        }
+      } catch (IOException e) {
+        getLogger().debug("Failed to write to %s", c.channel, e);
+        c.close();
+        currConnections.decrementAndGet();
+        i.remove();
+      }
+    }
+    return next == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+      next - now + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+  }
+
+  private long latency() {
+    long min = minLatency;
+    long max = maxLatency;
+    if (max == min) {
+      return min;
+    }
+    return min + (long) (random.nextDouble() * (max - min));
+  }
+
+  private void close(List<ServerConnection> connections, ServerConnection c) {
+    if (connections.remove(c)) {
+      c.close();
+      currConnections.decrementAndGet();
+    }
+  }
+
+  private void closeAll(List<ServerConnection> connections) {
+    for (ServerConnection c : connections) {
+      c.close();
+      currConnections.decrementAndGet();
+    }
+    connections.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "EmbeddedMemcachedServer on " + getAddress();
+  }
+}
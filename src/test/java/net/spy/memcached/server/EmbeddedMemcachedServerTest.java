@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationTimeoutException;
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.auth.PlainCallbackHandler;
+
+/**
+ * Test the embedded memcached through the client.
+ */
+public class EmbeddedMemcachedServerTest extends TestCase {
+
+  private EmbeddedMemcachedServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer();
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown();
+    }
+    server.stop();
+    super.tearDown();
+  }
+
+  public void testAsciiCommands() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.TEXT));
+    assertCommands(false);
+  }
+
+  public void testBinaryCommands() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY));
+    assertCommands(true);
+  }
+
+  public void testSharedStore() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY));
+    assertTrue(client.set("shared", 0, "value").get());
+    MemcachedClient ascii = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.TEXT).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertEquals("value", ascii.get("shared"));
+    } finally {
+      ascii.shutdown();
+    }
+    assertEquals(1, server.getStore().size());
+  }
+
+  public void testStats() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY));
+    assertTrue(client.set("stats", 0, "value").get());
+    assertNull(client.get("missing"));
+    Map<String, String> stats =
+      client.getStats().get(server.getAddress());
+    assertEquals(EmbeddedMemcachedServer.VERSION, stats.get("version"));
+    assertEquals("1", stats.get("curr_items"));
+    assertEquals("1", stats.get("get_misses"));
+    assertEquals("1", stats.get("curr_connections"));
+    assertEquals(EmbeddedMemcachedServer.VERSION,
+      client.getVersions().get(server.getAddress()));
+  }
+
+  public void testQuietCommands() throws Exception {
+    Socket s = new Socket("127.0.0.1", server.getAddress().getPort());
+    try {
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      request(out, 0x11, 1, "quiet", new byte[8], "value".getBytes());
+      request(out, 0x09, 2, "missing", new byte[0], new byte[0]);
+      request(out, 0x0d, 3, "quiet", new byte[0], new byte[0]);
+      request(out, 0x0a, 4, "", new byte[0], new byte[0]);
+      out.flush();
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      // Only the hit and the noop get a response.
+      assertEquals(3, readResponse(in, "quietvalue"));
+      assertEquals(4, readResponse(in, ""));
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testSasl() throws Exception {
+    server.setCredentials("user", "secret");
+    Socket s = new Socket("127.0.0.1", server.getAddress().getPort());
+    try {
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      request(out, 0x00, 1, "key", new byte[0], new byte[0]);
+      out.flush();
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      byte[] header = new byte[24];
+      in.readFully(header);
+      assertEquals(0x20, header[7]);
+    } finally {
+      s.close();
+    }
+
+    for (String mech : new String[] {"PLAIN", "CRAM-MD5"}) {
+      connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setAuthDescriptor(new AuthDescriptor(new String[] {mech},
+          new PlainCallbackHandler("user", "secret"))));
+      assertTrue(client.set("auth", 0, mech).get());
+      assertEquals(mech, client.get("auth"));
+      client.shutdown();
+    }
+    client = null;
+  }
+
+  public void testLatency() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY));
+    assertTrue(client.set("slow", 0, "value").get());
+    server.setLatency(100, 100, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    assertEquals("value", client.get("slow"));
+    assertTrue(System.nanoTime() - start
+      >= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  public void testStall() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+      .setOpTimeout(200));
+    server.setFaultMode(FaultMode.STALL);
+    try {
+      client.get("stalled");
+      fail("Expected a timeout");
+    } catch (OperationTimeoutException e) {
+      // expected
+    }
+  }
+
+  public void testError() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY));
+    server.setFaultMode(FaultMode.ERROR);
+    assertFalse(client.set("failing", 0, "value").get());
+    server.setFaultMode(FaultMode.NONE);
+    assertTrue(client.set("failing", 0, "value").get());
+  }
+
+  public void testDisconnectAndRecover() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+      .setFailureMode(FailureMode.Retry).setMaxReconnectDelay(1));
+    assertTrue(client.set("recover", 0, "value").get());
+    server.setFaultMode(FaultMode.DISCONNECT);
+    client.asyncGet("recover");
+    waitForConnections(0);
+    server.setFaultMode(FaultMode.NONE);
+    assertEquals("value", client.get("recover"));
+  }
+
+  public void testRestart() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+      .setFailureMode(FailureMode.Retry).setMaxReconnectDelay(1));
+    assertTrue(client.set("restart", 0, "value").get());
+    int port = server.getAddress().getPort();
+    server.stop();
+    assertEquals(0, server.getConnectionCount());
+    server.start();
+    assertEquals(port, server.getAddress().getPort());
+    // An idle connection is only found to be lost by the next operation.
+    client.asyncGet("restart");
+    waitForConnections(1);
+    assertEquals("value", client.get("restart"));
+  }
+
+  private void assertCommands(boolean binary) throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    assertFalse(client.add("k", 0, "other").get());
+    assertTrue(client.add("k2", 0, "v2").get());
+    assertTrue(client.replace("k2", 0, "w2").get());
+    assertFalse(client.replace("missing", 0, "x").get());
+    assertTrue(client.append(0, "k", "+").get());
+    assertTrue(client.prepend(0, "k", "-").get());
+    assertEquals("-v+", client.get("k"));
+
+    CASValue<Object> cv = client.gets("k");
+    assertEquals(CASResponse.OK, client.cas("k", cv.getCas(), "cas"));
+    assertEquals(CASResponse.EXISTS, client.cas("k", cv.getCas(), "again"));
+    assertEquals("cas", client.get("k"));
+
+    Map<String, Object> bulk =
+      client.getBulk(Arrays.asList("k", "k2", "missing"));
+    assertEquals(2, bulk.size());
+    assertEquals("w2", bulk.get("k2"));
+
+    assertEquals(-1, client.incr("counter", 1));
+    assertEquals(10, client.incr("counter", 1, 10));
+    assertEquals(15, client.incr("counter", 5));
+    assertEquals(12, client.decr("counter", 3));
+    assertEquals(0, client.decr("counter", 20));
+
+    assertTrue(client.touch("k2", 100).get());
+    if (binary) {
+      assertEquals("w2", client.getAndTouch("k2", 100).getValue());
+    }
+    assertTrue(client.touch("k2", -1).get());
+    assertNull(client.get("k2"));
+    assertFalse(client.touch("missing", 100).get());
+
+    assertTrue(client.delete("k").get());
+    assertFalse(client.delete("k").get());
+    assertNull(client.get("k"));
+
+    assertTrue(client.flush().get());
+    assertEquals(0, server.getStore().size());
+  }
+
+  private void connect(ConnectionFactoryBuilder builder) throws IOException {
+    client = new MemcachedClient(builder.setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+  }
+
+  private void waitForConnections(int n) throws InterruptedException {
+    for (int i = 0; i < 500 && server.getConnectionCount() != n; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(n, server.getConnectionCount());
+  }
+
+  private static void request(DataOutputStream out, int opcode, int opaque,
+      String key, byte[] extras, byte[] value) throws IOException {
+    byte[] k = key.getBytes("UTF-8");
+    out.writeByte(0x80);
+    out.writeByte(opcode);
+    out.writeShort(k.length);
+    out.writeByte(extras.length);
+    out.writeByte(0);
+    out.writeShort(0);
+    out.writeInt(extras.length + k.length + value.length);
+    out.writeInt(opaque);
+    out.writeLong(0);
+    out.write(extras);
+    out.write(k);
+    out.write(value);
+  }
+
+  /**
+   * Read a response, returning its opaque.
+   */
+  private static int readResponse(DataInputStream in, String expectedBody)
+    throws IOException {
+    byte[] header = new byte[24];
+    in.readFully(header);
+    assertEquals((byte) 0x81, header[0]);
+    assertEquals(0, header[7]);
+    int extras = header[4] & 0xff;
+    byte[] body = new byte[ByteBuffer.wrap(header).getInt(8)];
+    in.readFully(body);
+    assertEquals(expectedBody, new String(body, extras,
+      body.length - extras, "UTF-8"));
+    return ByteBuffer.wrap(header).getInt(12);
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A TCP proxy in front of one memcached node, injecting network faults.
+ *
+ * <p>The client connects to the proxy instead of the node, and everything
+ * is forwarded unchanged until a fault is injected:</p>
+ *
+ * <ul>
+ * <li>{@link #setLatency} delays every response, without limiting
+ * throughput.</li>
+ * <li>{@link #setBandwidth} caps the bytes per second of every connection in
+ * each direction.</li>
+ * <li>{@link #setBlackhole} silently holds back everything sent either way,
+ * while keeping the connections open, as a dead route would. What was held
+ * back is delivered once the route heals.</li>
+ * <li>{@link #halfOpen} drops the node's side of the open connections without
+ * telling the client, as a crashed host or an expired NAT entry would.
+ * Anything the client sends on them is swallowed. New connections work.</li>
+ * <li>{@link #reset} resets the open connections.</li>
+ * </ul>
+ *
+ * <p>{@link #heal} removes the latency, bandwidth cap and blackhole. A
+ * cluster with a failing node is made of one proxy per node:</p>
+ *
+ * <pre>
+ * FaultInjectingProxy proxy = new FaultInjectingProxy(server.getAddress());
+ * proxy.start();
+ * MemcachedClient client = new MemcachedClient(proxy.getAddress());
+ * proxy.setBlackhole(true);
+ * </pre>
+ */
+public class FaultInjectingProxy extends SpyObject implements Runnable {
+
+  private final InetSocketAddress target;
+  private final List<ProxyConnection> connections =
+    new CopyOnWriteArrayList<ProxyConnection>();
+  private final AtomicLong totalConnections = new AtomicLong();
+
+  private volatile long latency;
+  private volatile long bandwidth;
+  private volatile boolean blackhole;
+
+  private int port;
+  private volatile boolean running;
+  private ServerSocket serverSocket;
+  private Thread thread;
+
+  /**
+   * Create a proxy to a node, listening on an ephemeral port.
+   *
+   * @param t the address of the node
+   */
+  public FaultInjectingProxy(InetSocketAddress t) {
+    this(t, 0);
+  }
+
+  /**
+   * Create a proxy to a node.
+   *
+   * @param t the address of the node
+   * @param p the port to listen on, or 0 for an ephemeral one
+   */
+  public FaultInjectingProxy(InetSocketAddress t, int p) {
+    super();
+    target = t;
+    port = p;
+  }
+
+  /**
+   * Start accepting connections.
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      throw new IllegalStateException("Already running");
+    }
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(
+      new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    port = serverSocket.getLocalPort();
+    running = true;
+    thread = new Thread(this, "Fault injecting proxy on port " + port
+      + " to " + target);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop the proxy, closing all connections.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      getLogger().debug("Problem closing %s", serverSocket, e);
+    }
+    thread.join();
+    for (ProxyConnection c : connections) {
+      c.close();
+    }
+  }
+
+  /**
+   * Get the address the proxy listens on.
+   */
+  public synchronized InetSocketAddress getAddress() {
+    return new InetSocketAddress("127.0.0.1", port);
+  }
+
+  /**
+   * Get the address of the node behind the proxy.
+   */
+  public InetSocketAddress getTarget() {
+    return target;
+  }
+
+  /**
+   * Delay every response from the node.
+   *
+   * @param l the delay, or 0 for none
+   * @param unit the unit of the delay
+   */
+  public void setLatency(long l, TimeUnit unit) {
+    latency = unit.toNanos(l);
+  }
+
+  /**
+   * Get the delay added to responses, in nanoseconds.
+   */
+  public long getLatency() {
+    return latency;
+  }
+
+  /**
+   * Cap the throughput of every connection in each direction.
+   *
+   * @param bytesPerSecond the cap, or 0 for none
+   */
+  public void setBandwidth(long bytesPerSecond) {
+    bandwidth = bytesPerSecond;
+  }
+
+  /**
+   * Get the bandwidth cap in bytes per second, or 0 for none.
+   */
+  public long getBandwidth() {
+    return bandwidth;
+  }
+
+  /**
+   * Hold back everything sent in either direction, or deliver it and stop
+   * doing so.
+   */
+  public void setBlackhole(boolean to) {
+    blackhole = to;
+  }
+
+  /**
+   * Check whether everything sent is held back.
+   */
+  public boolean isBlackhole() {
+    return blackhole;
+  }
+
+  /**
+   * Close the node's side of every open connection without telling the
+   * client.
+   */
+  public void halfOpen() {
+    for (ProxyConnection c : connections) {
+      c.halfOpen();
+    }
+  }
+
+  /**
+   * Reset every open connection.
+   */
+  public void reset() {
+    for (ProxyConnection c : connections) {
+      c.reset();
+    }
+  }
+
+  /**
+   * Remove the latency, bandwidth cap and blackhole.
+   */
+  public void heal() {
+    latency = 0;
+    bandwidth = 0;
+    blackhole = false;
+  }
+
+  /**
+   * Get the number of open connections.
+   */
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * Get the number of connections accepted since the proxy was created.
+   */
+  public long getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  void closed(ProxyConnection c) {
+    connections.remove(c);
+  }
+
+  public void run() {
+    while (running) {
+      Socket client;
+      try {
+        client = serverSocket.accept();
+      } catch (IOException e) {
+        if (running) {
+          getLogger().warn("Problem accepting on %s", serverSocket, e);
+        }
+        continue;
+      }
+      totalConnections.incrementAndGet();
+      try {
+        Socket upstream = new Socket();
+        upstream.connect(target);
+        ProxyConnection c = new ProxyConnection(this, client, upstream);
+        connections.add(c);
+        c.start();
+      } catch (IOException e) {
+        getLogger().info("Could not reach %s, resetting %s", target, client,
+          e);
+        ProxyConnection.resetQuietly(client);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{FaultInjectingProxy port=" + port + ", target=" + target
+      + ", connections=" + connections.size() + "}";
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationTimeoutException;
+
+/**
+ * Test the faults injected by the proxy, through the client.
+ */
+public class FaultInjectingProxyTest extends TestCase {
+
+  private EmbeddedMemcachedServer server;
+  private FaultInjectingProxy proxy;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer();
+    server.start();
+    proxy = new FaultInjectingProxy(server.getAddress());
+    proxy.start();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).setOpTimeout(500)
+      .setTimeoutExceptionThreshold(2).setMaxReconnectDelay(1)
+      .setDaemon(true).build(), Arrays.asList(proxy.getAddress()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    proxy.stop();
+    server.stop();
+    super.tearDown();
+  }
+
+  public void testForwarding() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    assertEquals("v", new String(server.getStore().getValue("k"), "UTF-8"));
+    assertEquals(1, proxy.getConnectionCount());
+  }
+
+  public void testLatency() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    proxy.setLatency(100, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    assertEquals("v", client.get("k"));
+    assertTrue(System.nanoTime() - start
+      >= TimeUnit.MILLISECONDS.toNanos(100));
+    proxy.heal();
+    start = System.nanoTime();
+    assertEquals("v", client.get("k"));
+    assertTrue(System.nanoTime() - start
+      < TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  public void testBandwidth() throws Exception {
+    // Random, so the client doesn't compress it.
+    byte[] value = new byte[20000];
+    new Random(1).nextBytes(value);
+    assertTrue(client.set("k", 0, value).get());
+    proxy.setBandwidth(50000);
+    long start = System.nanoTime();
+    assertEquals(value.length,
+      ((byte[]) client.asyncGet("k").get(5, TimeUnit.SECONDS)).length);
+    // The first tenth of a second's worth goes straight out.
+    assertTrue(System.nanoTime() - start
+      >= TimeUnit.MILLISECONDS.toNanos(300));
+  }
+
+  public void testBlackhole() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    proxy.setBlackhole(true);
+    try {
+      client.get("k");
+      fail("Expected a timeout");
+    } catch (OperationTimeoutException e) {
+      // pass
+    }
+    assertEquals(1, proxy.getConnectionCount());
+    proxy.heal();
+    awaitRecovery();
+  }
+
+  public void testBlackholeDeliversOnHeal() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    proxy.setBlackhole(true);
+    Future<Boolean> f = client.set("k2", 0, "v2");
+    Thread.sleep(100);
+    assertFalse(f.isDone());
+    proxy.heal();
+    // The stream carries on where it stopped.
+    assertTrue(f.get(1, TimeUnit.SECONDS));
+    assertEquals("v2", client.get("k2"));
+    assertEquals(1, proxy.getTotalConnections());
+  }
+
+  public void testReset() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    proxy.reset();
+    awaitRecovery();
+    assertEquals(2, proxy.getTotalConnections());
+  }
+
+  public void testHalfOpen() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    proxy.halfOpen();
+    try {
+      client.get("k");
+      fail("Expected a timeout");
+    } catch (OperationTimeoutException e) {
+      // pass
+    }
+    // The client only finds out through its timeouts.
+    awaitRecovery();
+    assertEquals(2, proxy.getTotalConnections());
+  }
+
+  private void awaitRecovery() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (System.nanoTime() < deadline) {
+      try {
+        if ("v".equals(client.get("k"))) {
+          return;
+        }
+      } catch (RuntimeException e) {
+        Thread.sleep(100);
+      }
+    }
+    fail("The client didn't recover");
+  }
+}
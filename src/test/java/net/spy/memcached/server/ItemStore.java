@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The in-memory item store behind an {@link EmbeddedMemcachedServer}.
+ *
+ * <p>Items expire following the memcached rules: expiration times up to 30
+ * days are relative to now, anything larger is an absolute unix time. There
+ * is no memory limit and nothing is ever evicted.</p>
+ */
+public class ItemStore {
+
+  /**
+   * The largest value the store accepts, as with a default memcached.
+   */
+  public static final int MAX_ITEM_SIZE = 1024 * 1024;
+
+  private static final int MAX_RELATIVE_EXP = 60 * 60 * 24 * 30;
+  // The per item overhead of a memcached, used for the slabs and sizes
+  // stats.
+  private static final int ITEM_HEADER_SIZE = 56;
+  private static final int SMALLEST_CHUNK = 96;
+  private static final double CHUNK_GROWTH_FACTOR = 1.25;
+  private static final int SIZE_BUCKET = 32;
+  private static final BigInteger MAX_COUNTER =
+    BigInteger.ONE.shiftLeft(64);
+  static final Charset ASCII = Charset.forName("US-ASCII");
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Map<String, Item> items = new HashMap<String, Item>();
+  private long lastCas;
+
+  private long getHits;
+  private long getMisses;
+  private long sets;
+  private long totalItems;
+
+  /**
+   * The ways to store an item.
+   */
+  enum Mode {
+    SET, ADD, REPLACE, APPEND, PREPEND
+  }
+
+  /**
+   * The outcome of a mutation.
+   */
+  enum Status {
+    STORED, NOT_STORED, EXISTS, NOT_FOUND, NON_NUMERIC, TOO_LARGE
+  }
+
+  /**
+   * A stored item.
+   */
+  static final class Item {
+    final int flags;
+    final byte[] data;
+    final long cas;
+    final long expiresAt;
+
+    Item(int f, byte[] d, long c, long e) {
+      flags = f;
+      data = d;
+      cas = c;
+      expiresAt = e;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt != 0 && expiresAt <= now;
+    }
+  }
+
+  /**
+   * The outcome of a mutation, along with the item it left behind.
+   */
+  static final class Result {
+    final Status status;
+    final Item item;
+
+    Result(Status s, Item i) {
+      status = s;
+      item = i;
+    }
+  }
+
+  /**
+   * Get the value of an item.
+   *
+   * @param key the key of the item
+   * @return a copy of the value, or null if there's no such item
+   */
+  public synchronized byte[] getValue(String key) {
+    Item item = find(key);
+    return item == null ? null : item.data.clone();
+  }
+
+  /**
+   * Get the number of live items.
+   */
+  public synchronized int size() {
+    expire();
+    return items.size();
+  }
+
+  /**
+   * Remove all items.
+   */
+  public synchronized void clear() {
+    items.clear();
+  }
+
+  synchronized Item get(String key) {
+    Item item = find(key);
+    if (item == null) {
+      getMisses++;
+    } else {
+      getHits++;
+    }
+    return item;
+  }
+
+  synchronized Item touch(String key, int exp) {
+    Item item = find(key);
+    if (item != null) {
+      item = new Item(item.flags, item.data, item.cas, expiresAt(exp));
+      items.put(key, item);
+    }
+    return item;
+  }
+
+  synchronized Result store(Mode mode, String key, int flags, int exp,
+      byte[] data, long cas) {
+    sets++;
+    Item old = find(key);
+    byte[] value = data;
+    if (cas != 0 && old == null) {
+      return new Result(Status.NOT_FOUND, null);
+    } else if (cas != 0 && old.cas != cas) {
+      return new Result(Status.EXISTS, old);
+    }
+    switch (mode) {
+    case ADD:
+      if (old != null) {
+        return new Result(Status.NOT_STORED, old);
+      }
+      break;
+    case REPLACE:
+      if (old == null) {
+        return new Result(Status.NOT_STORED, null);
+      }
+      break;
+    case APPEND:
+    case PREPEND:
+      if (old == null) {
+        return new Result(Status.NOT_STORED, null);
+      }
+      value = new byte[old.data.length + data.length];
+      byte[] first = mode == Mode.APPEND ? old.data : data;
+      byte[] second = mode == Mode.APPEND ? data : old.data;
+      System.arraycopy(first, 0, value, 0, first.length);
+      System.arraycopy(second, 0, value, first.length, second.length);
+      flags = old.flags;
+      break;
+    default:
+      break;
+    }
+    if (value.length > MAX_ITEM_SIZE) {
+      return new Result(Status.TOO_LARGE, old);
+    }
+    long expiry = mode == Mode.APPEND || mode == Mode.PREPEND ? old.expiresAt
+      : expiresAt(exp);
+    return new Result(Status.STORED, put(key, flags, value, expiry));
+  }
+
+  synchronized Result delete(String key, long cas) {
+    Item old = find(key);
+    if (old == null) {
+      return new Result(Status.NOT_FOUND, null);
+    } else if (cas != 0 && old.cas != cas) {
+      return new Result(Status.EXISTS, old);
+    }
+    items.remove(key);
+    return new Result(Status.STORED, old);
+  }
+
+  /**
+   * Increment or decrement a counter.
+   *
+   * @param key the key of the counter
+   * @param delta the amount to add or subtract
+   * @param initial the value of a missing counter, or null to leave it
+   *          missing
+   * @param exp the expiration of a newly created counter
+   */
+  synchronized Result mutate(String key, boolean incr, BigInteger delta,
+      BigInteger initial, int exp) {
+    Item old = find(key);
+    if (old == null) {
+      if (initial == null) {
+        return new Result(Status.NOT_FOUND, null);
+      }
+      return new Result(Status.STORED, put(key, 0,
+        initial.toString().getBytes(ASCII), expiresAt(exp)));
+    }
+    BigInteger value;
+    try {
+      value = new BigInteger(new String(old.data, ASCII).trim());
+    } catch (NumberFormatException e) {
+      return new Result(Status.NON_NUMERIC, old);
+    }
+    if (value.signum() < 0 || value.compareTo(MAX_COUNTER) >= 0) {
+      return new Result(Status.NON_NUMERIC, old);
+    }
+    if (incr) {
+      value = value.add(delta).mod(MAX_COUNTER);
+    } else {
+      value = value.subtract(delta).max(BigInteger.ZERO);
+    }
+    return new Result(Status.STORED, put(key, old.flags,
+      value.toString().getBytes(ASCII), old.expiresAt));
+  }
+
+  /**
+   * Invalidate all items, now or after the given number of seconds.
+   */
+  synchronized void flush(int delay) {
+    if (delay <= 0) {
+      items.clear();
+      return;
+    }
+    long at = expiresAt(delay);
+    for (Map.Entry<String, Item> e : items.entrySet()) {
+      Item item = e.getValue();
+      if (item.expiresAt == 0 || item.expiresAt > at) {
+        e.setValue(new Item(item.flags, item.data, item.cas, at));
+      }
+    }
+  }
+
+  synchronized void addStats(Map<String, String> stats) {
+    expire();
+    long bytes = 0;
+    for (Item item : items.values()) {
+      bytes += item.data.length;
+    }
+    stats.put("curr_items", String.valueOf(items.size()));
+    stats.put("total_items", String.valueOf(totalItems));
+    stats.put("bytes", String.valueOf(bytes));
+    stats.put("cmd_get", String.valueOf(getHits + getMisses));
+    stats.put("cmd_set", String.valueOf(sets));
+    stats.put("get_hits", String.valueOf(getHits));
+    stats.put("get_misses", String.valueOf(getMisses));
+  }
+
+  /**
+   * Add stats as if the items were kept in the slab classes of a memcached
+   * with the default settings.
+   */
+  synchronized void addSlabStats(Map<String, String> stats) {
+    expire();
+    SortedMap<Integer, Integer> used = new TreeMap<Integer, Integer>();
+    for (Map.Entry<String, Item> e : items.entrySet()) {
+      int size = itemSize(e.getKey(), e.getValue());
+      int slab = 1;
+      for (double chunk = SMALLEST_CHUNK; chunk < size;
+        chunk *= CHUNK_GROWTH_FACTOR) {
+        slab++;
+      }
+      Integer n = used.get(slab);
+      used.put(slab, n == null ? 1 : n + 1);
+    }
+    for (Map.Entry<Integer, Integer> e : used.entrySet()) {
+      double chunk = SMALLEST_CHUNK;
+      for (int i = 1; i < e.getKey(); i++) {
+        chunk *= CHUNK_GROWTH_FACTOR;
+      }
+      stats.put(e.getKey() + ":chunk_size", String.valueOf((int) chunk));
+      stats.put(e.getKey() + ":used_chunks", String.valueOf(e.getValue()));
+    }
+    stats.put("active_slabs", String.valueOf(used.size()));
+  }
+
+  /**
+   * Add the number of items per size, in buckets of 32 bytes.
+   */
+  synchronized void addSizeStats(Map<String, String> stats) {
+    expire();
+    SortedMap<Integer, Integer> sizes = new TreeMap<Integer, Integer>();
+    for (Map.Entry<String, Item> e : items.entrySet()) {
+      int size = itemSize(e.getKey(), e.getValue());
+      int bucket = (size + SIZE_BUCKET - 1) / SIZE_BUCKET * SIZE_BUCKET;
+      Integer n = sizes.get(bucket);
+      sizes.put(bucket, n == null ? 1 : n + 1);
+    }
+    for (Map.Entry<Integer, Integer> e : sizes.entrySet()) {
+      stats.put(String.valueOf(e.getKey()), String.valueOf(e.getValue()));
+    }
+  }
+
+  private static int itemSize(String key, Item item) {
+    return ITEM_HEADER_SIZE + key.length() + 1 + item.data.length + 2;
+  }
+
+  private Item put(String key, int flags, byte[] data, long expiry) {
+    Item item = new Item(flags, data, ++lastCas, expiry);
+    items.put(key, item);
+    totalItems++;
+    return item;
+  }
+
+  private Item find(String key) {
+    Item item = items.get(key);
+    if (item != null && item.isExpired(System.currentTimeMillis())) {
+      items.remove(key);
+      item = null;
+    }
+    return item;
+  }
+
+  private void expire() {
+    long now = System.currentTimeMillis();
+    for (Iterator<Item> i = items.values().iterator(); i.hasNext();) {
+      if (i.next().isExpired(now)) {
+        i.remove();
+      }
+    }
+  }
+
+  private static long expiresAt(int exp) {
+    if (exp == 0) {
+      return 0;
+    } else if (exp < 0) {
+      return 1;
+    } else if (exp <= MAX_RELATIVE_EXP) {
+      return System.currentTimeMillis() + exp * 1000L;
+    }
+    return exp * 1000L;
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The handling of one of the memcached protocols.
+ */
+abstract class Protocol {
+
+  protected final EmbeddedMemcachedServer server;
+  protected final ItemStore store;
+
+  Protocol(EmbeddedMemcachedServer s) {
+    server = s;
+    store = s.getStore();
+  }
+
+  /**
+   * Handle all complete requests at the front of the given buffer.
+   *
+   * <p>Incomplete requests are left in the buffer, to be handled once the
+   * rest of them arrives. Responses are written to the output of the
+   * connection.</p>
+   *
+   * @param c the connection the requests arrived on
+   * @param in the received data, in read mode
+   * @return false if the connection needs to be closed
+   */
+  abstract boolean process(ServerConnection c, ByteBuffer in)
+    throws IOException;
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A client connection through a {@link FaultInjectingProxy} and its
+ * connection to the node.
+ *
+ * <p>Each direction has a thread reading into a queue, so reading never waits
+ * on the latency or bandwidth cap, and a thread writing out of it.</p>
+ */
+final class ProxyConnection extends SpyObject {
+
+  private static final int CHUNK_SIZE = 16384;
+  private static final long BLACKHOLE_POLL = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final FaultInjectingProxy proxy;
+  private final Socket client;
+  private final Socket upstream;
+  private final Pipe requests;
+  private final Pipe responses;
+
+  private volatile boolean halfOpen;
+  private volatile boolean closed;
+
+  ProxyConnection(FaultInjectingProxy p, Socket c, Socket u)
+    throws IOException {
+    super();
+    proxy = p;
+    client = c;
+    upstream = u;
+    client.setTcpNoDelay(true);
+    upstream.setTcpNoDelay(true);
+    requests = new Pipe("requests", client, upstream, false);
+    responses = new Pipe("responses", upstream, client, true);
+  }
+
+  void start() {
+    requests.start();
+    responses.start();
+  }
+
+  void halfOpen() {
+    halfOpen = true;
+    closeQuietly(upstream);
+  }
+
+  void reset() {
+    closed = true;
+    resetQuietly(client);
+    closeQuietly(upstream);
+    requests.interrupt();
+    responses.interrupt();
+    proxy.closed(this);
+  }
+
+  void close() {
+    closed = true;
+    closeQuietly(client);
+    closeQuietly(upstream);
+    requests.interrupt();
+    responses.interrupt();
+    proxy.closed(this);
+  }
+
+  /**
+   * Close a socket with a reset instead of a FIN.
+   */
+  static void resetQuietly(Socket s) {
+    try {
+      s.setSoLinger(true, 0);
+    } catch (IOException e) {
+      // Already closed
+    }
+    closeQuietly(s);
+  }
+
+  private static void closeQuietly(Socket s) {
+    try {
+      s.close();
+    } catch (IOException e) {
+      // Nothing to do
+    }
+  }
+
+  /**
+   * Forwards one direction of the connection.
+   */
+  private final class Pipe {
+    private final Socket from;
+    private final Socket to;
+    private final boolean delayed;
+    private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+    private final Thread reader;
+    private final Thread writer;
+    private long nextWrite;
+
+    Pipe(String name, Socket f, Socket t, boolean d) {
+      from = f;
+      to = t;
+      delayed = d;
+      String desc = " of " + client.getRemoteSocketAddress() + " to "
+        + proxy.getTarget();
+      reader = new Thread(name + " reader" + desc) {
+        @Override
+        public void run() {
+          read();
+        }
+      };
+      writer = new Thread(name + " writer" + desc) {
+        @Override
+        public void run() {
+          write();
+        }
+      };
+      reader.setDaemon(true);
+      writer.setDaemon(true);
+    }
+
+    void start() {
+      reader.start();
+      writer.start();
+    }
+
+    /**
+     * Check whether a socket was closed on purpose, which isn't a reason to
+     * close the connection.
+     */
+    private boolean isDropped(Socket s) {
+      return closed || (halfOpen && s == upstream);
+    }
+
+    void interrupt() {
+      reader.interrupt();
+      writer.interrupt();
+    }
+
+    private void read() {
+      byte[] buf = new byte[CHUNK_SIZE];
+      try {
+        InputStream in = from.getInputStream();
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+          if (!halfOpen) {
+            long due = System.nanoTime() + (delayed ? proxy.getLatency() : 0);
+            queue.add(new Chunk(Arrays.copyOf(buf, n), due));
+          }
+        }
+        // The connection closes once what was read before the end is sent.
+        if (!isDropped(from)) {
+          queue.add(Chunk.EOF);
+        }
+      } catch (IOException e) {
+        if (!isDropped(from)) {
+          getLogger().debug("Problem reading %s", from, e);
+          close();
+        }
+      }
+    }
+
+    private void write() {
+      try {
+        OutputStream out = to.getOutputStream();
+        for (Chunk c = queue.take(); c != Chunk.EOF; c = queue.take()) {
+          parkUntil(c.due);
+          awaitRoute();
+          int written = 0;
+          while (written < c.data.length) {
+            int n = throttle(c.data.length - written);
+            out.write(c.data, written, n);
+            written += n;
+          }
+          out.flush();
+        }
+        close();
+      } catch (InterruptedException e) {
+        // Closed
+      } catch (IOException e) {
+        if (!isDropped(to)) {
+          getLogger().debug("Problem writing %s", to, e);
+          close();
+        }
+      }
+    }
+
+    /**
+     * Hold the bytes back while the proxy is a blackhole, so they are sent
+     * in order once it heals.
+     */
+    private void awaitRoute() throws InterruptedException {
+      while (proxy.isBlackhole()) {
+        parkUntil(System.nanoTime() + BLACKHOLE_POLL);
+      }
+    }
+
+    /**
+     * Wait for the bandwidth to send up to the given number of bytes.
+     *
+     * @return the number of bytes to send
+     */
+    private int throttle(int remaining) throws InterruptedException {
+      long bytesPerSecond = proxy.getBandwidth();
+      if (bytesPerSecond <= 0) {
+        return remaining;
+      }
+      // Send at most a tenth of a second's worth at a time, so the cap holds
+      // over short periods.
+      int n = (int) Math.max(1, Math.min(remaining, bytesPerSecond / 10));
+      long now = System.nanoTime();
+      if (nextWrite - now < 0) {
+        nextWrite = now;
+      }
+      parkUntil(nextWrite);
+      nextWrite += TimeUnit.SECONDS.toNanos(n) / bytesPerSecond;
+      return n;
+    }
+
+    private void parkUntil(long deadline) throws InterruptedException {
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remaining);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+  }
+
+  /**
+   * Bytes read from one side, and when they may be written to the other.
+   */
+  private static final class Chunk {
+    static final Chunk EOF = new Chunk(null, 0);
+
+    private final byte[] data;
+    private final long due;
+
+    Chunk(byte[] d, long t) {
+      data = d;
+      due = t;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{ProxyConnection client=" + client.getRemoteSocketAddress()
+      + ", target=" + proxy.getTarget() + "}";
+  }
+}
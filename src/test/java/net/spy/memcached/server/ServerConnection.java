@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * A client connection to the {@link EmbeddedMemcachedServer}.
+ *
+ * <p>Only ever used from the thread running the server.</p>
+ */
+final class ServerConnection {
+
+  private static final int INITIAL_BUFFER_SIZE = 16384;
+
+  final SocketChannel channel;
+  final SelectionKey key;
+  ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  Protocol protocol;
+  boolean authenticated;
+  boolean served;
+  String challenge;
+  // Quiet gets received since the last get request ended.
+  int quietGets;
+
+  private final ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+  final DataOutputStream out = new DataOutputStream(buffered);
+  private final LinkedList<Response> pending = new LinkedList<Response>();
+
+  ServerConnection(SocketChannel ch, SelectionKey k) {
+    channel = ch;
+    key = k;
+  }
+
+  /**
+   * Make room for at least one more byte in the input buffer, which is in
+   * write mode.
+   */
+  void ensureCapacity() {
+    if (!in.hasRemaining()) {
+      ByteBuffer b = ByteBuffer.allocate(in.capacity() * 2);
+      in.flip();
+      b.put(in);
+      in = b;
+    }
+  }
+
+  /**
+   * Schedule everything written to {@link #out} since the last call.
+   *
+   * @param due the System.nanoTime() at which to send the responses
+   */
+  void respond(long due) {
+    if (buffered.size() > 0) {
+      pending.add(new Response(ByteBuffer.wrap(buffered.toByteArray()), due));
+      buffered.reset();
+    }
+  }
+
+  /**
+   * Write the responses which are due.
+   *
+   * @param now the current System.nanoTime()
+   * @return when the next response is due, or 0 if there's nothing to wait
+   *         for
+   */
+  long flush(long now) throws IOException {
+    while (!pending.isEmpty()) {
+      Response r = pending.getFirst();
+      if (r.due - now > 0) {
+        return r.due;
+      }
+      channel.write(r.buffer);
+      if (r.buffer.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return 0;
+      }
+      pending.removeFirst();
+    }
+    key.interestOps(SelectionKey.OP_READ);
+    return 0;
+  }
+
+  void close() {
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Nothing more to do
+    }
+  }
+
+  private static final class Response {
+    private final ByteBuffer buffer;
+    private final long due;
+
+    Response(ByteBuffer b, long d) {
+      buffer = b;
+      due = d;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Test the streaming serializing transcoder.
+ */
+public class StreamingSerializingTranscoderTest extends BaseTranscoderCase {
+
+  private StreamingSerializingTranscoder tc;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tc = new StreamingSerializingTranscoder();
+    setTranscoder(tc);
+  }
+
+  private CachedData stream(Object o) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    int flags = tc.encode(o, bos);
+    return new CachedData(flags, bos.toByteArray(), tc.getMaxSize());
+  }
+
+  public void testStreamedSpecialTypesMatchArrayEncoding() throws Exception {
+    Object[] values = {"a string", 42, 42L, true, new Date(), (byte) 7,
+      1.5f, 2.5d, new byte[] {1, 2, 3}};
+    for (Object o : values) {
+      CachedData streamed = stream(o);
+      CachedData encoded = tc.encode(o);
+      assertEquals(encoded.getFlags(), streamed.getFlags());
+      assertTrue(Arrays.equals(encoded.getData(), streamed.getData()));
+    }
+  }
+
+  public void testStreamedObjectDecodesWithSerializingTranscoder()
+    throws Exception {
+    List<Date> dates = new ArrayList<Date>();
+    for (int i = 0; i < 1024; i++) {
+      dates.add(new Date(i));
+    }
+    CachedData cd = stream(dates);
+    assertEquals(SerializingTranscoder.SERIALIZED, cd.getFlags());
+    assertEquals(dates, new SerializingTranscoder().decode(cd));
+  }
+
+  public void testCompressedStreamedObject() throws Exception {
+    tc.setCompressStreamed(true);
+    List<String> strings = new ArrayList<String>();
+    for (int i = 0; i < 1024; i++) {
+      strings.add("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    }
+    CachedData cd = stream(strings);
+    assertEquals(SerializingTranscoder.SERIALIZED
+      | SerializingTranscoder.COMPRESSED, cd.getFlags());
+    assertEquals(strings, tc.decode(cd));
+  }
+
+  public void testStreamedNonserializable() throws Exception {
+    try {
+      stream(new Object());
+      fail("Processed a non-serializable object.");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  @Override
+  protected int getStringFlags() {
+    return 0;
+  }
+}
@@ -26,7 +26,9 @@ package net.spy.memcached.util;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -88,6 +90,40 @@ public class CacheLoaderTest extends BaseMockCase {
     assertEquals(1, sl.failure.get());
   }
 
+  public void testInterruptedWhileFull() throws Exception {
+    Mock m = mock(MemcachedClientIF.class);
+    CacheLoader cl = new CacheLoader((MemcachedClientIF) m.proxy());
+
+    m.expects(once()).method("set").with(eq("a"), eq(0),
+        eq(1)).will(throwException(new IllegalStateException("Full up")));
+
+    Thread.currentThread().interrupt();
+    Future<Boolean> f = cl.push("a", 1);
+    assertTrue(Thread.interrupted());
+    try {
+      f.get();
+      fail("Expected the push to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    }
+  }
+
+  public void testInterruptedLoadStops() throws Exception {
+    Mock m = mock(MemcachedClientIF.class);
+    CacheLoader cl = new CacheLoader((MemcachedClientIF) m.proxy());
+
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("a", 1);
+
+    Thread.currentThread().interrupt();
+    try {
+      // Nothing is set.
+      cl.loadData(map);
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
   static class LoadCounter implements CacheLoader.StorageListener {
 
     private AtomicInteger exceptions = new AtomicInteger(0);
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the ring queues.
+ */
+public class RingBlockingQueueTest {
+
+  @Test
+  public void shouldRoundCapacityUp() {
+    assertEquals(8, new MpscRingBlockingQueue<String>(5).remainingCapacity());
+    assertEquals(2, new MpscRingBlockingQueue<String>(1).remainingCapacity());
+    assertEquals(1, new SpscRingBlockingQueue<String>(1).remainingCapacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInvalidCapacity() {
+    new MpscRingBlockingQueue<String>(0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void shouldRejectNull() {
+    new SpscRingBlockingQueue<String>(4).offer(null);
+  }
+
+  @Test
+  public void shouldBeFifoMpsc() {
+    assertFifo(new MpscRingBlockingQueue<Integer>(4));
+  }
+
+  @Test
+  public void shouldBeFifoSpsc() {
+    assertFifo(new SpscRingBlockingQueue<Integer>(4));
+  }
+
+  private void assertFifo(BlockingQueue<Integer> q) {
+    assertTrue(q.isEmpty());
+    assertNull(q.peek());
+    assertNull(q.poll());
+    // Go around the ring a few times.
+    for (int lap = 0; lap < 3; lap++) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(q.offer(i));
+      }
+      assertFalse(q.offer(4));
+      assertEquals(4, q.size());
+      assertEquals(0, q.remainingCapacity());
+      List<Integer> seen = new ArrayList<Integer>();
+      for (Integer i : q) {
+        seen.add(i);
+      }
+      assertEquals(4, seen.size());
+      assertEquals(Integer.valueOf(0), q.peek());
+      assertEquals(Integer.valueOf(0), q.poll());
+      List<Integer> drained = new ArrayList<Integer>();
+      assertEquals(2, q.drainTo(drained, 2));
+      assertEquals(Integer.valueOf(1), drained.get(0));
+      assertEquals(Integer.valueOf(3), q.remove());
+      assertTrue(q.isEmpty());
+    }
+  }
+
+  @Test
+  public void shouldTimeOutWhenFull() throws Exception {
+    BlockingQueue<String> q = new MpscRingBlockingQueue<String>(2);
+    assertTrue(q.offer("a", 10, TimeUnit.MILLISECONDS));
+    assertTrue(q.offer("b", 10, TimeUnit.MILLISECONDS));
+    long start = System.nanoTime();
+    assertFalse(q.offer("c", 50, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertNull(new SpscRingBlockingQueue<String>(1).poll(10,
+      TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void shouldWakeUpBlockedProducer() throws Exception {
+    final BlockingQueue<String> q = new SpscRingBlockingQueue<String>(1);
+    q.put("a");
+    final CountDownLatch added = new CountDownLatch(1);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          q.put("b");
+          added.countDown();
+        } catch (InterruptedException e) {
+          // fail below
+        }
+      }
+    };
+    t.start();
+    assertFalse(added.await(50, TimeUnit.MILLISECONDS));
+    assertEquals("a", q.take());
+    assertTrue(added.await(5, TimeUnit.SECONDS));
+    assertEquals("b", q.take());
+  }
+
+  @Test
+  public void shouldNotLoseElementsFromManyProducers() throws Exception {
+    final BlockingQueue<Integer> q = new MpscRingBlockingQueue<Integer>(64);
+    final int producers = 8;
+    final int perProducer = 20000;
+    final AtomicInteger failed = new AtomicInteger();
+    for (int p = 0; p < producers; p++) {
+      final int base = p * perProducer;
+      new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            try {
+              q.put(base + i);
+            } catch (InterruptedException e) {
+              failed.incrementAndGet();
+            }
+          }
+        }
+      }.start();
+    }
+    int[] last = new int[producers];
+    for (int i = 0; i < producers; i++) {
+      last[i] = -1;
+    }
+    for (int n = 0; n < producers * perProducer; n++) {
+      Integer v = q.poll(10, TimeUnit.SECONDS);
+      int p = v / perProducer;
+      // Elements of a single producer keep their order.
+      assertTrue(v % perProducer > last[p]);
+      last[p] = v % perProducer;
+    }
+    assertNull(q.poll());
+    assertEquals(0, failed.get());
+  }
+
+  @Test
+  public void shouldHandOverFromProducerToConsumerThread() throws Exception {
+    final BlockingQueue<Object> q = new SpscRingBlockingQueue<Object>(16);
+    final Object[] sent = new Object[100000];
+    for (int i = 0; i < sent.length; i++) {
+      sent[i] = new Object();
+    }
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (Object o : sent) {
+          try {
+            q.put(o);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    producer.start();
+    for (Object o : sent) {
+      assertSame(o, q.poll(10, TimeUnit.SECONDS));
+    }
+    producer.join();
+  }
+}
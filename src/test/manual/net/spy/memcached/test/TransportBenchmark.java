@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2009-2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.BlockingMemcachedConnection;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.ConnectionFactoryBuilder.Transport;
+import net.spy.memcached.MemcachedClient;
+
+/**
+ * Small test program comparing the selector based and the blocking transport.
+ *
+ * <p>
+ * For each transport, a number of callers issue synchronous gets and sets
+ * against a server on localhost:11211 for a fixed amount of time, after which the
+ * throughput and latency percentiles are printed.
+ * </p>
+ *
+ * <p>
+ * Arguments: [callers] [seconds] [value size].
+ * </p>
+ */
+public final class TransportBenchmark {
+
+  private static final int KEYS = 10000;
+
+  private TransportBenchmark() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    int callers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int size = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+    System.err.printf("Virtual threads available: %s%n",
+      BlockingMemcachedConnection.usesVirtualThreads());
+    for (Transport transport : Transport.values()) {
+      run(transport, callers, seconds, size);
+    }
+  }
+
+  private static void run(Transport transport, int callers, int seconds,
+      int size) throws Exception {
+    final MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setTransport(transport).setDaemon(true).build(),
+      AddrUtil.getAddresses("localhost:11211"));
+    final byte[] value = new byte[size];
+    Arrays.fill(value, (byte) 'v');
+    for (int i = 0; i < KEYS; i++) {
+      client.set("bench" + i, 0, value);
+    }
+    client.waitForQueues(1, TimeUnit.MINUTES);
+
+    final long stop = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    final AtomicLong ops = new AtomicLong();
+    // Latency histogram in microseconds, power of two buckets.
+    final AtomicLong[] buckets = new AtomicLong[32];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new AtomicLong();
+    }
+    final CountDownLatch done = new CountDownLatch(callers);
+    ExecutorService pool = Executors.newFixedThreadPool(callers);
+    for (int c = 0; c < callers; c++) {
+      final int seed = c;
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          int n = seed;
+          try {
+            while (System.nanoTime() < stop) {
+              String key = "bench" + (n++ % KEYS);
+              long start = System.nanoTime();
+              if (n % 10 == 0) {
+                client.set(key, 0, value).get();
+              } else {
+                client.get(key);
+              }
+              long micros = (System.nanoTime() - start) / 1000;
+              buckets[64 - Long.numberOfLeadingZeros(micros)].incrementAndGet();
+              ops.incrementAndGet();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    pool.shutdown();
+    client.shutdown();
+
+    long total = ops.get();
+    System.err.printf("%s: %d callers, %d ops/s, p50 < %dus, p99 < %dus, "
+      + "p99.9 < %dus%n", transport, callers, total / seconds,
+      percentile(buckets, total, 0.5), percentile(buckets, total, 0.99),
+      percentile(buckets, total, 0.999));
+  }
+
+  private static long percentile(AtomicLong[] buckets, long total, double p) {
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i].get();
+      if (seen >= total * p) {
+        return 1L << i;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+}